@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: BenchmarkExecutor.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.ThreadPool;
+import com.softlagos.threadpool.WaitStrategy;
+
+/**
+ * The executors the benchmarks compare: a ThreadPool, and the
+ * java.util.concurrent ThreadPoolExecutor and ForkJoinPool
+ * baselines, each with the same number of threads.
+ *
+ * @author Rubens Gomes
+ */
+abstract class BenchmarkExecutor
+{
+
+    /** A ThreadPool, with listeners called back on the task threads. */
+    static final String THREADPOOL = "threadpool";
+
+    /** A ThreadPool, with one listener dispatcher thread. */
+    static final String THREADPOOL_DISPATCHER = "threadpool-dispatcher";
+
+    /**
+     * A ThreadPool whose idle task threads spin, then park, for up
+     * to 100 usecs before blocking.
+     */
+    static final String THREADPOOL_SPIN = "threadpool-spin";
+
+    /**
+     * A ThreadPool, the tasks pushed as plain Runnables: without
+     * handles, and without notifying their listeners.
+     */
+    static final String THREADPOOL_RUNNABLE = "threadpool-runnable";
+
+    /** A fixed size ThreadPoolExecutor, with an unbounded queue. */
+    static final String TPE = "tpe";
+
+    /** A ForkJoinPool. */
+    static final String FJP = "fjp";
+
+    /**
+     * Creates an executor.
+     *
+     * @param kind one of THREADPOOL, THREADPOOL_DISPATCHER,
+     * THREADPOOL_SPIN, THREADPOOL_RUNNABLE, TPE or FJP.
+     * @param nr_threads the number of threads of the executor.
+     * @return the new executor.
+     */
+    static BenchmarkExecutor create(final String kind, final int nr_threads)
+    {
+        switch(kind)
+        {
+            case THREADPOOL:
+                return new PoolExecutor(new ThreadPool.Builder("Benchmark")
+                        .threads(nr_threads)
+                        .build());
+
+            case THREADPOOL_RUNNABLE:
+                return new RunnableExecutor(new ThreadPool.Builder("Benchmark")
+                        .threads(nr_threads)
+                        .build());
+
+            case THREADPOOL_DISPATCHER:
+                return new PoolExecutor(new ThreadPool.Builder("Benchmark")
+                        .threads(nr_threads)
+                        .listenerDispatchers(1)
+                        .build());
+
+            case THREADPOOL_SPIN:
+                return new PoolExecutor(new ThreadPool.Builder("Benchmark")
+                        .threads(nr_threads)
+                        .waitStrategy(WaitStrategy.SPIN_PARK)
+                        .spinTime(100)
+                        .build());
+
+            case TPE:
+                return new ServiceExecutor(new ThreadPoolExecutor(
+                        nr_threads, nr_threads, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<Runnable>()));
+
+            case FJP:
+                return new ServiceExecutor(new ForkJoinPool(nr_threads));
+
+            default:
+                throw new IllegalArgumentException(
+                        "unknown executor: " + kind);
+        }
+    }
+
+    /**
+     * Runs the given task, as a Task pushed to a ThreadPool, or as a
+     * Runnable executed by an ExecutorService.
+     *
+     * @param task the task to be run.
+     */
+    abstract void execute(Task task);
+
+    /**
+     * Stops the executor, and waits for its threads to stop.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    abstract void shutdown() throws InterruptedException;
+
+    // ------ >>> Private <<< ------
+
+    /** Pushes the tasks to a ThreadPool. */
+    private static class PoolExecutor extends BenchmarkExecutor
+    {
+        PoolExecutor(final ThreadPool pool)
+        {
+            v_pool = pool;
+        }
+
+        @Override
+        void execute(final Task task)
+        {
+            v_pool.pushTask(task);
+        }
+
+        @Override
+        void shutdown() throws InterruptedException
+        {
+            v_pool.shutdownNow();
+            v_pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        final ThreadPool v_pool;
+    }
+
+    /** Pushes the tasks to a ThreadPool as plain Runnables. */
+    private static final class RunnableExecutor extends PoolExecutor
+    {
+        RunnableExecutor(final ThreadPool pool)
+        {
+            super(pool);
+        }
+
+        @Override
+        void execute(final Task task)
+        {
+            v_pool.pushTask((Runnable) task);
+        }
+    }
+
+    /**
+     * Executes the tasks on an ExecutorService.  A Task is a Runnable,
+     * so the same task objects are run by every executor; the
+     * ExecutorService does not notify its listeners.
+     */
+    private static final class ServiceExecutor extends BenchmarkExecutor
+    {
+        ServiceExecutor(final ExecutorService service)
+        {
+            v_service = service;
+        }
+
+        @Override
+        void execute(final Task task)
+        {
+            v_service.execute(task);
+        }
+
+        @Override
+        void shutdown() throws InterruptedException
+        {
+            v_service.shutdownNow();
+            v_service.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        private final ExecutorService v_service;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: BenchmarkMain.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, and writes
+ * their results as JSON, to target/jmh-result.json, unless another
+ * result format is given, so that the results of successive runs
+ * can be kept and compared.
+ *
+ * @author Rubens Gomes
+ */
+public final class BenchmarkMain
+{
+
+    /** Where the results go when no result file is given. */
+    static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    /**
+     * @param args the JMH command line options; java -jar
+     * benchmarks.jar -h lists them.
+     * @throws Exception if the benchmarks could not run.
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        CommandLineOptions cmd_options = new CommandLineOptions(args);
+
+        if( cmd_options.shouldHelp() || cmd_options.shouldList() ||
+            cmd_options.shouldListWithParams() ||
+            cmd_options.shouldListProfilers() ||
+            cmd_options.shouldListResultFormats() )
+        {
+            Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(cmd_options);
+
+        if( ! cmd_options.getResultFormat().hasValue() )
+        {
+            options.resultFormat(ResultFormatType.JSON)
+                .result(cmd_options.getResult().orElse(DEFAULT_RESULT_FILE));
+        }
+
+        new Runner(options.build()).run();
+    }
+
+    // ------ >>> Private <<< ------
+    private BenchmarkMain()
+    {
+    }
+}
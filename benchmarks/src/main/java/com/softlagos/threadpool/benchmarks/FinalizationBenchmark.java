@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: FinalizationBenchmark.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool.benchmarks;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskListener;
+
+/**
+ * The cost of finalizable tasks under sustained submission: four
+ * producers push new tasks, each with a new listener, as fast as a
+ * ThreadPool runs them, in tasks per second.
+ *
+ * The finalizable tasks and listeners override finalize(), as every
+ * Task and TaskListener used to: the JVM registers each one with the
+ * finalizer as it is allocated, and only reclaims it after a garbage
+ * collection has found it unreachable and the finalizer thread has
+ * run it.  The plain ones die young.  Run with -prof gc to compare
+ * the allocation rate and the number and time of the collections.
+ *
+ * @author Rubens Gomes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms256m", "-Xmx256m" })
+@State(Scope.Benchmark)
+public class FinalizationBenchmark
+{
+
+    /** The maximum number of tasks in flight per producer. */
+    static final int WINDOW = 1024;
+
+    /** The kind of tasks and listeners pushed. */
+    @Param({ "plain", "finalizable" })
+    public String tasks;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        v_executor = BenchmarkExecutor.create(BenchmarkExecutor.THREADPOOL,
+                                              4);
+        v_is_finalizable = tasks.equals("finalizable");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException
+    {
+        v_executor.shutdown();
+    }
+
+    /** The tasks in flight of a producer thread. */
+    @State(Scope.Thread)
+    public static class Producer
+    {
+        final Semaphore v_window = new Semaphore(WINDOW);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void push(final Producer producer) throws InterruptedException
+    {
+        producer.v_window.acquire();
+
+        Task task;
+
+        if( v_is_finalizable )
+        {
+            task = new FinalizableTask(producer.v_window);
+            task.addListener(new FinalizableListener());
+        }
+        else
+        {
+            task = new WindowTask(producer.v_window);
+            task.addListener(new EmptyListener());
+        }
+
+        v_executor.execute(task);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** An empty task that frees its slot in the producer window. */
+    private static class WindowTask extends Task
+    {
+        WindowTask(final Semaphore window)
+        {
+            v_window = window;
+        }
+
+        @Override
+        public void run()
+        {
+            v_window.release();
+        }
+
+        private final Semaphore v_window;
+    }
+
+    /** A WindowTask with the empty finalizer tasks used to have. */
+    private static final class FinalizableTask extends WindowTask
+    {
+        FinalizableTask(final Semaphore window)
+        {
+            super(window);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        protected void finalize()
+        {
+            s_nr_finalized++;
+        }
+    }
+
+    /** A listener that ignores its call backs. */
+    private static class EmptyListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+    }
+
+    /** An EmptyListener with the empty finalizer listeners used to have. */
+    private static final class FinalizableListener extends EmptyListener
+    {
+        @Override
+        @SuppressWarnings("deprecation")
+        protected void finalize()
+        {
+            s_nr_finalized++;
+        }
+    }
+
+    /**
+     * Written by the finalizer thread, so that the finalizers are
+     * not empty, which the JVM would not register.
+     */
+    static long s_nr_finalized;
+
+    private BenchmarkExecutor v_executor;
+    private boolean v_is_finalizable;
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HandoffLatencyBenchmark.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.softlagos.threadpool.Task;
+
+/**
+ * The latency from pushing a task to the task running, as seen by
+ * the thread that pushed it, sampled one task at a time:
+ * <ul>
+ * <li>pushToRun: back to back tasks, so the worker has usually not
+ * blocked yet when the next task is pushed.</li>
+ * <li>wakeIdleWorker: each task is pushed to an empty queue whose
+ * worker has been blocked for a millisecond, so the latency includes
+ * the cost of waking it up; a threadpool-spin worker has given up
+ * spinning by then.</li>
+ * </ul>
+ *
+ * @author Rubens Gomes
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class HandoffLatencyBenchmark
+{
+
+    /** The executor benchmarked. */
+    @Param({ BenchmarkExecutor.THREADPOOL,
+             BenchmarkExecutor.THREADPOOL_SPIN, BenchmarkExecutor.TPE,
+             BenchmarkExecutor.FJP })
+    public String executor;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        v_executor = BenchmarkExecutor.create(executor, 1);
+        v_task = new CountingTask(v_nr_runs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException
+    {
+        v_executor.shutdown();
+    }
+
+    /** Lets the worker block on the empty queue before each push. */
+    @State(Scope.Thread)
+    public static class Idle
+    {
+        @Setup(Level.Invocation)
+        public void letWorkerBlock() throws InterruptedException
+        {
+            Thread.sleep(1);
+        }
+    }
+
+    @Benchmark
+    public long pushToRun()
+    {
+        return pushAndWait();
+    }
+
+    @Benchmark
+    public long wakeIdleWorker(final Idle idle)
+    {
+        return pushAndWait();
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** An empty task that counts its runs. */
+    private static final class CountingTask extends Task
+    {
+        CountingTask(final AtomicLong nr_runs)
+        {
+            v_nr_runs = nr_runs;
+        }
+
+        @Override
+        public void run()
+        {
+            v_nr_runs.incrementAndGet();
+        }
+
+        private final AtomicLong v_nr_runs;
+    }
+
+    /**
+     * Pushes the task, and spins until it has run.  The task is only
+     * ever in flight once, so the same one is pushed every time.
+     */
+    private long pushAndWait()
+    {
+        long next = v_nr_runs.get() + 1;
+
+        v_executor.execute(v_task);
+
+        while( v_nr_runs.get() != next )
+        {
+            Thread.onSpinWait();
+        }
+
+        return next;
+    }
+
+    private final AtomicLong v_nr_runs = new AtomicLong();
+    private BenchmarkExecutor v_executor;
+    private Task v_task;
+}
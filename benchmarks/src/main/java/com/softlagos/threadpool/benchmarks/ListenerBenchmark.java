@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ListenerBenchmark.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskListener;
+
+/**
+ * The cost of notifying the listeners of a task: the time from
+ * pushing a task until it has run and all its listeners have been
+ * called back.
+ *
+ * A ThreadPool notifies the TaskListeners, on the task thread or on
+ * a listener dispatcher thread.  The ThreadPoolExecutor and
+ * ForkJoinPool baselines have no listeners: the task calls the same
+ * callbacks itself, at the end of its run, which is the least a
+ * listener mechanism can cost.
+ *
+ * @author Rubens Gomes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class ListenerBenchmark
+{
+
+    /** The executor benchmarked. */
+    @Param({ BenchmarkExecutor.THREADPOOL,
+             BenchmarkExecutor.THREADPOOL_DISPATCHER,
+             BenchmarkExecutor.TPE, BenchmarkExecutor.FJP })
+    public String executor;
+
+    /** The number of listeners of the task. */
+    @Param({ "0", "1", "4" })
+    public int listeners;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        v_executor = BenchmarkExecutor.create(executor, 1);
+
+        boolean is_pool = executor.startsWith(BenchmarkExecutor.THREADPOOL);
+        CountingListener[] callbacks = new CountingListener[listeners];
+
+        for(int i = 0; i < listeners; i++)
+        {
+            callbacks[i] = new CountingListener(v_nr_notified);
+        }
+
+        v_task = new CallbackTask(v_nr_runs, is_pool ?
+                new CountingListener[0] : callbacks);
+
+        if( is_pool )
+        {
+            for(CountingListener listener : callbacks)
+            {
+                v_task.addListener(listener);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException
+    {
+        v_executor.shutdown();
+    }
+
+    @Benchmark
+    public long notifyListeners()
+    {
+        long next = v_nr_runs.get() + 1;
+        long notified = v_nr_notified.get() + listeners;
+
+        v_executor.execute(v_task);
+
+        while( v_nr_runs.get() != next || v_nr_notified.get() != notified )
+        {
+            Thread.onSpinWait();
+        }
+
+        return next;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** A listener that counts its call backs. */
+    private static final class CountingListener extends TaskListener
+    {
+        CountingListener(final AtomicLong nr_notified)
+        {
+            v_nr_notified = nr_notified;
+        }
+
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            v_nr_notified.incrementAndGet();
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+            v_nr_notified.incrementAndGet();
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+            v_nr_notified.incrementAndGet();
+        }
+
+        private final AtomicLong v_nr_notified;
+    }
+
+    /** An empty task that counts its runs, and calls its callbacks. */
+    private static final class CallbackTask extends Task
+    {
+        CallbackTask(final AtomicLong nr_runs,
+                     final CountingListener[] callbacks)
+        {
+            v_nr_runs = nr_runs;
+            v_callbacks = callbacks;
+        }
+
+        @Override
+        public void run()
+        {
+            for(CountingListener callback : v_callbacks)
+            {
+                callback.notifyTaskDone("Done");
+            }
+
+            v_nr_runs.incrementAndGet();
+        }
+
+        private final AtomicLong v_nr_runs;
+        private final CountingListener[] v_callbacks;
+    }
+
+    private final AtomicLong v_nr_runs = new AtomicLong();
+    private final AtomicLong v_nr_notified = new AtomicLong();
+    private BenchmarkExecutor v_executor;
+    private Task v_task;
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: OnDemandLaunchBenchmark.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.softlagos.threadpool.OnDemandTaskThread;
+import com.softlagos.threadpool.Task;
+
+/**
+ * The cost of running a task on a thread of its own, from launching
+ * it to the task running:
+ * <ul>
+ * <li>onDemandTaskThread: a new OnDemandTaskThread, started.</li>
+ * <li>onDemandLaunch: OnDemandTaskThread.launch(), on a cached
+ * thread.</li>
+ * <li>newThread: a new plain Thread, started.</li>
+ * <li>cachedThreadPool: a ThreadPoolExecutor that caches its
+ * threads.</li>
+ * <li>forkJoinPool: a ForkJoinPool.</li>
+ * </ul>
+ *
+ * @author Rubens Gomes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class OnDemandLaunchBenchmark
+{
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        v_cached_pool = Executors.newCachedThreadPool();
+        v_fork_join_pool = new ForkJoinPool();
+        v_task = new CountingTask(v_nr_runs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException
+    {
+        v_cached_pool.shutdownNow();
+        v_fork_join_pool.shutdownNow();
+        v_cached_pool.awaitTermination(10, TimeUnit.SECONDS);
+        v_fork_join_pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public long onDemandTaskThread()
+    {
+        long next = v_nr_runs.get() + 1;
+
+        new OnDemandTaskThread(v_task).start();
+        return await(next);
+    }
+
+    @Benchmark
+    public long onDemandLaunch()
+    {
+        long next = v_nr_runs.get() + 1;
+
+        OnDemandTaskThread.launch(v_task);
+        return await(next);
+    }
+
+    @Benchmark
+    public long newThread()
+    {
+        long next = v_nr_runs.get() + 1;
+
+        new Thread(v_task).start();
+        return await(next);
+    }
+
+    @Benchmark
+    public long cachedThreadPool()
+    {
+        long next = v_nr_runs.get() + 1;
+
+        v_cached_pool.execute(v_task);
+        return await(next);
+    }
+
+    @Benchmark
+    public long forkJoinPool()
+    {
+        long next = v_nr_runs.get() + 1;
+
+        v_fork_join_pool.execute(v_task);
+        return await(next);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** An empty task that counts its runs. */
+    private static final class CountingTask extends Task
+    {
+        CountingTask(final AtomicLong nr_runs)
+        {
+            v_nr_runs = nr_runs;
+        }
+
+        @Override
+        public void run()
+        {
+            v_nr_runs.incrementAndGet();
+        }
+
+        private final AtomicLong v_nr_runs;
+    }
+
+    /**
+     * Spins until the task has run; it is only ever in flight once,
+     * so the same task is launched every time.
+     */
+    private long await(final long next)
+    {
+        while( v_nr_runs.get() != next )
+        {
+            Thread.onSpinWait();
+        }
+
+        return next;
+    }
+
+    private final AtomicLong v_nr_runs = new AtomicLong();
+    private ExecutorService v_cached_pool;
+    private ExecutorService v_fork_join_pool;
+    private Task v_task;
+}
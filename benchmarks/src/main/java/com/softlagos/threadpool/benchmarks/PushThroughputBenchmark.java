@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: PushThroughputBenchmark.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool.benchmarks;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.softlagos.threadpool.Task;
+
+/**
+ * The throughput of pushing empty tasks from 1 to 64 producer
+ * threads at once, in tasks per second.
+ *
+ * Each producer keeps at most WINDOW tasks in flight, so that the
+ * throughput measured is the one the executor sustains, rather than
+ * the speed at which an unbounded queue fills up.
+ *
+ * @author Rubens Gomes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PushThroughputBenchmark
+{
+
+    /** The maximum number of tasks in flight per producer. */
+    static final int WINDOW = 1024;
+
+    /** The executor benchmarked. */
+    @Param({ BenchmarkExecutor.THREADPOOL,
+             BenchmarkExecutor.THREADPOOL_RUNNABLE, BenchmarkExecutor.TPE,
+             BenchmarkExecutor.FJP })
+    public String executor;
+
+    /** The number of threads running the tasks. */
+    @Param({ "4" })
+    public int workers;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        v_executor = BenchmarkExecutor.create(executor, workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException
+    {
+        v_executor.shutdown();
+    }
+
+    /** The tasks in flight of a producer thread. */
+    @State(Scope.Thread)
+    public static class Producer
+    {
+        final Semaphore v_window = new Semaphore(WINDOW);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void producers01(final Producer producer)
+        throws InterruptedException
+    {
+        push(producer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void producers04(final Producer producer)
+        throws InterruptedException
+    {
+        push(producer);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void producers16(final Producer producer)
+        throws InterruptedException
+    {
+        push(producer);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void producers64(final Producer producer)
+        throws InterruptedException
+    {
+        push(producer);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** An empty task that frees its slot in the producer window. */
+    private static final class WindowTask extends Task
+    {
+        WindowTask(final Semaphore window)
+        {
+            v_window = window;
+        }
+
+        @Override
+        public void run()
+        {
+            v_window.release();
+        }
+
+        private final Semaphore v_window;
+    }
+
+    /**
+     * Pushes a new task, a task may only be in flight once, waiting
+     * for a slot in the producer window first.
+     */
+    private void push(final Producer producer) throws InterruptedException
+    {
+        producer.v_window.acquire();
+        v_executor.execute(new WindowTask(producer.v_window));
+    }
+
+    private BenchmarkExecutor v_executor;
+}
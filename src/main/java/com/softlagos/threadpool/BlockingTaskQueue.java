@@ -0,0 +1,591 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: BlockingTaskQueue.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The BlockingTaskQueue is used to store and manage tasks that
+ * are to run by separate threads in the thread pool.  Adding elements
+ * to the queue "notify" a thread that is waiting for tasks.  If no
+ * tasks are available the queue "wait".
+ *
+ * This is the original TaskQueue implementation: an ArrayDeque
+ * guarded by this object monitor.  It is unbounded unless a capacity
+ * is given, in which case producers "wait" for room when the queue
+ * is full.
+ *
+ * @author Rubens Gomes
+ */
+public final class BlockingTaskQueue implements TaskQueue
+{
+
+    /** The Constant logger. */
+    private static final Logger logger =
+            LogManager.getLogger(BlockingTaskQueue.class);
+
+    /** The check of popIdle() for plain pop() calls. */
+    private static final BooleanSupplier NO_WORK = () -> false;
+
+    /**
+     * Instantiates a new unbounded blocking task queue.
+     */
+    public BlockingTaskQueue()
+    {
+        this(0);
+    }
+
+    /**
+     * Instantiates a new blocking task queue.
+     *
+     * @param capacity the maximum number of tasks in the queue, or
+     * zero for an unbounded queue.
+     */
+    public BlockingTaskQueue(final int capacity)
+    {
+
+        if( capacity < 0 )
+        {
+            throw new IllegalArgumentException(
+                    "capacity cannot be negative.");
+        }
+
+        v_queue = new ArrayDeque<Task> ();
+        v_capacity = capacity == 0 ? Integer.MAX_VALUE : capacity;
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed.");
+        }
+
+    }
+
+    /**
+     * Add a task to the task FIFO queue.  Once a task
+     * is called it calls notify to unblock a thread
+     * that is pending on a task to be available.  If the
+     * queue is full this call blocks the current thread
+     * until there is room for the task.
+     *
+     * @param task a task to be run by a thread in the pool.
+     */
+    @Override
+    public synchronized void push(final Task task)
+    {
+        if( task == null )
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        boolean interrupted = false;
+        while( v_queue.size() >= v_capacity )
+        {
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("queue is full: waiting...");
+            }
+
+            try
+            {
+                awaitRoom(0L);
+            }
+            catch(InterruptedException ex)
+            {
+                // push() cannot fail; remember it and carry on waiting.
+                interrupted = true;
+            }
+        }
+
+        add(task);
+
+        if( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a task to the task FIFO queue if there is room for it.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @return true if the task was added, false if the queue is full.
+     */
+    @Override
+    public synchronized boolean offer(final Task task)
+    {
+        if( task == null )
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        if( v_queue.size() >= v_capacity )
+        {
+            return false;
+        }
+
+        add(task);
+        return true;
+    }
+
+    /**
+     * Adds a task to the task FIFO queue, waiting up to the given
+     * time for room if the queue is full.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param timeout how long to wait for room.
+     * @param unit the unit of the timeout.
+     * @return true if the task was added, false if the queue was
+     * still full when the timeout elapsed.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     */
+    @Override
+    public synchronized boolean offer(final Task task,
+                                      final long timeout,
+                                      final TimeUnit unit)
+        throws InterruptedException
+    {
+        if( task == null )
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while( v_queue.size() >= v_capacity )
+        {
+            long remaining = deadline - System.nanoTime();
+
+            if( remaining <= 0L )
+            {
+                return false;
+            }
+
+            awaitRoom(remaining);
+        }
+
+        add(task);
+        return true;
+    }
+
+    /**
+     * Adds as many tasks of a batch as there is room for, in the
+     * collection iteration order, without blocking.
+     *
+     * @param tasks the tasks to be run by threads in the pool.
+     * @return the number of tasks added: the first ones in the
+     * collection.
+     */
+    @Override
+    public synchronized int offerAll(final Collection<? extends Task> tasks)
+    {
+        if( tasks.contains(null) )
+        {
+            throw new IllegalArgumentException("tasks cannot be null.");
+        }
+
+        int nr_added = 0;
+
+        for(Task task : tasks)
+        {
+
+            if( v_queue.size() >= v_capacity )
+            {
+                break;
+            }
+
+            v_queue.add(task);
+            nr_added++;
+        }
+
+        v_size = v_queue.size();
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("added [" + nr_added + "] tasks to the queue.");
+        }
+
+        // spinning consumers will see some of the tasks.
+        int nr_to_wake = nr_added > 0 ?
+            nr_added - v_spinners.claim(nr_added) : 0;
+
+        if( v_nr_producers > 0 || nr_to_wake >= v_nr_waiters )
+        {
+            this.notifyAll();
+        }
+        else
+        {
+            // only wake up as many threads as there are tasks.
+            for(int i = 0; i < nr_to_wake; i++)
+            {
+                this.notify();
+            }
+        }
+
+        return nr_added;
+    }
+
+    /**
+     * Pops a task from the queue.  If no task is
+     * available this call blocks the current thread
+     * by placing the thread on "wait".  The thread
+     * is "woken up" once a task is added to the queue
+     * via the corresponding push(task) call, or when
+     * wakeUp() is called.
+     *
+     * @return pops out the next task in the FIFO queue
+     * to be executed by a task thread, or null if the
+     * thread was woken up but no task was available (for
+     * example, another thread got to the task first, or
+     * the wake up was for work elsewhere in the pool).
+     * @throws InterruptedException if the queue is empty any
+     * thread interrupted the current thread before or while the
+     * current thread was waiting for a notification.
+     */
+    @Override
+    public Task pop() throws InterruptedException
+    {
+        return pop(0L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Pops a task from the queue, waiting for up to the
+     * given time if no task is available.
+     *
+     * @param timeout how long to wait for a task, or zero
+     * to wait until notified.
+     * @param unit the unit of the timeout.
+     * @return the next task in the FIFO queue, or null if
+     * the time elapsed, or the thread was woken up, with
+     * no task available.
+     * @throws InterruptedException if the current thread
+     * was interrupted while waiting for a task.
+     */
+    @Override
+    public Task pop(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+        return popIdle(timeout, unit, NO_WORK);
+    }
+
+    /**
+     * Pops a task from the queue for an idle task thread, waiting
+     * for up to the given time if no task is available, unless the
+     * given check, called once the thread is counted as a waiter,
+     * finds work elsewhere.  wakeUp() notifies under this object
+     * monitor, so work announced after the check is not missed.
+     *
+     * @param timeout how long to wait for a task, or zero
+     * to wait until notified.
+     * @param unit the unit of the timeout.
+     * @param has_work tells whether there is work elsewhere.
+     * @return the next task in the FIFO queue, or null if
+     * the time elapsed, the thread was woken up, or there
+     * is work elsewhere, with no task available.
+     * @throws InterruptedException if the current thread
+     * was interrupted while waiting for a task.
+     */
+    @Override
+    public synchronized Task popIdle(final long timeout, final TimeUnit unit,
+                                     final BooleanSupplier has_work)
+        throws InterruptedException
+    {
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("polling task from queue...");
+        }
+
+        Task task = poll();
+
+        if( task == null )
+        {
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("queue is empty: waiting...");
+            }
+
+            v_nr_waiters++;
+            try
+            {
+                // wakeUp() reads v_nr_waiters after the work is
+                // published, so checking after registering ourselves
+                // guarantees we either see the work or get notified.
+                if( has_work.getAsBoolean() )
+                {
+                    return null;
+                }
+
+                if( timeout <= 0L )
+                {
+                    this.wait();
+                }
+                else
+                {
+                    unit.timedWait(this, timeout);
+                }
+            }
+            finally
+            {
+                v_nr_waiters--;
+            }
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("wait released, polling task again now...");
+            }
+
+            task = poll();
+        }
+
+        return task;
+    }
+
+    /**
+     * Polls a task from the queue without blocking.
+     *
+     * @return the next task in the FIFO queue, or null if
+     * the queue is empty.
+     */
+    @Override
+    public synchronized Task poll()
+    {
+        Task task = v_queue.poll();
+
+        if( task == null )
+        {
+            return null;
+        }
+
+        v_size = v_queue.size();
+
+        if( v_nr_producers > 0 )
+        {
+            // producers and consumers share this monitor, so all
+            // of them are woken up and the producers recheck.
+            this.notifyAll();
+        }
+
+        return task;
+    }
+
+    /**
+     * Removes the oldest task from the queue, without blocking; in
+     * a FIFO queue, it is the next task.
+     *
+     * @return the oldest task, or null if the queue is empty.
+     */
+    @Override
+    public Task pollOldest()
+    {
+        return poll();
+    }
+
+    /**
+     * Removes up to the given number of tasks from the queue, in
+     * FIFO order, without blocking.
+     *
+     * @param tasks the collection the tasks are added to.
+     * @param max_tasks the maximum number of tasks to remove.
+     * @return the number of tasks removed.
+     */
+    @Override
+    public synchronized int drainTo(final Collection<? super Task> tasks,
+                                    final int max_tasks)
+    {
+        int nr_removed = 0;
+        Task task = null;
+
+        while( nr_removed < max_tasks && (task = v_queue.poll()) != null )
+        {
+            tasks.add(task);
+            nr_removed++;
+        }
+
+        v_size = v_queue.size();
+
+        if( nr_removed > 0 && v_nr_producers > 0 )
+        {
+            this.notifyAll();
+        }
+
+        return nr_removed;
+    }
+
+    /**
+     * Wakes up a single thread waiting in pop(), if there is any,
+     * and no spinning consumer will see the work instead.
+     * This is used to tell an idle thread that work has become
+     * available somewhere other than this queue (for example, in a
+     * task thread local deque), so that it can go and steal it.
+     */
+    @Override
+    public void wakeUp()
+    {
+        // cheap unsynchronized checks first: when every thread is busy
+        // there is nobody to wake up and no reason to take the lock.
+        if( v_spinners.claim(1) == 0 && v_nr_waiters > 0 )
+        {
+            synchronized(this)
+            {
+                notifyConsumer();
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks currently in the queue.
+     */
+    @Override
+    public synchronized int size()
+    {
+        return v_queue.size();
+    }
+
+    /**
+     * @return true if the queue holds no task; it does not take the
+     * lock.
+     */
+    @Override
+    public boolean isEmpty()
+    {
+        return v_size == 0;
+    }
+
+    /**
+     * Tells the queue that the calling consumer is about to poll it
+     * in a loop, before it blocks in pop().
+     */
+    @Override
+    public void startSpinning()
+    {
+        v_spinners.startSpinning();
+    }
+
+    /**
+     * Tells the queue that the calling consumer has stopped polling
+     * it in a loop.
+     */
+    @Override
+    public void stopSpinning()
+    {
+        v_spinners.stopSpinning();
+    }
+
+    /**
+     * @return the maximum number of tasks in the queue, or
+     * Integer.MAX_VALUE if the queue is unbounded.
+     */
+    @Override
+    public int getCapacity()
+    {
+        return v_capacity;
+    }
+
+    // ------ >>> private <<< ------
+
+    /**
+     * Adds a task and notifies a consumer.  Must hold the monitor.
+     */
+    private void add(final Task task)
+    {
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("adding task to the queue.");
+        }
+
+        v_queue.add(task);
+        v_size = v_queue.size();
+
+        if( v_spinners.claim(1) == 1 )
+        {
+            // a spinning consumer will see the task.
+            return;
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("notify single thread waiting.");
+        }
+
+        notifyConsumer();
+    }
+
+    /**
+     * Wakes up a thread waiting for a task.  Must hold the monitor.
+     */
+    private void notifyConsumer()
+    {
+        if( v_nr_producers > 0 )
+        {
+            // a single notify could go to a producer waiting for
+            // room instead of to a consumer.
+            this.notifyAll();
+        }
+        else
+        {
+            // only a single thread can execute the task; therefore,
+            // we notify only one of the threads that might be waiting.
+            this.notify();
+        }
+    }
+
+    /**
+     * Waits for a consumer to make room.  Must hold the monitor.
+     *
+     * @param nanos the maximum time to wait, or zero to wait
+     * until notified.
+     */
+    private void awaitRoom(final long nanos) throws InterruptedException
+    {
+        v_nr_producers++;
+        try
+        {
+            if( nanos == 0L )
+            {
+                this.wait();
+            }
+            else
+            {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            }
+        }
+        finally
+        {
+            v_nr_producers--;
+        }
+    }
+
+    /** The v_queue. */
+    private final Queue<Task> v_queue;
+
+    /** The maximum number of tasks in the queue. */
+    private final int v_capacity;
+
+    /** The number of threads blocked in pop(); guarded by this. */
+    private volatile int v_nr_waiters;
+
+    /** The number of threads waiting for room; guarded by this. */
+    private int v_nr_producers;
+
+    /** The number of tasks in the queue, read without the lock. */
+    private volatile int v_size;
+
+    /** The consumers polling the queue in a loop. */
+    private final SpinningConsumers v_spinners = new SpinningConsumers();
+}
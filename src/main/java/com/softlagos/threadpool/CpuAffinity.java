@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: CpuAffinity.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pins the current thread to a CPU, on Linux.
+ *
+ * The thread is pinned with the taskset command, given the Linux
+ * thread id read from /proc/thread-self, rather than by calling
+ * sched_setaffinity(2) through a native library or the Foreign
+ * Function and Memory API, neither of which this library can rely
+ * on being there.  It only costs a process launch when a task
+ * thread starts.  Where taskset or /proc are not available, or the
+ * CPU is not one the process may run on, the thread is not pinned.
+ *
+ * @author Rubens Gomes
+ */
+final class CpuAffinity
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(CpuAffinity.class);
+
+    /**
+     * @return true if the current threads can be pinned to a CPU.
+     */
+    static boolean isSupported()
+    {
+        return Holder.s_taskset != null;
+    }
+
+    /**
+     * Parses a list of CPUs in the Linux format, e.g. "0-3,8".
+     *
+     * @param cpu_list the list of CPUs.
+     * @return the CPUs, in increasing order; or null if the list is
+     * empty.
+     * @throws IllegalArgumentException if the list is not valid.
+     */
+    static int[] parse(final String cpu_list)
+    {
+
+        if( cpu_list == null || cpu_list.trim().isEmpty() )
+        {
+            return null;
+        }
+
+        TreeSet<Integer> cpus = new TreeSet<Integer>();
+
+        try
+        {
+
+            for(String range : cpu_list.split(","))
+            {
+                String[] bounds = range.trim().split("-", 2);
+                int first = Integer.parseInt(bounds[0].trim());
+                int last = bounds.length > 1 ?
+                    Integer.parseInt(bounds[1].trim()) : first;
+
+                if( first < 0 || last < first )
+                {
+                    throw new NumberFormatException(range);
+                }
+
+                for(int cpu = first; cpu <= last; cpu++)
+                {
+                    cpus.add(cpu);
+                }
+            }
+
+        }
+        catch(NumberFormatException ex)
+        {
+            throw new IllegalArgumentException(
+                    "invalid cpu list: " + cpu_list, ex);
+        }
+
+        int[] result = new int[cpus.size()];
+        int i = 0;
+
+        for(int cpu : cpus)
+        {
+            result[i++] = cpu;
+        }
+
+        return result;
+    }
+
+    /**
+     * Pins the current thread to a CPU.
+     *
+     * @param cpu the CPU.
+     * @return false if the thread could not be pinned.
+     */
+    static boolean pin(final int cpu)
+    {
+
+        if( ! isSupported() )
+        {
+            return false;
+        }
+
+        try
+        {
+            String tid = Files.readSymbolicLink(THREAD_SELF)
+                .getFileName().toString();
+            Process process = new ProcessBuilder(Holder.s_taskset,
+                    "-p", "-c", Integer.toString(cpu), tid)
+                .redirectErrorStream(true)
+                .redirectOutput(Redirect.DISCARD)
+                .start();
+
+            if( ! process.waitFor(TASKSET_TIMEOUT, TimeUnit.SECONDS) )
+            {
+                process.destroyForcibly();
+                return false;
+            }
+
+            return process.exitValue() == 0;
+        }
+        catch(IOException ex)
+        {
+
+            if(logger.isWarnEnabled())
+            {
+                logger.warn("cannot pin thread to cpu [" + cpu + "]: " +
+                            ex.getMessage());
+            }
+
+            return false;
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the CPUs the current thread may run on, as listed by
+     * Linux, e.g. "0-3,8"; or an empty string if not known.
+     */
+    static String current()
+    {
+        try
+        {
+
+            for(String line : Files.readAllLines(
+                    THREAD_SELF.resolve("status"), StandardCharsets.UTF_8))
+            {
+
+                if( line.startsWith(CPUS_ALLOWED_LIST) )
+                {
+                    return line.substring(CPUS_ALLOWED_LIST.length()).trim();
+                }
+
+            }
+
+        }
+        catch(IOException ex)
+        {
+            // not Linux: unknown.
+        }
+
+        return "";
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** Links to the /proc directory of the current thread. */
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+
+    private static final String CPUS_ALLOWED_LIST = "Cpus_allowed_list:";
+
+    /** How long, in secs, taskset may take to pin a thread. */
+    private static final long TASKSET_TIMEOUT = 5L;
+
+    /** Looks the taskset command up on first use. */
+    private static final class Holder
+    {
+        private static final String s_taskset;
+
+        static
+        {
+            String taskset = null;
+
+            if( Files.isSymbolicLink(THREAD_SELF) )
+            {
+                String path = System.getenv("PATH");
+
+                for(String dir : (path != null ? path : "").split(
+                        File.pathSeparator))
+                {
+                    File file = new File(dir, "taskset");
+
+                    if( file.canExecute() )
+                    {
+                        taskset = file.getPath();
+                        break;
+                    }
+                }
+            }
+
+            if( taskset == null && logger.isInfoEnabled() )
+            {
+                logger.info("cpu affinity not supported: " +
+                            "no /proc/thread-self or taskset command.");
+            }
+
+            s_taskset = taskset;
+        }
+    }
+
+    private CpuAffinity()
+    {
+    }
+}
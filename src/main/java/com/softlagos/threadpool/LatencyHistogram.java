@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: LatencyHistogram.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A lock-free histogram of durations, in nanoseconds, with one
+ * bucket per power of two: bucket 0 counts the zero durations, and
+ * bucket i, for i &gt; 0, those from 2^(i-1) to 2^i - 1 nanoseconds.
+ *
+ * Recording a duration costs a leading zeros count and a couple of
+ * atomic adds, with no allocation, and the 64 buckets cover any
+ * duration, so the histogram may be left on under full load.  The
+ * price is precision: a percentile is only known to within a factor
+ * of two.  A histogram recorded into by a single thread does without
+ * the atomic adds: it publishes its counts with ordered writes.
+ *
+ * The values read while durations are being recorded are not a
+ * consistent snapshot: each one may miss the latest durations.
+ *
+ * @author Rubens Gomes
+ */
+final class LatencyHistogram
+{
+
+    /** The number of buckets. */
+    static final int BUCKETS = Long.SIZE;
+
+    /**
+     * Instantiates a new, empty, histogram.
+     *
+     * @param is_single_writer true if only one thread at a time
+     * records into the histogram, false if any thread may.
+     */
+    LatencyHistogram(final boolean is_single_writer)
+    {
+        v_counts = new AtomicLongArray(BUCKETS);
+        v_is_single_writer = is_single_writer;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration; a negative one counts as zero.
+     */
+    void record(final long nanos)
+    {
+        int bucket = nanos <= 0L ? 0 :
+            Long.SIZE - Long.numberOfLeadingZeros(nanos);
+
+        if( v_is_single_writer )
+        {
+            v_counts.lazySet(bucket, v_counts.get(bucket) + 1L);
+
+            if( nanos > 0L )
+            {
+                s_sum_updater.lazySet(this, v_sum + nanos);
+
+                if( nanos > v_max )
+                {
+                    s_max_updater.lazySet(this, nanos);
+                }
+            }
+
+            return;
+        }
+
+        v_counts.getAndIncrement(bucket);
+
+        if( nanos <= 0L )
+        {
+            return;
+        }
+
+        s_sum_updater.getAndAdd(this, nanos);
+
+        long max = v_max;
+
+        while( nanos > max && ! s_max_updater.compareAndSet(this, max, nanos) )
+        {
+            max = v_max;
+        }
+    }
+
+    /**
+     * Adds the bucket counts of this histogram to the given ones.
+     *
+     * @param counts the bucket counts, BUCKETS long.
+     */
+    void addTo(final long[] counts)
+    {
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] += v_counts.get(i);
+        }
+    }
+
+    /**
+     * Adds all the durations recorded by another histogram to this
+     * one, which must not be a single writer histogram.
+     *
+     * @param other a histogram no longer recorded into.
+     */
+    void addAll(final LatencyHistogram other)
+    {
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            v_counts.getAndAdd(i, other.v_counts.get(i));
+        }
+
+        s_sum_updater.getAndAdd(this, other.v_sum);
+
+        long max = v_max;
+
+        while( other.v_max > max &&
+               ! s_max_updater.compareAndSet(this, max, other.v_max) )
+        {
+            max = v_max;
+        }
+    }
+
+    /**
+     * @return the sum of the durations recorded.
+     */
+    long getSum()
+    {
+        return v_sum;
+    }
+
+    /**
+     * @return the longest duration recorded.
+     */
+    long getMax()
+    {
+        return v_max;
+    }
+
+    /**
+     * @param counts the bucket counts of a histogram.
+     * @return the number of durations counted.
+     */
+    static long count(final long[] counts)
+    {
+        long count = 0L;
+
+        for(long bucket_count : counts)
+        {
+            count += bucket_count;
+        }
+
+        return count;
+    }
+
+    /**
+     * @param counts the bucket counts of a histogram.
+     * @param fraction the fraction of the durations, from 0 to 1.
+     * @return the upper bound of the bucket that holds the given
+     * percentile; zero if nothing was counted.
+     */
+    static long percentile(final long[] counts, final double fraction)
+    {
+        long count = count(counts);
+
+        if( count == 0L )
+        {
+            return 0L;
+        }
+
+        long rank = Math.max(1L, (long) Math.ceil(fraction * count));
+        long seen = 0L;
+
+        for(int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+
+            if( seen >= rank )
+            {
+                return i == 0 ? 0L : (i == BUCKETS - 1 ?
+                        Long.MAX_VALUE : (1L << i) - 1L);
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final AtomicLongFieldUpdater<LatencyHistogram>
+        s_sum_updater = AtomicLongFieldUpdater.newUpdater(
+                LatencyHistogram.class, "v_sum");
+
+    private static final AtomicLongFieldUpdater<LatencyHistogram>
+        s_max_updater = AtomicLongFieldUpdater.newUpdater(
+                LatencyHistogram.class, "v_max");
+
+    private final AtomicLongArray v_counts;
+    private final boolean v_is_single_writer;
+    private volatile long v_sum;
+    private volatile long v_max;
+}
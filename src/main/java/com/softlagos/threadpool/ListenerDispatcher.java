@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ListenerDispatcher.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Calls the TaskListeners of the tasks of a pool on a few dedicated
+ * dispatcher threads, instead of on the task threads, so that a slow
+ * listener does not hold up a task thread.
+ *
+ * A task thread only publishes an event per listener, without any
+ * locking, and goes back to its next task.  All the events of a
+ * listener go to the same dispatcher, chosen by the listener
+ * identity, so each listener is called back in the order its events
+ * were published, and never by two threads at once.  A dispatcher
+ * delivers the events in batches, parking only when it runs out of
+ * them.
+ *
+ * When its pool terminates, a dispatcher delivers the events left,
+ * and then its threads stop.
+ *
+ * @author Rubens Gomes
+ */
+final class ListenerDispatcher
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(ListenerDispatcher.class);
+
+    /** The maximum number of events delivered between wake ups. */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Instantiates a new listener dispatcher, and starts its
+     * threads.
+     *
+     * @param group the thread group of the dispatcher threads.
+     * @param name_prefix the prefix of the dispatcher thread names.
+     * @param nr_threads the number of dispatcher threads.
+     */
+    ListenerDispatcher(final ThreadGroup group, final String name_prefix,
+                       final int nr_threads)
+    {
+
+        if( nr_threads < 1 )
+        {
+            throw new IllegalArgumentException(
+                    "a listener dispatcher needs at least one thread.");
+        }
+
+        v_lanes = new Lane[nr_threads];
+
+        for(int i = 0; i < nr_threads; i++)
+        {
+            v_lanes[i] = new Lane();
+        }
+
+        for(int i = 0; i < nr_threads; i++)
+        {
+            Thread thread = new Thread(group, v_lanes[i], name_prefix + i);
+            v_lanes[i].v_thread = thread;
+            thread.start();
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed.");
+        }
+
+    }
+
+    /**
+     * Publishes an event, to be delivered to the given listener by
+     * a dispatcher thread.
+     *
+     * @param listener the listener to be notified.
+     * @param status the status of the task.
+     * @param msg some informational message.
+     */
+    void publish(final TaskListener listener, final Task.Status status,
+                 final String msg)
+    {
+        int hash = System.identityHashCode(listener);
+        Lane lane = v_lanes[(hash & Integer.MAX_VALUE) % v_lanes.length];
+
+        lane.v_events.offer(new Event(listener, status, msg));
+
+        // the event is queued before the parked flag is read, and the
+        // dispatcher sets the flag before it looks for events, so one
+        // of the two always sees the other.
+        if( lane.v_is_parked )
+        {
+            LockSupport.unpark(lane.v_thread);
+        }
+    }
+
+    /**
+     * Stops the dispatcher threads once they have delivered the
+     * events already published.
+     */
+    void shutdown()
+    {
+        // a flag, rather than an interrupt, which a listener being
+        // called back could swallow.
+        for(Lane lane : v_lanes)
+        {
+            lane.v_is_stopped = true;
+            LockSupport.unpark(lane.v_thread);
+        }
+    }
+
+    /**
+     * Waits for the dispatcher threads to stop.
+     *
+     * @param nanos how long to wait.
+     * @return false if a dispatcher thread is still running.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     */
+    boolean awaitTermination(final long nanos) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + nanos;
+
+        for(Lane lane : v_lanes)
+        {
+            long remaining = deadline - System.nanoTime();
+
+            if( remaining > 0L )
+            {
+                TimeUnit.NANOSECONDS.timedJoin(lane.v_thread, remaining);
+            }
+
+            if( lane.v_thread.isAlive() )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** A listener call back waiting to be made. */
+    private static final class Event
+    {
+        Event(final TaskListener listener, final Task.Status status,
+              final String msg)
+        {
+            v_listener = listener;
+            v_status = status;
+            v_msg = msg;
+        }
+
+        private final TaskListener v_listener;
+        private final Task.Status v_status;
+        private final String v_msg;
+    }
+
+    /** The events of a dispatcher thread, and its run loop. */
+    private static final class Lane implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            boolean is_stopping = false;
+
+            while( true )
+            {
+                int nr_delivered = deliverBatch();
+
+                if( nr_delivered > 0 )
+                {
+                    continue;
+                }
+
+                if( is_stopping )
+                {
+                    break;
+                }
+
+                v_is_parked = true;
+
+                if( v_events.isEmpty() && ! v_is_stopped )
+                {
+                    LockSupport.park(this);
+                }
+
+                v_is_parked = false;
+
+                if( v_is_stopped )
+                {
+
+                    if(logger.isInfoEnabled())
+                    {
+                        logger.info("stopped: delivering the " +
+                                    "remaining events.");
+                    }
+
+                    is_stopping = true;
+                }
+            }
+        }
+
+        /**
+         * Delivers up to BATCH_SIZE events.
+         *
+         * @return the number of events delivered.
+         */
+        private int deliverBatch()
+        {
+            int nr_delivered = 0;
+            Event event;
+
+            while( nr_delivered < BATCH_SIZE &&
+                   (event = v_events.poll()) != null )
+            {
+                nr_delivered++;
+
+                try
+                {
+                    Task.notifyListener(event.v_listener, event.v_status,
+                                        event.v_msg);
+                }
+                catch(RuntimeException ex)
+                {
+
+                    if(logger.isErrorEnabled())
+                    {
+                        logger.error("task listener failed: " +
+                                     ex.getMessage(), ex);
+                    }
+
+                }
+            }
+
+            return nr_delivered;
+        }
+
+        private final Queue<Event> v_events =
+                new ConcurrentLinkedQueue<Event>();
+        private volatile boolean v_is_parked;
+
+        /** Set by shutdown(): the lane stops once out of events. */
+        private volatile boolean v_is_stopped;
+        private Thread v_thread;
+    }
+
+    private final Lane[] v_lanes;
+}
@@ -8,6 +8,10 @@
  */
 package com.softlagos.threadpool;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -28,6 +32,26 @@ import com.softlagos.util.SystemProperties;
  *
  * task_thread.stopMe(); // only if needed.
  * </pre>
+ * <p>
+ * On Java 21 and later, a task may instead be launched on its own
+ * virtual thread, with the same listener notifications:
+ * </p>
+ * <pre>
+ * Thread thread = OnDemandTaskThread.startVirtual(someTask);
+ *
+ * thread.interrupt(); // only if needed.
+ * </pre>
+ * <p>
+ * For bursts of on-demand tasks, a task may also be launched on a
+ * cached thread: a thread that has run its task parks for the
+ * ThreadPoolConstants.THREADPOOL_ON_DEMAND_KEEP_ALIVE_TIME, and is
+ * reused for the next launched task, without creating a thread:
+ * </p>
+ * <pre>
+ * TaskHandle&lt;?&gt; handle = OnDemandTaskThread.launch(someTask);
+ *
+ * handle.cancel(); // only if needed.
+ * </pre>
  *
  * @author Rubens Gomes
  */
@@ -106,13 +130,18 @@ public final class OnDemandTaskThread extends Thread
 
                 if(logger.isTraceEnabled())
                 {
-                    logger.trace("sleeping for [" +
-                            start_time + "] msecs");
+                    logger.trace("waiting for up to [" +
+                            start_time + "] msecs for the thread to run.");
                 }
 
-                // I need to put myself to sleep for awhile to give the
-                // other thread a chance to start nicely.
-                Thread.sleep(start_time);
+                // returns as soon as the new thread is running, rather
+                // than after the whole start up time.
+                if( ! v_started.await(start_time, TimeUnit.MILLISECONDS) &&
+                    logger.isInfoEnabled() )
+                {
+                    logger.info("thread not running after [" +
+                            start_time + "] msecs.");
+                }
             }
             catch(InterruptedException ex)
             {
@@ -135,79 +164,91 @@ public final class OnDemandTaskThread extends Thread
     }
 
     /**
-     * The thread will run this method after being started.
+     * Launches the given task on its own new virtual thread.  The
+     * task listeners are notified the same way they would be if the
+     * task ran on an OnDemandTaskThread.
+     *
+     * @param task the task to run on its own virtual thread.
+     * @return the started virtual thread.
+     * @throws UnsupportedOperationException if the running JVM does
+     * not support virtual threads.
      */
-    @Override
-    public void run()
+    public static Thread startVirtual(final Task task)
     {
 
-        if(logger.isTraceEnabled())
+        if (task == null)
         {
-            logger.trace("thread run called.");
+            throw new IllegalArgumentException("task cannot be null.");
         }
 
-        while (!v_stop_me)
+        if( ! VirtualThreads.isSupported() )
         {
+            throw new UnsupportedOperationException(
+                    "virtual threads require Java 21 or later.");
+        }
 
-            try
-            {
-                // depending on what run does, it may cause the thread to go
-                // into an "wait" state.  And if the thread is in "wait" state, it
-                // may be "woken up" by an interrupt.
-
-                if(logger.isTraceEnabled())
-                {
-                    logger.trace("thread checking isInterrupted");
-                }
-
-                if (Thread.currentThread().isInterrupted())
-                {
-
-                    if(logger.isTraceEnabled())
-                    {
-                        logger.trace("thread interrupted.");
-                    }
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("launching virtual thread.");
+        }
 
-                    throw new InterruptedException("I have been interrupted");
-                }
+        Thread thread = Holder.s_virtual_factory.newThread(
+                () -> runTask(task));
+        thread.start();
+        return thread;
+    }
 
-                if(logger.isTraceEnabled())
-                {
-                    logger.trace("calling task run()...");
-                }
+    /**
+     * Launches the given task on a cached thread: a thread parked
+     * after running a previous task, or a new one if there is none.
+     * The task timeout, if any, is not applied.
+     *
+     * @param task the task to run on a thread of its own.
+     * @return the handle of the task.
+     */
+    public static TaskHandle<?> launch(final Task task)
+    {
+        return launchHandle(task);
+    }
 
-                v_task.run();
-                v_task.notifyListeners(Task.Status.DONE,  "Done");
-                v_stop_me = true;
-            }
-            catch(InterruptedException ex)
-            {
+    /**
+     * Launches the given task on a cached thread: a thread parked
+     * after running a previous task, or a new one if there is none.
+     * The task timeout, if any, is not applied.
+     *
+     * @param task the task to run on a thread of its own.
+     * @param <T> the type of the task result.
+     * @return the handle that carries the task result.
+     */
+    public static <T> TaskHandle<T> launch(final ResultTask<T> task)
+    {
+        return launchHandle(task);
+    }
 
-                if(logger.isInfoEnabled())
-                {
-                    logger.info("handling interrupt: " + ex.getMessage());
-                }
+    /**
+     * The thread will run this method after being started.
+     */
+    @Override
+    public void run()
+    {
+        v_started.countDown();
 
-                v_task.notifyListeners(Task.Status.INTERRUPTED,
-                                       ex.getMessage());
-                v_stop_me = true;
-            }
-            catch(Exception ex)
-            {
-                if(logger.isInfoEnabled())
-                {
-                    logger.info("handling some error: " + ex.getMessage());
-                }
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("thread run called.");
+        }
 
-                v_task.notifyListeners(Task.Status.FAILED,
-                                       ex.getMessage());
-                v_stop_me = true;
-            }
+        if (!v_stop_me)
+        {
+            runTask(v_task);
         }
+
+        v_stop_me = true;
     }
 
     /**
-     * sets a flag to stop this task thread.
+     * Interrupts this task thread, and waits for it to stop, for
+     * up to the THREADPOOL_SHUTDOWN_WAIT_TIME.
      */
     public void stopMe()
     {
@@ -224,15 +265,18 @@ public final class OnDemandTaskThread extends Thread
 
         if(logger.isTraceEnabled())
         {
-            logger.trace("sleeping for [" +
+            logger.trace("joining for up to [" +
                     shutdown_time + "] msecs");
         }
 
         try
         {
-            // I need to put myself to sleep for awhile to give the
-            // other threads a chance to stop themselves nicely.
-            Thread .sleep(shutdown_time);
+            // returns as soon as the thread has stopped, rather than
+            // after the whole shutdown wait time.
+            if( Thread.currentThread() != this && shutdown_time > 0 )
+            {
+                this.join(shutdown_time);
+            }
         }
         catch(InterruptedException ex)
         {
@@ -247,32 +291,108 @@ public final class OnDemandTaskThread extends Thread
         v_stop_me = true;
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
+    // ---------->> Private <<---------- //
+
+    /** Creates the virtual threads on first use. */
+    private static final class Holder
+    {
+        private static final ThreadFactory s_virtual_factory =
+                VirtualThreads.newFactory("OnDemandVirtualThread-");
+    }
+
+    /** Creates the thread cache on first use. */
+    private static final class CacheHolder
+    {
+        private static final OnDemandThreadCache s_cache =
+            new OnDemandThreadCache("OnDemandCachedThread-",
+                TimeUnit.MILLISECONDS.toNanos(ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_ON_DEMAND_KEEP_ALIVE_TIME,
+                    ThreadPoolConstants.DEFAULT_ON_DEMAND_KEEP_ALIVE_TIME)));
+    }
+
+    /**
+     * Launches a task, with a new handle, on the thread cache.
      */
-    @Override
-    public void finalize()
+    private static <T> TaskHandle<T> launchHandle(final Task task)
     {
-        if(logger.isTraceEnabled())
+
+        if (task == null)
         {
-            logger.trace("finalize called.");
+            throw new IllegalArgumentException("task cannot be null.");
         }
 
-        if(logger.isTraceEnabled())
+        TaskHandle<T> handle = task.newHandle();
+        task.setDispatcher(null);
+        handle.setPushResult(PushResult.QUEUED);
+
+        CacheHolder.s_cache.execute(task);
+        return handle;
+    }
+
+    /**
+     * Runs the task on the current thread, unless the thread has
+     * already been interrupted, and notifies the task listeners.
+     *
+     * @param task the task to be run.
+     */
+    private static void runTask(final Task task)
+    {
+        try
         {
-            logger.trace("calling stopMe()...");
+            // depending on what run does, it may cause the thread to go
+            // into an "wait" state.  And if the thread is in "wait" state, it
+            // may be "woken up" by an interrupt.
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("thread checking isInterrupted");
+            }
+
+            if (Thread.currentThread().isInterrupted())
+            {
+
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("thread interrupted.");
+                }
+
+                throw new InterruptedException("I have been interrupted");
+            }
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("calling task run()...");
+            }
+
+            task.run();
+            task.notifyListeners(Task.Status.DONE,  "Done");
         }
+        catch(InterruptedException ex)
+        {
 
-        stopMe();
+            if(logger.isInfoEnabled())
+            {
+                logger.info("handling interrupt: " + ex.getMessage());
+            }
 
-        if(logger.isTraceEnabled())
+            task.notifyListeners(Task.Status.INTERRUPTED,
+                                 ex.getMessage());
+        }
+        catch(Exception ex)
         {
-            logger.trace("GC collected.");
+            if(logger.isInfoEnabled())
+            {
+                logger.info("handling some error: " + ex.getMessage());
+            }
+
+            task.notifyListeners(Task.Status.FAILED,
+                                 ex.getMessage());
         }
     }
 
-    // ---------->> Private <<---------- //
-
     private final Task v_task;
     private volatile boolean v_stop_me;
+
+    /** Released by the new thread once it is running. */
+    private final CountDownLatch v_started = new CountDownLatch(1);
 }
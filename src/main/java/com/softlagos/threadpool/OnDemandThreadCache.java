@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: OnDemandThreadCache.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs each task on a thread of its own, reusing the threads of the
+ * tasks that have completed.  This is how OnDemandTaskThread.launch()
+ * runs its tasks.
+ *
+ * A thread that has run its task parks, for up to a keep alive time,
+ * waiting for a new one, and then stops.  A task is handed to the
+ * most recently parked thread, whose stack and caches are the
+ * warmest, with a single compare-and-set and an unpark; a new thread
+ * is started only if no thread is parked.  A burst of tasks starts
+ * as many threads as there are tasks running at once.
+ *
+ * The threads are daemon threads, so that the parked ones do not
+ * keep the JVM alive.
+ *
+ * @author Rubens Gomes
+ */
+final class OnDemandThreadCache
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(OnDemandThreadCache.class);
+
+    /**
+     * Instantiates a new, empty, on-demand thread cache.
+     *
+     * @param name_prefix the prefix of the thread names.
+     * @param keep_alive_nanos how long a thread waits for a new task
+     * before it stops.
+     */
+    OnDemandThreadCache(final String name_prefix, final long keep_alive_nanos)
+    {
+
+        if( keep_alive_nanos < 0L )
+        {
+            throw new IllegalArgumentException(
+                    "keep alive time cannot be negative.");
+        }
+
+        v_name_prefix = name_prefix;
+        v_keep_alive_nanos = keep_alive_nanos;
+        v_idle = new ConcurrentLinkedDeque<Carrier>();
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed.");
+        }
+
+    }
+
+    /**
+     * Runs the given task on a parked thread, or on a new one.
+     *
+     * @param task the task to be run.
+     */
+    void execute(final Task task)
+    {
+        Carrier carrier;
+
+        while( (carrier = v_idle.pollFirst()) != null )
+        {
+
+            // fails if the thread has just timed out.
+            if( s_state_updater.compareAndSet(carrier, IDLE, BUSY) )
+            {
+
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("reusing a cached thread.");
+                }
+
+                carrier.v_task = task;
+                LockSupport.unpark(carrier.v_thread);
+                return;
+            }
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("starting a new cached thread.");
+        }
+
+        carrier = new Carrier(task);
+
+        Thread thread = new Thread(carrier,
+                v_name_prefix + v_next_thread_index.getAndIncrement());
+        thread.setDaemon(true);
+        carrier.v_thread = thread;
+        thread.start();
+    }
+
+    /**
+     * @return the number of threads parked, waiting for a task.
+     */
+    int getIdleCount()
+    {
+        return v_idle.size();
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final int BUSY = 0;
+    private static final int IDLE = 1;
+    private static final int RETIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Carrier>
+        s_state_updater = AtomicIntegerFieldUpdater.newUpdater(
+                Carrier.class, "v_state");
+
+    /** A cached thread, and its run loop. */
+    private final class Carrier implements Runnable
+    {
+        Carrier(final Task task)
+        {
+            v_task = task;
+            v_state = BUSY;
+        }
+
+        @Override
+        public void run()
+        {
+            Task task = v_task;
+
+            while( task != null )
+            {
+                v_task = null;
+
+                TaskRunner.run(task);
+
+                // an interrupt of the last task must not reach the
+                // next one.
+                Thread.interrupted();
+
+                task = await();
+            }
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("idle for the keep alive time: stopping.");
+            }
+        }
+
+        /**
+         * Parks until a task is handed over, or the keep alive time
+         * elapses.
+         *
+         * @return the next task, or null if the thread must stop.
+         */
+        private Task await()
+        {
+            long deadline = System.nanoTime() + v_keep_alive_nanos;
+
+            v_state = IDLE;
+            v_idle.offerFirst(this);
+
+            while( true )
+            {
+                Task task = v_task;
+
+                if( task != null )
+                {
+                    return task;
+                }
+
+                if( v_state != IDLE )
+                {
+                    // handed over: the task is on its way.
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                long nanos = deadline - System.nanoTime();
+
+                if( nanos <= 0L )
+                {
+
+                    if( s_state_updater.compareAndSet(this, IDLE, RETIRED) )
+                    {
+                        v_idle.remove(this);
+                        return null;
+                    }
+
+                    continue;
+                }
+
+                LockSupport.parkNanos(this, nanos);
+                Thread.interrupted();
+            }
+        }
+
+        /** The task to run next; handed over by execute(). */
+        private volatile Task v_task;
+
+        /** BUSY, IDLE while parked, or RETIRED once stopping. */
+        volatile int v_state;
+        private Thread v_thread;
+    }
+
+    private final String v_name_prefix;
+    private final long v_keep_alive_nanos;
+
+    /** The parked threads, the most recently parked first. */
+    private final Deque<Carrier> v_idle;
+
+    private final AtomicInteger v_next_thread_index = new AtomicInteger();
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: OverflowPolicy.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * What the ThreadPool does with a task pushed while its bounded
+ * TaskQueue is full.
+ *
+ * @author Rubens Gomes
+ */
+public enum OverflowPolicy
+{
+    /**
+     * Blocks the pushing thread until there is room in the queue, up
+     * to the THREADPOOL_OVERFLOW_BLOCK_TIME; the task is rejected
+     * with a TaskRejectedException if the queue is still full then.
+     */
+    BLOCK,
+
+    /** Rejects the task with a TaskRejectedException. */
+    REJECT,
+
+    /** Runs the task on the pushing thread. */
+    CALLER_RUNS,
+
+    /**
+     * Discards the oldest task in the queue to make room for the
+     * pushed task; in a queue ordered by priority, the oldest of the
+     * lowest priority tasks.  The listeners of the discarded task are notified
+     * that it FAILED.
+     */
+    DISCARD_OLDEST;
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: PaddedCounter.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A long counter that sits alone on its cache line(s).
+ *
+ * Counters that are updated by different threads, such as the
+ * producer and consumer positions of a ring buffer, would otherwise
+ * be laid out next to each other, and every update by one thread
+ * would invalidate the cache line the other thread is using (false
+ * sharing).  The JVM is free to reorder the fields of a class, but
+ * not across the class hierarchy, so the value is padded by fields
+ * declared in a superclass and in this class.
+ *
+ * @author Rubens Gomes
+ */
+final class PaddedCounter extends PaddedCounterValue
+{
+
+    /**
+     * Instantiates a new counter.
+     *
+     * @param initial_value the initial counter value.
+     */
+    PaddedCounter(final long initial_value)
+    {
+        v_value = initial_value;
+    }
+
+    /**
+     * @return the current value.
+     */
+    long get()
+    {
+        return v_value;
+    }
+
+    /**
+     * Atomically sets the value if it currently holds the expected
+     * value.
+     *
+     * @param expect the expected value.
+     * @param update the new value.
+     * @return true if successful.
+     */
+    boolean compareAndSet(final long expect, final long update)
+    {
+        return s_updater.compareAndSet(this, expect, update);
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final AtomicLongFieldUpdater<PaddedCounterValue>
+        s_updater = AtomicLongFieldUpdater.newUpdater(
+                PaddedCounterValue.class, "v_value");
+
+    long p9, p10, p11, p12, p13, p14, p15;
+}
+
+/** The padding before the counter value. */
+abstract class PaddedCounterPadding
+{
+    long p1, p2, p3, p4, p5, p6, p7;
+}
+
+/** The counter value. */
+abstract class PaddedCounterValue extends PaddedCounterPadding
+{
+    protected volatile long v_value;
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Priority.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * The priority a task is pushed with.  A PriorityTaskQueue keeps a
+ * FIFO lane per priority, and takes tasks from the highest priority
+ * lane that is not empty; the other TaskQueue implementations ignore
+ * the priority.
+ *
+ * @author Rubens Gomes
+ */
+public enum Priority
+{
+    /** Urgent tasks, such as health checks or user requests. */
+    HIGH,
+
+    /** The priority of tasks pushed without one. */
+    NORMAL,
+
+    /** Background tasks, such as batch jobs. */
+    LOW;
+}
@@ -0,0 +1,600 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: PriorityTaskQueue.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A task queue with a lock-free FIFO lane per Priority.
+ *
+ * A task is taken from the highest priority lane that is not empty,
+ * so a high priority task never waits behind the backlog of the
+ * lower priority lanes.  To keep low priority tasks from starving,
+ * a task that has waited at the head of a lower priority lane for
+ * longer than the aging time is taken first; when several have, the
+ * one that has waited the longest.  Both push and pop only look at
+ * the head of each lane: their cost does not depend on the number
+ * of queued tasks.
+ *
+ * Priorities only order the tasks in this queue: a task thread that
+ * takes a batch of tasks runs them in the order they were taken.
+ *
+ * As in the RingBufferTaskQueue, the monitor of an internal lock
+ * object is only used to park consumers when the queue is empty.
+ *
+ * @author Rubens Gomes
+ */
+public final class PriorityTaskQueue implements TaskQueue
+{
+
+    /** The Constant logger. */
+    private static final Logger logger =
+            LogManager.getLogger(PriorityTaskQueue.class);
+
+    /** The check of popIdle() for plain pop() calls. */
+    private static final BooleanSupplier NO_WORK = () -> false;
+
+    /**
+     * Instantiates a new priority task queue.
+     *
+     * @param capacity the maximum number of tasks in the queue, all
+     * lanes together, or zero for an unbounded queue.
+     * @param aging_time how long, in msecs, a task may wait at the
+     * head of its lane before it is taken ahead of higher priority
+     * tasks.
+     */
+    public PriorityTaskQueue(final int capacity, final int aging_time)
+    {
+
+        if( capacity < 0 )
+        {
+            throw new IllegalArgumentException(
+                    "capacity cannot be negative.");
+        }
+
+        if( aging_time < 1 )
+        {
+            throw new IllegalArgumentException(
+                    "aging time must be at least 1 msec.");
+        }
+
+        Priority[] priorities = Priority.values();
+
+        v_lanes = newLanes(priorities.length);
+        v_capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        v_aging_nanos = TimeUnit.MILLISECONDS.toNanos(aging_time);
+        v_size = new AtomicInteger(0);
+        v_lock = new Object();
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed with capacity: " + capacity);
+        }
+
+    }
+
+    /**
+     * Adds a task to the lane of its priority.  If the queue is full
+     * the calling thread yields until a consumer makes room for the
+     * task.
+     *
+     * @param task a task to be run by a thread in the pool.
+     */
+    @Override
+    public void push(final Task task)
+    {
+        if( task == null )
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        while( ! offer(task) )
+        {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Tries to add a task to the lane of its priority without
+     * blocking.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @return true if the task was added, false if the queue is full.
+     */
+    @Override
+    public boolean offer(final Task task)
+    {
+        if( task == null )
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        if( reserve(1) == 0 )
+        {
+            return false;
+        }
+
+        add(task);
+        wakeUp();
+        return true;
+    }
+
+    /**
+     * Adds as many tasks of a batch as there is room for, in the
+     * collection iteration order, without blocking.  The room for the
+     * whole batch is reserved at once.
+     *
+     * @param tasks the tasks to be run by threads in the pool.
+     * @return the number of tasks added: the first ones in the
+     * collection.
+     */
+    @Override
+    public int offerAll(final Collection<? extends Task> tasks)
+    {
+        if( tasks.contains(null) )
+        {
+            throw new IllegalArgumentException("tasks cannot be null.");
+        }
+
+        int nr_reserved = reserve(tasks.size());
+        Iterator<? extends Task> it = tasks.iterator();
+
+        for(int i = 0; i < nr_reserved; i++)
+        {
+            add(it.next());
+        }
+
+        // spinning consumers will see some of the tasks.
+        int nr_to_wake = nr_reserved > 0 ?
+            nr_reserved - v_spinners.claim(nr_reserved) : 0;
+
+        if( nr_to_wake > 0 && v_nr_waiters > 0 )
+        {
+            synchronized(v_lock)
+            {
+                // only wake up as many threads as there are tasks.
+                for(int i = 0; i < nr_to_wake && i < v_nr_waiters; i++)
+                {
+                    v_lock.notify();
+                }
+            }
+        }
+
+        return nr_reserved;
+    }
+
+    /**
+     * Tries to add a task to the queue, waiting up to the given time
+     * for room if the queue is full.  As with the RingBufferTaskQueue,
+     * the producer backs off (spin, yield, then increasingly longer
+     * parks) rather than making every consumer signal producers.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param timeout how long to wait for room.
+     * @param unit the unit of the timeout.
+     * @return true if the task was added, false if the queue was
+     * still full when the timeout elapsed.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     */
+    @Override
+    public boolean offer(final Task task, final long timeout,
+                         final TimeUnit unit)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = MIN_BACKOFF_NANOS;
+
+        for(int attempt = 0; ! offer(task); attempt++)
+        {
+            long remaining = deadline - System.nanoTime();
+
+            if( remaining <= 0L )
+            {
+                return false;
+            }
+
+            if( Thread.interrupted() )
+            {
+                throw new InterruptedException("offer interrupted.");
+            }
+
+            if( attempt < SPIN_ATTEMPTS )
+            {
+                Thread.onSpinWait();
+            }
+            else if( attempt < SPIN_ATTEMPTS + YIELD_ATTEMPTS )
+            {
+                Thread.yield();
+            }
+            else
+            {
+                LockSupport.parkNanos(Math.min(backoff, remaining));
+                backoff = Math.min(backoff << 1, MAX_BACKOFF_NANOS);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Pops a task from the queue.  If no task is available this call
+     * parks the current thread until a task is pushed, or until
+     * wakeUp() is called.
+     *
+     * @return the next task, or null if the thread was woken up but
+     * no task was available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    @Override
+    public Task pop() throws InterruptedException
+    {
+        return pop(0L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Pops a task from the queue, parking for up to the given time
+     * if no task is available.
+     *
+     * @param timeout how long to wait for a task, or zero to wait
+     * until notified.
+     * @param unit the unit of the timeout.
+     * @return the next task, or null if the time elapsed, or the
+     * thread was woken up, with no task available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    @Override
+    public Task pop(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+        return popIdle(timeout, unit, NO_WORK);
+    }
+
+    /**
+     * Pops a task from the queue for an idle task thread, parking
+     * for up to the given time if no task is available, unless the
+     * given check, called once the thread is counted as a waiter,
+     * finds work elsewhere.  wakeUp() notifies under the same lock,
+     * so work announced after the check is not missed.
+     *
+     * @param timeout how long to wait for a task, or zero to wait
+     * until notified.
+     * @param unit the unit of the timeout.
+     * @param has_work tells whether there is work elsewhere.
+     * @return the next task, or null if the time elapsed, the
+     * thread was woken up, or there is work elsewhere, with no task
+     * available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    @Override
+    public Task popIdle(final long timeout, final TimeUnit unit,
+                        final BooleanSupplier has_work)
+        throws InterruptedException
+    {
+        Task task = poll();
+
+        if( task != null )
+        {
+            return task;
+        }
+
+        synchronized(v_lock)
+        {
+            v_nr_waiters++;
+            try
+            {
+                // producers read v_nr_waiters after adding their task,
+                // so polling again after registering ourselves
+                // guarantees we either see the task or get notified.
+                task = poll();
+
+                if( task == null && has_work.getAsBoolean() )
+                {
+                    // work elsewhere: the same holds for wakeUp().
+                    return null;
+                }
+
+                if( task == null )
+                {
+
+                    if(logger.isTraceEnabled())
+                    {
+                        logger.trace("queue is empty: waiting...");
+                    }
+
+                    if( timeout <= 0L )
+                    {
+                        v_lock.wait();
+                    }
+                    else
+                    {
+                        unit.timedWait(v_lock, timeout);
+                    }
+                }
+            }
+            finally
+            {
+                v_nr_waiters--;
+            }
+        }
+
+        return task != null ? task : poll();
+    }
+
+    /**
+     * Polls a task from the queue without blocking: the oldest task
+     * of a lower priority lane that has waited longer than the aging
+     * time, if any, or else the head of the highest priority lane
+     * that is not empty.
+     *
+     * @return the next task, or null if the queue is empty.
+     */
+    @Override
+    public Task poll()
+    {
+        Task task = pollAged();
+
+        if( task != null )
+        {
+            return task;
+        }
+
+        for(Queue<Task> lane : v_lanes)
+        {
+            task = lane.poll();
+
+            if( task != null )
+            {
+                v_size.decrementAndGet();
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the oldest task of the lowest priority lane that is not
+     * empty, without blocking: the task a full queue discards first,
+     * rather than the one poll() would run next.
+     *
+     * @return the oldest lowest priority task, or null if the queue
+     * is empty.
+     */
+    @Override
+    public Task pollOldest()
+    {
+
+        for(int i = v_lanes.length - 1; i >= 0; i--)
+        {
+            Task task = v_lanes[i].poll();
+
+            if( task != null )
+            {
+                v_size.decrementAndGet();
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes up to the given number of tasks from the queue, in
+     * the order poll() would return them, without blocking.
+     *
+     * @param tasks the collection the tasks are added to.
+     * @param max_tasks the maximum number of tasks to remove.
+     * @return the number of tasks removed.
+     */
+    @Override
+    public int drainTo(final Collection<? super Task> tasks,
+                       final int max_tasks)
+    {
+        int nr_removed = 0;
+        Task task;
+
+        while( nr_removed < max_tasks && (task = poll()) != null )
+        {
+            tasks.add(task);
+            nr_removed++;
+        }
+
+        return nr_removed;
+    }
+
+    /**
+     * Wakes up a single thread waiting in pop(), if there is any,
+     * and no spinning consumer will see the work instead.
+     */
+    @Override
+    public void wakeUp()
+    {
+        if( v_spinners.claim(1) == 0 && v_nr_waiters > 0 )
+        {
+            synchronized(v_lock)
+            {
+                v_lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Tells the queue that the calling consumer is about to poll it
+     * in a loop, before it blocks in pop().
+     */
+    @Override
+    public void startSpinning()
+    {
+        v_spinners.startSpinning();
+    }
+
+    /**
+     * Tells the queue that the calling consumer has stopped polling
+     * it in a loop.
+     */
+    @Override
+    public void stopSpinning()
+    {
+        v_spinners.stopSpinning();
+    }
+
+    /**
+     * @return the approximate number of tasks in the queue.
+     */
+    @Override
+    public int size()
+    {
+        return v_size.get();
+    }
+
+    /**
+     * @return the maximum number of tasks in the queue, or
+     * Integer.MAX_VALUE if it is unbounded.
+     */
+    @Override
+    public int getCapacity()
+    {
+        return v_capacity;
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final int SPIN_ATTEMPTS = 64;
+    private static final int YIELD_ATTEMPTS = 64;
+    private static final long MIN_BACKOFF_NANOS = 1000L;
+    private static final long MAX_BACKOFF_NANOS = 1000000L;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Queue<Task>[] newLanes(final int nr_lanes)
+    {
+        Queue<Task>[] lanes = new Queue[nr_lanes];
+
+        for(int i = 0; i < nr_lanes; i++)
+        {
+            lanes[i] = new ConcurrentLinkedQueue<Task>();
+        }
+
+        return lanes;
+    }
+
+    /**
+     * Reserves room for up to the given number of tasks.
+     *
+     * @return the number of tasks there is room for.
+     */
+    private int reserve(final int nr_tasks)
+    {
+        while( true )
+        {
+            int size = v_size.get();
+            int nr_reserved = Math.min(nr_tasks, v_capacity - size);
+
+            if( nr_reserved <= 0 )
+            {
+                return 0;
+            }
+
+            if( v_size.compareAndSet(size, size + nr_reserved) )
+            {
+                return nr_reserved;
+            }
+        }
+    }
+
+    /**
+     * Adds a task, for which room has been reserved, to its lane.
+     */
+    private void add(final Task task)
+    {
+        task.setQueuedAt(System.nanoTime());
+        v_lanes[task.getPriority().ordinal()].offer(task);
+    }
+
+    /**
+     * @return the oldest task at the head of a lower priority lane
+     * that has waited longer than the aging time, or null.
+     */
+    private Task pollAged()
+    {
+        Queue<Task> oldest_lane = null;
+        long oldest_queued_at = 0L;
+        long now = 0L;
+
+        for(int i = 1; i < v_lanes.length; i++)
+        {
+            Task head = v_lanes[i].peek();
+
+            if( head == null )
+            {
+                continue;
+            }
+
+            if( now == 0L )
+            {
+                now = System.nanoTime();
+            }
+
+            long queued_at = head.getQueuedAt();
+
+            if( now - queued_at > v_aging_nanos &&
+                ( oldest_lane == null || queued_at - oldest_queued_at < 0 ) )
+            {
+                oldest_lane = v_lanes[i];
+                oldest_queued_at = queued_at;
+            }
+        }
+
+        if( oldest_lane == null )
+        {
+            return null;
+        }
+
+        // another consumer may have taken that head: then this takes
+        // the next task in the same lane, which is fine.
+        Task task = oldest_lane.poll();
+
+        if( task != null )
+        {
+            v_size.decrementAndGet();
+        }
+
+        return task;
+    }
+
+    /** A FIFO lane per Priority, indexed by the priority ordinal. */
+    private final Queue<Task>[] v_lanes;
+    private final int v_capacity;
+    private final long v_aging_nanos;
+
+    /** The number of tasks in, or being added to, the lanes. */
+    private final AtomicInteger v_size;
+
+    /** The lock consumers park on when the queue is empty. */
+    private final Object v_lock;
+
+    /** The number of threads parked in pop(); guarded by v_lock. */
+    private volatile int v_nr_waiters;
+
+    /** The consumers polling the queue in a loop. */
+    private final SpinningConsumers v_spinners = new SpinningConsumers();
+}
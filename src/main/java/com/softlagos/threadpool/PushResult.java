@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: PushResult.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * What happened to a task pushed to the ThreadPool.  A caller that
+ * sees anything other than QUEUED knows the pool is saturated, and
+ * may shed load of its own.  A task that could not be accepted at
+ * all is reported with a TaskRejectedException instead.
+ *
+ * @author Rubens Gomes
+ */
+public enum PushResult
+{
+    /** The task was queued right away. */
+    QUEUED(null),
+
+    /** The task was queued after waiting for room in the queue. */
+    QUEUED_AFTER_BLOCKING(OverflowPolicy.BLOCK),
+
+    /** The task was run, to completion, on the pushing thread. */
+    RAN_ON_CALLER(OverflowPolicy.CALLER_RUNS),
+
+    /** The task was queued, and the oldest queued task discarded. */
+    QUEUED_DISCARDING_OLDEST(OverflowPolicy.DISCARD_OLDEST);
+
+    /**
+     * @return the overflow policy that was applied to the task, or
+     * null if the queue was not full.
+     */
+    public OverflowPolicy getPolicy()
+    {
+        return v_policy;
+    }
+
+    // ------ >>> Private <<< ------
+    private PushResult(final OverflowPolicy policy)
+    {
+        v_policy = policy;
+    }
+
+    private final OverflowPolicy v_policy;
+}
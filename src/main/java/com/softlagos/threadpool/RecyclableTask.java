@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: RecyclableTask.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * A task that is reused, rather than left to the garbage collector,
+ * once it has run.
+ *
+ * A recyclable task is obtained from a TaskRecycler, set up, and
+ * pushed with ThreadPool.pushTask(RecyclableTask), which does not
+ * create a TaskHandle for it.  Once the task has run and its
+ * listeners have been notified, the thread that ran it resets it and
+ * returns it to the free list of the recycler, from which it may be
+ * obtained again right away: nothing may refer to the task once it
+ * has been pushed.
+ *
+ * Together, the two make pushing a task, running it and notifying
+ * its listeners allocate nothing, once the recycler holds enough
+ * tasks; but for the PriorityTaskQueue, whose lanes allocate a node
+ * per task queued.  A recyclable task has no handle, so it can be
+ * neither cancelled nor given a timeout, and it cannot be scheduled
+ * at a fixed rate.
+ *
+ * @author Rubens Gomes
+ */
+public abstract class RecyclableTask extends Task
+{
+
+    /**
+     * Clears the state of the task, before it is returned to the
+     * free list of its recycler.  It is called on the thread that ran
+     * the task, once its listeners have been notified; the listeners
+     * themselves have already been removed.
+     */
+    protected abstract void reset();
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * @param recycler the recycler the task is returned to once it
+     * has run.
+     */
+    void setRecycler(final TaskRecycler<?> recycler)
+    {
+        v_recycler = recycler;
+    }
+
+    /**
+     * Resets the task, and returns it to its recycler, if it was
+     * obtained from one.
+     */
+    void recycle()
+    {
+
+        if( v_recycler == null )
+        {
+            return;
+        }
+
+        clear();
+        reset();
+        v_recycler.release(this);
+    }
+
+    /**
+     * @return the next task in the free list of the recycler.
+     */
+    RecyclableTask getNextFree()
+    {
+        return v_next_free;
+    }
+
+    /**
+     * @param task the next task in the free list of the recycler.
+     */
+    void setNextFree(final RecyclableTask task)
+    {
+        v_next_free = task;
+    }
+
+    // ------ >>> Protected <<< ------
+    protected RecyclableTask()
+    {
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The recycler the task came from, or null. */
+    private TaskRecycler<?> v_recycler;
+
+    /** The link of the free list the task is in, if any. */
+    private RecyclableTask v_next_free;
+}
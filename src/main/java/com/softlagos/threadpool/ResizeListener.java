@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ResizeListener.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * A listener that is interested in knowing when an elastic
+ * ThreadPool adds or retires a task thread, for instance to
+ * correlate the pool size with task latency.
+ *
+ * The call backs are made on the thread that caused the resize:
+ * a thread pushing a task, or a task thread of the pool.  They
+ * should return quickly.
+ *
+ * @author Rubens Gomes
+ */
+public abstract class ResizeListener
+{
+
+    /**
+     * The listener will get a call back on this method when the
+     * pool has started a new task thread.
+     *
+     * @param pool_name the name of the pool.
+     * @param nr_threads the number of task threads after the resize.
+     * @param reason why the task thread was added.
+     */
+    public abstract void notifyThreadAdded(String pool_name,
+                                           int nr_threads,
+                                           String reason);
+
+    /**
+     * The listener will get a call back on this method when a task
+     * thread of the pool has retired.
+     *
+     * @param pool_name the name of the pool.
+     * @param nr_threads the number of task threads after the resize.
+     * @param reason why the task thread retired.
+     */
+    public abstract void notifyThreadRetired(String pool_name,
+                                             int nr_threads,
+                                             String reason);
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ResultTask.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * A task that computes a result.
+ *
+ * Whatever the task needs to perform should be implemented inside
+ * the compute() method.  When the task is pushed to a ThreadPool,
+ * the returned TaskHandle carries the result of compute(), or the
+ * exception, checked or not, it threw.
+ *
+ * @param <T> the type of the result.
+ *
+ * @author Rubens Gomes
+ */
+public abstract class ResultTask<T> extends Task
+{
+
+    /**
+     * This method should contain whatever code the task needs to
+     * execute in its own thread.
+     *
+     * @return the result of the task.
+     * @throws Exception if the task failed.
+     */
+    protected abstract T compute() throws Exception;
+
+    /**
+     * Runs compute(), discarding its result.  A checked exception is
+     * rethrown wrapped in a RuntimeException.
+     */
+    @Override
+    public final void run()
+    {
+        try
+        {
+            compute();
+        }
+        catch(RuntimeException ex)
+        {
+            throw ex;
+        }
+        catch(Exception ex)
+        {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @return the handle of the last push of this task, or null if
+     * it has not been pushed.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public TaskHandle<T> getHandle()
+    {
+        return (TaskHandle<T>) super.getHandle();
+    }
+
+    /**
+     * Pushes this task to the local deque of the current task
+     * thread, as Task.fork() does.
+     *
+     * @return the handle that carries the task result once it has
+     * run; its join() returns the result.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public TaskHandle<T> fork()
+    {
+        return (TaskHandle<T>) super.fork();
+    }
+
+    // ------ >>> Package <<< ------
+
+    @Override
+    Object execute() throws Exception
+    {
+        return compute();
+    }
+
+    // ------ >>> Protected <<< ------
+    protected ResultTask()
+    {
+    }
+}
@@ -0,0 +1,592 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: RingBufferTaskQueue.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A bounded, pre-allocated, lock-free, multi-producer/multi-consumer
+ * FIFO task queue.
+ *
+ * The queue is a ring of slots, each one with its own sequence
+ * number (D. Vyukov's bounded MPMC queue).  A slot sequence tells
+ * producers and consumers whose turn it is to use the slot, so a
+ * push or a poll costs one CAS on the shared producer or consumer
+ * position plus a couple of memory writes, and never takes a lock.
+ * The producer and consumer positions are padded so that they do
+ * not share a cache line.
+ *
+ * The monitor of an internal lock object is only used to park
+ * consumers when the queue is empty, and producers only touch it
+ * when some consumer is actually parked.
+ *
+ * @author Rubens Gomes
+ */
+public final class RingBufferTaskQueue implements TaskQueue
+{
+
+    /** The Constant logger. */
+    private static final Logger logger =
+            LogManager.getLogger(RingBufferTaskQueue.class);
+
+    /** The check of popIdle() for plain pop() calls. */
+    private static final BooleanSupplier NO_WORK = () -> false;
+
+    /**
+     * Instantiates a new ring buffer task queue.
+     *
+     * @param capacity the maximum number of tasks in the queue,
+     * rounded up to the next power of two.
+     */
+    public RingBufferTaskQueue(final int capacity)
+    {
+
+        if( capacity < 2 || capacity > (1 << 30) )
+        {
+            throw new IllegalArgumentException(
+                    "capacity must be between 2 and 2^30.");
+        }
+
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+
+        v_mask = size - 1;
+        v_tasks = new Task[size];
+        v_sequences = new AtomicLongArray(size);
+
+        for(int i = 0; i < size; i++)
+        {
+            v_sequences.set(i, i);
+        }
+
+        v_tail = new PaddedCounter(0L);
+        v_head = new PaddedCounter(0L);
+        v_lock = new Object();
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed with capacity: " + size);
+        }
+
+    }
+
+    /**
+     * Adds a task to the queue.  If the queue is full the calling
+     * thread yields until a consumer makes room for the task.
+     *
+     * @param task a task to be run by a thread in the pool.
+     */
+    @Override
+    public void push(final Task task)
+    {
+        if( task == null )
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        while( ! offer(task) )
+        {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Tries to add a task to the queue without blocking.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @return true if the task was added, false if the queue is full.
+     */
+    @Override
+    public boolean offer(final Task task)
+    {
+        if( task == null )
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        long tail = v_tail.get();
+
+        while( true )
+        {
+            int index = (int) (tail & v_mask);
+            long diff = v_sequences.get(index) - tail;
+
+            if( diff == 0 )
+            {
+                if( v_tail.compareAndSet(tail, tail + 1) )
+                {
+                    v_tasks[index] = task;
+
+                    // a full volatile write (not lazySet) so that this
+                    // store is ordered before the waiters read below.
+                    v_sequences.set(index, tail + 1);
+                    wakeUp();
+                    return true;
+                }
+                tail = v_tail.get();
+            }
+            else if( diff < 0 )
+            {
+                // the slot still holds a task from one lap ago.
+                return false;
+            }
+            else
+            {
+                // another producer took this slot.
+                tail = v_tail.get();
+            }
+        }
+    }
+
+    /**
+     * Adds as many tasks of a batch as there is room for, in the
+     * collection iteration order, without blocking.  The slots for
+     * the whole batch are claimed with a single CAS.
+     *
+     * @param tasks the tasks to be run by threads in the pool.
+     * @return the number of tasks added: the first ones in the
+     * collection.
+     */
+    @Override
+    public int offerAll(final Collection<? extends Task> tasks)
+    {
+        if( tasks.contains(null) )
+        {
+            throw new IllegalArgumentException("tasks cannot be null.");
+        }
+
+        int wanted = Math.min(tasks.size(), v_tasks.length);
+
+        if( wanted == 0 )
+        {
+            return 0;
+        }
+
+        long tail;
+        int nr_claimed;
+
+        while( true )
+        {
+            tail = v_tail.get();
+            nr_claimed = 0;
+
+            // count the consecutive slots that are free in this lap.
+            while( nr_claimed < wanted &&
+                   v_sequences.get((int) ((tail + nr_claimed) & v_mask))
+                       == tail + nr_claimed )
+            {
+                nr_claimed++;
+            }
+
+            if( nr_claimed == 0 )
+            {
+                if( v_sequences.get((int) (tail & v_mask)) < tail )
+                {
+                    // the slot still holds a task from one lap ago.
+                    return 0;
+                }
+            }
+            else if( v_tail.compareAndSet(tail, tail + nr_claimed) )
+            {
+                break;
+            }
+        }
+
+        Iterator<? extends Task> it = tasks.iterator();
+
+        for(int i = 0; i < nr_claimed; i++)
+        {
+            int index = (int) ((tail + i) & v_mask);
+            v_tasks[index] = it.next();
+            v_sequences.set(index, tail + i + 1);
+        }
+
+        // spinning consumers will see some of the tasks.
+        int nr_to_wake = nr_claimed - v_spinners.claim(nr_claimed);
+
+        if( nr_to_wake > 0 && v_nr_waiters > 0 )
+        {
+            synchronized(v_lock)
+            {
+                // only wake up as many threads as there are tasks.
+                for(int i = 0; i < nr_to_wake && i < v_nr_waiters; i++)
+                {
+                    v_lock.notify();
+                }
+            }
+        }
+
+        return nr_claimed;
+    }
+
+    /**
+     * Tries to add a task to the queue, waiting up to the given time
+     * for room if the queue is full.  A full ring buffer is expected
+     * to be rare and short lived, so the producer backs off (spin,
+     * yield, then increasingly longer parks) rather than making every
+     * consumer pay for signaling producers.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param timeout how long to wait for room.
+     * @param unit the unit of the timeout.
+     * @return true if the task was added, false if the queue was
+     * still full when the timeout elapsed.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     */
+    @Override
+    public boolean offer(final Task task, final long timeout,
+                         final TimeUnit unit)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = MIN_BACKOFF_NANOS;
+
+        for(int attempt = 0; ! offer(task); attempt++)
+        {
+            long remaining = deadline - System.nanoTime();
+
+            if( remaining <= 0L )
+            {
+                return false;
+            }
+
+            if( Thread.interrupted() )
+            {
+                throw new InterruptedException("offer interrupted.");
+            }
+
+            if( attempt < SPIN_ATTEMPTS )
+            {
+                Thread.onSpinWait();
+            }
+            else if( attempt < SPIN_ATTEMPTS + YIELD_ATTEMPTS )
+            {
+                Thread.yield();
+            }
+            else
+            {
+                LockSupport.parkNanos(Math.min(backoff, remaining));
+                backoff = Math.min(backoff << 1, MAX_BACKOFF_NANOS);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Pops a task from the queue.  If no task is available this call
+     * parks the current thread until a task is pushed, or until
+     * wakeUp() is called.
+     *
+     * @return the next task in the queue, or null if the thread was
+     * woken up but no task was available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    @Override
+    public Task pop() throws InterruptedException
+    {
+        return pop(0L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Pops a task from the queue, parking for up to the given time
+     * if no task is available.
+     *
+     * @param timeout how long to wait for a task, or zero to wait
+     * until notified.
+     * @param unit the unit of the timeout.
+     * @return the next task in the queue, or null if the time
+     * elapsed, or the thread was woken up, with no task available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    @Override
+    public Task pop(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+        return popIdle(timeout, unit, NO_WORK);
+    }
+
+    /**
+     * Pops a task from the queue for an idle task thread, parking
+     * for up to the given time if no task is available, unless the
+     * given check, called once the thread is counted as a waiter,
+     * finds work elsewhere.  wakeUp() notifies under the same lock,
+     * so work announced after the check is not missed.
+     *
+     * @param timeout how long to wait for a task, or zero to wait
+     * until notified.
+     * @param unit the unit of the timeout.
+     * @param has_work tells whether there is work elsewhere.
+     * @return the next task in the queue, or null if the time
+     * elapsed, the thread was woken up, or there is work elsewhere,
+     * with no task available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    @Override
+    public Task popIdle(final long timeout, final TimeUnit unit,
+                        final BooleanSupplier has_work)
+        throws InterruptedException
+    {
+        Task task = poll();
+
+        if( task != null )
+        {
+            return task;
+        }
+
+        synchronized(v_lock)
+        {
+            v_nr_waiters++;
+            try
+            {
+                // producers read v_nr_waiters after publishing their
+                // task, so polling again after registering ourselves
+                // guarantees we either see the task or get notified.
+                task = poll();
+
+                if( task == null && has_work.getAsBoolean() )
+                {
+                    // work elsewhere: the same holds for wakeUp().
+                    return null;
+                }
+
+                if( task == null )
+                {
+
+                    if(logger.isTraceEnabled())
+                    {
+                        logger.trace("queue is empty: waiting...");
+                    }
+
+                    if( timeout <= 0L )
+                    {
+                        v_lock.wait();
+                    }
+                    else
+                    {
+                        unit.timedWait(v_lock, timeout);
+                    }
+                }
+            }
+            finally
+            {
+                v_nr_waiters--;
+            }
+        }
+
+        return task != null ? task : poll();
+    }
+
+    /**
+     * Polls a task from the queue without blocking.
+     *
+     * @return the next task in the FIFO queue, or null if the queue
+     * is empty.
+     */
+    @Override
+    public Task poll()
+    {
+        long head = v_head.get();
+
+        while( true )
+        {
+            int index = (int) (head & v_mask);
+            long diff = v_sequences.get(index) - (head + 1);
+
+            if( diff == 0 )
+            {
+                if( v_head.compareAndSet(head, head + 1) )
+                {
+                    Task task = v_tasks[index];
+                    v_tasks[index] = null;
+
+                    // hand the slot over to the producers of the next lap.
+                    v_sequences.lazySet(index, head + v_mask + 1);
+                    return task;
+                }
+                head = v_head.get();
+            }
+            else if( diff < 0 )
+            {
+                // the slot has not been filled yet: empty.
+                return null;
+            }
+            else
+            {
+                // another consumer took this slot.
+                head = v_head.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest task from the queue, without blocking; in
+     * a FIFO queue, it is the next task.
+     *
+     * @return the oldest task, or null if the queue is empty.
+     */
+    @Override
+    public Task pollOldest()
+    {
+        return poll();
+    }
+
+    /**
+     * Removes up to the given number of tasks from the queue, in
+     * FIFO order, without blocking.  The slots of the whole batch
+     * are claimed with a single CAS.
+     *
+     * @param tasks the collection the tasks are added to.
+     * @param max_tasks the maximum number of tasks to remove.
+     * @return the number of tasks removed.
+     */
+    @Override
+    public int drainTo(final Collection<? super Task> tasks,
+                       final int max_tasks)
+    {
+        int wanted = Math.min(max_tasks, v_tasks.length);
+
+        if( wanted <= 0 )
+        {
+            return 0;
+        }
+
+        long head;
+        int nr_claimed;
+
+        while( true )
+        {
+            head = v_head.get();
+            nr_claimed = 0;
+
+            // count the consecutive slots that are filled in this lap.
+            while( nr_claimed < wanted &&
+                   v_sequences.get((int) ((head + nr_claimed) & v_mask))
+                       == head + nr_claimed + 1 )
+            {
+                nr_claimed++;
+            }
+
+            if( nr_claimed == 0 )
+            {
+                if( v_sequences.get((int) (head & v_mask)) < head + 1 )
+                {
+                    // the slot has not been filled yet: empty.
+                    return 0;
+                }
+            }
+            else if( v_head.compareAndSet(head, head + nr_claimed) )
+            {
+                break;
+            }
+        }
+
+        for(int i = 0; i < nr_claimed; i++)
+        {
+            int index = (int) ((head + i) & v_mask);
+            tasks.add(v_tasks[index]);
+            v_tasks[index] = null;
+            v_sequences.lazySet(index, head + i + v_mask + 1);
+        }
+
+        return nr_claimed;
+    }
+
+    /**
+     * Wakes up a single thread waiting in pop(), if there is any,
+     * and no spinning consumer will see the work instead.
+     */
+    @Override
+    public void wakeUp()
+    {
+        if( v_spinners.claim(1) == 0 && v_nr_waiters > 0 )
+        {
+            synchronized(v_lock)
+            {
+                v_lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Tells the queue that the calling consumer is about to poll it
+     * in a loop, before it blocks in pop().
+     */
+    @Override
+    public void startSpinning()
+    {
+        v_spinners.startSpinning();
+    }
+
+    /**
+     * Tells the queue that the calling consumer has stopped polling
+     * it in a loop.
+     */
+    @Override
+    public void stopSpinning()
+    {
+        v_spinners.stopSpinning();
+    }
+
+    /**
+     * @return the approximate number of tasks in the queue.
+     */
+    @Override
+    public int size()
+    {
+        long size = v_tail.get() - v_head.get();
+        return size > 0 ? (int) size : 0;
+    }
+
+    /**
+     * @return the maximum number of tasks in the queue.
+     */
+    @Override
+    public int getCapacity()
+    {
+        return v_tasks.length;
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final int SPIN_ATTEMPTS = 64;
+    private static final int YIELD_ATTEMPTS = 64;
+    private static final long MIN_BACKOFF_NANOS = 1000L;
+    private static final long MAX_BACKOFF_NANOS = 1000000L;
+
+    private final int v_mask;
+    private final Task[] v_tasks;
+    private final AtomicLongArray v_sequences;
+
+    /** The position of the next slot to be filled by a producer. */
+    private final PaddedCounter v_tail;
+
+    /** The position of the next slot to be emptied by a consumer. */
+    private final PaddedCounter v_head;
+
+    /** The lock consumers park on when the queue is empty. */
+    private final Object v_lock;
+
+    /** The number of threads parked in pop(); guarded by v_lock. */
+    private volatile int v_nr_waiters;
+
+    /** The consumers polling the queue in a loop. */
+    private final SpinningConsumers v_spinners = new SpinningConsumers();
+}
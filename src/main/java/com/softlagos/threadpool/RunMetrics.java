@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: RunMetrics.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The metrics of the tasks run by one task thread: how long they
+ * waited to be started, how long they ran, how they ended, and how
+ * long the task thread was idle in between.
+ *
+ * Each task thread owns a RunMetrics, which only it records into,
+ * with ordered writes rather than atomic adds.  The time stamps of
+ * the start and end of its tasks are also the bounds of its idle
+ * times, so that they cost no more clock reads.  The tasks of a
+ * pool not run by a task thread, on virtual threads or on the
+ * pushing thread, share one RunMetrics of the pool, which any
+ * thread records into with atomic adds, and which does not track
+ * idle times.
+ *
+ * @author Rubens Gomes
+ */
+final class RunMetrics
+{
+
+    /**
+     * Instantiates new, empty, metrics.
+     *
+     * @param is_owned true for the metrics of a single task thread,
+     * false for metrics any thread records into.
+     */
+    RunMetrics(final boolean is_owned)
+    {
+        v_is_owned = is_owned;
+        v_wait = new LatencyHistogram(is_owned);
+        v_run = new LatencyHistogram(is_owned);
+        v_idle_since = System.nanoTime();
+    }
+
+    /**
+     * Records a task that has started: how long it waited, and, for
+     * a task thread, how long the task thread was idle before.
+     *
+     * @param task the task started.
+     * @param start the System.nanoTime() at which it started.
+     */
+    void taskStarted(final Task task, final long start)
+    {
+        long queued_at = task.getQueuedAt();
+
+        if( queued_at != 0L )
+        {
+            v_wait.record(start - queued_at);
+        }
+
+        if( v_is_owned )
+        {
+            s_idle_updater.lazySet(this,
+                    v_idle_nanos + (start - v_idle_since));
+        }
+    }
+
+    /**
+     * Records the time a task ran, whatever its outcome.
+     *
+     * @param start the System.nanoTime() at which the task started.
+     * @param end the System.nanoTime() at which it returned.
+     */
+    void taskRan(final long start, final long end)
+    {
+        v_run.record(end - start);
+        v_idle_since = end;
+    }
+
+    /**
+     * Records a task that ran, and returned.
+     */
+    void taskCompleted()
+    {
+        increment(s_completed_updater);
+    }
+
+    /**
+     * Records a task that ran, and threw an exception.
+     */
+    void taskFailed()
+    {
+        increment(s_failed_updater);
+    }
+
+    /**
+     * Records a task cancelled, or timed out, before it ran, or
+     * while it ran.
+     */
+    void taskAborted()
+    {
+        increment(s_aborted_updater);
+    }
+
+    /**
+     * @return for a task thread, the System.nanoTime() since which
+     * it has been idle: when it started, or its last task returned.
+     */
+    long getIdleSince()
+    {
+        return v_idle_since;
+    }
+
+    /**
+     * Adds all the metrics of another RunMetrics to these ones,
+     * which must not be owned by a task thread.
+     *
+     * @param other the metrics of a task thread that has stopped.
+     */
+    void addAll(final RunMetrics other)
+    {
+        v_wait.addAll(other.v_wait);
+        v_run.addAll(other.v_run);
+        s_completed_updater.getAndAdd(this, other.v_nr_completed);
+        s_failed_updater.getAndAdd(this, other.v_nr_failed);
+        s_aborted_updater.getAndAdd(this, other.v_nr_aborted);
+        s_idle_updater.getAndAdd(this, other.v_idle_nanos);
+    }
+
+    /**
+     * @return the histogram of the times the tasks waited to start.
+     */
+    LatencyHistogram getWaitHistogram()
+    {
+        return v_wait;
+    }
+
+    /**
+     * @return the histogram of the times the tasks ran.
+     */
+    LatencyHistogram getRunHistogram()
+    {
+        return v_run;
+    }
+
+    /**
+     * @return the number of tasks that ran, and returned.
+     */
+    long getCompletedCount()
+    {
+        return v_nr_completed;
+    }
+
+    /**
+     * @return the number of tasks that ran, and threw an exception.
+     */
+    long getFailedCount()
+    {
+        return v_nr_failed;
+    }
+
+    /**
+     * @return the number of tasks cancelled, or timed out.
+     */
+    long getAbortedCount()
+    {
+        return v_nr_aborted;
+    }
+
+    /**
+     * @return the time spent idle, in nanoseconds.
+     */
+    long getIdleNanos()
+    {
+        return v_idle_nanos;
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final AtomicLongFieldUpdater<RunMetrics>
+        s_completed_updater = AtomicLongFieldUpdater.newUpdater(
+                RunMetrics.class, "v_nr_completed");
+
+    private static final AtomicLongFieldUpdater<RunMetrics>
+        s_failed_updater = AtomicLongFieldUpdater.newUpdater(
+                RunMetrics.class, "v_nr_failed");
+
+    private static final AtomicLongFieldUpdater<RunMetrics>
+        s_aborted_updater = AtomicLongFieldUpdater.newUpdater(
+                RunMetrics.class, "v_nr_aborted");
+
+    private static final AtomicLongFieldUpdater<RunMetrics>
+        s_idle_updater = AtomicLongFieldUpdater.newUpdater(
+                RunMetrics.class, "v_idle_nanos");
+
+    /**
+     * Increments a counter: with an ordered write if only the owner
+     * task thread writes it, or else atomically.
+     */
+    private void increment(final AtomicLongFieldUpdater<RunMetrics> updater)
+    {
+
+        if( v_is_owned )
+        {
+            updater.lazySet(this, updater.get(this) + 1L);
+        }
+        else
+        {
+            updater.getAndIncrement(this);
+        }
+    }
+
+    private final boolean v_is_owned;
+    private final LatencyHistogram v_wait;
+    private final LatencyHistogram v_run;
+    private volatile long v_nr_completed;
+    private volatile long v_nr_failed;
+    private volatile long v_nr_aborted;
+    private volatile long v_idle_nanos;
+
+    /** When the task thread became idle; owned by the task thread. */
+    private long v_idle_since;
+}
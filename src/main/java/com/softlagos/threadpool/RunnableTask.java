@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: RunnableTask.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * The task a Runnable pushed with ThreadPool.pushTask(Runnable) is
+ * queued as, so that it shares the queue with the other tasks.
+ *
+ * Nothing outside the pool ever sees it, so it has neither listeners
+ * nor a handle, and it is recycled by the pool once it has run: a
+ * Runnable is pushed without allocating anything but the Runnable
+ * itself.
+ *
+ * @author Rubens Gomes
+ */
+final class RunnableTask extends RecyclableTask
+{
+
+    /**
+     * @param runnable the runnable to run.
+     */
+    void setRunnable(final Runnable runnable)
+    {
+        v_runnable = runnable;
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.threadpool.Task#run()
+     */
+    @Override
+    public void run()
+    {
+        v_runnable.run();
+    }
+
+    // ------ >>> Protected <<< ------
+
+    /* (non-Javadoc)
+     * @see com.softlagos.threadpool.RecyclableTask#reset()
+     */
+    @Override
+    protected void reset()
+    {
+        v_runnable = null;
+    }
+
+    // ------ >>> Private <<< ------
+    private Runnable v_runnable;
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: SpinningConsumers.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * Counts the consumers of a TaskQueue that are polling it in a loop,
+ * rather than blocked in pop(), so that producers can skip waking up
+ * a blocked consumer when a spinning one will see their task.
+ *
+ * Each spinning consumer adds a token.  A producer that has added a
+ * task claims a token, if there is one, instead of waking up a
+ * blocked consumer: a token is only ever claimed by one task.  A
+ * consumer that stops spinning without a task takes its token back,
+ * if it is still there; if it has been claimed, the task it was
+ * claimed for is in the queue, and the consumer finds it when it
+ * polls the queue again before blocking.
+ *
+ * The count sits alone on its cache line, since both producers and
+ * spinning consumers update it.
+ *
+ * @author Rubens Gomes
+ */
+final class SpinningConsumers
+{
+
+    /**
+     * Instantiates a new count, with no spinning consumer.
+     */
+    SpinningConsumers()
+    {
+        v_nr_tokens = new PaddedCounter(0L);
+    }
+
+    /**
+     * Called by a consumer that starts polling the queue in a loop.
+     */
+    void startSpinning()
+    {
+        long nr_tokens;
+
+        do
+        {
+            nr_tokens = v_nr_tokens.get();
+        }
+        while( ! v_nr_tokens.compareAndSet(nr_tokens, nr_tokens + 1L) );
+    }
+
+    /**
+     * Called by a spinning consumer that stops polling the queue in a
+     * loop, with or without a task.
+     *
+     * @return false if its token had been claimed by a producer.
+     */
+    boolean stopSpinning()
+    {
+        return claim(1) == 1;
+    }
+
+    /**
+     * Called by a producer that has added tasks to the queue.
+     *
+     * @param nr_tasks the number of tasks added.
+     * @return the number of tasks a spinning consumer will see, and
+     * for which no blocked consumer needs to be woken up.
+     */
+    int claim(final int nr_tasks)
+    {
+        long nr_tokens;
+        long nr_claimed;
+
+        do
+        {
+            nr_tokens = v_nr_tokens.get();
+
+            if( nr_tokens == 0L )
+            {
+                return 0;
+            }
+
+            nr_claimed = Math.min(nr_tokens, nr_tasks);
+        }
+        while( ! v_nr_tokens.compareAndSet(nr_tokens,
+                                           nr_tokens - nr_claimed) );
+
+        return (int) nr_claimed;
+    }
+
+    // ------ >>> Private <<< ------
+    private final PaddedCounter v_nr_tokens;
+}
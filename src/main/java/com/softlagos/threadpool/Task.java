@@ -8,8 +8,9 @@
  */
 package com.softlagos.threadpool;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,7 +23,18 @@ import org.apache.logging.log4j.Logger;
  * perform should be implemented inside the run() method.
  *
  * Once the task is completed the task will notify any registered
- * listener.
+ * listener, and complete the TaskHandle returned when it was pushed.
+ *
+ * Listeners may be added and removed from any thread, including
+ * while the listeners are being notified; a notification goes to
+ * the listeners registered when it started.  A task with no
+ * listener, or a single one, allocates nothing for them.
+ *
+ * A task running in a ThreadPool may split its work into subtasks:
+ * it fork()s them, which pushes them to the local deque of its task
+ * thread, and then join()s them.  A task thread that joins a subtask
+ * runs the pending subtasks itself, rather than blocking, so that a
+ * pool of a fixed size cannot deadlock on recursive tasks.
  *
  * @author Rubens Gomes
  */
@@ -37,7 +49,8 @@ public abstract class Task
     {
         DONE,
         INTERRUPTED,
-        FAILED;
+        FAILED,
+        TIMED_OUT;
     };
 
     /**
@@ -56,12 +69,45 @@ public abstract class Task
     public void addListener(TaskListener listener)
     {
 
+        if(listener == null)
+        {
+            throw new IllegalArgumentException("listener cannot be null.");
+        }
+
         if(logger.isTraceEnabled())
         {
             logger.trace("Adding listener.");
         }
 
-        v_notifiers.add(listener);
+        while( true )
+        {
+            Object listeners = v_listeners;
+            Object new_listeners;
+
+            if( listeners == null )
+            {
+                new_listeners = listener;
+            }
+            else if( listeners instanceof TaskListener )
+            {
+                new_listeners = new TaskListener[] {
+                    (TaskListener) listeners, listener };
+            }
+            else
+            {
+                TaskListener[] array = (TaskListener[]) listeners;
+                TaskListener[] new_array =
+                    Arrays.copyOf(array, array.length + 1);
+                new_array[array.length] = listener;
+                new_listeners = new_array;
+            }
+
+            if( s_listeners_updater.compareAndSet(this, listeners,
+                                                  new_listeners) )
+            {
+                return;
+            }
+        }
     }
 
     /**
@@ -77,7 +123,56 @@ public abstract class Task
             logger.trace("Removing listener.");
         }
 
-        v_notifiers.remove(listener);
+        while( true )
+        {
+            Object listeners = v_listeners;
+            Object new_listeners;
+
+            if( listeners == null )
+            {
+                return;
+            }
+            else if( listeners instanceof TaskListener )
+            {
+
+                if( ! listeners.equals(listener) )
+                {
+                    return;
+                }
+
+                new_listeners = null;
+            }
+            else
+            {
+                TaskListener[] array = (TaskListener[]) listeners;
+                int index = Arrays.asList(array).indexOf(listener);
+
+                if( index < 0 )
+                {
+                    return;
+                }
+
+                if( array.length == 2 )
+                {
+                    new_listeners = array[1 - index];
+                }
+                else
+                {
+                    TaskListener[] new_array =
+                        new TaskListener[array.length - 1];
+                    System.arraycopy(array, 0, new_array, 0, index);
+                    System.arraycopy(array, index + 1, new_array, index,
+                                     array.length - index - 1);
+                    new_listeners = new_array;
+                }
+            }
+
+            if( s_listeners_updater.compareAndSet(this, listeners,
+                                                  new_listeners) )
+            {
+                return;
+            }
+        }
     }
 
     /**
@@ -86,66 +181,307 @@ public abstract class Task
      * waiting for some resource.  In that case, the task may
      * want to notify its listeners setting done to false.
      *
+     * If the task was pushed to a pool with listener dispatcher
+     * threads, the listeners are called back later, from one of
+     * those threads, instead of from the current thread.
+     *
      * @param status the status of the task (completed,
      * interrupted, failed)
      * @param msg some informational messaging.
      */
     public void notifyListeners(Status status, String msg)
     {
-        for(TaskListener listener : v_notifiers)
+        Object listeners = v_listeners;
+
+        if( listeners == null )
         {
-            switch(status)
+            return;
+        }
+
+        ListenerDispatcher dispatcher = v_dispatcher;
+        TaskNotifiedEvent event = null;
+
+        if( TaskNotifiedEvent.isRecorded() )
+        {
+            event = new TaskNotifiedEvent();
+            event.begin();
+        }
+
+        if( listeners instanceof TaskListener )
+        {
+            notifyListener(dispatcher, (TaskListener) listeners,
+                           status, msg);
+        }
+        else
+        {
+            for(TaskListener listener : (TaskListener[]) listeners)
             {
-                case DONE:
-                    if(logger.isTraceEnabled())
-                    {
-                        logger.trace("Notifying listener: DONE.");
-                    }
-                    listener.notifyTaskDone(msg);
-                    break;
-
-                case INTERRUPTED:
-                    if(logger.isTraceEnabled())
-                    {
-                        logger.trace("Notifying listener: INTERRUPTED.");
-                    }
-                    listener.notifyTaskInterrupted(msg);
-                    break;
-
-                case FAILED:
-                    if(logger.isTraceEnabled())
-                    {
-                        logger.trace("Notifying listener: FAILED.");
-                    }
-                    listener.notifyTaskFailed(msg);
-                    break;
-
-                default:
-                    if(logger.isErrorEnabled())
-                    {
-                        logger.error("Invalid Task status.");
-                    }
+                notifyListener(dispatcher, listener, status, msg);
             }
         }
+
+        if( event != null && event.shouldCommit() )
+        {
+            event.taskClass = getClass();
+            event.status = status.name();
+            event.listeners = listenerNames(listeners);
+            event.dispatched = dispatcher != null;
+            event.commit();
+        }
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
+    /**
+     * Sets the time the task has to complete in, from the time it is
+     * pushed.  A task still queued at its deadline is skipped without
+     * running, and a running one is interrupted; its handle fails with
+     * a TimeoutException, and its listeners are notified that it
+     * TIMED_OUT.
+     *
+     * @param timeout the time the task has to complete in, or zero
+     * for no timeout.
+     * @param unit the unit of the timeout.
      */
-    @Override
-    public void finalize()
+    public void setTimeout(final long timeout, final TimeUnit unit)
     {
-        if(logger.isTraceEnabled())
+
+        if(timeout < 0L || unit == null)
+        {
+            throw new IllegalArgumentException(
+                    "timeout must be non-negative, and unit not null.");
+        }
+
+        v_timeout_nanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return the handle of the last push of this task, or null if
+     * it has not been pushed.
+     */
+    public TaskHandle<?> getHandle()
+    {
+        return v_handle;
+    }
+
+    /**
+     * Pushes this task, as a subtask of the task running on the
+     * current task thread, to the local deque of that thread: idle
+     * task threads may steal it, and, unless they do, it is run by
+     * the thread that joins it.
+     * <pre>
+     * TaskHandle&lt;Long&gt; left = new SumTask(values, from, middle).fork();
+     * long right = new SumTask(values, middle, to).compute();
+     * return left.join() + right;
+     * </pre>
+     *
+     * @return the handle that completes once the task has run.
+     * @throws RuntimeException if the current thread is not a task
+     * thread of a ThreadPool.
+     */
+    public TaskHandle<?> fork()
+    {
+        TaskThread worker = TaskThread.current();
+
+        if( worker == null || worker.getPool() == null )
+        {
+            throw new RuntimeException(
+                    "a task may only be forked by a task running in a " +
+                    "ThreadPool.");
+        }
+
+        return worker.getPool().pushTask(this);
+    }
+
+    /**
+     * Waits for the last push of this task, usually a fork(), to
+     * complete, running other tasks meanwhile, as
+     * TaskHandle.join() does.
+     *
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     * @throws RuntimeException the exception the task failed with,
+     * or if the task has not been pushed.
+     */
+    public void join() throws InterruptedException
+    {
+        TaskHandle<?> handle = v_handle;
+
+        if( handle == null )
         {
-            logger.trace("GC collected.");
+            throw new RuntimeException("task has not been pushed.");
         }
+
+        handle.join();
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Calls the listener back on the method for the given status.
+     *
+     * @param listener the listener to be notified.
+     * @param status the status of the task.
+     * @param msg some informational messaging.
+     */
+    static void notifyListener(final TaskListener listener,
+                               final Status status, final String msg)
+    {
+        switch(status)
+        {
+            case DONE:
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("Notifying listener: DONE.");
+                }
+                listener.notifyTaskDone(msg);
+                break;
+
+            case INTERRUPTED:
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("Notifying listener: INTERRUPTED.");
+                }
+                listener.notifyTaskInterrupted(msg);
+                break;
+
+            case FAILED:
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("Notifying listener: FAILED.");
+                }
+                listener.notifyTaskFailed(msg);
+                break;
+
+            case TIMED_OUT:
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("Notifying listener: TIMED_OUT.");
+                }
+                listener.notifyTaskTimedOut(msg);
+                break;
+
+            default:
+                if(logger.isErrorEnabled())
+                {
+                    logger.error("Invalid Task status.");
+                }
+        }
+    }
+
+    /**
+     * @param dispatcher the dispatcher that calls the listeners of
+     * this task back, or null to call them back synchronously.
+     */
+    void setDispatcher(final ListenerDispatcher dispatcher)
+    {
+        v_dispatcher = dispatcher;
+    }
+
+    /**
+     * Creates the handle of a new push of this task.
+     *
+     * @param <T> the type of the task result.
+     * @return the new handle.
+     */
+    @SuppressWarnings("unchecked")
+    <T> TaskHandle<T> newHandle()
+    {
+        TaskHandle<Object> handle = new TaskHandle<Object>();
+        v_handle = handle;
+        return (TaskHandle<T>) handle;
+    }
+
+    /**
+     * Forgets the handle of the last push, for a push without one.
+     */
+    void clearHandle()
+    {
+        v_handle = null;
+    }
+
+    /**
+     * Removes the listeners, the handle and the timeout of the task,
+     * before it is reused.
+     */
+    void clear()
+    {
+        v_listeners = null;
+        v_handle = null;
+        v_timeout_nanos = 0L;
+    }
+
+    /**
+     * Runs the task.
+     *
+     * @return the task result; null for a plain Task.
+     * @throws Exception if the task failed.
+     */
+    Object execute() throws Exception
+    {
+        run();
+        return null;
+    }
+
+    /**
+     * Completes the task handle, if any, with the exception the task
+     * failed with.
+     *
+     * @param ex the exception.
+     * @return false if the handle had already completed: the task
+     * was cancelled, or timed out, while it ran.
+     */
+    boolean fail(final Throwable ex)
+    {
+        TaskHandle<Object> handle = v_handle;
+
+        return handle == null || handle.fail(ex);
+    }
+
+    /**
+     * @return the timeout of the task, in nanoseconds, or zero for
+     * no timeout.
+     */
+    long getTimeoutNanos()
+    {
+        return v_timeout_nanos;
+    }
+
+    /**
+     * @param nanos the System.nanoTime() at which the task was
+     * pushed to a pool.
+     */
+    void setQueuedAt(final long nanos)
+    {
+        v_queued_at = nanos;
+    }
+
+    /**
+     * @param priority the priority the task was pushed with.
+     */
+    void setPriority(final Priority priority)
+    {
+        v_priority = priority;
+    }
+
+    /**
+     * @return the priority the task was pushed with.
+     */
+    Priority getPriority()
+    {
+        return v_priority;
+    }
+
+    /**
+     * @return the System.nanoTime() at which the task was pushed to
+     * a pool.
+     */
+    long getQueuedAt()
+    {
+        return v_queued_at;
     }
 
     // ------ >>> Protected <<< ------
     protected Task()
     {
-        v_notifiers = new ArrayList<TaskListener>();
-
         if(logger.isTraceEnabled())
         {
             logger.trace("constructed.");
@@ -154,6 +490,75 @@ public abstract class Task
 
     // ------ >>> Private <<< ------
 
-    /** The v_notifiers. */
-    private final List<TaskListener> v_notifiers;
+    /**
+     * Notifies a listener, through the dispatcher if there is one.
+     */
+    private static void notifyListener(final ListenerDispatcher dispatcher,
+                                       final TaskListener listener,
+                                       final Status status,
+                                       final String msg)
+    {
+        if( dispatcher != null )
+        {
+            dispatcher.publish(listener, status, msg);
+        }
+        else
+        {
+            notifyListener(listener, status, msg);
+        }
+    }
+
+    /**
+     * @return the class names of the given listeners, for a
+     * TaskNotifiedEvent.
+     */
+    private static String listenerNames(final Object listeners)
+    {
+
+        if( listeners instanceof TaskListener )
+        {
+            return listeners.getClass().getName();
+        }
+
+        StringBuilder names = new StringBuilder();
+
+        for(TaskListener listener : (TaskListener[]) listeners)
+        {
+
+            if( names.length() > 0 )
+            {
+                names.append(", ");
+            }
+
+            names.append(listener.getClass().getName());
+        }
+
+        return names.toString();
+    }
+
+    private static final AtomicReferenceFieldUpdater<Task, Object>
+        s_listeners_updater = AtomicReferenceFieldUpdater.newUpdater(
+                Task.class, Object.class, "v_listeners");
+
+    /**
+     * The registered listeners: null if there is none, the listener
+     * if there is only one, or else an array that is replaced, never
+     * modified, when a listener is added or removed.
+     */
+    private volatile Object v_listeners;
+
+    /** The pool listener dispatcher, if any; set at push. */
+    private ListenerDispatcher v_dispatcher;
+
+    /** The handle of the last push; published by the queue hand-off. */
+    private TaskHandle<Object> v_handle;
+
+    /** When the task was pushed; published by the queue hand-off. */
+    private long v_queued_at;
+
+    /** The priority the task was pushed with; set at push. */
+    private Priority v_priority = Priority.NORMAL;
+
+    /** The timeout of each push, in nanoseconds; zero for none. */
+    private long v_timeout_nanos;
 }
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskDeque.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A work-stealing double ended queue owned by a single TaskThread.
+ *
+ * The owner thread pushes and pops tasks at the head of the deque
+ * (LIFO order, which keeps recently created tasks hot in the cache),
+ * while idle threads steal the oldest tasks from the tail.  Only
+ * the last remaining task is ever contended, and that race is
+ * resolved with a single CAS on the tail index, so neither the owner
+ * nor the thieves take a lock.
+ *
+ * This is the classic Chase-Lev algorithm over a growable circular
+ * array.  The push() and pop() methods must only be called by the
+ * owning thread; steal(), size() and isEmpty() may be called by any
+ * thread.
+ *
+ * @author Rubens Gomes
+ */
+final class TaskDeque
+{
+
+    /** The initial capacity; must be a power of two. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Instantiates a new, empty, task deque.
+     */
+    TaskDeque()
+    {
+        v_tasks = new AtomicReferenceArray<Task>(INITIAL_CAPACITY);
+        v_tail = new AtomicLong();
+        v_head = 0L;
+    }
+
+    /**
+     * Pushes a task at the head of the deque.  Owner thread only.
+     *
+     * @param task the task to be pushed.
+     */
+    void push(final Task task)
+    {
+        long head = v_head;
+        long tail = v_tail.get();
+        AtomicReferenceArray<Task> tasks = v_tasks;
+
+        if( head - tail >= tasks.length() - 1 )
+        {
+            tasks = grow(tasks, head, tail);
+        }
+
+        tasks.set((int) (head & (tasks.length() - 1)), task);
+        v_head = head + 1;
+    }
+
+    /**
+     * Pops the most recently pushed task from the head of the
+     * deque.  Owner thread only.
+     *
+     * @return the task, or null if the deque is empty.
+     */
+    Task pop()
+    {
+        long head = v_head - 1;
+        AtomicReferenceArray<Task> tasks = v_tasks;
+
+        // publishing the new head before reading the tail is what
+        // makes thieves back off from the slot we are about to take.
+        v_head = head;
+        long tail = v_tail.get();
+
+        if( tail > head )
+        {
+            // empty.
+            v_head = head + 1;
+            return null;
+        }
+
+        int index = (int) (head & (tasks.length() - 1));
+        Task task = tasks.get(index);
+
+        if( tail == head )
+        {
+            // last task: race any thief for it.
+            if( ! v_tail.compareAndSet(tail, tail + 1) )
+            {
+                task = null;
+            }
+
+            v_head = head + 1;
+            return task;
+        }
+
+        tasks.set(index, null);
+        return task;
+    }
+
+    /**
+     * Steals the oldest task from the tail of the deque.  May be
+     * called from any thread.
+     *
+     * @return the stolen task, or null if the deque is empty or
+     * another thread won the race for the tail.
+     */
+    Task steal()
+    {
+        long tail = v_tail.get();
+        long head = v_head;
+
+        if( tail >= head )
+        {
+            return null;
+        }
+
+        AtomicReferenceArray<Task> tasks = v_tasks;
+        int index = (int) (tail & (tasks.length() - 1));
+        Task task = tasks.get(index);
+
+        if( task == null || ! v_tail.compareAndSet(tail, tail + 1) )
+        {
+            return null;
+        }
+
+        // help the garbage collector; fails harmlessly if the
+        // owner has already reused the slot.
+        tasks.compareAndSet(index, task, null);
+        return task;
+    }
+
+    /**
+     * @return the approximate number of tasks in this deque.
+     */
+    int size()
+    {
+        long size = v_head - v_tail.get();
+        return size > 0 ? (int) size : 0;
+    }
+
+    /**
+     * @return true if this deque appears to be empty.
+     */
+    boolean isEmpty()
+    {
+        return v_head <= v_tail.get();
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * Doubles the backing array.  Owner thread only.  The old array
+     * is left untouched so that thieves still reading from it see
+     * consistent values.
+     */
+    private AtomicReferenceArray<Task> grow(
+            final AtomicReferenceArray<Task> tasks,
+            final long head, final long tail)
+    {
+        int old_mask = tasks.length() - 1;
+        AtomicReferenceArray<Task> bigger =
+                new AtomicReferenceArray<Task>(tasks.length() << 1);
+        int new_mask = bigger.length() - 1;
+
+        for(long i = tail; i < head; i++)
+        {
+            bigger.set((int) (i & new_mask),
+                       tasks.get((int) (i & old_mask)));
+        }
+
+        v_tasks = bigger;
+        return bigger;
+    }
+
+    /** The circular array of tasks. */
+    private volatile AtomicReferenceArray<Task> v_tasks;
+
+    /** The index one past the newest task; written by the owner only. */
+    private volatile long v_head;
+
+    /** The index of the oldest task; advanced by CAS. */
+    private final AtomicLong v_tail;
+}
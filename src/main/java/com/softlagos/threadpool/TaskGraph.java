@@ -0,0 +1,413 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskGraph.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A directed acyclic graph of tasks, each of which runs once all the
+ * tasks it depends on have completed.
+ * <pre>
+ * TaskGraph graph = new TaskGraph();
+ * TaskGraph.Node extract = graph.add(new ExtractTask());
+ * TaskGraph.Node lookup = graph.add(new LookupTask());
+ * TaskGraph.Node transform = graph.add(new TransformTask(),
+ *                                      extract, lookup);
+ * graph.add(new LoadTask(), transform);
+ *
+ * pool.pushGraph(graph).get();
+ * </pre>
+ *
+ * A node may only depend on nodes added before it, so a graph has
+ * no cycle.  Pushing the graph pushes the nodes without dependencies;
+ * every other node is pushed by the thread that completes the last
+ * of its dependencies, as soon as it does, without any lock nor
+ * coordinator thread: each node counts down its pending dependencies
+ * atomically.  A node pushed from a task thread of the pool goes to
+ * the local deque of that thread, from which idle threads steal.
+ *
+ * When a task fails, is cancelled or times out, the nodes downstream
+ * of it are skipped: their tasks are never pushed, their handles
+ * fail with a CancellationException, whose cause is the exception of
+ * the task, and their listeners are notified that they were
+ * INTERRUPTED.  The other nodes still run.
+ *
+ * A graph may be pushed only once, and no node may be added to it
+ * once it has been pushed.
+ *
+ * @author Rubens Gomes
+ */
+public final class TaskGraph
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(TaskGraph.class);
+
+    /**
+     * A task of a graph, and the nodes that depend on it.
+     */
+    public static final class Node
+    {
+
+        /**
+         * @return the task of this node.
+         */
+        public Task getTask()
+        {
+            return v_task;
+        }
+
+        /**
+         * @return the handle that completes with the result of the
+         * task once it has run, or fails if the task failed or the
+         * node was skipped.
+         */
+        public TaskHandle<?> getHandle()
+        {
+            return v_handle;
+        }
+
+        // ------ >>> Private <<< ------
+        private Node(final TaskGraph graph, final Task task,
+                     final int nr_dependencies)
+        {
+            v_graph = graph;
+            v_task = task;
+            v_nr_pending = nr_dependencies;
+        }
+
+        private static final AtomicIntegerFieldUpdater<Node>
+            s_pending_updater = AtomicIntegerFieldUpdater.newUpdater(
+                    Node.class, "v_nr_pending");
+
+        private final TaskGraph v_graph;
+        private final Task v_task;
+        private final TaskHandle<Object> v_handle = new TaskHandle<Object>();
+
+        /** The nodes that depend on this one; frozen once pushed. */
+        private final List<Node> v_dependents = new ArrayList<Node>(2);
+
+        /** The dependencies that have not completed yet. */
+        private volatile int v_nr_pending;
+    }
+
+    /**
+     * Adds a task to the graph.
+     *
+     * @param task the task.
+     * @param dependencies the nodes of this graph whose tasks must
+     * have completed before the task runs; none for a task that may
+     * run right away.
+     * @return the node of the task.
+     */
+    public Node add(final Task task, final Node... dependencies)
+    {
+
+        if(task == null)
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        if(task instanceof RecyclableTask)
+        {
+            throw new IllegalArgumentException(
+                    "a recyclable task has no handle to depend on.");
+        }
+
+        if(dependencies == null)
+        {
+            throw new IllegalArgumentException(
+                    "dependencies cannot be null.");
+        }
+
+        for(Node dependency : dependencies)
+        {
+
+            if(dependency == null || dependency.v_graph != this)
+            {
+                throw new IllegalArgumentException(
+                        "dependencies must be nodes of this graph.");
+            }
+        }
+
+        if(v_is_pushed)
+        {
+            throw new RuntimeException("TaskGraph has already been pushed.");
+        }
+
+        Node node = new Node(this, task, dependencies.length);
+
+        for(Node dependency : dependencies)
+        {
+            dependency.v_dependents.add(node);
+        }
+
+        v_nodes.add(node);
+        return node;
+    }
+
+    /**
+     * @return the number of nodes in the graph.
+     */
+    public int size()
+    {
+        return v_nodes.size();
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Pushes the nodes without dependencies to the given pool; the
+     * other ones are pushed as their dependencies complete.
+     *
+     * @param pool the pool the tasks run in.
+     * @return the handle that completes once every node has run, or
+     * been skipped; it fails with the exception of the first task
+     * that failed, if any.
+     */
+    TaskHandle<Void> push(final ThreadPool pool)
+    {
+
+        if(v_is_pushed)
+        {
+            throw new RuntimeException("TaskGraph has already been pushed.");
+        }
+
+        v_is_pushed = true;
+        v_pool = pool;
+        v_nr_unsettled = v_nodes.size();
+
+        if( v_nodes.isEmpty() )
+        {
+            v_handle.complete(null);
+            return v_handle;
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("pushing graph of [" + v_nodes.size() +
+                         "] nodes.");
+        }
+
+        // the roots are collected first: a root may complete, and
+        // count its dependents down to zero, while the others are
+        // still being pushed.
+        List<Node> roots = new ArrayList<Node>();
+
+        for(Node node : v_nodes)
+        {
+
+            if( node.v_nr_pending == 0 )
+            {
+                roots.add(node);
+            }
+        }
+
+        for(Node node : roots)
+        {
+            pushNode(node);
+        }
+
+        return v_handle;
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final AtomicIntegerFieldUpdater<TaskGraph>
+        s_unsettled_updater = AtomicIntegerFieldUpdater.newUpdater(
+                TaskGraph.class, "v_nr_unsettled");
+
+    private static final AtomicReferenceFieldUpdater<TaskGraph, Throwable>
+        s_failure_updater = AtomicReferenceFieldUpdater.newUpdater(
+                TaskGraph.class, Throwable.class, "v_failure");
+
+    /**
+     * The nodes left to push by the thread pushing the dependents of
+     * the nodes it completes; null when it is not pushing any.
+     */
+    private static final ThreadLocal<ArrayDeque<Node>> s_ready =
+            new ThreadLocal<ArrayDeque<Node>>();
+
+    /**
+     * Pushes a node whose dependencies have all completed.  The task
+     * of a node may have completed by the time its handle is called
+     * back, having run on the caller, or been stolen: the node is then
+     * completed, and its dependents pushed, from within pushNode().
+     * The nodes are therefore pushed from a work list, iteratively
+     * rather than recursively, for long chains; a node made ready
+     * while the list is being worked through is added to it.
+     */
+    private static void pushReady(final Node node)
+    {
+        ArrayDeque<Node> ready = s_ready.get();
+
+        if( ready != null )
+        {
+            ready.add(node);
+            return;
+        }
+
+        ready = new ArrayDeque<Node>();
+        ready.add(node);
+        s_ready.set(ready);
+
+        try
+        {
+            Node next;
+
+            while( (next = ready.poll()) != null )
+            {
+                next.v_graph.pushNode(next);
+            }
+        }
+        finally
+        {
+            s_ready.remove();
+        }
+    }
+
+    /**
+     * Pushes the task of a node whose dependencies have all
+     * completed, and settles the node once the task has run.
+     */
+    private void pushNode(final Node node)
+    {
+        TaskHandle<?> handle;
+
+        try
+        {
+            handle = v_pool.pushTask(node.v_task);
+        }
+        catch(RuntimeException ex)
+        {
+            // rejected, or the pool is shutdown.
+            failed(node, ex);
+            return;
+        }
+
+        handle.whenComplete((value, ex) -> {
+
+            if( ex != null )
+            {
+                failed(node, ex);
+            }
+            else
+            {
+                completed(node, value);
+            }
+
+        });
+    }
+
+    /**
+     * Completes a node, and pushes the dependents it was the last
+     * pending dependency of.
+     */
+    private void completed(final Node node, final Object value)
+    {
+        node.v_handle.complete(value);
+
+        for(Node dependent : node.v_dependents)
+        {
+
+            if( Node.s_pending_updater.decrementAndGet(dependent) == 0 )
+            {
+                pushReady(dependent);
+            }
+        }
+
+        settled(1);
+    }
+
+    /**
+     * Fails a node, and skips all the nodes downstream of it.  A node
+     * is skipped only once, however many of its dependencies fail;
+     * its pending count never reaches zero, since a failed dependency
+     * never counts it down.
+     */
+    private void failed(final Node node, final Throwable ex)
+    {
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("task failed, skipping its dependents: " +
+                        ex.getMessage());
+        }
+
+        s_failure_updater.compareAndSet(this, null, ex);
+        node.v_handle.fail(ex);
+
+        int nr_settled = 1;
+        ArrayDeque<Node> skipped = new ArrayDeque<Node>(node.v_dependents);
+
+        // iteratively, rather than recursively, for long chains.
+        while( ! skipped.isEmpty() )
+        {
+            Node dependent = skipped.poll();
+            CancellationException cex =
+                new CancellationException("upstream task failed.");
+            cex.initCause(ex);
+
+            if( dependent.v_handle.fail(cex) )
+            {
+                dependent.v_task.notifyListeners(Task.Status.INTERRUPTED,
+                                                 cex.getMessage());
+                skipped.addAll(dependent.v_dependents);
+                nr_settled++;
+            }
+        }
+
+        settled(nr_settled);
+    }
+
+    /**
+     * Counts nodes as settled, and completes the graph handle once
+     * all of them are.
+     */
+    private void settled(final int nr_settled)
+    {
+
+        if( s_unsettled_updater.addAndGet(this, -nr_settled) != 0 )
+        {
+            return;
+        }
+
+        Throwable failure = v_failure;
+
+        if( failure == null )
+        {
+            v_handle.complete(null);
+        }
+        else
+        {
+            v_handle.fail(failure);
+        }
+    }
+
+    private final List<Node> v_nodes = new ArrayList<Node>();
+    private final TaskHandle<Void> v_handle = new TaskHandle<Void>();
+
+    /** Set once the graph is pushed; published by the pushes. */
+    private boolean v_is_pushed;
+    private ThreadPool v_pool;
+
+    /** The nodes that have neither completed nor been skipped. */
+    private volatile int v_nr_unsettled;
+
+    /** The exception of the first task that failed. */
+    private volatile Throwable v_failure;
+}
@@ -0,0 +1,763 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskHandle.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The completion handle of a task pushed to a ThreadPool.  It
+ * holds the result of the task, or the exception the task failed
+ * with, once the task has run.
+ *
+ * The outcome is stored once, in a single field, whatever the
+ * number of threads waiting on it or callbacks registered with it.
+ * Callbacks run on the thread that completes the task, or right
+ * away on the registering thread if the task is already complete,
+ * so they should be short.
+ *
+ * A task may be cancelled through its handle, or time out if it was
+ * given a timeout.  A task that is still queued is then skipped
+ * without running; a running task is interrupted, on the thread that
+ * runs it only, and the interrupt is cleared once the task returns,
+ * so that it does not leak into the next task of that thread.
+ *
+ * @param <T> the type of the task result; Void for plain Tasks.
+ *
+ * @author Rubens Gomes
+ */
+public final class TaskHandle<T>
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(TaskHandle.class);
+
+    /**
+     * Creates a handle that completes when all the given handles
+     * have completed, or fails with the exception of the first one
+     * that fails.
+     *
+     * @param handles the handles to wait for.
+     * @return the combined handle.
+     */
+    public static TaskHandle<Void> allOf(final TaskHandle<?>... handles)
+    {
+
+        if( handles == null )
+        {
+            throw new IllegalArgumentException("handles cannot be null.");
+        }
+
+        final TaskHandle<Void> all = new TaskHandle<Void>();
+
+        if( handles.length == 0 )
+        {
+            all.complete(null);
+            return all;
+        }
+
+        final AtomicInteger nr_pending = new AtomicInteger(handles.length);
+
+        for(TaskHandle<?> handle : handles)
+        {
+
+            if( handle == null )
+            {
+                throw new IllegalArgumentException(
+                        "handles cannot be null.");
+            }
+
+            handle.whenComplete((value, ex) -> {
+
+                if( ex != null )
+                {
+                    all.fail(ex);
+                }
+                else if( nr_pending.decrementAndGet() == 0 )
+                {
+                    all.complete(null);
+                }
+
+            });
+        }
+
+        return all;
+    }
+
+    /**
+     * @return true if the task has completed, or failed.
+     */
+    public boolean isDone()
+    {
+        return v_outcome != null;
+    }
+
+    /**
+     * @return true if the task has failed.
+     */
+    public boolean isFailed()
+    {
+        return v_outcome instanceof Failure;
+    }
+
+    /**
+     * @return the exception the task failed with, or null if the
+     * task has not failed (yet).
+     */
+    public Throwable getException()
+    {
+        Object outcome = v_outcome;
+
+        return outcome instanceof Failure ?
+            ((Failure) outcome).v_exception : null;
+    }
+
+    /**
+     * @return true if the task was cancelled.
+     */
+    public boolean isCancelled()
+    {
+        return getException() instanceof CancellationException;
+    }
+
+    /**
+     * @return true if the task timed out.
+     */
+    public boolean isTimedOut()
+    {
+        return getException() instanceof TimeoutException;
+    }
+
+    /**
+     * Cancels the task: fails the handle with a CancellationException
+     * and, if the task is running, interrupts the thread running it.
+     * A task that is still queued will not run.
+     *
+     * @return true if the task was cancelled by this call, false if
+     * it had already completed.
+     */
+    public boolean cancel()
+    {
+
+        if( ! fail(new CancellationException("task cancelled.")) )
+        {
+            return false;
+        }
+
+        interruptRunner();
+        return true;
+    }
+
+    /**
+     * @return what happened when the task was pushed, or null for a
+     * handle derived from other handles.
+     */
+    public PushResult getPushResult()
+    {
+        return v_push_result;
+    }
+
+    /**
+     * Waits for the task to complete.
+     *
+     * @return the task result.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     * @throws ExecutionException if the task failed; its cause is the
+     * exception the task failed with.
+     * @throws CancellationException if the task was cancelled.
+     */
+    public T get() throws InterruptedException, ExecutionException
+    {
+
+        if( v_outcome == null )
+        {
+            synchronized(this)
+            {
+                v_nr_waiters++;
+                try
+                {
+                    while( v_outcome == null )
+                    {
+                        this.wait();
+                    }
+                }
+                finally
+                {
+                    v_nr_waiters--;
+                }
+            }
+        }
+
+        return outcome();
+    }
+
+    /**
+     * Waits, for up to the given time, for the task to complete.
+     *
+     * @param timeout how long to wait.
+     * @param unit the unit of the timeout.
+     * @return the task result.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     * @throws ExecutionException if the task failed; its cause is the
+     * exception the task failed with.
+     * @throws CancellationException if the task was cancelled.
+     * @throws TimeoutException if the task has not completed in time.
+     */
+    public T get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+
+        if( v_outcome == null )
+        {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            synchronized(this)
+            {
+                v_nr_waiters++;
+                try
+                {
+                    while( v_outcome == null )
+                    {
+                        long nanos = deadline - System.nanoTime();
+
+                        if( nanos <= 0L )
+                        {
+                            throw new TimeoutException(
+                                    "task has not completed.");
+                        }
+
+                        TimeUnit.NANOSECONDS.timedWait(this, nanos);
+                    }
+                }
+                finally
+                {
+                    v_nr_waiters--;
+                }
+            }
+        }
+
+        return outcome();
+    }
+
+    /**
+     * Waits for a forked task to complete, and returns its result.
+     * On a task thread, the wait does not block the thread while
+     * there are tasks to run: it runs them, starting with the tasks
+     * it forked itself, which include the joined task unless another
+     * thread stole it.  A pool whose tasks fork and join subtasks
+     * therefore keeps all its threads busy, and cannot run out of
+     * them, however deep the recursion.
+     *
+     * @return the task result.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     * @throws CancellationException if the task was cancelled.
+     * @throws RuntimeException the exception the task failed with,
+     * as is if it is unchecked, or else wrapped.
+     */
+    public T join() throws InterruptedException
+    {
+        TaskThread worker = TaskThread.current();
+
+        if( v_outcome == null && worker != null &&
+            worker.getPool() != null )
+        {
+            worker.helpJoin(this);
+        }
+
+        try
+        {
+            return get();
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+
+            if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            if( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Registers a callback that is called with the task result, or
+     * with the exception the task failed with, once the task has
+     * completed.
+     *
+     * @param callback called with the result and a null exception,
+     * or with a null result and the exception.
+     * @return this handle.
+     */
+    public TaskHandle<T> whenComplete(
+            final BiConsumer<? super T, ? super Throwable> callback)
+    {
+
+        if( callback == null )
+        {
+            throw new IllegalArgumentException("callback cannot be null.");
+        }
+
+        Callback node = new Callback(callback);
+
+        while( true )
+        {
+            Callback head = v_callbacks;
+
+            if( head == s_fired )
+            {
+                // already complete: no one else will call it.
+                run(node);
+                return this;
+            }
+
+            node.v_next = head;
+
+            if( s_callbacks_updater.compareAndSet(this, head, node) )
+            {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Creates a handle whose result is the given function applied to
+     * the result of this one.  If this task fails, or the function
+     * throws, the new handle fails with that exception.
+     *
+     * @param function the function applied to the task result.
+     * @param <U> the type of the function result.
+     * @return the new handle.
+     */
+    public <U> TaskHandle<U> thenApply(
+            final Function<? super T, ? extends U> function)
+    {
+
+        if( function == null )
+        {
+            throw new IllegalArgumentException("function cannot be null.");
+        }
+
+        final TaskHandle<U> next = new TaskHandle<U>();
+
+        whenComplete((value, ex) -> {
+
+            if( ex != null )
+            {
+                next.fail(ex);
+                return;
+            }
+
+            try
+            {
+                next.complete(function.apply(value));
+            }
+            catch(RuntimeException fex)
+            {
+                next.fail(fex);
+            }
+
+        });
+
+        return next;
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Instantiates a new, not yet complete, handle.
+     */
+    TaskHandle()
+    {
+    }
+
+    /**
+     * Waits, for up to the given time, for the task to complete.
+     *
+     * @param nanos how long to wait, in nanoseconds.
+     * @return true if the task has completed.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     */
+    boolean await(final long nanos) throws InterruptedException
+    {
+
+        if( v_outcome == null )
+        {
+            long deadline = System.nanoTime() + nanos;
+
+            synchronized(this)
+            {
+                v_nr_waiters++;
+                try
+                {
+                    long left;
+
+                    while( v_outcome == null &&
+                           (left = deadline - System.nanoTime()) > 0L )
+                    {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                }
+                finally
+                {
+                    v_nr_waiters--;
+                }
+            }
+        }
+
+        return v_outcome != null;
+    }
+
+    /**
+     * @param push_result what happened when the task was pushed.
+     */
+    void setPushResult(final PushResult push_result)
+    {
+        v_push_result = push_result;
+    }
+
+    /**
+     * Completes the handle with the task result.
+     *
+     * @param value the task result.
+     * @return false if the handle had already completed.
+     */
+    boolean complete(final T value)
+    {
+        return settle(value == null ? s_nil : value);
+    }
+
+    /**
+     * Completes the handle with the exception the task failed with.
+     *
+     * @param ex the exception.
+     * @return false if the handle had already completed.
+     */
+    boolean fail(final Throwable ex)
+    {
+        return settle(new Failure(ex));
+    }
+
+    /**
+     * Sets the deadline of the task.
+     *
+     * @param deadline the System.nanoTime() after which the task
+     * times out.
+     * @param timer the timer that times the task out at its deadline;
+     * cancelled once the handle completes.
+     */
+    void setDeadline(final long deadline, final TimerHandle timer)
+    {
+        v_deadline = deadline;
+        v_deadline_timer = timer;
+
+        if( v_outcome != null )
+        {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Times the task out: fails the handle with a TimeoutException
+     * and, if the task is running, interrupts the thread running it.
+     *
+     * @return false if the handle had already completed.
+     */
+    boolean timeOut()
+    {
+
+        if( ! fail(new TimeoutException("task timed out.")) )
+        {
+            return false;
+        }
+
+        interruptRunner();
+        return true;
+    }
+
+    /**
+     * Called by the thread about to run the task.
+     *
+     * @return false if the task was cancelled, or has timed out, and
+     * must not run.
+     */
+    boolean start()
+    {
+
+        if( v_deadline_timer != null && System.nanoTime() - v_deadline >= 0L )
+        {
+            // the timer may not have fired yet.
+            timeOut();
+        }
+
+        if( v_outcome != null )
+        {
+            return false;
+        }
+
+        // the runner is set before the outcome is checked again, and
+        // the outcome is set before the runner is read to interrupt
+        // it, so one of the two always sees the other.
+        v_runner = Thread.currentThread();
+
+        if( v_outcome != null )
+        {
+            finish();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Called by the thread that ran the task, once it returns.  Waits
+     * for an interrupt in progress to be delivered, and then clears
+     * it: from now on the thread may run other tasks.
+     */
+    void finish()
+    {
+        Thread current = Thread.currentThread();
+
+        while( ! s_runner_updater.compareAndSet(this, current, s_finished) )
+        {
+            Thread.onSpinWait();
+        }
+
+        if( v_did_interrupt )
+        {
+            Thread.interrupted();
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * Interrupts the thread running the task, if it is running.  The
+     * runner is swapped out while the interrupt is delivered, so that
+     * the thread cannot finish the task, and move on to another one,
+     * in between.
+     */
+    private void interruptRunner()
+    {
+        Object runner = v_runner;
+
+        if( runner instanceof Thread &&
+            s_runner_updater.compareAndSet(this, runner, s_interrupting) )
+        {
+            v_did_interrupt = true;
+            ((Thread) runner).interrupt();
+            v_runner = runner;
+        }
+    }
+
+    /**
+     * Stores the outcome, if there is none yet, and then wakes up
+     * the waiting threads and runs the callbacks.
+     */
+    private boolean settle(final Object outcome)
+    {
+
+        if( ! s_outcome_updater.compareAndSet(this, null, outcome) )
+        {
+            return false;
+        }
+
+        TimerHandle timer = v_deadline_timer;
+
+        if( timer != null )
+        {
+            timer.cancel();
+        }
+
+        // a waiter registers before it checks the outcome, and the
+        // outcome is set before the waiters are counted, so one of
+        // the two always sees the other.
+        if( v_nr_waiters > 0 )
+        {
+            synchronized(this)
+            {
+                this.notifyAll();
+            }
+        }
+
+        Callback head = s_callbacks_updater.getAndSet(this, s_fired);
+
+        // the callbacks were pushed on a stack: run them in the order
+        // they were registered.
+        Callback reversed = null;
+
+        while( head != null )
+        {
+            Callback next = head.v_next;
+            head.v_next = reversed;
+            reversed = head;
+            head = next;
+        }
+
+        for(Callback node = reversed; node != null; node = node.v_next)
+        {
+            run(node);
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs a callback with the outcome.
+     */
+    @SuppressWarnings("unchecked")
+    private void run(final Callback node)
+    {
+        Object outcome = v_outcome;
+
+        try
+        {
+
+            if( outcome instanceof Failure )
+            {
+                node.v_callback.accept(null, ((Failure) outcome).v_exception);
+            }
+            else
+            {
+                node.v_callback.accept(outcome == s_nil ? null : outcome,
+                                       null);
+            }
+        }
+        catch(RuntimeException ex)
+        {
+
+            if(logger.isErrorEnabled())
+            {
+                logger.error("task handle callback failed: " +
+                             ex.getMessage(), ex);
+            }
+
+        }
+    }
+
+    /**
+     * @return the result of the completed task.
+     */
+    @SuppressWarnings("unchecked")
+    private T outcome() throws ExecutionException
+    {
+        Object outcome = v_outcome;
+
+        if( outcome instanceof Failure )
+        {
+            Throwable ex = ((Failure) outcome).v_exception;
+
+            if( ex instanceof CancellationException )
+            {
+                throw (CancellationException) ex;
+            }
+
+            throw new ExecutionException(ex);
+        }
+
+        return outcome == s_nil ? null : (T) outcome;
+    }
+
+    /** The outcome of a failed task. */
+    private static final class Failure
+    {
+        Failure(final Throwable exception)
+        {
+            v_exception = exception;
+        }
+
+        private final Throwable v_exception;
+    }
+
+    /** A node in the stack of callbacks. */
+    private static final class Callback
+    {
+        @SuppressWarnings("unchecked")
+        Callback(final BiConsumer<?, ?> callback)
+        {
+            v_callback = (BiConsumer<Object, Throwable>) callback;
+        }
+
+        private final BiConsumer<Object, Throwable> v_callback;
+        private Callback v_next;
+    }
+
+    /** The outcome of a task whose result is null. */
+    private static final Object s_nil = new Object();
+
+    /** Marks the callbacks of a completed handle as run. */
+    private static final Callback s_fired = new Callback((a, b) -> { });
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TaskHandle, Object>
+        s_outcome_updater = AtomicReferenceFieldUpdater.newUpdater(
+                TaskHandle.class, Object.class, "v_outcome");
+
+    /** The runner while an interrupt is being delivered to it. */
+    private static final Object s_interrupting = new Object();
+
+    /** The runner once the task has returned. */
+    private static final Object s_finished = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TaskHandle, Object>
+        s_runner_updater = AtomicReferenceFieldUpdater.newUpdater(
+                TaskHandle.class, Object.class, "v_runner");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TaskHandle, Callback>
+        s_callbacks_updater = AtomicReferenceFieldUpdater.newUpdater(
+                TaskHandle.class, Callback.class, "v_callbacks");
+
+    /**
+     * Null until the task completes; then the result, s_nil for a
+     * null result, or a Failure.
+     */
+    private volatile Object v_outcome;
+
+    /** The callbacks not run yet, or s_fired once complete. */
+    private volatile Callback v_callbacks;
+
+    /** The number of threads waiting in get(); guarded by this. */
+    private volatile int v_nr_waiters;
+
+    /**
+     * Null until the task starts; then the thread running it,
+     * s_interrupting, or s_finished once the task has returned.
+     */
+    private volatile Object v_runner;
+
+    /** Whether the runner was interrupted for this task. */
+    private volatile boolean v_did_interrupt;
+
+    /** The timer of the task deadline, or null if it has none. */
+    private volatile TimerHandle v_deadline_timer;
+    private long v_deadline;
+
+    private PushResult v_push_result;
+}
@@ -8,21 +8,15 @@
  */
 package com.softlagos.threadpool;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 /**
  * A listener that is interested in knowing when its task is done
- * running, or when task fails or is interrupted.
+ * running, or when task fails, is interrupted or times out.
  *
  * @author Rubens Gomes
  */
 public abstract class TaskListener
 {
 
-    private static final Logger logger =
-            LogManager.getLogger(TaskListener.class);
-
     /**
      * The listener will get a call back on this method when the
      * corresponding task is completed running.
@@ -50,15 +44,16 @@ public abstract class TaskListener
      */
     public abstract void notifyTaskFailed(String msg);
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
+    /**
+     * The listener will get a call back on this method when the
+     * corresponding task timed out: it was skipped, still queued, at
+     * its deadline, or interrupted while executing.  By default,
+     * the listener is told that the task was interrupted.
+     *
+     * @param msg some informational message.
      */
-    @Override
-    public void finalize()
+    public void notifyTaskTimedOut(String msg)
     {
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("GC collected.");
-        }
+        notifyTaskInterrupted(msg);
     }
 }
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskNotifiedEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event that spans the notification of the
+ * listeners of a task: the call backs themselves, or their hand off
+ * to the listener dispatcher of the pool.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.threadpool.TaskNotified")
+@Label("Task Listeners Notified")
+@Category({ "Softlagos", "Thread Pool" })
+@Description("The notification of the listeners of a task.")
+@StackTrace(false)
+final class TaskNotifiedEvent extends Event
+{
+
+    /**
+     * @return whether this event is enabled in a running flight
+     * recording; if not, notifying listeners allocates none.
+     */
+    static boolean isRecorded()
+    {
+        return s_type.isEnabled();
+    }
+
+    private static final EventType s_type =
+            EventType.getEventType(TaskNotifiedEvent.class);
+
+    @Label("Task Class")
+    Class<?> taskClass;
+
+    @Label("Status")
+    String status;
+
+    @Label("Listeners")
+    @Description("The class names of the listeners notified.")
+    String listeners;
+
+    @Label("Dispatched")
+    @Description("Whether the call backs were handed to a dispatcher.")
+    boolean dispatched;
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskPushedEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event committed when a task is pushed to a
+ * ThreadPool: to its queue, to the local deque of the task thread
+ * pushing it, to a virtual thread, or run on the pushing thread.
+ *
+ * Like the other pool events, it records no stack trace unless
+ * enabled in the recording settings, e.g.
+ * com.softlagos.threadpool.TaskPushed#stackTrace=true.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.threadpool.TaskPushed")
+@Label("Task Pushed")
+@Category({ "Softlagos", "Thread Pool" })
+@Description("A task pushed to a thread pool.")
+@StackTrace(false)
+final class TaskPushedEvent extends Event
+{
+
+    /**
+     * @return true if this event is enabled in a running flight
+     * recording; the pool allocates none otherwise.
+     */
+    static boolean isRecorded()
+    {
+        return s_type.isEnabled();
+    }
+
+    private static final EventType s_type =
+            EventType.getEventType(TaskPushedEvent.class);
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Task Class")
+    Class<?> taskClass;
+
+    @Label("Priority")
+    String priority;
+
+    @Label("Push Result")
+    String pushResult;
+
+    @Label("Local")
+    @Description("Pushed to the local deque of the pushing task thread.")
+    boolean local;
+
+    @Label("Queue Depth")
+    @Description("The number of tasks in the pool queue after the push.")
+    int queueDepth;
+}
@@ -8,31 +8,43 @@
  */
 package com.softlagos.threadpool;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
- * Singleton.
+ * The TaskQueue is used to store and manage tasks that are to run
+ * by separate threads in the thread pool.  Pushing a task to the
+ * queue wakes up a thread that is waiting for tasks.  If no tasks
+ * are available, popping from the queue blocks the calling thread.
  *
- * The Class TaskQueue is used to store and manage tasks that
- * are to run by separate threads in the thread pool.  Adding elements
- * to the queue "notifyAll" threads that are waiting for tasks.  If no
- * tasks are available the queue "wait".
+ * The following implementations are available, and the one used by
+ * the TaskQueue singleton is selected with the
+ * ThreadPoolConstants.THREADPOOL_QUEUE_TYPE property:
+ * <ul>
+ * <li>BlockingTaskQueue (QUEUE_TYPE_BLOCKING): a FIFO queue guarded
+ * by a monitor lock, unbounded by default (the default).</li>
+ * <li>RingBufferTaskQueue (QUEUE_TYPE_RING_BUFFER): a bounded,
+ * pre-allocated, lock-free multi-producer/multi-consumer FIFO ring
+ * buffer.</li>
+ * <li>PriorityTaskQueue (QUEUE_TYPE_PRIORITY): a lock-free FIFO lane
+ * per task Priority, taken from highest priority first, with the
+ * tasks that have waited longer than the
+ * THREADPOOL_PRIORITY_AGING_TIME taken ahead.</li>
+ * </ul>
+ * The capacity of the TaskQueue singleton is set with the
+ * ThreadPoolConstants.THREADPOOL_QUEUE_CAPACITY property.
  *
  * @author Rubens Gomes
  */
-public final class TaskQueue
+public interface TaskQueue
 {
 
-    /** The Constant logger. */
-    private static final Logger logger =
-            LogManager.getLogger(TaskQueue.class);
-
-    /** The Constant s_singleton. */
-    private static final TaskQueue s_singleton = new TaskQueue();
+    /**
+     * The longest time, in milliseconds, the default popIdle()
+     * blocks before it lets the idle thread look for work again.
+     */
+    public static final long IDLE_CHECK_MILLIS = 10L;
 
     /**
      * Singleton Instance.
@@ -41,98 +53,194 @@ public final class TaskQueue
      */
     public static TaskQueue instance()
     {
-        return s_singleton;
+        return TaskQueueFactory.instance();
     }
 
     /**
-     * Add a task to the task FIFO queue.  Once a task
-     * is called it calls notify_all to unblock any thread
-     * that is pending on a task to be available.
+     * Adds a task to the task FIFO queue, and wakes up a thread
+     * that is pending on a task to be available.  If the queue is
+     * bounded and full, this call blocks until there is room.
      *
      * @param task a task to be run by a thread in the pool.
      */
-    public synchronized void push(final Task task)
-    {
-        if( task == null )
-        {
-            throw new IllegalArgumentException("task cannot be null.");
-        }
+    public void push(Task task);
 
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("adding task to the queue.");
-        }
+    /**
+     * Adds a task to the task FIFO queue if there is room for it,
+     * without blocking.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @return true if the task was added, false if the queue is full.
+     */
+    public boolean offer(Task task);
 
-        v_queue.add(task);
+    /**
+     * Adds a task to the task FIFO queue, waiting up to the given
+     * time for room if the queue is full.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param timeout how long to wait for room.
+     * @param unit the unit of the timeout.
+     * @return true if the task was added, false if the queue was
+     * still full when the timeout elapsed.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     */
+    public boolean offer(Task task, long timeout, TimeUnit unit)
+        throws InterruptedException;
 
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("notify single thread waiting.");
-        }
+    /**
+     * Adds as many tasks of a batch as there is room for, in the
+     * collection iteration order, without blocking.  The whole
+     * batch is added with a single synchronization, and only as
+     * many waiting threads as there are added tasks are woken up.
+     *
+     * @param tasks the tasks to be run by threads in the pool.
+     * @return the number of tasks added: the first ones in the
+     * collection.
+     */
+    public int offerAll(Collection<? extends Task> tasks);
 
-        // only a single thread can execute the task; therefore,
-        // we notify only one of the threads that might be waiting.
-        this.notify();
-    }
+    /**
+     * Pops a task from the queue.  If no task is available this
+     * call blocks the current thread until a task is pushed to the
+     * queue, or until wakeUp() is called.
+     *
+     * @return pops out the next task in the FIFO queue to be
+     * executed by a task thread, or null if the thread was woken up
+     * but no task was available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    public Task pop() throws InterruptedException;
 
     /**
-     * Pops a task from the queue.  If no task is
-     * available this call blocks the current thread
-     * by placing the thread on "wait".  The thread
-     * is "woken up" once a task is added to the queue
-     * via the corresponding push(task) call.
+     * Pops a task from the queue, blocking for up to the given time
+     * if no task is available.
+     *
+     * @param timeout how long to wait for a task.
+     * @param unit the unit of the timeout.
+     * @return the next task in the FIFO queue, or null if the time
+     * elapsed, or the thread was woken up, with no task available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
+     */
+    public Task pop(long timeout, TimeUnit unit)
+        throws InterruptedException;
+
+    /**
+     * Pops a task from the queue for an idle task thread, that may
+     * also find work outside of it, in the local deques of the other
+     * task threads.  That work is announced with wakeUp(), which
+     * only wakes up threads already waiting; so the given check is
+     * called once the calling thread has registered as a waiter,
+     * under the lock wakeUp() signals with, and null is returned
+     * instead of blocking if it finds work.
+     *
+     * The default implementation, for queues that cannot do so,
+     * calls the check before it blocks, and blocks for no longer
+     * than IDLE_CHECK_MILLIS, so that a missed wake up only delays
+     * the work.
      *
-     * @return pops out the next task in the FIFO queue
-     * to be executed by a task thread.
-     * @throws InterruptedException if the queue is empty any
-     * thread interrupted the current thread before or while the
-     * current thread was waiting for a notification.
+     * @param timeout how long to wait for a task, or zero to wait
+     * until woken up.
+     * @param unit the unit of the timeout.
+     * @param has_work tells whether there is work elsewhere.
+     * @return the next task in the FIFO queue, or null if the time
+     * elapsed, the thread was woken up, or there is work elsewhere,
+     * with no task available.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting for a task.
      */
-    public synchronized Task pop() throws InterruptedException
+    public default Task popIdle(final long timeout, final TimeUnit unit,
+                                final BooleanSupplier has_work)
+        throws InterruptedException
     {
-        if(logger.isTraceEnabled())
+        Task task = poll();
+
+        if( task != null || has_work.getAsBoolean() )
         {
-            logger.trace("polling task from queue...");
+            return task;
         }
 
-        Task task = v_queue.poll();
+        long nanos = unit.toNanos(timeout);
+        long max_nanos = TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_MILLIS);
 
-        if( task == null )
-        {
+        return pop(nanos > 0L && nanos < max_nanos ? nanos : max_nanos,
+                   TimeUnit.NANOSECONDS);
+    }
 
-            if(logger.isTraceEnabled())
-            {
-                logger.trace("queue is empty: waiting...");
-            }
+    /**
+     * Polls a task from the queue without blocking.
+     *
+     * @return the next task in the FIFO queue, or null if the queue
+     * is empty.
+     */
+    public Task poll();
 
-            this.wait();
+    /**
+     * Removes, without blocking, the task to discard to make room
+     * for another one when the queue is full and the overflow policy
+     * is DISCARD_OLDEST: the oldest task of the lowest priority
+     * tasks in the queue, which in a FIFO queue is its head.
+     *
+     * @return the task removed, or null if the queue is empty.
+     */
+    public Task pollOldest();
 
-            if(logger.isTraceEnabled())
-            {
-                logger.trace("wait released, polling task again now...");
-            }
+    /**
+     * Removes up to the given number of tasks from the queue, in
+     * FIFO order, with a single synchronization and without
+     * blocking.
+     *
+     * @param tasks the collection the tasks are added to.
+     * @param max_tasks the maximum number of tasks to remove.
+     * @return the number of tasks removed.
+     */
+    public int drainTo(Collection<? super Task> tasks, int max_tasks);
 
-            task = v_queue.poll();
-        }
+    /**
+     * Wakes up a single thread waiting in pop(), if there is any.
+     */
+    public void wakeUp();
 
-        return task;
-    }
+    /**
+     * @return the number of tasks currently in the queue.
+     */
+    public int size();
 
-    // ------ >>> private <<< ------
     /**
-     * Instantiates a new task queue.
+     * @return true if the queue holds no task.  Idle task threads
+     * that spin call this in a loop, so it should not take a lock.
      */
-    private TaskQueue()
+    public default boolean isEmpty()
     {
-        v_queue = new ArrayDeque<Task> ();
+        return size() == 0;
+    }
 
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("constructed.");
-        }
+    /**
+     * Tells the queue that the calling consumer is about to poll it
+     * in a loop, before it blocks in pop(), so that producers may
+     * skip waking up a blocked consumer for a task the spinning one
+     * will see.  The default implementation ignores it, and keeps
+     * waking up blocked consumers.
+     */
+    public default void startSpinning()
+    {
+    }
 
+    /**
+     * Tells the queue that the calling consumer has stopped polling
+     * it in a loop; it must poll the queue again, as pop() does,
+     * before it blocks.
+     */
+    public default void stopSpinning()
+    {
     }
 
-    /** The v_queue. */
-    private final Queue<Task> v_queue;
+    /**
+     * @return the maximum number of tasks in the queue, or
+     * Integer.MAX_VALUE if the queue is unbounded.
+     */
+    public int getCapacity();
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskQueueFactory.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Creates TaskQueue implementations by type name, and holds the
+ * TaskQueue singleton.
+ *
+ * @author Rubens Gomes
+ */
+final class TaskQueueFactory
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(TaskQueueFactory.class);
+
+    /**
+     * Creates a new task queue.
+     *
+     * @param type the queue type: one of the
+     * ThreadPoolConstants.QUEUE_TYPE_* values.
+     * @param capacity the maximum number of tasks in the queue, or
+     * zero for an unbounded queue (or a default sized ring buffer).
+     * @return the new task queue.
+     */
+    static TaskQueue newTaskQueue(final String type, final int capacity)
+    {
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("creating task queue of type: " + type);
+        }
+
+        if( ThreadPoolConstants.QUEUE_TYPE_BLOCKING.equals(type) )
+        {
+            return new BlockingTaskQueue(capacity);
+        }
+
+        if( ThreadPoolConstants.QUEUE_TYPE_RING_BUFFER.equals(type) )
+        {
+            return new RingBufferTaskQueue(capacity > 0 ? capacity :
+                    ThreadPoolConstants.DEFAULT_RING_BUFFER_CAPACITY);
+        }
+
+        if( ThreadPoolConstants.QUEUE_TYPE_PRIORITY.equals(type) )
+        {
+            return new PriorityTaskQueue(capacity,
+                    ThreadPoolConstants.getInt(
+                        ThreadPoolConstants.THREADPOOL_PRIORITY_AGING_TIME,
+                        ThreadPoolConstants.DEFAULT_PRIORITY_AGING_TIME));
+        }
+
+        throw new IllegalArgumentException("invalid task queue type: " +
+                                           type);
+    }
+
+    /**
+     * @return the task queue singleton, configured from the
+     * THREADPOOL_QUEUE_TYPE and THREADPOOL_QUEUE_CAPACITY properties.
+     */
+    static TaskQueue instance()
+    {
+        return Holder.s_singleton;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** Lazily creates the singleton on first use. */
+    private static final class Holder
+    {
+        private static final TaskQueue s_singleton = newTaskQueue(
+                ThreadPoolConstants.getString(
+                        ThreadPoolConstants.THREADPOOL_QUEUE_TYPE,
+                        ThreadPoolConstants.DEFAULT_QUEUE_TYPE),
+                ThreadPoolConstants.getInt(
+                        ThreadPoolConstants.THREADPOOL_QUEUE_CAPACITY,
+                        ThreadPoolConstants.DEFAULT_QUEUE_CAPACITY));
+    }
+
+    private TaskQueueFactory()
+    {
+    }
+}
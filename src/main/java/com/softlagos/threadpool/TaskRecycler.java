@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskRecycler.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
+
+/**
+ * A pool of RecyclableTasks of one kind.
+ * <pre>
+ * TaskRecycler&lt;PriceTask&gt; recycler =
+ *     new TaskRecycler&lt;PriceTask&gt;(PriceTask::new);
+ *
+ * PriceTask task = recycler.obtain();
+ * task.setPrice(price);
+ * pool.pushTask(task);
+ * </pre>
+ *
+ * Each thread has a free list of its own, so obtaining and releasing
+ * a task takes no lock, and allocates nothing; the free lists are
+ * linked through the tasks themselves.  Tasks are usually obtained on
+ * one thread and released on another, the task thread that ran them:
+ * a thread whose free list is full moves it to a list shared by all
+ * the threads, which a thread whose free list is empty takes whole.
+ * A new task is only created when both are empty.
+ *
+ * @param <T> the type of the tasks.
+ *
+ * @author Rubens Gomes
+ */
+public final class TaskRecycler<T extends RecyclableTask>
+{
+
+    /** The default maximum number of tasks in a thread free list. */
+    public static final int DEFAULT_MAX_LOCAL = 256;
+
+    /**
+     * Instantiates a new recycler.
+     *
+     * @param factory creates a new task when there is none to reuse.
+     */
+    public TaskRecycler(final Supplier<T> factory)
+    {
+        this(factory, DEFAULT_MAX_LOCAL);
+    }
+
+    /**
+     * Instantiates a new recycler.
+     *
+     * @param factory creates a new task when there is none to reuse.
+     * @param max_local the maximum number of tasks a thread keeps in
+     * its own free list.
+     */
+    public TaskRecycler(final Supplier<T> factory, final int max_local)
+    {
+
+        if( factory == null )
+        {
+            throw new IllegalArgumentException("factory cannot be null.");
+        }
+
+        if( max_local < 1 )
+        {
+            throw new IllegalArgumentException(
+                    "max local must be at least 1.");
+        }
+
+        v_factory = factory;
+        v_max_local = max_local;
+        v_local = ThreadLocal.withInitial(FreeList::new);
+    }
+
+    /**
+     * Obtains a task: one that has run, and been reset, if there is
+     * one, or else a new one.
+     *
+     * @return the task.
+     */
+    @SuppressWarnings("unchecked")
+    public T obtain()
+    {
+        FreeList list = v_local.get();
+        RecyclableTask task = list.pop();
+
+        if( task == null )
+        {
+            RecyclableTask shared = s_shared_updater.getAndSet(this, null);
+
+            if( shared != null )
+            {
+                list.adopt(shared);
+                task = list.pop();
+            }
+        }
+
+        if( task == null )
+        {
+            T new_task = v_factory.get();
+            new_task.setRecycler(this);
+            return new_task;
+        }
+
+        return (T) task;
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Returns a task that has run, and been reset, to the free list
+     * of the current thread.
+     *
+     * @param task the task.
+     */
+    void release(final RecyclableTask task)
+    {
+        FreeList list = v_local.get();
+
+        if( list.v_size >= v_max_local )
+        {
+            share(list);
+        }
+
+        list.push(task);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** A free list, linked through the tasks. */
+    private static final class FreeList
+    {
+
+        void push(final RecyclableTask task)
+        {
+
+            if( v_head == null )
+            {
+                v_tail = task;
+            }
+
+            task.setNextFree(v_head);
+            v_head = task;
+            v_size++;
+        }
+
+        RecyclableTask pop()
+        {
+            RecyclableTask task = v_head;
+
+            if( task != null )
+            {
+                v_head = task.getNextFree();
+                task.setNextFree(null);
+
+                if( --v_size == 0 )
+                {
+                    v_tail = null;
+                }
+            }
+
+            return task;
+        }
+
+        /** Takes a list of tasks linked by another thread. */
+        void adopt(final RecyclableTask head)
+        {
+            RecyclableTask tail = head;
+            int size = 1;
+
+            while( tail.getNextFree() != null )
+            {
+                tail = tail.getNextFree();
+                size++;
+            }
+
+            // only ever called on an empty list.
+            v_head = head;
+            v_tail = tail;
+            v_size = size;
+        }
+
+        RecyclableTask v_head;
+        RecyclableTask v_tail;
+        int v_size;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TaskRecycler,
+                                                     RecyclableTask>
+        s_shared_updater = AtomicReferenceFieldUpdater.newUpdater(
+                TaskRecycler.class, RecyclableTask.class, "v_shared");
+
+    /**
+     * Moves a whole free list to the shared list.  The shared list is
+     * only ever taken whole, so the tasks may be pushed onto it with
+     * a compare and set, free of the ABA problem.
+     */
+    private void share(final FreeList list)
+    {
+        RecyclableTask shared;
+
+        do
+        {
+            shared = v_shared;
+            list.v_tail.setNextFree(shared);
+        }
+        while( ! s_shared_updater.compareAndSet(this, shared, list.v_head) );
+
+        list.v_head = null;
+        list.v_tail = null;
+        list.v_size = 0;
+    }
+
+    private final Supplier<T> v_factory;
+    private final int v_max_local;
+    private final ThreadLocal<FreeList> v_local;
+
+    /** The tasks moved out of full free lists. */
+    private volatile RecyclableTask v_shared;
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskRejectedException.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * Thrown by the ThreadPool when a task cannot be accepted because
+ * the TaskQueue is full.
+ *
+ * @author Rubens Gomes
+ */
+public class TaskRejectedException extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Instantiates a new task rejected exception.
+     *
+     * @param msg the detail message.
+     * @param policy the overflow policy that rejected the task.
+     */
+    public TaskRejectedException(final String msg,
+                                 final OverflowPolicy policy)
+    {
+        super(msg);
+        v_policy = policy;
+    }
+
+    /**
+     * @return the overflow policy that rejected the task: REJECT, or
+     * BLOCK if the queue stayed full for the whole blocking time.
+     */
+    public OverflowPolicy getPolicy()
+    {
+        return v_policy;
+    }
+
+    // ------ >>> Private <<< ------
+    private final OverflowPolicy v_policy;
+}
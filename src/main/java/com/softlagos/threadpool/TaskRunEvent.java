@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskRunEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event that spans the run of a task, on
+ * whichever thread runs it.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.threadpool.TaskRun")
+@Label("Task Run")
+@Category({ "Softlagos", "Thread Pool" })
+@Description("The run of a task.")
+@StackTrace(false)
+final class TaskRunEvent extends Event
+{
+
+    /**
+     * @return true if this event is enabled in a running flight
+     * recording.  Checked before the event is allocated, so that it
+     * costs a field read when it is not, whether or not the JIT
+     * compiler can remove the allocation.
+     */
+    static boolean isRecorded()
+    {
+        return s_type.isEnabled();
+    }
+
+    private static final EventType s_type =
+            EventType.getEventType(TaskRunEvent.class);
+
+    @Label("Task Class")
+    Class<?> taskClass;
+
+    @Label("Failed")
+    @Description("Whether the task threw an exception.")
+    boolean failed;
+
+    @Label("Exception Class")
+    Class<?> exceptionClass;
+}
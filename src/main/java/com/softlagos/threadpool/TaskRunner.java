@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskRunner.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs a task, completes its handle and notifies its listeners of
+ * the outcome, the same way whichever thread runs it: a TaskThread,
+ * a virtual thread, or the thread that pushed the task.  A
+ * RecyclableTask is then returned to its recycler.
+ *
+ * @author Rubens Gomes
+ */
+final class TaskRunner
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(TaskRunner.class);
+
+    /**
+     * Runs the given task on the current thread, completes its handle
+     * with the task result, and notifies its listeners that it is
+     * DONE; or, if it threw an exception, fails its handle with that
+     * exception, and notifies its listeners that it FAILED.
+     *
+     * A task cancelled, or timed out, before it starts is not run.
+     * Its listeners, and those of a task cancelled or timed out while
+     * it ran, are notified that it was INTERRUPTED, or TIMED_OUT,
+     * whatever the task did.
+     *
+     * @param task the task to be run.
+     * @return false if the task failed, true otherwise.
+     */
+    static boolean run(final Task task)
+    {
+        return run(task, null);
+    }
+
+    /**
+     * Runs the given task, as run(Task), and records how long it
+     * waited to start, how long it ran, and how it ended.
+     *
+     * @param task the task to be run.
+     * @param metrics where the task is recorded, or null.
+     * @return false if the task failed, true otherwise.
+     */
+    static boolean run(final Task task, final RunMetrics metrics)
+    {
+        boolean is_ok = runAndNotify(task, metrics);
+
+        if( task instanceof RecyclableTask )
+        {
+            ((RecyclableTask) task).recycle();
+        }
+
+        return is_ok;
+    }
+
+    // ------ >>> Private <<< ------
+    private TaskRunner()
+    {
+    }
+
+    /**
+     * Runs the given task, and notifies its listeners, as run(Task,
+     * RunMetrics).
+     */
+    private static boolean runAndNotify(final Task task,
+                                        final RunMetrics metrics)
+    {
+        // the handle of this push: the task may be pushed again as
+        // soon as it has run, with a new handle.
+        TaskHandle<?> handle = task.getHandle();
+
+        if( handle != null && ! handle.start() )
+        {
+            notifyAborted(task, handle, metrics);
+            return true;
+        }
+
+        long start = 0L;
+
+        if( metrics != null )
+        {
+            start = System.nanoTime();
+            metrics.taskStarted(task, start);
+        }
+
+        Object value = null;
+        Throwable failure = null;
+        TaskRunEvent event = null;
+
+        if( TaskRunEvent.isRecorded() )
+        {
+            event = new TaskRunEvent();
+            event.begin();
+        }
+
+        try
+        {
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("running task ...");
+            }
+
+            value = task.execute();
+        }
+        catch(Throwable ex)
+        {
+            // an Error too: the handle must complete, and the thread
+            // that ran the task be told it failed.
+            failure = ex;
+        }
+        finally
+        {
+
+            if( handle != null )
+            {
+                handle.finish();
+            }
+
+            if( metrics != null )
+            {
+                metrics.taskRan(start, System.nanoTime());
+            }
+
+        }
+
+        if( event != null && event.shouldCommit() )
+        {
+            event.taskClass = task.getClass();
+            event.failed = failure != null;
+            event.exceptionClass = failure != null ? failure.getClass() : null;
+            event.commit();
+        }
+
+        if( failure != null )
+        {
+
+            if( handle != null && ! handle.fail(failure) )
+            {
+                notifyAborted(task, handle, metrics);
+                return true;
+            }
+
+            if( metrics != null )
+            {
+                metrics.taskFailed();
+            }
+
+            if(logger.isErrorEnabled())
+            {
+                logger.error("task failed: exception class [" +
+                             failure.getClass().getName() + "], msg [" +
+                             failure.getMessage() + "].", failure);
+            }
+
+            task.notifyListeners(Task.Status.FAILED, failure.getMessage());
+            return false;
+        }
+
+        if( handle != null && ! complete(handle, value) )
+        {
+            notifyAborted(task, handle, metrics);
+            return true;
+        }
+
+        if( metrics != null )
+        {
+            metrics.taskCompleted();
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("notifying listener: DONE");
+        }
+
+        task.notifyListeners(Task.Status.DONE,  "Done");
+        return true;
+    }
+
+    /**
+     * Completes a handle with the task result.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean complete(final TaskHandle<?> handle,
+                                    final Object value)
+    {
+        return ((TaskHandle<Object>) handle).complete(value);
+    }
+
+    /**
+     * Notifies the listeners of a task whose handle was completed
+     * by someone else than the thread running it.
+     */
+    private static void notifyAborted(final Task task,
+                                      final TaskHandle<?> handle,
+                                      final RunMetrics metrics)
+    {
+        Throwable ex = handle.getException();
+
+        if( metrics != null )
+        {
+            metrics.taskAborted();
+        }
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("task aborted: " +
+                        (ex == null ? null : ex.getMessage()));
+        }
+
+        if( ex instanceof TimeoutException )
+        {
+            task.notifyListeners(Task.Status.TIMED_OUT, ex.getMessage());
+        }
+        else
+        {
+            task.notifyListeners(Task.Status.INTERRUPTED,
+                                 ex == null ? null : ex.getMessage());
+        }
+    }
+}
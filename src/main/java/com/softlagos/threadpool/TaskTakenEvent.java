@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskTakenEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event committed when a task thread takes a
+ * task to run: from its own local deque, from the pool queue, or
+ * stolen from another task thread deque.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.threadpool.TaskTaken")
+@Label("Task Taken")
+@Category({ "Softlagos", "Thread Pool" })
+@Description("A task taken by a task thread to run.")
+@StackTrace(false)
+final class TaskTakenEvent extends Event
+{
+
+    /**
+     * @return true if this event is enabled in a running flight
+     * recording, as checked before one is allocated.
+     */
+    static boolean isRecorded()
+    {
+        return s_type.isEnabled();
+    }
+
+    private static final EventType s_type =
+            EventType.getEventType(TaskTakenEvent.class);
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Task Class")
+    Class<?> taskClass;
+
+    @Label("Source")
+    @Description("Where the task was taken from: local, queue or steal.")
+    String source;
+
+    @Label("Queue Wait")
+    @Description("How long the task waited since it was pushed.")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueWait;
+}
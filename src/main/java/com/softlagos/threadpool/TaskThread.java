@@ -10,6 +10,12 @@ package com.softlagos.threadpool;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,6 +25,38 @@ import org.apache.logging.log4j.Logger;
  * the TrheadPool.  It is used to execute tasks that are
  * added to the ThreadPool task queue.
  *
+ * Each task thread owns a work-stealing TaskDeque.  Tasks pushed
+ * to the pool from inside a running task go to the local deque of
+ * the task thread running it, rather than to the shared TaskQueue.
+ * An idle task thread looks for work in its own deque first, then
+ * in the shared TaskQueue, and then steals from the tail of the
+ * other task threads deques before blocking on the TaskQueue.
+ *
+ * A task thread may take a batch of tasks from the TaskQueue at a
+ * time: it runs the first one, and keeps the others in its local
+ * deque, where idle task threads may still steal them.
+ *
+ * Under a pool WaitStrategy other than BLOCKING, an idle task
+ * thread polls the shared TaskQueue, and steals now and then, for up
+ * to the pool spin time before it blocks.  The queue is told about
+ * it, so that producers skip waking up a blocked thread for a task
+ * the spinning one will see.
+ *
+ * A task thread of a pool given a CPU affinity pins itself to the
+ * CPU it is given when it starts, on Linux.
+ *
+ * In an elastic pool, a task thread only waits for the keep alive
+ * time for a task, and then asks the pool whether it may retire.
+ *
+ * Once its pool is shutdown, a task thread no longer blocks: it
+ * runs the tasks left in the queue and deques, and then stops.  A
+ * task thread blocked waiting for a task when the pool is shutdown
+ * is woken up by an interrupt, which is never delivered once it has
+ * taken a task.
+ *
+ * Each task thread records the tasks it runs, and the time it is
+ * idle, into metrics of its own, which its pool sums up when read.
+ *
  * @author Rubens Gomes
  */
 public final class TaskThread implements Runnable
@@ -26,19 +64,17 @@ public final class TaskThread implements Runnable
     private static final Logger logger =
             LogManager.getLogger(TaskThread.class);
 
+    /** The task thread bound to the current thread, if any. */
+    private static final ThreadLocal<TaskThread> s_current =
+            new ThreadLocal<TaskThread>();
+
     /**
-     * Instantiates a new task thread.
+     * Instantiates a new task thread that takes its tasks from
+     * the TaskQueue singleton, without work-stealing.
      */
     public TaskThread()
     {
-        v_is_stopped = false;
-        v_id = "";  // will be assigned within run.
-
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("constructed.");
-        }
-
+        this(null, TaskQueue.instance(), 1);
     }
 
     /**
@@ -60,7 +96,332 @@ public final class TaskThread implements Runnable
             logger.trace("My thread id: " + v_id);
         }
 
-        TaskQueue task_queue = TaskQueue.instance();
+        s_current.set(this);
+        v_thread = Thread.currentThread();
+
+        if( v_cpu >= 0 )
+        {
+            pin();
+        }
+
+        try
+        {
+            runTasks();
+        }
+        finally
+        {
+            // reached whatever a task, or its listeners, threw, so
+            // that the pool always removes, or replaces, this thread.
+            s_current.remove();
+
+            if( v_pool != null )
+            {
+                v_pool.threadStopped(this);
+            }
+        }
+    }
+
+    /**
+     * Sets a flag to prevent this task thread from
+     * running.
+     */
+    public void stopMe()
+    {
+        v_is_stopped = true;
+    }
+
+    /**
+     * @return the running status of this task thread.
+     */
+    public boolean isStopped()
+    {
+        return v_is_stopped;
+    }
+
+    /**
+     * @return my own task thread id
+     */
+    public String getThreadId()
+    {
+        return v_id;
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * @return the task thread running on the current thread, or
+     * null if the current thread is not a task thread.
+     */
+    static TaskThread current()
+    {
+        return s_current.get();
+    }
+
+    /**
+     * Instantiates a new task thread.
+     *
+     * @param pool the pool this task thread belongs to, and whose
+     * other task threads it may steal work from; or null to take
+     * tasks from the given queue only.
+     * @param queue the queue of the pool.
+     * @param batch_size the maximum number of tasks taken from the
+     * queue at a time.
+     */
+    TaskThread(final ThreadPool pool, final TaskQueue queue,
+               final int batch_size)
+    {
+
+        if( batch_size < 1 )
+        {
+            throw new IllegalArgumentException(
+                    "batch size must be at least 1.");
+        }
+
+        v_pool = pool;
+        v_queue = queue;
+        v_deque = new TaskDeque();
+        v_batch_size = batch_size;
+        v_batch = new ArrayList<Task>(batch_size);
+        v_metrics = new RunMetrics(true);
+        v_wait_strategy = pool != null ?
+            pool.getWaitStrategy() : WaitStrategy.BLOCKING;
+        v_spin_nanos = pool != null ? pool.getSpinNanos() : 0L;
+        v_has_work = pool != null ? () -> pool.hasStealableTask(this) : null;
+        v_is_stopped = false;
+        v_id = "";  // will be assigned within run.
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed.");
+        }
+
+    }
+
+    /**
+     * @return the pool this task thread belongs to, or null.
+     */
+    ThreadPool getPool()
+    {
+        return v_pool;
+    }
+
+    /**
+     * @return the metrics of the tasks run by this task thread.
+     */
+    RunMetrics getMetrics()
+    {
+        return v_metrics;
+    }
+
+    /**
+     * @return the name of the thread running this task thread, or
+     * an empty string if it has not run yet.
+     */
+    String getThreadName()
+    {
+        Thread thread = v_thread;
+
+        return thread == null ? "" : thread.getName();
+    }
+
+    /**
+     * Sets the CPU this task thread pins itself to when it starts;
+     * must be called before it starts.
+     *
+     * @param cpu the CPU, or -1 to not pin it.
+     */
+    void setCpu(final int cpu)
+    {
+        v_cpu = cpu;
+    }
+
+    /**
+     * @return the CPU this task thread is pinned to, or -1.
+     */
+    int getCpu()
+    {
+        return v_cpu;
+    }
+
+    /**
+     * @return the CPUs this task thread runs on, as listed by Linux,
+     * once it has pinned itself; or an empty string if it is not
+     * pinned, or they are not known.
+     */
+    String getCpuAffinity()
+    {
+        return v_cpu_affinity;
+    }
+
+    /**
+     * @return the number of tasks in this task thread local deque.
+     */
+    int getLocalDepth()
+    {
+        return v_deque.size();
+    }
+
+    /**
+     * Pushes a task to this task thread local deque.  Must only be
+     * called from this task thread own thread.
+     *
+     * @param task the task to be pushed.
+     */
+    void pushLocal(final Task task)
+    {
+        v_deque.push(task);
+
+        // thieves that find work in a deque pass the wake up along,
+        // so a signal is only needed when the deque becomes non-empty.
+        // It is read after the push: a thief that takes the last task
+        // before the push sees an empty deque, and may go idle, but
+        // then we see the task we pushed alone in the deque.
+        if( v_deque.size() == 1 )
+        {
+            v_queue.wakeUp();
+        }
+    }
+
+    /**
+     * Steals the oldest task from this task thread local deque.
+     *
+     * @return the stolen task, or null if there is none.
+     */
+    Task steal()
+    {
+        Task task = v_deque.steal();
+
+        if( task != null && ! v_deque.isEmpty() )
+        {
+            // more work left behind: let another idle thread know.
+            v_queue.wakeUp();
+        }
+
+        return task;
+    }
+
+    /**
+     * Runs other tasks until the given handle completes, rather than
+     * blocking this task thread: the tasks of the local deque first,
+     * most recently forked first, then those of the shared queue and
+     * of the other task threads deques.  Waits for the handle only
+     * while there is no task to run.  Must only be called from this
+     * task thread own thread, by the task it is running.
+     *
+     * @param handle the handle of the task joined.
+     * @throws InterruptedException if this thread was interrupted.
+     */
+    void helpJoin(final TaskHandle<?> handle) throws InterruptedException
+    {
+
+        while( ! handle.isDone() )
+        {
+
+            if( Thread.interrupted() )
+            {
+                throw new InterruptedException("join interrupted.");
+            }
+
+            Task task = v_deque.pop();
+            String source = SOURCE_LOCAL;
+
+            if( task == null )
+            {
+                task = takeFromQueue(false);
+                source = SOURCE_QUEUE;
+            }
+
+            if( task == null )
+            {
+                task = v_pool.stealTask(this);
+                source = SOURCE_STEAL;
+            }
+
+            if( task == null )
+            {
+                // the joined task runs on another thread.
+                handle.await(JOIN_WAIT_NANOS);
+                continue;
+            }
+
+            taken(task, source);
+
+            if( ! v_pool.runJoining(task) )
+            {
+                // as in run(): a failed task takes its thread down.
+                stopMe();
+            }
+        }
+    }
+
+    /**
+     * Interrupts this task thread if it is blocked waiting for a
+     * task, so that it sees its pool has been shutdown.  A task
+     * thread running a task is not interrupted.
+     */
+    void wakeIfIdle()
+    {
+
+        if( s_state_updater.compareAndSet(this, IDLE, WAKING) )
+        {
+            v_was_woken = true;
+            v_thread.interrupt();
+            v_state = IDLE;
+        }
+    }
+
+    /**
+     * Interrupts this task thread, whether it is running a task or
+     * not; used by shutdownNow().
+     */
+    void interruptNow()
+    {
+        Thread thread = v_thread;
+
+        if( thread != null )
+        {
+            thread.interrupt();
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final int BUSY = 0;
+    private static final int IDLE = 1;
+    private static final int WAKING = 2;
+
+    /** Where a task is taken from, as told by a TaskTakenEvent. */
+    private static final String SOURCE_LOCAL = "local";
+    private static final String SOURCE_QUEUE = "queue";
+    private static final String SOURCE_STEAL = "steal";
+
+    /** How often a spinning task thread tries to steal. */
+    private static final int SPIN_STEAL_MASK = 31;
+
+    /** How often a spinning task thread reads the clock. */
+    private static final int SPIN_CLOCK_MASK = 15;
+
+    /** The polls before a spinning task thread yields or parks. */
+    private static final int SPIN_TRIES = 128;
+
+    /** The longest a spinning task thread parks between polls. */
+    private static final long MAX_PARK_NANOS = 100000L;
+
+    /**
+     * How long a joining task thread that found no task to run waits
+     * for the joined task before it looks for one again.
+     */
+    private static final long JOIN_WAIT_NANOS = 100000L;
+
+    private static final AtomicIntegerFieldUpdater<TaskThread>
+        s_state_updater = AtomicIntegerFieldUpdater.newUpdater(
+                TaskThread.class, "v_state");
+
+    /**
+     * Runs tasks until this task thread is stopped.
+     */
+    private void runTasks()
+    {
 
         while( ! v_is_stopped )
         {
@@ -70,26 +431,65 @@ public final class TaskThread implements Runnable
                 logger.trace("poping task from queue.");
             }
 
+            if( v_pool != null && v_pool.isStopping() )
+            {
+                // shutdownNow: the tasks left are not run.
+                stopMe();
+                continue;
+            }
+
+            // checked before looking for tasks, so that a task queued
+            // before the shutdown is not missed.
+            boolean is_draining = v_pool != null && v_pool.isShutdown();
+
             Task task = null;
             try
             {
                 // following call blocks on a wait until a
-                // task is available.
-                task = task_queue.pop();
+                // task is available, unless the pool is draining.
+                task = nextTask( ! is_draining );
 
-                if(logger.isTraceEnabled())
+                if( task == null )
                 {
-                    logger.trace("running task ...");
+
+                    if( is_draining )
+                    {
+
+                        if(logger.isTraceEnabled())
+                        {
+                            logger.trace("pool drained: stopping.");
+                        }
+
+                        stopMe();
+                        continue;
+                    }
+
+                    if( v_pool != null &&
+                        v_pool.retireIfIdle(this, System.nanoTime() -
+                                            v_metrics.getIdleSince()) )
+                    {
+                        stopMe();
+                    }
+
+                    // woken up without a task; look again.
+                    continue;
                 }
 
-                task.run();
+                if( v_wait_strategy == WaitStrategy.ADAPTIVE )
+                {
+                    waited();
+                }
 
-                if(logger.isTraceEnabled())
+                if( v_pool != null )
                 {
-                    logger.trace("notifying listener: DONE");
+                    v_pool.growOnWaitTime(task);
                 }
 
-                task.notifyListeners(Task.Status.DONE,  "Done");
+                if( ! TaskRunner.run(task, v_metrics) )
+                {
+                    // a failed task takes its thread down with it.
+                    stopMe();
+                }
             }
             catch(InterruptedException ex)
             {
@@ -101,7 +501,7 @@ public final class TaskThread implements Runnable
 
                 stopMe();
             }
-            catch(Exception ex)
+            catch(Throwable ex)
             {
 
                 String class_name = ex.getClass().getName();
@@ -119,6 +519,7 @@ public final class TaskThread implements Runnable
 
                 if (task != null)
                 {
+                    task.fail(ex);
                     task.notifyListeners(Task.Status.FAILED,
                                          ex.getMessage());
                 }
@@ -130,43 +531,349 @@ public final class TaskThread implements Runnable
     }
 
     /**
-     * Sets a flag to prevent this task thread from
-     * running.
+     * Finds the next task to run: from the local deque, the shared
+     * queue, or another task thread deque, in that order.  Blocks
+     * on the shared queue if no task is found anywhere.
+     *
+     * @param block whether to block if no task is found.
+     * @return the next task, or null if woken up without one, or if
+     * the keep alive time elapsed.
      */
-    public void stopMe()
+    private Task nextTask(final boolean block) throws InterruptedException
     {
-        v_is_stopped = true;
+        Task task = v_deque.pop();
+        String source = SOURCE_LOCAL;
+
+        if( task == null )
+        {
+            task = takeFromQueue(false);
+            source = SOURCE_QUEUE;
+        }
+
+        if( task == null && v_pool != null )
+        {
+            task = v_pool.stealTask(this);
+            source = SOURCE_STEAL;
+        }
+
+        if( task == null && block && v_wait_strategy != WaitStrategy.BLOCKING )
+        {
+            task = spin();
+
+            if( task != null )
+            {
+                return task;
+            }
+        }
+
+        if( task == null && block )
+        {
+            // a task pushed to another deque between the steal
+            // attempt above and the wait below does not wake us up,
+            // as we are not waiting yet; so the queue has the deques
+            // looked at again once we are, and returns null to have
+            // us steal it.  Its owner may be blocked on it.
+            task = v_pool != null ? takeIdle() : takeFromQueue(true);
+            source = SOURCE_QUEUE;
+        }
+
+        if( task != null )
+        {
+            taken(task, source);
+        }
+
+        return task;
     }
 
     /**
-     * @return the running status of this task thread.
+     * Polls the shared queue, and steals now and then, for up to the
+     * spin time, backing off as told by the pool wait strategy.
+     *
+     * @return the next task, or null if none was found in time, or
+     * the pool was shutdown.
      */
-    public boolean isStopped()
+    private Task spin() throws InterruptedException
     {
-        return v_is_stopped;
+        long spin_nanos = v_spin_nanos;
+
+        if( v_wait_strategy == WaitStrategy.ADAPTIVE &&
+            v_avg_wait_nanos >= spin_nanos )
+        {
+            // the tasks come too far apart for spinning to pay off.
+            spin_nanos = 0L;
+        }
+
+        if( spin_nanos <= 0L )
+        {
+            return null;
+        }
+
+        long deadline = System.nanoTime() + spin_nanos;
+        long park_nanos = 1000L;
+        Task task = null;
+        String source = SOURCE_QUEUE;
+
+        v_queue.startSpinning();
+        try
+        {
+
+            for(int i = 1; ; i++)
+            {
+
+                if( ! v_queue.isEmpty() &&
+                    (task = takeFromQueue(false)) != null )
+                {
+                    break;
+                }
+
+                if( (i & SPIN_STEAL_MASK) == 0 &&
+                    (task = v_pool.stealTask(this)) != null )
+                {
+                    source = SOURCE_STEAL;
+                    break;
+                }
+
+                if( ((i & SPIN_CLOCK_MASK) == 0 || i > SPIN_TRIES) &&
+                    (System.nanoTime() - deadline >= 0L ||
+                     v_pool.isShutdown()) )
+                {
+                    break;
+                }
+
+                if( i <= SPIN_TRIES ||
+                    v_wait_strategy == WaitStrategy.BUSY_SPIN )
+                {
+                    Thread.onSpinWait();
+                }
+                else if( v_wait_strategy == WaitStrategy.SPIN_PARK )
+                {
+                    LockSupport.parkNanos(park_nanos);
+                    park_nanos = Math.min(2L * park_nanos, MAX_PARK_NANOS);
+                }
+                else
+                {
+                    Thread.yield();
+                }
+            }
+
+        }
+        finally
+        {
+            // a producer may have claimed this thread to see its task:
+            // the queue is read again below, or in pop(), to find it.
+            v_queue.stopSpinning();
+        }
+
+        if( task != null )
+        {
+
+            if( ! v_queue.isEmpty() || v_pool.hasStealableTask(this) )
+            {
+                // pass the wake up along to another idle thread: it
+                // may have been for work in a deque.
+                v_queue.wakeUp();
+            }
+
+            taken(task, source);
+        }
+
+        return task;
     }
 
     /**
-     * @return my own task thread id
+     * Averages the time this task thread waits for its tasks, from
+     * the end of its previous task, for the ADAPTIVE wait strategy.
      */
-    public String getThreadId()
+    private void waited()
     {
-        return v_id;
+        long wait_nanos = System.nanoTime() - v_metrics.getIdleSince();
+
+        v_avg_wait_nanos += (wait_nanos - v_avg_wait_nanos) >> 3;
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
+    /**
+     * Pins this task thread to its CPU, and reads back where it runs.
+     * An unpinned task thread still runs tasks, on any CPU.
      */
-    @Override
-    public void finalize()
+    private void pin()
     {
-        if(logger.isTraceEnabled())
+
+        if( ! CpuAffinity.pin(v_cpu) && CpuAffinity.isSupported() &&
+            logger.isWarnEnabled() )
         {
-            logger.trace("GC collected.");
+            logger.warn("task thread not pinned to cpu [" + v_cpu + "].");
         }
+
+        v_cpu_affinity = CpuAffinity.current();
     }
 
-    // ------ >>> Private <<< ------
+    /**
+     * Commits a TaskTakenEvent, if the event is enabled in a running
+     * flight recording.
+     */
+    private void taken(final Task task, final String source)
+    {
+        if( ! TaskTakenEvent.isRecorded() )
+        {
+            return;
+        }
+
+        TaskTakenEvent event = new TaskTakenEvent();
+
+        if( ! event.shouldCommit() )
+        {
+            return;
+        }
+
+        long queued_at = task.getQueuedAt();
+
+        event.pool = v_pool != null ? v_pool.getName() : null;
+        event.taskClass = task.getClass();
+        event.source = source;
+        event.queueWait = queued_at != 0L ?
+            System.nanoTime() - queued_at : 0L;
+        event.commit();
+    }
+
+    /**
+     * Blocks on the shared queue, as an idle task thread that the
+     * pool may wake up when it is shutdown.
+     *
+     * @return the next task, or null if there is none.
+     */
+    private Task takeIdle() throws InterruptedException
+    {
+        Task task = null;
+        InterruptedException interrupt = null;
+
+        // the state is set before the pool state is read, and the
+        // pool state is set before the task threads states are read,
+        // so one of the two always sees the other.
+        v_state = IDLE;
+
+        try
+        {
+
+            if( ! v_pool.isShutdown() )
+            {
+                task = takeFromQueue(true);
+            }
+
+        }
+        catch(InterruptedException ex)
+        {
+            interrupt = ex;
+        }
+
+        // wait for a wake up in progress to be delivered.
+        while( ! s_state_updater.compareAndSet(this, IDLE, BUSY) )
+        {
+            Thread.onSpinWait();
+        }
+
+        if( v_was_woken )
+        {
+            // the wake up is not an interrupt of the task to be run.
+            v_was_woken = false;
+            Thread.interrupted();
+            return task;
+        }
+
+        if( interrupt != null )
+        {
+            throw interrupt;
+        }
+
+        return task;
+    }
+
+    /**
+     * Takes a task, or a batch of tasks, from the shared queue.
+     * The first task of a batch is returned, and the others are
+     * pushed to the local deque, in an order such that this thread
+     * pops them in the order they were queued.
+     *
+     * @param block whether to block if the queue is empty.
+     * @return the next task, or null if there is none.
+     */
+    private Task takeFromQueue(final boolean block)
+        throws InterruptedException
+    {
+
+        if( v_batch_size > 1 && v_queue.drainTo(v_batch, v_batch_size) > 0 )
+        {
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("took a batch of [" + v_batch.size() +
+                             "] tasks.");
+            }
+
+            for(int i = v_batch.size() - 1; i > 0; i--)
+            {
+                v_deque.push(v_batch.get(i));
+            }
+
+            Task task = v_batch.get(0);
+            v_batch.clear();
+
+            if( ! v_deque.isEmpty() )
+            {
+                v_queue.wakeUp();
+            }
+
+            return task;
+        }
+
+        if( ! block )
+        {
+            return v_queue.poll();
+        }
+
+        if( v_pool == null )
+        {
+            return v_queue.pop();
+        }
+
+        return v_queue.popIdle(v_pool.getKeepAliveNanos(),
+                               TimeUnit.NANOSECONDS, v_has_work);
+    }
+
+    private final ThreadPool v_pool;
+    private final TaskQueue v_queue;
+    private final TaskDeque v_deque;
+    private final int v_batch_size;
+
+    /** The reusable buffer batches are drained into. */
+    private final List<Task> v_batch;
+
+    /** The metrics of the tasks run by this task thread. */
+    private final RunMetrics v_metrics;
+
+    /** What this task thread does before it blocks on the queue. */
+    private final WaitStrategy v_wait_strategy;
+    private final long v_spin_nanos;
+
+    /** Whether another task thread deque has a task to steal. */
+    private final BooleanSupplier v_has_work;
+
+    /** The recent average time waited for a task, for ADAPTIVE. */
+    private long v_avg_wait_nanos;
+
+    /** The CPU this task thread pins itself to, or -1. */
+    private int v_cpu = -1;
+
+    /** The CPUs this task thread runs on, once pinned. */
+    private volatile String v_cpu_affinity = "";
     private String v_id;
     private volatile boolean v_is_stopped;
+
+    /** The thread running this task thread; set once it runs. */
+    private volatile Thread v_thread;
+
+    /** BUSY, IDLE while blocked on the queue, or WAKING. */
+    private volatile int v_state;
+
+    /** Whether the pool interrupted this idle task thread. */
+    private volatile boolean v_was_woken;
 }
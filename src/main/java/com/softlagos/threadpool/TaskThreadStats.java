@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskThreadStats.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * The counters of one task thread of a ThreadPool, and the CPUs it
+ * runs on, as read by ThreadPoolMXBean.getTaskThreadStats().
+ *
+ * @author Rubens Gomes
+ */
+public final class TaskThreadStats
+{
+
+    /**
+     * Instantiates the counters of a task thread.
+     *
+     * @param thread_name the name of the task thread.
+     * @param nr_completed the number of tasks that ran, and returned.
+     * @param nr_failed the number of tasks that threw an exception.
+     * @param nr_aborted the number of tasks cancelled, or timed out.
+     * @param busy_nanos the time spent running tasks.
+     * @param idle_nanos the time spent waiting for a task.
+     * @param cpu_affinity the CPUs the task thread runs on, once
+     * pinned, in the Linux list format; or an empty string.
+     */
+    public TaskThreadStats(final String thread_name,
+                           final long nr_completed,
+                           final long nr_failed,
+                           final long nr_aborted,
+                           final long busy_nanos,
+                           final long idle_nanos,
+                           final String cpu_affinity)
+    {
+        v_thread_name = thread_name;
+        v_nr_completed = nr_completed;
+        v_nr_failed = nr_failed;
+        v_nr_aborted = nr_aborted;
+        v_busy_nanos = busy_nanos;
+        v_idle_nanos = idle_nanos;
+        v_cpu_affinity = cpu_affinity;
+    }
+
+    /**
+     * Rebuilds the counters read through JMX.
+     *
+     * @param data the counters, as read through JMX.
+     * @return the counters.
+     */
+    public static TaskThreadStats from(final CompositeData data)
+    {
+        return new TaskThreadStats((String) data.get("threadName"),
+                (Long) data.get("completedTaskCount"),
+                (Long) data.get("failedTaskCount"),
+                (Long) data.get("abortedTaskCount"),
+                (Long) data.get("busyTimeNanos"),
+                (Long) data.get("idleTimeNanos"),
+                (String) data.get("cpuAffinity"));
+    }
+
+    /**
+     * @return the name of the task thread; empty until it runs.
+     */
+    public String getThreadName()
+    {
+        return v_thread_name;
+    }
+
+    /**
+     * @return the number of tasks that ran, and returned.
+     */
+    public long getCompletedTaskCount()
+    {
+        return v_nr_completed;
+    }
+
+    /**
+     * @return the number of tasks that ran, and threw an exception.
+     */
+    public long getFailedTaskCount()
+    {
+        return v_nr_failed;
+    }
+
+    /**
+     * @return the number of tasks cancelled, or timed out.
+     */
+    public long getAbortedTaskCount()
+    {
+        return v_nr_aborted;
+    }
+
+    /**
+     * @return the time spent running tasks, in nanoseconds.
+     */
+    public long getBusyTimeNanos()
+    {
+        return v_busy_nanos;
+    }
+
+    /**
+     * @return the time spent waiting for a task, in nanoseconds.
+     */
+    public long getIdleTimeNanos()
+    {
+        return v_idle_nanos;
+    }
+
+    /**
+     * @return the CPUs the task thread runs on, in the Linux list
+     * format, once it is pinned to one; or an empty string if it is
+     * not pinned, or could not read where it runs.
+     */
+    public String getCpuAffinity()
+    {
+        return v_cpu_affinity;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return v_thread_name + ": completed [" + v_nr_completed +
+               "], failed [" + v_nr_failed + "], aborted [" +
+               v_nr_aborted + "], busy [" + v_busy_nanos +
+               "] ns, idle [" + v_idle_nanos + "] ns" +
+               (v_cpu_affinity.isEmpty() ? "" :
+                ", cpus [" + v_cpu_affinity + "]");
+    }
+
+    // ------ >>> Private <<< ------
+    private final String v_thread_name;
+    private final long v_nr_completed;
+    private final long v_nr_failed;
+    private final long v_nr_aborted;
+    private final long v_busy_nanos;
+    private final long v_idle_nanos;
+    private final String v_cpu_affinity;
+}
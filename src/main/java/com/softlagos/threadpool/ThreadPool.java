@@ -8,6 +8,15 @@
  */
 package com.softlagos.threadpool;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -34,9 +43,110 @@ import com.softlagos.util.SystemProperties;
  * result in better performance and better system
  * stability.
  *
+ * Tasks pushed from outside the pool go to the shared
+ * TaskQueue.  Tasks pushed by a task that is itself
+ * running in the pool go to the local deque of the
+ * thread running it, and idle threads steal from the
+ * other threads deques, so that the shared queue lock
+ * is not a point of contention for task-spawning work.
+ *
+ * Alternatively, in virtual thread mode (Java 21 and later),
+ * the pool has no fixed threads nor queue: every task runs
+ * on its own new virtual thread, optionally capped by a
+ * maximum number of tasks running at the same time.  That
+ * mode suits tasks that mostly block on I/O.  The mode is
+ * selected with the ThreadPoolConstants.THREADPOOL_MODE
+ * property.
+ *
+ * Besides the ThreadPool singleton, which is configured from
+ * SystemProperties and uses the TaskQueue singleton, any number
+ * of independent, named, pools may be created with a Builder.
+ * Each one has its own TaskQueue and threads, so that different
+ * workloads can be kept apart (bulkheaded) and sized separately:
+ * <pre>
+ * ThreadPool batch_pool = new ThreadPool.Builder("batch")
+ *   .threads(4)
+ *   .queueCapacity(10000)
+ *   .build();
+ * </pre>
+ *
+ * A pool may also be elastic: it starts with a core number of
+ * task threads, and adds more, up to a maximum, when too many
+ * tasks are waiting in the queue or a task has waited too long
+ * for a thread.  The threads above the core number retire after
+ * being idle for a keep alive time.  A ResizeListener is told
+ * about every thread added or retired.
+ * <pre>
+ * ThreadPool io_pool = new ThreadPool.Builder("io")
+ *   .threads(4)
+ *   .maxThreads(32)
+ *   .keepAliveTime(30000)
+ *   .build();
+ * </pre>
+ *
+ * An idle task thread blocks on the queue, and is woken up by the
+ * producer of its next task.  Under a WaitStrategy other than
+ * BLOCKING, it first polls for a task for up to a spin time, which
+ * trades CPU time for a lower hand-off latency; the producers then
+ * skip the wake up of a task a spinning thread will see.
+ *
+ * On Linux, the task threads may also be pinned to a set of CPUs,
+ * one each, so that the scheduler does not move them, and their
+ * caches stay warm.  Where a task thread could not be pinned, it
+ * runs anywhere; where each one runs is told by its metrics.
+ *
+ * Tasks may also be scheduled to be pushed after a delay, or
+ * periodically.  The scheduled tasks wait in a hierarchical
+ * timing wheel, run by a single timer thread, rather than each
+ * one holding a thread; there can be millions of them.
+ *
+ * The same wheel times out the tasks given a timeout with
+ * Task.setTimeout(), and a pushed task may be cancelled through
+ * its TaskHandle.  Either way, a task that is still queued is
+ * skipped, and a running one is interrupted on its own thread.
+ *
+ * Fire-and-forget work may be pushed as a plain Runnable, such as a
+ * lambda, which the pool wraps in a task it reuses; or as a
+ * RecyclableTask, obtained from a TaskRecycler.  Neither has a
+ * TaskHandle, and pushing them allocates nothing.
+ *
+ * Tasks that depend on each other may be pushed as a TaskGraph: a
+ * task is pushed as soon as the last of its dependencies completes,
+ * and the tasks downstream of a failed one are skipped.  A task
+ * may also fork() subtasks, and join() them: a task thread that
+ * joins a subtask runs pending tasks, rather than blocking.
+ *
+ * The TaskListeners of the tasks are called back on the thread
+ * that ran the task, unless the pool has listener dispatcher
+ * threads, which then call them back in batches, off the task
+ * threads.
+ *
+ * Every pool keeps metrics of its tasks: how long they waited in
+ * the queue and ran, and how many completed, failed or were
+ * rejected, per task thread and in total.  They are registered as
+ * a ThreadPoolMXBean, and returned by getMetrics().
+ *
+ * The life cycle of the tasks may also be traced with JDK Flight
+ * Recorder: the pools commit an event when a task is pushed, taken
+ * by a task thread, run, and its listeners notified, which costs
+ * next to nothing unless a recording enables them.
+ *
+ * A pool holds threads until it is shut down: its task threads
+ * keep it reachable, so the garbage collector never stops them.
+ * A pool used for a bounded piece of work is best closed with a
+ * try-with-resources statement, which shuts it down and waits for
+ * its tasks to have run:
+ * <pre>
+ * try(ThreadPool pool = new ThreadPool.Builder("import").build())
+ * {
+ *   pool.pushTasks(tasks);
+ * }
+ * </pre>
+ *
  * @author Rubens Gomes
  */
 public final class ThreadPool
+    implements AutoCloseable
 {
 
     /** The Constant logger. */
@@ -45,7 +155,10 @@ public final class ThreadPool
 
     /** The Constant s_instance. */
     private final static ThreadPool s_instance =
-            new ThreadPool();
+            new Builder("ThreadPool")
+                .queue(TaskQueue.instance())
+                .threadNamePrefix("TaskThread-")
+                .build();
 
     /**
      * Singleton i8nstance.
@@ -62,163 +175,2141 @@ public final class ThreadPool
      * task to the task FIFO queue.  This task will
      * be executed by a free thread in the thread pool.
      *
+     * When called from a task running in this pool, the
+     * task is pushed to the running thread local deque
+     * instead, from where it may be stolen by idle threads.
+     *
+     * If the TaskQueue is bounded and full, the configured
+     * OverflowPolicy is applied, and the PushResult of the
+     * returned handle tells which one it was.
+     *
      * @param task a task to be run by a thread in the pool.
+     * @return the handle that completes once the task has run.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the task.
      */
-    public void pushTask(final Task task)
+    public TaskHandle<?> pushTask(final Task task)
     {
+        return pushHandle(task, Priority.NORMAL);
+    }
 
-        if(task == null)
-        {
-            throw new IllegalArgumentException("task cannot be null.");
-        }
+    /**
+     * Adds a task with the given priority to the task queue,
+     * the same way as pushTask(Task).  The priority orders
+     * the tasks of a PriorityTaskQueue, and is ignored by the
+     * other queues, and for tasks pushed to a local deque.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param priority the priority of the task.
+     * @return the handle that completes once the task has run.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the task.
+     */
+    public TaskHandle<?> pushTask(final Task task, final Priority priority)
+    {
+        return pushHandle(task, priority);
+    }
 
-        if(v_is_shutdown)
+    /**
+     * Adds a recyclable task to the task FIFO queue, the same
+     * way as pushTask(Task), but without a handle: the task is
+     * reset, and returned to the TaskRecycler it was obtained
+     * from, as soon as it has run, so nothing may refer to it
+     * once pushed.  Pushing it allocates nothing.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @return how the task was pushed.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the task.
+     */
+    public PushResult pushTask(final RecyclableTask task)
+    {
+        return pushRecyclable(task, Priority.NORMAL);
+    }
+
+    /**
+     * Adds a recyclable task with the given priority to the task
+     * queue, the same way as pushTask(RecyclableTask).
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param priority the priority of the task.
+     * @return how the task was pushed.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the task.
+     */
+    public PushResult pushTask(final RecyclableTask task,
+                               final Priority priority)
+    {
+        return pushRecyclable(task, priority);
+    }
+
+    /**
+     * Adds a Runnable, such as a lambda, to the task FIFO
+     * queue, the same way as pushTask(Task), but without a
+     * handle nor listeners.  The pool wraps it in a task of its
+     * own, which it reuses once the Runnable has run, so
+     * pushing it allocates nothing.
+     *
+     * @param runnable the code to be run by a thread in the pool.
+     * @return how the runnable was pushed.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the runnable.
+     */
+    public PushResult pushTask(final Runnable runnable)
+    {
+        return pushTask(runnable, Priority.NORMAL);
+    }
+
+    /**
+     * Adds a Runnable with the given priority to the task queue,
+     * the same way as pushTask(Runnable).
+     *
+     * @param runnable the code to be run by a thread in the pool.
+     * @param priority the priority of the runnable.
+     * @return how the runnable was pushed.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the runnable.
+     */
+    public PushResult pushTask(final Runnable runnable,
+                               final Priority priority)
+    {
+
+        if(runnable == null)
         {
-            throw new RuntimeException("ThreadPool has been shutdown.");
+            throw new IllegalArgumentException("runnable cannot be null.");
         }
 
-        TaskQueue task_queue = TaskQueue.instance();
+        RunnableTask task = v_runnables.obtain();
+        task.setRunnable(runnable);
+        return pushRecyclable(task, priority);
+    }
+
+    /**
+     * Adds a task that computes a result to the task FIFO
+     * queue, the same way as pushTask(Task).
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param <T> the type of the task result.
+     * @return the handle that carries the task result, or the
+     * exception the task failed with, once the task has run.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the task.
+     */
+    public <T> TaskHandle<T> pushTask(final ResultTask<T> task)
+    {
+        return pushHandle(task, Priority.NORMAL);
+    }
 
-        if(logger.isTraceEnabled())
+    /**
+     * Adds a task that computes a result with the given
+     * priority to the task queue, the same way as
+     * pushTask(Task, Priority).
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param priority the priority of the task.
+     * @param <T> the type of the task result.
+     * @return the handle that carries the task result, or the
+     * exception the task failed with, once the task has run.
+     * @throws TaskRejectedException if the queue is full and
+     * the overflow policy rejected the task.
+     */
+    public <T> TaskHandle<T> pushTask(final ResultTask<T> task,
+                                      final Priority priority)
+    {
+        return pushHandle(task, priority);
+    }
+
+    /**
+     * Schedules a task to be pushed to the task queue after the
+     * given delay.  If the queue is full then, the task is not
+     * run: its handle fails with a TaskRejectedException and its
+     * listeners are notified that it FAILED.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param delay the delay before the task is pushed.
+     * @param unit the unit of the delay.
+     * @return the handle that cancels the scheduled task.
+     */
+    public TimerHandle schedule(final Task task, final long delay,
+                                final TimeUnit unit)
+    {
+
+        if(task == null || unit == null)
         {
-            logger.trace("adding task to queue.");
+            throw new IllegalArgumentException(
+                    "task and unit cannot be null.");
         }
 
-        task_queue.push(task);
+        return timer().schedule(() -> pushFromTimer(task),
+                                unit.toNanos(delay), 0L);
     }
 
     /**
-     * @return the total number of threads in the pool.
+     * Schedules a task to be pushed to the task queue after the
+     * given initial delay, and then at the given fixed rate until
+     * the returned handle is cancelled.  A period is skipped if the
+     * run of the previous period has not completed yet, so the task
+     * never runs on two threads at once.
+     *
+     * @param task a task to be run by a thread in the pool.
+     * @param initial_delay the delay before the task is first pushed.
+     * @param period the period between two pushes of the task.
+     * @param unit the unit of the delay and the period.
+     * @return the handle that cancels the scheduled task.
      */
-    public int getTotalThreads()
+    public TimerHandle scheduleAtFixedRate(final Task task,
+                                           final long initial_delay,
+                                           final long period,
+                                           final TimeUnit unit)
     {
-        return v_nr_threads;
+
+        if(task == null || unit == null)
+        {
+            throw new IllegalArgumentException(
+                    "task and unit cannot be null.");
+        }
+
+        if(period <= 0L)
+        {
+            throw new IllegalArgumentException("period must be positive.");
+        }
+
+        if(task instanceof RecyclableTask)
+        {
+            // it would be reused by another pusher after its first run.
+            throw new IllegalArgumentException(
+                    "a recyclable task cannot be scheduled at a fixed rate.");
+        }
+
+        return timer().schedule(() -> {
+
+            TaskHandle<?> last = task.getHandle();
+
+            if( last != null && ! last.isDone() )
+            {
+
+                if(logger.isInfoEnabled())
+                {
+                    logger.info("previous run still pending: " +
+                                "skipping a period.");
+                }
+
+                return;
+            }
+
+            pushFromTimer(task);
+
+        }, unit.toNanos(initial_delay), unit.toNanos(period));
     }
 
     /**
-     * Nicely stops all the running threads and shuts down
-     * the thread pool  Once the thread pool is shutdown
-     * it is no longer available to be used.
+     * Adds a batch of tasks to the task FIFO queue.  The tasks that
+     * fit in the queue are added with a single synchronization, and
+     * only as many threads as needed are woken up to run them.  The
+     * overflow policy is applied, task by task, to the tasks that do
+     * not fit.
      *
-     * The user might call this function prior to exiting
-     * the application.
+     * When called from a task running in this pool, the tasks are
+     * pushed to the running thread local deque instead.
+     *
+     * The handle of each task is available from Task.getHandle().
+     *
+     * @param tasks the tasks to be run by threads in the pool.
+     * @return QUEUED if every task was queued right away; otherwise
+     * the result of the overflow policy applied to the others.
+     * @throws TaskRejectedException if the queue is full and the
+     * overflow policy rejected a task.  The tasks before it in the
+     * collection have been accepted, and those after it have not:
+     * their handles, like its own, fail with the exception.
      */
-    public void shutdown()
+    public PushResult pushTasks(final Collection<? extends Task> tasks)
     {
 
-        if(v_is_shutdown)
+        if(tasks == null || tasks.contains(null))
         {
-            throw new RuntimeException(
-                             "ThreadPool has already been shutdown.");
+            throw new IllegalArgumentException("tasks cannot be null.");
         }
 
-        if(logger.isTraceEnabled())
+        if(v_is_shutdown)
         {
-            logger.trace("shutdown started.");
+            throw new RuntimeException("ThreadPool has been shutdown.");
         }
 
-        v_thread_group.interrupt();
+        for(Task task : tasks)
+        {
+            TaskHandle<Object> handle = task.newHandle();
+            handle.setPushResult(PushResult.QUEUED);
+            task.setDispatcher(v_dispatcher);
+            task.setPriority(Priority.NORMAL);
+            armDeadline(task, handle);
+        }
 
-        SystemProperties props = SystemProperties.instance();
-        int shutdown_time = props
-                .getPropertyAsInt(Constants.THREADPOOL_SHUTDOWN_WAIT_TIME);
+        long now = System.nanoTime();
 
-        if(logger.isTraceEnabled())
+        for(Task task : tasks)
         {
-            logger.trace("sleeping for [" +
-                    shutdown_time + "] msecs");
+            task.setQueuedAt(now);
         }
 
-        try
+        if( v_virtual != null )
         {
-            Thread.sleep(shutdown_time);
+            for(Task task : tasks)
+            {
+                v_virtual.execute(task);
+                pushed(task, PushResult.QUEUED);
+            }
+
+            v_metrics.tasksSubmitted(tasks.size());
+            return PushResult.QUEUED;
         }
-        catch(InterruptedException ex)
+
+        TaskThread worker = TaskThread.current();
+
+        if( worker != null && worker.getPool() == this )
         {
 
-            if(logger.isInfoEnabled())
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("adding tasks to local deque.");
+            }
+
+            for(Task task : tasks)
             {
-                logger.info("interrupted exception: " + ex.getMessage());
+                worker.pushLocal(task);
+                pushed(task, PushResult.QUEUED);
             }
 
+            v_metrics.tasksSubmitted(tasks.size());
+            return PushResult.QUEUED;
+        }
+
+        TaskQueue task_queue = v_queue;
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("adding [" + tasks.size() + "] tasks to queue.");
+        }
+
+        int nr_added = task_queue.offerAll(tasks);
+        PushResult result = PushResult.QUEUED;
+
+        if( v_is_drained )
+        {
+            // the pool terminated while the tasks were being added:
+            // they are failed, and the others rejected below.
+            failQueued(null);
+        }
+
+        v_metrics.tasksSubmitted(nr_added);
+
+        growOnQueueDepth(task_queue);
+
+        Iterator<? extends Task> it = tasks.iterator();
+
+        for(int i = 0; i < nr_added; i++)
+        {
+            pushed(it.next(), PushResult.QUEUED);
         }
-        finally
+
+        while( it.hasNext() )
         {
+            Task task = it.next();
+            PushResult task_result;
 
-            if(logger.isTraceEnabled())
+            try
+            {
+                task_result = push(task);
+            }
+            catch(RuntimeException ex)
             {
-                logger.trace("destroying thread group.");
+                task.fail(ex);
+
+                // nor are the tasks after it pushed: failing their
+                // handles also cancels their deadline timers.
+                while( it.hasNext() )
+                {
+                    it.next().fail(ex);
+                }
+
+                throw ex;
             }
 
-            v_thread_group.destroy();
+            task.getHandle().setPushResult(task_result);
+            pushed(task, task_result);
+
+            if( task_result != PushResult.QUEUED )
+            {
+                result = task_result;
+            }
         }
 
-        v_is_shutdown = true;
+        return result;
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
+    /**
+     * Pushes a graph of tasks: the tasks without dependencies are
+     * pushed right away, and every other task as soon as the last of
+     * its dependencies completes, by the thread that completes it.
+     * The tasks downstream of a task that fails are skipped.
+     *
+     * @param graph the graph of tasks to be run by threads in the
+     * pool.
+     * @return the handle that completes once every task of the graph
+     * has run, or been skipped; it fails with the exception of the
+     * first task that failed, if any.
      */
-    @Override
-    public void finalize()
+    public TaskHandle<Void> pushGraph(final TaskGraph graph)
     {
-        // because this is a singleton the instance should only
-        // be garbage collected when the class is unloaded at
-        // the end of the application.
-        shutdown();
 
-        if(logger.isTraceEnabled())
+        if(graph == null)
         {
-            logger.trace("GC collected.");
+            throw new IllegalArgumentException("graph cannot be null.");
         }
+
+        if(v_is_shutdown)
+        {
+            throw new RuntimeException("ThreadPool has been shutdown.");
+        }
+
+        return graph.push(this);
     }
 
-    // ------ >>> Private <<< ------
     /**
-     * Instantiates a new thread pool.
+     * @return the name of this pool.
      */
-    private ThreadPool()
+    public String getName()
     {
-        SystemProperties prop = SystemProperties.instance();
+        return v_name;
+    }
 
-        v_nr_threads = prop.getPropertyAsInt(Constants.THREADPOOL_SIZE);
-        v_thread_group = new ThreadGroup("ThreadPool");
-        v_is_shutdown = false;
+    /**
+     * @return the queue of this pool.
+     */
+    public TaskQueue getQueue()
+    {
+        return v_queue;
+    }
 
-        if(logger.isTraceEnabled())
+    /**
+     * @return the metrics of this pool, also registered with the
+     * platform MBean server.
+     */
+    public ThreadPoolMXBean getMetrics()
+    {
+        return v_metrics;
+    }
+
+    /**
+     * @return the CPUs the task threads are pinned to, in the Linux
+     * list format; or an empty string if they are not pinned.  Where
+     * each one actually runs is told by getMetrics().
+     */
+    public String getCpuAffinity()
+    {
+
+        if( v_cpus == null )
         {
-            logger.trace("instantiating task threads...  ");
+            return "";
         }
 
-        Thread task_thread = null;
-        for (int i=0; i<v_nr_threads; i++)
+        StringBuilder cpu_list = new StringBuilder();
+
+        for(int cpu : v_cpus)
         {
 
-            if(logger.isTraceEnabled())
+            if( cpu_list.length() > 0 )
             {
-                logger.trace("instantiating thread:  " + i);
+                cpu_list.append(',');
             }
 
-            task_thread = new Thread(v_thread_group,
-                                     new TaskThread(),
-                                     "TaskThread-" + i);
+            cpu_list.append(cpu);
+        }
+
+        return cpu_list.toString();
+    }
 
-            if(logger.isTraceEnabled())
+    /**
+     * @return the overflow policy applied when the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return v_overflow_policy;
+    }
+
+    /**
+     * @return the total number of threads in the pool; in virtual
+     * thread mode, the number of virtual threads currently running,
+     * or waiting to run, a task.
+     */
+    public int getTotalThreads()
+    {
+        if( v_virtual != null )
+        {
+            return v_virtual.getLiveCount();
+        }
+
+        return v_workers.length;
+    }
+
+    /**
+     * @return the number of task threads the pool keeps even when
+     * idle.
+     */
+    public int getCoreThreads()
+    {
+        return v_core_threads;
+    }
+
+    /**
+     * @return the maximum number of task threads; the same as the
+     * core number for a fixed size pool.
+     */
+    public int getMaxThreads()
+    {
+        return v_max_threads;
+    }
+
+    /**
+     * @return true if this pool runs each task on its own virtual
+     * thread.
+     */
+    public boolean isVirtual()
+    {
+        return v_virtual != null;
+    }
+
+    /**
+     * Nicely stops the thread pool: no task is accepted from now on,
+     * while the tasks already queued still run.  The task threads
+     * stop as soon as there is no task left, and the pool then
+     * terminates.  Returns right away: call awaitTermination() to
+     * wait for the pool to terminate.  Once the thread pool is
+     * shutdown it is no longer available to be used.
+     *
+     * The user might call this function prior to exiting
+     * the application.
+     */
+    public void shutdown()
+    {
+
+        if( ! drain() )
+        {
+            throw new RuntimeException(
+                             "ThreadPool has already been shutdown.");
+        }
+    }
+
+    /**
+     * Shuts the thread pool down, unless it already is, and waits for
+     * it to terminate, so that a pool may be used in a
+     * try-with-resources statement.  If the current thread is
+     * interrupted while waiting, the pool is stopped right away, as
+     * by shutdownNow(), and the current thread keeps waiting, its
+     * interrupt status then restored.
+     */
+    @Override
+    public void close()
+    {
+        drain();
+
+        boolean is_interrupted = false;
+        boolean is_terminated = false;
+
+        while( ! is_terminated )
+        {
+
+            try
+            {
+                is_terminated = awaitTermination(1L, TimeUnit.DAYS);
+            }
+            catch(InterruptedException ex)
             {
-                logger.trace("launching thread:  " + i);
+
+                if( ! is_interrupted )
+                {
+                    shutdownNow();
+                    is_interrupted = true;
+                }
             }
+        }
+
+        if( is_interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the thread pool right away: no task is accepted from now
+     * on, the tasks not started yet are removed from the queue, and
+     * the running ones are interrupted.  The handles of the removed
+     * tasks fail with a CancellationException, and their listeners
+     * are not notified.  Returns right away: call awaitTermination()
+     * to wait for the running tasks to return.  May be called after
+     * shutdown(), to stop draining.
+     *
+     * @return the tasks that were not started, in no particular
+     * order; a Runnable pushed with pushTask(Runnable) is returned
+     * as a Task that runs it.
+     */
+    public List<Task> shutdownNow()
+    {
 
-            task_thread.start();
+        synchronized(v_resize_lock)
+        {
+            v_is_shutdown = true;
+            v_is_stopping = true;
         }
 
         if(logger.isTraceEnabled())
         {
-            logger.trace("constructed.");
+            logger.trace("shutdown now started.");
         }
 
-    }
+        List<Task> tasks = new ArrayList<Task>();
 
-    private final int v_nr_threads;
-    private final ThreadGroup v_thread_group;
-    private boolean v_is_shutdown;
+        if( v_queue != null )
+        {
+            Task task;
+
+            while( (task = v_queue.poll()) != null )
+            {
+                tasks.add(task);
+            }
+
+            for(TaskThread worker : v_workers)
+            {
+                while( (task = worker.steal()) != null )
+                {
+                    tasks.add(task);
+                }
+            }
+        }
+
+        for(Task task : tasks)
+        {
+            task.fail(new CancellationException(
+                    "ThreadPool has been shutdown."));
+        }
+
+        // the timer and listener dispatcher threads keep running
+        // until the task threads have stopped.
+        for(TaskThread worker : v_workers)
+        {
+            worker.interruptNow();
+        }
+
+        if( v_virtual != null )
+        {
+            v_virtual.interruptAll();
+        }
+
+        stopThreads();
+        return tasks;
+    }
+
+    /**
+     * Waits for the thread pool to terminate, after a shutdown: for
+     * its task threads to stop, and then for its listeners to be
+     * notified of the last tasks.
+     *
+     * @param timeout how long to wait.
+     * @param unit the unit of the timeout.
+     * @return true if the pool has terminated, false if the time
+     * elapsed first.
+     * @throws InterruptedException if the current thread was
+     * interrupted while waiting.
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+
+        if(unit == null)
+        {
+            throw new IllegalArgumentException("unit cannot be null.");
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        if( ! v_terminated.await(unit.toNanos(timeout),
+                                 TimeUnit.NANOSECONDS) )
+        {
+            return false;
+        }
+
+        return v_dispatcher == null ||
+            v_dispatcher.awaitTermination(deadline - System.nanoTime());
+    }
+
+    /**
+     * @return true if the pool has been shutdown.
+     */
+    public boolean isShutdown()
+    {
+        return v_is_shutdown;
+    }
+
+    /**
+     * @return true if the pool has been shutdown, and all its task
+     * threads have stopped.
+     */
+    public boolean isTerminated()
+    {
+        return v_terminated.getCount() == 0L;
+    }
+
+    /**
+     * Builds independently configured, named, thread pools.  Every
+     * setting defaults to the value of the corresponding
+     * SystemProperties property, so that only the settings specific
+     * to a pool need to be given.
+     */
+    public static final class Builder
+    {
+
+        /**
+         * Instantiates a new builder.
+         *
+         * @param name the name of the pool, also used as the name of
+         * its thread group and, by default, as the prefix of the name
+         * of its threads.
+         */
+        public Builder(final String name)
+        {
+
+            if( name == null || name.isEmpty() )
+            {
+                throw new IllegalArgumentException("name cannot be empty.");
+            }
+
+            SystemProperties props = SystemProperties.instance();
+
+            v_name = name;
+            v_thread_name_prefix = name + "-TaskThread-";
+            v_nr_threads = props.getPropertyAsInt(Constants.THREADPOOL_SIZE);
+            v_queue_type = ThreadPoolConstants.getString(
+                    ThreadPoolConstants.THREADPOOL_QUEUE_TYPE,
+                    ThreadPoolConstants.DEFAULT_QUEUE_TYPE);
+            v_queue_capacity = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_QUEUE_CAPACITY,
+                    ThreadPoolConstants.DEFAULT_QUEUE_CAPACITY);
+            v_overflow_policy = OverflowPolicy.valueOf(
+                    ThreadPoolConstants.getString(
+                            ThreadPoolConstants.THREADPOOL_OVERFLOW_POLICY,
+                            ThreadPoolConstants.DEFAULT_OVERFLOW_POLICY));
+            v_block_time = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_OVERFLOW_BLOCK_TIME,
+                    ThreadPoolConstants.DEFAULT_OVERFLOW_BLOCK_TIME);
+            v_batch_size = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_BATCH_SIZE,
+                    ThreadPoolConstants.DEFAULT_BATCH_SIZE);
+            v_wait_strategy = WaitStrategy.valueOf(
+                    ThreadPoolConstants.getString(
+                            ThreadPoolConstants.THREADPOOL_WAIT_STRATEGY,
+                            ThreadPoolConstants.DEFAULT_WAIT_STRATEGY));
+            v_spin_time = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_SPIN_TIME,
+                    ThreadPoolConstants.DEFAULT_SPIN_TIME);
+            v_cpu_affinity = ThreadPoolConstants.getString(
+                    ThreadPoolConstants.THREADPOOL_CPU_AFFINITY,
+                    ThreadPoolConstants.DEFAULT_CPU_AFFINITY);
+
+            String mode = ThreadPoolConstants.getString(
+                    ThreadPoolConstants.THREADPOOL_MODE,
+                    ThreadPoolConstants.DEFAULT_MODE);
+
+            if( ThreadPoolConstants.MODE_VIRTUAL.equals(mode) )
+            {
+                v_virtual = true;
+            }
+            else if( ThreadPoolConstants.MODE_PLATFORM.equals(mode) )
+            {
+                v_virtual = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "invalid thread pool mode: " + mode);
+            }
+
+            v_max_concurrency = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_MAX_CONCURRENCY,
+                    ThreadPoolConstants.DEFAULT_MAX_CONCURRENCY);
+            v_max_threads = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_MAX_SIZE,
+                    ThreadPoolConstants.DEFAULT_MAX_SIZE);
+            v_keep_alive_time = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_KEEP_ALIVE_TIME,
+                    ThreadPoolConstants.DEFAULT_KEEP_ALIVE_TIME);
+            v_grow_queue_depth = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_GROW_QUEUE_DEPTH,
+                    ThreadPoolConstants.DEFAULT_GROW_QUEUE_DEPTH);
+            v_grow_wait_time = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_GROW_WAIT_TIME,
+                    ThreadPoolConstants.DEFAULT_GROW_WAIT_TIME);
+            v_listener_dispatchers = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_LISTENER_DISPATCHERS,
+                    ThreadPoolConstants.DEFAULT_LISTENER_DISPATCHERS);
+            v_timer_tick = ThreadPoolConstants.getInt(
+                    ThreadPoolConstants.THREADPOOL_TIMER_TICK,
+                    ThreadPoolConstants.DEFAULT_TIMER_TICK);
+        }
+
+        /**
+         * @param nr_threads the number of task threads; the core
+         * number of task threads of an elastic pool.
+         * @return this builder.
+         */
+        public Builder threads(final int nr_threads)
+        {
+            v_nr_threads = nr_threads;
+            return this;
+        }
+
+        /**
+         * @param max_threads the maximum number of task threads of
+         * an elastic pool, or zero for a fixed size pool.
+         * @return this builder.
+         */
+        public Builder maxThreads(final int max_threads)
+        {
+            v_max_threads = max_threads;
+            return this;
+        }
+
+        /**
+         * @param msecs how long a task thread above the core number
+         * may be idle before it retires.
+         * @return this builder.
+         */
+        public Builder keepAliveTime(final int msecs)
+        {
+            v_keep_alive_time = msecs;
+            return this;
+        }
+
+        /**
+         * @param depth add a task thread when a task is pushed and
+         * more than this number of tasks are waiting in the queue, or
+         * zero to not grow on queue depth.
+         * @return this builder.
+         */
+        public Builder growQueueDepth(final int depth)
+        {
+            v_grow_queue_depth = depth;
+            return this;
+        }
+
+        /**
+         * @param msecs add a task thread when a task has waited more
+         * than this time to be taken by a task thread, or zero to not
+         * grow on wait time.
+         * @return this builder.
+         */
+        public Builder growWaitTime(final int msecs)
+        {
+            v_grow_wait_time = msecs;
+            return this;
+        }
+
+        /**
+         * @param listener told about every task thread added to, or
+         * retired from, the pool; may be null.
+         * @return this builder.
+         */
+        public Builder resizeListener(final ResizeListener listener)
+        {
+            v_resize_listener = listener;
+            return this;
+        }
+
+        /**
+         * @param nr_threads the number of threads that call the task
+         * listeners back, or zero to call them back on the thread
+         * that ran the task.
+         * @return this builder.
+         */
+        public Builder listenerDispatchers(final int nr_threads)
+        {
+            v_listener_dispatchers = nr_threads;
+            return this;
+        }
+
+        /**
+         * @param msecs the duration of a tick of the timing wheel
+         * that runs the scheduled tasks.
+         * @return this builder.
+         */
+        public Builder timerTick(final int msecs)
+        {
+            v_timer_tick = msecs;
+            return this;
+        }
+
+        /**
+         * @param prefix the prefix of the task thread names, which
+         * are followed by the thread index.
+         * @return this builder.
+         */
+        public Builder threadNamePrefix(final String prefix)
+        {
+            v_thread_name_prefix = prefix;
+            return this;
+        }
+
+        /**
+         * @param type the type of the queue created for the pool:
+         * one of the ThreadPoolConstants.QUEUE_TYPE_* values.
+         * @return this builder.
+         */
+        public Builder queueType(final String type)
+        {
+            v_queue_type = type;
+            return this;
+        }
+
+        /**
+         * @param capacity the capacity of the queue created for the
+         * pool, or zero for an unbounded queue.
+         * @return this builder.
+         */
+        public Builder queueCapacity(final int capacity)
+        {
+            v_queue_capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Makes the pool use the given queue instead of creating one.
+         * A queue should not be shared between pools.
+         *
+         * @param queue the queue of the pool.
+         * @return this builder.
+         */
+        public Builder queue(final TaskQueue queue)
+        {
+            v_queue = queue;
+            return this;
+        }
+
+        /**
+         * @param policy what the pool does when its queue is full.
+         * @return this builder.
+         */
+        public Builder overflowPolicy(final OverflowPolicy policy)
+        {
+            v_overflow_policy = policy;
+            return this;
+        }
+
+        /**
+         * @param msecs how long pushTask waits for room in a full
+         * queue under the OverflowPolicy.BLOCK policy.
+         * @return this builder.
+         */
+        public Builder overflowBlockTime(final int msecs)
+        {
+            v_block_time = msecs;
+            return this;
+        }
+
+        /**
+         * @param batch_size the maximum number of tasks a task thread
+         * takes from the queue at a time.
+         * @return this builder.
+         */
+        public Builder batchSize(final int batch_size)
+        {
+            v_batch_size = batch_size;
+            return this;
+        }
+
+        /**
+         * @param strategy what an idle task thread does before it
+         * blocks on the queue.
+         * @return this builder.
+         */
+        public Builder waitStrategy(final WaitStrategy strategy)
+        {
+            v_wait_strategy = strategy;
+            return this;
+        }
+
+        /**
+         * @param usecs how long an idle task thread polls for a task
+         * before it blocks on the queue, under a wait strategy other
+         * than WaitStrategy.BLOCKING.
+         * @return this builder.
+         */
+        public Builder spinTime(final int usecs)
+        {
+            v_spin_time = usecs;
+            return this;
+        }
+
+        /**
+         * @param cpu_list the CPUs the task threads are pinned to,
+         * one each, in the Linux list format, e.g. "2-5,8"; or empty
+         * to not pin them.
+         * @return this builder.
+         */
+        public Builder cpuAffinity(final String cpu_list)
+        {
+            v_cpu_affinity = cpu_list;
+            return this;
+        }
+
+        /**
+         * @param virtual true to run each task on its own virtual
+         * thread instead of on a fixed number of task threads.
+         * @return this builder.
+         */
+        public Builder virtual(final boolean virtual)
+        {
+            v_virtual = virtual;
+            return this;
+        }
+
+        /**
+         * @param max_concurrency in virtual thread mode, the maximum
+         * number of tasks running at the same time, or zero for no
+         * limit.
+         * @return this builder.
+         */
+        public Builder maxConcurrency(final int max_concurrency)
+        {
+            v_max_concurrency = max_concurrency;
+            return this;
+        }
+
+        /**
+         * Creates the pool, and starts its threads.
+         *
+         * @return the new pool.
+         */
+        public ThreadPool build()
+        {
+
+            if( ! v_virtual && v_nr_threads < 1 )
+            {
+                throw new IllegalArgumentException(
+                        "a pool needs at least one thread.");
+            }
+
+            if( v_max_threads != 0 && v_max_threads < v_nr_threads )
+            {
+                throw new IllegalArgumentException(
+                        "max threads cannot be less than the core threads.");
+            }
+
+            if( v_timer_tick < 1 )
+            {
+                throw new IllegalArgumentException(
+                        "timer tick must be at least 1 msec.");
+            }
+
+            if( v_listener_dispatchers < 0 )
+            {
+                throw new IllegalArgumentException(
+                        "listener dispatchers cannot be negative.");
+            }
+
+            if( v_keep_alive_time < 0 || v_grow_queue_depth < 0 ||
+                v_grow_wait_time < 0 )
+            {
+                throw new IllegalArgumentException(
+                        "elastic sizing settings cannot be negative.");
+            }
+
+            if( v_overflow_policy == null )
+            {
+                throw new IllegalArgumentException(
+                        "overflow policy cannot be null.");
+            }
+
+            if( v_wait_strategy == null )
+            {
+                throw new IllegalArgumentException(
+                        "wait strategy cannot be null.");
+            }
+
+            if( v_spin_time < 0 )
+            {
+                throw new IllegalArgumentException(
+                        "spin time cannot be negative.");
+            }
+
+            // fails on an invalid cpu list.
+            CpuAffinity.parse(v_cpu_affinity);
+
+            if( v_thread_name_prefix == null )
+            {
+                throw new IllegalArgumentException(
+                        "thread name prefix cannot be null.");
+            }
+
+            return new ThreadPool(this);
+        }
+
+        // ------ >>> Private <<< ------
+        private final String v_name;
+        private String v_thread_name_prefix;
+        private int v_nr_threads;
+        private String v_queue_type;
+        private int v_queue_capacity;
+        private TaskQueue v_queue;
+        private OverflowPolicy v_overflow_policy;
+        private int v_block_time;
+        private int v_batch_size;
+        private WaitStrategy v_wait_strategy;
+        private int v_spin_time;
+        private String v_cpu_affinity;
+        private boolean v_virtual;
+        private int v_max_concurrency;
+        private int v_max_threads;
+        private int v_keep_alive_time;
+        private int v_grow_queue_depth;
+        private int v_grow_wait_time;
+        private ResizeListener v_resize_listener;
+        private int v_listener_dispatchers;
+        private int v_timer_tick;
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Tries to steal a task from the local deques of the task
+     * threads in this pool, other than the given thief.  The scan
+     * starts next to the thief so that thieves spread out over the
+     * victims instead of all hitting the first one.
+     *
+     * @param thief the idle task thread looking for work.
+     * @return a stolen task, or null if none was found.
+     */
+    Task stealTask(final TaskThread thief)
+    {
+        TaskThread[] workers = v_workers;
+        int start = 0;
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            if(workers[i] == thief)
+            {
+                start = i + 1;
+                break;
+            }
+        }
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            TaskThread victim = workers[(start + i) % workers.length];
+
+            if( victim == thief )
+            {
+                continue;
+            }
+
+            Task task = victim.steal();
+
+            if( task != null )
+            {
+
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("task stolen.");
+                }
+
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells whether a task thread, other than the given one, has a
+     * task in its local deque, for an idle task thread about to
+     * wait on the queue.
+     *
+     * @param thief the idle task thread.
+     * @return true if there may be a task to steal.
+     */
+    boolean hasStealableTask(final TaskThread thief)
+    {
+
+        for(TaskThread victim : v_workers)
+        {
+            if( victim != thief && victim.getLocalDepth() > 0 )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs a task on a task thread that is joining another task.
+     * The task thread is already running a task, so the task is
+     * recorded into the shared metrics, as a task run on the pushing
+     * thread.
+     *
+     * @param task the task to be run.
+     * @return false if the task failed, true otherwise.
+     */
+    boolean runJoining(final Task task)
+    {
+        return TaskRunner.run(task, v_metrics.getSharedRunMetrics());
+    }
+
+    /**
+     * @return the task threads of this pool.
+     */
+    TaskThread[] getWorkers()
+    {
+        return v_workers;
+    }
+
+    /**
+     * @return how long, in nanoseconds, a task thread above the core
+     * number may be idle before it retires; zero if the pool is not
+     * elastic, and its task threads may wait forever for a task.
+     */
+    long getKeepAliveNanos()
+    {
+        return v_max_threads > v_core_threads ? v_keep_alive_nanos : 0L;
+    }
+
+    /**
+     * @return what an idle task thread does before it blocks on the
+     * queue.
+     */
+    WaitStrategy getWaitStrategy()
+    {
+        return v_wait_strategy;
+    }
+
+    /**
+     * @return how long, in nanoseconds, an idle task thread polls for
+     * a task before it blocks on the queue.
+     */
+    long getSpinNanos()
+    {
+        return v_spin_nanos;
+    }
+
+    /**
+     * Called by a task thread when it takes a task: adds a task
+     * thread if that task waited too long for one.
+     *
+     * @param task the task taken.
+     */
+    void growOnWaitTime(final Task task)
+    {
+
+        if( v_grow_wait_nanos == 0L || v_workers.length >= v_max_threads )
+        {
+            return;
+        }
+
+        long waited = System.nanoTime() - task.getQueuedAt();
+
+        if( waited > v_grow_wait_nanos )
+        {
+            addThread("task waited [" +
+                      TimeUnit.NANOSECONDS.toMillis(waited) + "] msecs");
+        }
+    }
+
+    /**
+     * Called by an idle task thread whose wait for a task timed out.
+     * The task thread is retired if it has been idle for the keep
+     * alive time, and the pool has more than its core threads.
+     *
+     * @param worker the idle task thread.
+     * @param idle_nanos for how long the task thread has been idle.
+     * @return true if the task thread has been retired, and must
+     * stop.
+     */
+    boolean retireIfIdle(final TaskThread worker, final long idle_nanos)
+    {
+
+        if( idle_nanos < v_keep_alive_nanos ||
+            v_workers.length <= v_core_threads )
+        {
+            return false;
+        }
+
+        int nr_threads;
+
+        synchronized(v_resize_lock)
+        {
+
+            if( v_workers.length <= v_core_threads ||
+                ! removeWorker(worker) )
+            {
+                return false;
+            }
+
+            nr_threads = v_workers.length;
+        }
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("retired idle task thread, [" + nr_threads +
+                        "] left.");
+        }
+
+        if( v_resize_listener != null )
+        {
+            v_resize_listener.notifyThreadRetired(v_name, nr_threads,
+                    "idle for [" +
+                    TimeUnit.NANOSECONDS.toMillis(idle_nanos) + "] msecs");
+        }
+
+        return true;
+    }
+
+    /**
+     * Called by a task thread when it stops running.  A task thread
+     * that stopped because a task failed is replaced, so that the
+     * pool keeps its core threads.
+     *
+     * @param worker the task thread that stopped.
+     */
+    void threadStopped(final TaskThread worker)
+    {
+        boolean is_replaced;
+        boolean is_terminated;
+
+        synchronized(v_resize_lock)
+        {
+            // a retired task thread has already been removed.
+            boolean is_removed = removeWorker(worker);
+            is_replaced = is_removed && ! v_is_shutdown &&
+                          v_workers.length < v_core_threads;
+            is_terminated = is_removed && v_is_shutdown &&
+                            v_workers.length == 0;
+        }
+
+        if( is_replaced )
+        {
+            v_metrics.threadReplaced();
+            addThread("replacing a stopped task thread");
+        }
+
+        if( is_terminated )
+        {
+            terminated();
+        }
+    }
+
+    /**
+     * @return true if the pool has been shutdown with shutdownNow(),
+     * and its task threads must stop without running more tasks.
+     */
+    boolean isStopping()
+    {
+        return v_is_stopping;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * Starts a nice shutdown: no task is accepted from now on, and
+     * the task threads stop as soon as there is no task left.
+     *
+     * @return false if the pool had already been shutdown.
+     */
+    private boolean drain()
+    {
+
+        synchronized(v_resize_lock)
+        {
+
+            if(v_is_shutdown)
+            {
+                return false;
+            }
+
+            // no task thread is added from now on.
+            v_is_shutdown = true;
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("shutdown started: draining.");
+        }
+
+        stopThreads();
+        return true;
+    }
+
+    /**
+     * Lets the threads of a shutdown pool stop: wakes up the idle
+     * task threads, so that they see the pool is shutdown, or the
+     * virtual thread executor, so that it terminates once the tasks
+     * running return.
+     */
+    private void stopThreads()
+    {
+
+        if( v_virtual != null )
+        {
+            v_virtual.shutdown(this::terminated);
+            return;
+        }
+
+        boolean is_terminated;
+
+        synchronized(v_resize_lock)
+        {
+            is_terminated = v_workers.length == 0;
+        }
+
+        if( is_terminated )
+        {
+            terminated();
+            return;
+        }
+
+        for(TaskThread worker : v_workers)
+        {
+            worker.wakeIfIdle();
+        }
+    }
+
+    /**
+     * Called once the last thread running tasks has stopped: stops
+     * the timer and listener dispatcher threads, and releases the
+     * threads waiting for the pool to terminate.
+     */
+    private void terminated()
+    {
+
+        if( v_terminated.getCount() == 0L )
+        {
+            return;
+        }
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("ThreadPool [" + v_name + "] terminated.");
+        }
+
+        TimingWheel wheel;
+
+        synchronized(v_resize_lock)
+        {
+            wheel = v_timer;
+        }
+
+        if( wheel != null )
+        {
+            wheel.stop();
+        }
+
+        if( v_dispatcher != null )
+        {
+            v_dispatcher.shutdown();
+        }
+
+        // no task thread is left to run the tasks queued by the
+        // producers that checked for the shutdown just before it.
+        v_is_drained = true;
+
+        if( v_queue != null )
+        {
+            failQueued(null);
+        }
+
+        v_metrics.unregister();
+        v_terminated.countDown();
+    }
+
+    /**
+     * Checks, once a task has been queued, that the pool has not
+     * terminated meanwhile: its task threads all stopped between the
+     * check for the shutdown and the enqueue, and the task would
+     * never run.  Either the producer sees the pool has drained, or
+     * the sweep of the queue at termination sees the task.
+     *
+     * @param task the task queued.
+     * @throws RuntimeException if the task was removed from the
+     * queue, as the pool has been shutdown.
+     */
+    private void checkQueued(final Task task)
+    {
+
+        if( v_is_drained && failQueued(task) )
+        {
+            throw new RuntimeException("ThreadPool has been shutdown.");
+        }
+    }
+
+    /**
+     * Fails the tasks left in the queue of a terminated pool with a
+     * CancellationException, as shutdownNow() does.
+     *
+     * @param pushed a task being pushed, which is removed without
+     * being failed, or null.
+     * @return true if the pushed task was in the queue.
+     */
+    private boolean failQueued(final Task pushed)
+    {
+        boolean is_found = false;
+        Task task;
+
+        while( (task = v_queue.poll()) != null )
+        {
+
+            if( task == pushed )
+            {
+                is_found = true;
+                continue;
+            }
+
+            task.fail(new CancellationException(
+                    "ThreadPool has been shutdown."));
+        }
+
+        return is_found;
+    }
+
+    /**
+     * @return the timing wheel of the pool, which is created, and
+     * its thread started, on first use.
+     */
+    private TimingWheel timer()
+    {
+        TimingWheel wheel = v_timer;
+
+        if( wheel != null )
+        {
+            return wheel;
+        }
+
+        synchronized(v_resize_lock)
+        {
+
+            if(v_is_shutdown)
+            {
+                throw new RuntimeException("ThreadPool has been shutdown.");
+            }
+
+            if( v_timer == null )
+            {
+                wheel = new TimingWheel(v_timer_tick_nanos);
+
+                Thread timer_thread = new Thread(v_thread_group, wheel,
+                                                 v_name + "-Timer");
+                wheel.setThread(timer_thread);
+                timer_thread.start();
+                v_timer = wheel;
+            }
+
+            return v_timer;
+        }
+    }
+
+    /**
+     * Pushes a scheduled task, on the timer thread.  The overflow
+     * policy is not applied, since the timer thread must not block
+     * nor run the task: a task that does not fit in the queue fails.
+     */
+    private void pushFromTimer(final Task task)
+    {
+
+        if(v_is_shutdown)
+        {
+            return;
+        }
+
+        TaskHandle<Object> handle = task.newHandle();
+        task.setDispatcher(v_dispatcher);
+        task.setPriority(Priority.NORMAL);
+        handle.setPushResult(PushResult.QUEUED);
+        armDeadline(task, handle);
+        task.setQueuedAt(System.nanoTime());
+
+        if( v_virtual != null )
+        {
+            v_virtual.execute(task);
+            v_metrics.tasksSubmitted(1);
+            pushed(task, PushResult.QUEUED);
+            return;
+        }
+
+        if( v_queue.offer(task) )
+        {
+            v_metrics.tasksSubmitted(1);
+            pushed(task, PushResult.QUEUED);
+            growOnQueueDepth(v_queue);
+            return;
+        }
+
+        v_metrics.taskRejected();
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("queue is full: scheduled task rejected.");
+        }
+
+        TaskRejectedException ex = new TaskRejectedException(
+                "task queue is full.", OverflowPolicy.REJECT);
+        task.fail(ex);
+        task.notifyListeners(Task.Status.FAILED, ex.getMessage());
+    }
+
+    /**
+     * Starts the timer that times a task out, if it has a timeout.
+     * The deadline is armed before the task is queued, so that the
+     * task cannot complete before its timer exists.
+     */
+    private void armDeadline(final Task task, final TaskHandle<?> handle)
+    {
+        long timeout = task.getTimeoutNanos();
+
+        if( timeout > 0L )
+        {
+            handle.setDeadline(System.nanoTime() + timeout,
+                    timer().schedule(handle::timeOut, timeout, 0L));
+        }
+    }
+
+    /**
+     * Commits a TaskPushedEvent, if the event is enabled in a
+     * running flight recording.
+     */
+    private void pushed(final Task task, final PushResult result)
+    {
+        if( ! TaskPushedEvent.isRecorded() )
+        {
+            return;
+        }
+
+        TaskPushedEvent event = new TaskPushedEvent();
+
+        if( ! event.shouldCommit() )
+        {
+            return;
+        }
+
+        TaskThread worker = TaskThread.current();
+
+        event.pool = v_name;
+        event.taskClass = task.getClass();
+        event.priority = task.getPriority().name();
+        event.pushResult = result.name();
+        event.local = v_virtual == null && worker != null &&
+                      worker.getPool() == this;
+        event.queueDepth = v_queue == null ? 0 : v_queue.size();
+        event.commit();
+    }
+
+    /**
+     * Pushes a task with a new handle.
+     */
+    private <T> TaskHandle<T> pushHandle(final Task task,
+                                         final Priority priority)
+    {
+
+        if(task == null)
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        if(priority == null)
+        {
+            throw new IllegalArgumentException("priority cannot be null.");
+        }
+
+        TaskHandle<T> handle = task.newHandle();
+        task.setPriority(priority);
+        task.setDispatcher(v_dispatcher);
+
+        try
+        {
+            armDeadline(task, handle);
+
+            PushResult result = push(task);
+            handle.setPushResult(result);
+            pushed(task, result);
+        }
+        catch(RuntimeException ex)
+        {
+            // which also cancels the deadline timer armed above.
+            handle.fail(ex);
+            throw ex;
+        }
+
+        return handle;
+    }
+
+    /**
+     * Pushes a recyclable task, without a handle.
+     */
+    private PushResult pushRecyclable(final RecyclableTask task,
+                                      final Priority priority)
+    {
+
+        if(task == null)
+        {
+            throw new IllegalArgumentException("task cannot be null.");
+        }
+
+        if(priority == null)
+        {
+            throw new IllegalArgumentException("priority cannot be null.");
+        }
+
+        task.clearHandle();
+        task.setPriority(priority);
+        task.setDispatcher(v_dispatcher);
+
+        PushResult result = push(task);
+        pushed(task, result);
+        return result;
+    }
+
+    /**
+     * Pushes a task to the local deque, or to the queue, applying
+     * the overflow policy if the queue is full.
+     */
+    private PushResult push(final Task task)
+    {
+
+        if(v_is_shutdown)
+        {
+            throw new RuntimeException("ThreadPool has been shutdown.");
+        }
+
+        task.setQueuedAt(System.nanoTime());
+
+        if( v_virtual != null )
+        {
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("starting virtual thread for task.");
+            }
+
+            v_virtual.execute(task);
+            v_metrics.tasksSubmitted(1);
+            return PushResult.QUEUED;
+        }
+
+        TaskThread worker = TaskThread.current();
+
+        if( worker != null && worker.getPool() == this )
+        {
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("adding task to local deque.");
+            }
+
+            // local deques are not bounded by the queue capacity:
+            // blocking a task thread on its own pool queue could
+            // deadlock the pool.
+            worker.pushLocal(task);
+            v_metrics.tasksSubmitted(1);
+            return PushResult.QUEUED;
+        }
+
+        TaskQueue task_queue = v_queue;
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("adding task to queue.");
+        }
+
+        boolean is_queued = task_queue.offer(task);
+
+        growOnQueueDepth(task_queue);
+
+        if( is_queued )
+        {
+            checkQueued(task);
+            v_metrics.tasksSubmitted(1);
+            return PushResult.QUEUED;
+        }
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("queue is full, applying overflow policy: " +
+                        v_overflow_policy);
+        }
+
+        switch(v_overflow_policy)
+        {
+            case BLOCK:
+                return pushBlocking(task_queue, task);
+
+            case CALLER_RUNS:
+                v_metrics.tasksSubmitted(1);
+                TaskRunner.run(task, v_metrics.getSharedRunMetrics());
+                return PushResult.RAN_ON_CALLER;
+
+            case DISCARD_OLDEST:
+                pushDiscardingOldest(task_queue, task);
+                checkQueued(task);
+                v_metrics.tasksSubmitted(1);
+                return PushResult.QUEUED_DISCARDING_OLDEST;
+
+            case REJECT:
+            default:
+                v_metrics.taskRejected();
+                throw new TaskRejectedException(
+                        "task queue is full.", OverflowPolicy.REJECT);
+        }
+    }
+
+    /**
+     * Adds a task thread if the queue holds too many tasks.
+     */
+    private void growOnQueueDepth(final TaskQueue task_queue)
+    {
+
+        if( v_grow_queue_depth == 0 || v_workers.length >= v_max_threads )
+        {
+            return;
+        }
+
+        int depth = task_queue.size();
+
+        if( depth > v_grow_queue_depth )
+        {
+            addThread("[" + depth + "] tasks queued");
+        }
+    }
+
+    /**
+     * Starts a new task thread, unless the pool already has its
+     * maximum number of task threads, or has been shutdown.
+     *
+     * @param reason why the task thread is added.
+     */
+    private void addThread(final String reason)
+    {
+        int nr_threads;
+
+        synchronized(v_resize_lock)
+        {
+            TaskThread[] workers = v_workers;
+
+            if( v_is_shutdown || workers.length >= v_max_threads )
+            {
+                return;
+            }
+
+            TaskThread worker = new TaskThread(this, v_queue, v_batch_size);
+            TaskThread[] new_workers = Arrays.copyOf(workers,
+                                                     workers.length + 1);
+            new_workers[workers.length] = worker;
+            v_workers = new_workers;
+            nr_threads = new_workers.length;
+
+            startThread(worker);
+        }
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("added task thread (" + reason + "), [" +
+                        nr_threads + "] running.");
+        }
+
+        if( v_resize_listener != null )
+        {
+            v_resize_listener.notifyThreadAdded(v_name, nr_threads, reason);
+        }
+    }
+
+    /**
+     * Removes a task thread from the workers, and keeps its metrics;
+     * must be called with the resize lock held.
+     *
+     * @return false if the task thread was not one of the workers.
+     */
+    private boolean removeWorker(final TaskThread worker)
+    {
+        TaskThread[] workers = v_workers;
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            if( workers[i] == worker )
+            {
+                TaskThread[] new_workers = new TaskThread[workers.length - 1];
+                System.arraycopy(workers, 0, new_workers, 0, i);
+                System.arraycopy(workers, i + 1, new_workers, i,
+                                 workers.length - i - 1);
+                v_workers = new_workers;
+
+                // under the lock, so that the pool does not terminate
+                // before the metrics of all its task threads are kept.
+                v_metrics.threadStopped(worker);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Starts the thread of a task thread in the pool thread group,
+     * giving it a CPU to pin itself to if the pool has a CPU
+     * affinity.  Must be called with the resize lock held.
+     */
+    private void startThread(final TaskThread worker)
+    {
+        int index = v_next_thread_index++;
+
+        if( v_cpus != null )
+        {
+            worker.setCpu(leastUsedCpu());
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("launching thread:  " + index);
+        }
+
+        Thread task_thread = new Thread(v_thread_group, worker,
+                                        v_thread_name_prefix + index);
+        task_thread.start();
+    }
+
+    /**
+     * @return the CPU the fewest task threads are pinned to, so that
+     * a task thread replacing a stopped one takes its CPU.  Must be
+     * called with the resize lock held.
+     */
+    private int leastUsedCpu()
+    {
+        int[] nr_pinned = new int[v_cpus.length];
+
+        for(TaskThread worker : v_workers)
+        {
+            int index = Arrays.binarySearch(v_cpus, worker.getCpu());
+
+            if( index >= 0 )
+            {
+                nr_pinned[index]++;
+            }
+        }
+
+        int least_used = 0;
+
+        for(int i = 1; i < v_cpus.length; i++)
+        {
+
+            if( nr_pinned[i] < nr_pinned[least_used] )
+            {
+                least_used = i;
+            }
+        }
+
+        return v_cpus[least_used];
+    }
+
+    /**
+     * Applies the BLOCK overflow policy.
+     */
+    private PushResult pushBlocking(final TaskQueue task_queue,
+                                    final Task task)
+    {
+        try
+        {
+            if( task_queue.offer(task, v_block_time,
+                                 TimeUnit.MILLISECONDS) )
+            {
+                checkQueued(task);
+                v_metrics.tasksSubmitted(1);
+                return PushResult.QUEUED_AFTER_BLOCKING;
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        v_metrics.taskRejected();
+
+        throw new TaskRejectedException("task queue is still full after [" +
+                v_block_time + "] msecs.", OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Applies the DISCARD_OLDEST overflow policy.
+     */
+    private void pushDiscardingOldest(final TaskQueue task_queue,
+                                      final Task task)
+    {
+        while( ! task_queue.offer(task) )
+        {
+            Task oldest = task_queue.pollOldest();
+
+            if( oldest != null )
+            {
+
+                if(logger.isInfoEnabled())
+                {
+                    logger.info("discarding oldest task.");
+                }
+
+                v_metrics.taskRejected();
+
+                oldest.fail(new TaskRejectedException(
+                        "Discarded: task queue is full.",
+                        OverflowPolicy.DISCARD_OLDEST));
+                oldest.notifyListeners(Task.Status.FAILED,
+                        "Discarded: task queue is full.");
+            }
+        }
+    }
+
+    /**
+     * Instantiates a new thread pool.
+     */
+    private ThreadPool(final Builder builder)
+    {
+        v_name = builder.v_name;
+        v_overflow_policy = builder.v_overflow_policy;
+        v_block_time = builder.v_block_time;
+        v_thread_group = new ThreadGroup(v_name);
+        v_thread_name_prefix = builder.v_thread_name_prefix;
+        v_batch_size = builder.v_batch_size;
+        v_wait_strategy = builder.v_wait_strategy;
+        v_spin_nanos = TimeUnit.MICROSECONDS.toNanos(builder.v_spin_time);
+        v_cpus = builder.v_virtual ?
+            null : CpuAffinity.parse(builder.v_cpu_affinity);
+        v_keep_alive_nanos =
+            TimeUnit.MILLISECONDS.toNanos(builder.v_keep_alive_time);
+        v_grow_queue_depth = builder.v_grow_queue_depth;
+        v_grow_wait_nanos =
+            TimeUnit.MILLISECONDS.toNanos(builder.v_grow_wait_time);
+        v_resize_listener = builder.v_resize_listener;
+        v_timer_tick_nanos =
+            TimeUnit.MILLISECONDS.toNanos(builder.v_timer_tick);
+        v_resize_lock = new Object();
+        v_is_shutdown = false;
+        v_metrics = new ThreadPoolMetrics(this);
+        v_runnables = new TaskRecycler<RunnableTask>(RunnableTask::new);
+        v_dispatcher = builder.v_listener_dispatchers > 0 ?
+            new ListenerDispatcher(v_thread_group,
+                                   v_name + "-Dispatcher-",
+                                   builder.v_listener_dispatchers) : null;
+
+        if( builder.v_virtual )
+        {
+            v_virtual = new VirtualTaskExecutor(
+                    builder.v_thread_name_prefix, builder.v_max_concurrency,
+                    v_metrics.getSharedRunMetrics());
+            v_core_threads = 0;
+            v_max_threads = 0;
+            v_queue = null;
+        }
+        else
+        {
+            v_virtual = null;
+            v_core_threads = builder.v_nr_threads;
+            v_max_threads = Math.max(builder.v_max_threads,
+                                     builder.v_nr_threads);
+            v_queue = builder.v_queue != null ? builder.v_queue :
+                TaskQueueFactory.newTaskQueue(builder.v_queue_type,
+                                              builder.v_queue_capacity);
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("instantiating task threads...  ");
+        }
+
+        // all the core task threads must exist before any of them
+        // starts, since each of them may steal from the others.
+        TaskThread[] workers = new TaskThread[v_core_threads];
+        for (int i=0; i<v_core_threads; i++)
+        {
+            workers[i] = new TaskThread(this, v_queue, v_batch_size);
+        }
+
+        synchronized(v_resize_lock)
+        {
+            v_workers = workers;
+
+            for (int i=0; i<v_core_threads; i++)
+            {
+                startThread(workers[i]);
+            }
+        }
+
+        v_metrics.register();
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed.");
+        }
+
+    }
+
+    private final String v_name;
+    private final TaskQueue v_queue;
+    private final int v_core_threads;
+    private final int v_max_threads;
+    private final OverflowPolicy v_overflow_policy;
+    private final int v_block_time;
+    private final ThreadGroup v_thread_group;
+    private final String v_thread_name_prefix;
+    private final int v_batch_size;
+    private final WaitStrategy v_wait_strategy;
+    private final long v_spin_nanos;
+
+    /** The CPUs the task threads are pinned to, or null. */
+    private final int[] v_cpus;
+    private final long v_keep_alive_nanos;
+    private final int v_grow_queue_depth;
+    private final long v_grow_wait_nanos;
+    private final ResizeListener v_resize_listener;
+
+    /** Guards the changes to the workers, and the shutdown flag. */
+    private final Object v_resize_lock;
+
+    /**
+     * The running task threads; replaced, never modified, when the
+     * pool is resized, so that it can be read without locking.
+     */
+    private volatile TaskThread[] v_workers;
+
+    /** The index in the name of the next task thread; v_resize_lock. */
+    private int v_next_thread_index;
+
+    /** Runs the tasks in virtual thread mode; null otherwise. */
+    private final VirtualTaskExecutor v_virtual;
+
+    /** Calls the task listeners back; null to call them back inline. */
+    private final ListenerDispatcher v_dispatcher;
+
+    private final long v_timer_tick_nanos;
+
+    /** Runs the scheduled tasks; created on first use. */
+    private volatile TimingWheel v_timer;
+    private volatile boolean v_is_shutdown;
+
+    /** Set by shutdownNow(): task threads stop without draining. */
+    private volatile boolean v_is_stopping;
+
+    /**
+     * Set once the task threads have all stopped after a shutdown,
+     * before the queue is swept.
+     */
+    private volatile boolean v_is_drained;
+
+    /** The metrics of the tasks, and the MXBean exposing them. */
+    private final ThreadPoolMetrics v_metrics;
+
+    /** The tasks the runnables pushed are wrapped in. */
+    private final TaskRecycler<RunnableTask> v_runnables;
+
+    /** Released once the pool has terminated. */
+    private final CountDownLatch v_terminated = new CountDownLatch(1);
 }
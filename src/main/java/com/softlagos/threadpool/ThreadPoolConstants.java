@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolConstants.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import com.softlagos.util.SystemProperties;
+
+/**
+ * The names, and default values, of the thread pool configuration
+ * properties that are read through SystemProperties, in addition to
+ * the THREADPOOL_SIZE, THREADPOOL_START_UP_TIME and
+ * THREADPOOL_SHUTDOWN_WAIT_TIME properties defined in Constants.
+ *
+ * Unlike those, the properties below are optional: the default
+ * value is used when a property is not set.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolConstants
+{
+
+    /**
+     * The TaskQueue implementation used by the TaskQueue singleton:
+     * QUEUE_TYPE_BLOCKING, QUEUE_TYPE_RING_BUFFER or
+     * QUEUE_TYPE_PRIORITY.
+     */
+    public static final String THREADPOOL_QUEUE_TYPE =
+            "threadpool.queue.type";
+
+    /** Selects the BlockingTaskQueue implementation. */
+    public static final String QUEUE_TYPE_BLOCKING = "blocking";
+
+    /** Selects the RingBufferTaskQueue implementation. */
+    public static final String QUEUE_TYPE_RING_BUFFER = "ringbuffer";
+
+    /** Selects the PriorityTaskQueue implementation. */
+    public static final String QUEUE_TYPE_PRIORITY = "priority";
+
+    /**
+     * How long, in msecs, a task may wait at the head of its lane in
+     * a PriorityTaskQueue before it is taken ahead of higher priority
+     * tasks.
+     */
+    public static final String THREADPOOL_PRIORITY_AGING_TIME =
+            "threadpool.priority.aging.time";
+
+    /**
+     * The maximum number of tasks held by the TaskQueue, or zero for
+     * an unbounded BlockingTaskQueue.  The RingBufferTaskQueue is
+     * always bounded, and rounds the capacity up to a power of two.
+     */
+    public static final String THREADPOOL_QUEUE_CAPACITY =
+            "threadpool.queue.capacity";
+
+    /**
+     * What ThreadPool.pushTask does when the TaskQueue is full: the
+     * name of one of the OverflowPolicy values, e.g. "BLOCK".
+     */
+    public static final String THREADPOOL_OVERFLOW_POLICY =
+            "threadpool.overflow.policy";
+
+    /**
+     * How long, in msecs, ThreadPool.pushTask waits for room in a
+     * full TaskQueue under the OverflowPolicy.BLOCK policy.
+     */
+    public static final String THREADPOOL_OVERFLOW_BLOCK_TIME =
+            "threadpool.overflow.block.time";
+
+    /**
+     * The maximum number of tasks a TaskThread takes from the
+     * TaskQueue at a time.  The first one is run right away, and the
+     * others are kept in the TaskThread local deque.
+     */
+    public static final String THREADPOOL_BATCH_SIZE =
+            "threadpool.batch.size";
+
+    /**
+     * What an idle TaskThread does before it blocks on the
+     * TaskQueue: the name of one of the WaitStrategy values, e.g.
+     * "SPIN_PARK".
+     */
+    public static final String THREADPOOL_WAIT_STRATEGY =
+            "threadpool.wait.strategy";
+
+    /**
+     * How long, in usecs, an idle TaskThread polls for a task before
+     * it blocks on the TaskQueue, under a WaitStrategy other than
+     * BLOCKING.
+     */
+    public static final String THREADPOOL_SPIN_TIME =
+            "threadpool.spin.time";
+
+    /**
+     * The CPUs the TaskThreads are pinned to, one each, in the Linux
+     * list format, e.g. "2-5,8"; or empty to not pin them.  There
+     * should be no more TaskThreads than CPUs.  The TaskThreads are
+     * not pinned where the platform does not allow it.
+     */
+    public static final String THREADPOOL_CPU_AFFINITY =
+            "threadpool.cpu.affinity";
+
+    /**
+     * How the ThreadPool runs its tasks: MODE_PLATFORM or
+     * MODE_VIRTUAL.
+     */
+    public static final String THREADPOOL_MODE = "threadpool.mode";
+
+    /**
+     * A fixed number (THREADPOOL_SIZE) of platform TaskThreads take
+     * the tasks from the TaskQueue.
+     */
+    public static final String MODE_PLATFORM = "platform";
+
+    /**
+     * Each task runs on its own new virtual thread (Java 21 and
+     * later); the TaskQueue is not used.
+     */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    /**
+     * In MODE_VIRTUAL, the maximum number of tasks running at the
+     * same time, or zero for no limit.
+     */
+    public static final String THREADPOOL_MAX_CONCURRENCY =
+            "threadpool.max.concurrency";
+
+    /**
+     * The maximum number of TaskThreads of an elastic ThreadPool, or
+     * zero for a fixed size pool of THREADPOOL_SIZE TaskThreads.
+     * THREADPOOL_SIZE is then the core number of TaskThreads, which
+     * are never retired.
+     */
+    public static final String THREADPOOL_MAX_SIZE = "threadpool.max.size";
+
+    /**
+     * How long, in msecs, a TaskThread above the core number of an
+     * elastic ThreadPool may be idle before it retires.
+     */
+    public static final String THREADPOOL_KEEP_ALIVE_TIME =
+            "threadpool.keep.alive.time";
+
+    /**
+     * An elastic ThreadPool adds a TaskThread when a task is pushed
+     * and more than this number of tasks are waiting in the
+     * TaskQueue, or zero to not grow on queue depth.
+     */
+    public static final String THREADPOOL_GROW_QUEUE_DEPTH =
+            "threadpool.grow.queue.depth";
+
+    /**
+     * An elastic ThreadPool adds a TaskThread when a task has waited
+     * more than this time, in msecs, in the TaskQueue before being
+     * taken, or zero to not grow on wait time.
+     */
+    public static final String THREADPOOL_GROW_WAIT_TIME =
+            "threadpool.grow.wait.time";
+
+    /**
+     * The number of threads that call the TaskListeners back, so
+     * that the TaskThreads do not wait for them, or zero to call the
+     * TaskListeners back on the TaskThreads.
+     */
+    public static final String THREADPOOL_LISTENER_DISPATCHERS =
+            "threadpool.listener.dispatchers";
+
+    /**
+     * The duration, in msecs, of a tick of the timing wheel that
+     * runs the tasks scheduled on a ThreadPool.  Scheduled tasks are
+     * pushed up to one tick late.
+     */
+    public static final String THREADPOOL_TIMER_TICK =
+            "threadpool.timer.tick";
+
+    /**
+     * How long, in msecs, a cached on-demand thread waits for a new
+     * task, after running one, before it stops.
+     */
+    public static final String THREADPOOL_ON_DEMAND_KEEP_ALIVE_TIME =
+            "threadpool.ondemand.keep.alive.time";
+
+    /** The default THREADPOOL_QUEUE_TYPE. */
+    public static final String DEFAULT_QUEUE_TYPE = QUEUE_TYPE_BLOCKING;
+
+    /** The default THREADPOOL_QUEUE_CAPACITY: unbounded. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 0;
+
+    /** The RingBufferTaskQueue capacity when none is configured. */
+    public static final int DEFAULT_RING_BUFFER_CAPACITY = 1024;
+
+    /** The default THREADPOOL_PRIORITY_AGING_TIME, in msecs. */
+    public static final int DEFAULT_PRIORITY_AGING_TIME = 1000;
+
+    /** The default THREADPOOL_OVERFLOW_POLICY. */
+    public static final String DEFAULT_OVERFLOW_POLICY = "BLOCK";
+
+    /** The default THREADPOOL_OVERFLOW_BLOCK_TIME, in msecs. */
+    public static final int DEFAULT_OVERFLOW_BLOCK_TIME = 1000;
+
+    /** The default THREADPOOL_BATCH_SIZE: one task at a time. */
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    /** The default THREADPOOL_WAIT_STRATEGY. */
+    public static final String DEFAULT_WAIT_STRATEGY = "BLOCKING";
+
+    /** The default THREADPOOL_SPIN_TIME, in usecs. */
+    public static final int DEFAULT_SPIN_TIME = 50;
+
+    /** The default THREADPOOL_CPU_AFFINITY: not pinned. */
+    public static final String DEFAULT_CPU_AFFINITY = "";
+
+    /** The default THREADPOOL_MODE. */
+    public static final String DEFAULT_MODE = MODE_PLATFORM;
+
+    /** The default THREADPOOL_MAX_CONCURRENCY: no limit. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 0;
+
+    /** The default THREADPOOL_MAX_SIZE: a fixed size pool. */
+    public static final int DEFAULT_MAX_SIZE = 0;
+
+    /** The default THREADPOOL_KEEP_ALIVE_TIME, in msecs. */
+    public static final int DEFAULT_KEEP_ALIVE_TIME = 60000;
+
+    /** The default THREADPOOL_GROW_QUEUE_DEPTH. */
+    public static final int DEFAULT_GROW_QUEUE_DEPTH = 64;
+
+    /** The default THREADPOOL_GROW_WAIT_TIME, in msecs. */
+    public static final int DEFAULT_GROW_WAIT_TIME = 100;
+
+    /** The default THREADPOOL_LISTENER_DISPATCHERS: synchronous. */
+    public static final int DEFAULT_LISTENER_DISPATCHERS = 0;
+
+    /** The default THREADPOOL_TIMER_TICK, in msecs. */
+    public static final int DEFAULT_TIMER_TICK = 1;
+
+    /** The default THREADPOOL_ON_DEMAND_KEEP_ALIVE_TIME, in msecs. */
+    public static final int DEFAULT_ON_DEMAND_KEEP_ALIVE_TIME = 60000;
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Reads an optional integer property.
+     *
+     * @param name the property name.
+     * @param default_value the value used if the property is not set.
+     * @return the property value, or the default value.
+     */
+    static int getInt(final String name, final int default_value)
+    {
+        String value = getString(name, null);
+
+        if( value == null )
+        {
+            return default_value;
+        }
+
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException ex)
+        {
+            throw new IllegalArgumentException("property [" + name +
+                    "] is not an integer: " + value);
+        }
+    }
+
+    /**
+     * Reads an optional string property.
+     *
+     * @param name the property name.
+     * @param default_value the value used if the property is not set.
+     * @return the property value, or the default value.
+     */
+    static String getString(final String name, final String default_value)
+    {
+        String value = SystemProperties.instance().getProperty(name);
+
+        if( value == null || value.trim().isEmpty() )
+        {
+            return default_value;
+        }
+
+        return value.trim();
+    }
+
+    // ------ >>> Private <<< ------
+    private ThreadPoolConstants()
+    {
+    }
+}
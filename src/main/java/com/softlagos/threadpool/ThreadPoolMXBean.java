@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolMXBean.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * The metrics of a ThreadPool, registered with the platform MBean
+ * server as com.softlagos.threadpool:type=ThreadPool,name=&lt;pool
+ * name&gt;, and also available from ThreadPool.getMetrics().
+ *
+ * The metrics are always on.  The durations are in nanoseconds, and
+ * their percentiles are the upper bound of a power of two bucket:
+ * the actual percentile is at most that, and more than half of it.
+ * The task counts include the task threads that have stopped.
+ *
+ * @author Rubens Gomes
+ */
+public interface ThreadPoolMXBean
+{
+
+    /**
+     * @return the name of the pool.
+     */
+    String getName();
+
+    /**
+     * @return the number of task threads, or of virtual threads
+     * running, or waiting to run, a task.
+     */
+    int getPoolSize();
+
+    /**
+     * @return the CPUs the task threads are pinned to, in the Linux
+     * list format, or an empty string if they are not pinned.
+     */
+    String getCpuAffinity();
+
+    /**
+     * @return the number of tasks waiting in the queue of the pool,
+     * not counting those in the task threads local deques.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of tasks waiting in the task threads local
+     * deques.
+     */
+    int getLocalQueueDepth();
+
+    /**
+     * @return the number of tasks pushed to the pool, and accepted.
+     */
+    long getSubmittedTaskCount();
+
+    /**
+     * @return the number of tasks rejected, or discarded, because the
+     * queue was full.
+     */
+    long getRejectedTaskCount();
+
+    /**
+     * @return the number of tasks that ran, and returned.
+     */
+    long getCompletedTaskCount();
+
+    /**
+     * @return the number of tasks that ran, and threw an exception.
+     */
+    long getFailedTaskCount();
+
+    /**
+     * @return the number of tasks cancelled, or timed out, after they
+     * were taken to run.
+     */
+    long getAbortedTaskCount();
+
+    /**
+     * @return the number of task threads that stopped because their
+     * task failed, and were replaced.
+     */
+    long getReplacedThreadCount();
+
+    /**
+     * @return the median time the tasks waited to start.
+     */
+    long getQueueWaitP50Nanos();
+
+    /**
+     * @return the 99th percentile of the time the tasks waited to
+     * start.
+     */
+    long getQueueWaitP99Nanos();
+
+    /**
+     * @return the longest time a task waited to start.
+     */
+    long getQueueWaitMaxNanos();
+
+    /**
+     * @return the median time the tasks ran.
+     */
+    long getRunTimeP50Nanos();
+
+    /**
+     * @return the 99th percentile of the time the tasks ran.
+     */
+    long getRunTimeP99Nanos();
+
+    /**
+     * @return the longest time a task ran.
+     */
+    long getRunTimeMaxNanos();
+
+    /**
+     * @return the counts of the times the tasks waited to start, by
+     * power of two bucket: element 0 counts the zero times, and
+     * element i those from 2^(i-1) to 2^i - 1.
+     */
+    long[] getQueueWaitHistogram();
+
+    /**
+     * @return the counts of the times the tasks ran, by power of two
+     * bucket, as getQueueWaitHistogram().
+     */
+    long[] getRunTimeHistogram();
+
+    /**
+     * @return the counters of each task thread currently in the
+     * pool, and the CPUs it runs on.
+     */
+    TaskThreadStats[] getTaskThreadStats();
+}
@@ -0,0 +1,401 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolMetrics.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The metrics of a ThreadPool, and the MXBean that exposes them.
+ *
+ * Nothing is aggregated while the tasks run: each task thread
+ * records into its own RunMetrics, and the pool counters are
+ * LongAdders, so recording never contends.  The task threads metrics
+ * are summed up when read, and those of a task thread that stops
+ * are added to the retired metrics, so that the totals never go
+ * back.
+ *
+ * @author Rubens Gomes
+ */
+final class ThreadPoolMetrics implements ThreadPoolMXBean
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(ThreadPoolMetrics.class);
+
+    /** The JMX domain of the pool MXBeans. */
+    static final String JMX_DOMAIN = "com.softlagos.threadpool";
+
+    /**
+     * Instantiates the metrics of a pool.
+     *
+     * @param pool the pool.
+     */
+    ThreadPoolMetrics(final ThreadPool pool)
+    {
+        v_pool = pool;
+        v_shared = new RunMetrics(false);
+        v_retired = new RunMetrics(false);
+        v_nr_submitted = new LongAdder();
+        v_nr_rejected = new LongAdder();
+        v_nr_replaced = new LongAdder();
+    }
+
+    @Override
+    public String getName()
+    {
+        return v_pool.getName();
+    }
+
+    @Override
+    public int getPoolSize()
+    {
+        return v_pool.getTotalThreads();
+    }
+
+    @Override
+    public String getCpuAffinity()
+    {
+        return v_pool.getCpuAffinity();
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        TaskQueue queue = v_pool.getQueue();
+
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public int getLocalQueueDepth()
+    {
+        int depth = 0;
+
+        for(TaskThread worker : v_pool.getWorkers())
+        {
+            depth += worker.getLocalDepth();
+        }
+
+        return depth;
+    }
+
+    @Override
+    public long getSubmittedTaskCount()
+    {
+        return v_nr_submitted.sum();
+    }
+
+    @Override
+    public long getRejectedTaskCount()
+    {
+        return v_nr_rejected.sum();
+    }
+
+    @Override
+    public long getCompletedTaskCount()
+    {
+        long count = 0L;
+
+        for(RunMetrics metrics : all())
+        {
+            count += metrics.getCompletedCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getFailedTaskCount()
+    {
+        long count = 0L;
+
+        for(RunMetrics metrics : all())
+        {
+            count += metrics.getFailedCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getAbortedTaskCount()
+    {
+        long count = 0L;
+
+        for(RunMetrics metrics : all())
+        {
+            count += metrics.getAbortedCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getReplacedThreadCount()
+    {
+        return v_nr_replaced.sum();
+    }
+
+    @Override
+    public long getQueueWaitP50Nanos()
+    {
+        return LatencyHistogram.percentile(getQueueWaitHistogram(), 0.50);
+    }
+
+    @Override
+    public long getQueueWaitP99Nanos()
+    {
+        return LatencyHistogram.percentile(getQueueWaitHistogram(), 0.99);
+    }
+
+    @Override
+    public long getQueueWaitMaxNanos()
+    {
+        long max = 0L;
+
+        for(RunMetrics metrics : all())
+        {
+            max = Math.max(max, metrics.getWaitHistogram().getMax());
+        }
+
+        return max;
+    }
+
+    @Override
+    public long getRunTimeP50Nanos()
+    {
+        return LatencyHistogram.percentile(getRunTimeHistogram(), 0.50);
+    }
+
+    @Override
+    public long getRunTimeP99Nanos()
+    {
+        return LatencyHistogram.percentile(getRunTimeHistogram(), 0.99);
+    }
+
+    @Override
+    public long getRunTimeMaxNanos()
+    {
+        long max = 0L;
+
+        for(RunMetrics metrics : all())
+        {
+            max = Math.max(max, metrics.getRunHistogram().getMax());
+        }
+
+        return max;
+    }
+
+    @Override
+    public long[] getQueueWaitHistogram()
+    {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+
+        for(RunMetrics metrics : all())
+        {
+            metrics.getWaitHistogram().addTo(counts);
+        }
+
+        return counts;
+    }
+
+    @Override
+    public long[] getRunTimeHistogram()
+    {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+
+        for(RunMetrics metrics : all())
+        {
+            metrics.getRunHistogram().addTo(counts);
+        }
+
+        return counts;
+    }
+
+    @Override
+    public TaskThreadStats[] getTaskThreadStats()
+    {
+        TaskThread[] workers = v_pool.getWorkers();
+        TaskThreadStats[] stats = new TaskThreadStats[workers.length];
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            RunMetrics metrics = workers[i].getMetrics();
+
+            stats[i] = new TaskThreadStats(workers[i].getThreadName(),
+                    metrics.getCompletedCount(),
+                    metrics.getFailedCount(),
+                    metrics.getAbortedCount(),
+                    metrics.getRunHistogram().getSum(),
+                    metrics.getIdleNanos(),
+                    workers[i].getCpuAffinity());
+        }
+
+        return stats;
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * @return the metrics of the tasks not run by a task thread.
+     */
+    RunMetrics getSharedRunMetrics()
+    {
+        return v_shared;
+    }
+
+    /**
+     * Counts a task accepted by the pool.
+     *
+     * @param nr_tasks the number of tasks accepted.
+     */
+    void tasksSubmitted(final int nr_tasks)
+    {
+        v_nr_submitted.add(nr_tasks);
+    }
+
+    /**
+     * Counts a task rejected, or discarded, because the queue was
+     * full.
+     */
+    void taskRejected()
+    {
+        v_nr_rejected.increment();
+    }
+
+    /**
+     * Counts a task thread replaced after its task failed.
+     */
+    void threadReplaced()
+    {
+        v_nr_replaced.increment();
+    }
+
+    /**
+     * Keeps the metrics of a task thread that has stopped, and been
+     * removed from the pool.
+     *
+     * @param worker the task thread.
+     */
+    void threadStopped(final TaskThread worker)
+    {
+        v_retired.addAll(worker.getMetrics());
+    }
+
+    /**
+     * Registers the MXBean with the platform MBean server.  A pool
+     * whose name is already registered, by a pool that has not
+     * terminated, is not.
+     */
+    void register()
+    {
+        try
+        {
+            ObjectName name = new ObjectName(JMX_DOMAIN +
+                    ":type=ThreadPool,name=" +
+                    ObjectName.quote(v_pool.getName()));
+
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, name);
+            v_object_name = name;
+        }
+        catch(InstanceAlreadyExistsException ex)
+        {
+
+            if(logger.isInfoEnabled())
+            {
+                logger.info("MXBean not registered: a pool named [" +
+                            v_pool.getName() + "] already is.");
+            }
+
+        }
+        catch(JMException | RuntimeException ex)
+        {
+
+            if(logger.isWarnEnabled())
+            {
+                logger.warn("MXBean not registered: " + ex.getMessage());
+            }
+
+        }
+    }
+
+    /**
+     * Unregisters the MXBean, if it was registered.
+     */
+    void unregister()
+    {
+        ObjectName name = v_object_name;
+
+        if( name == null )
+        {
+            return;
+        }
+
+        v_object_name = null;
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch(JMException | RuntimeException ex)
+        {
+
+            if(logger.isWarnEnabled())
+            {
+                logger.warn("MXBean not unregistered: " + ex.getMessage());
+            }
+
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * @return the metrics of the task threads of the pool, the
+     * retired ones, and the shared ones.
+     */
+    private RunMetrics[] all()
+    {
+        TaskThread[] workers = v_pool.getWorkers();
+        RunMetrics[] all = new RunMetrics[workers.length + 2];
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            all[i] = workers[i].getMetrics();
+        }
+
+        all[workers.length] = v_retired;
+        all[workers.length + 1] = v_shared;
+        return all;
+    }
+
+    private final ThreadPool v_pool;
+
+    /** The tasks run on virtual threads, or on the pushing thread. */
+    private final RunMetrics v_shared;
+
+    /** The tasks run by the task threads that have stopped. */
+    private final RunMetrics v_retired;
+
+    private final LongAdder v_nr_submitted;
+    private final LongAdder v_nr_rejected;
+    private final LongAdder v_nr_replaced;
+
+    /** The registered name of the MXBean, or null. */
+    private volatile ObjectName v_object_name;
+}
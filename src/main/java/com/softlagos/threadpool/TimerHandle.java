@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TimerHandle.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The handle of a timer scheduled on a TimingWheel: a task
+ * scheduled on a ThreadPool to run after a delay, or periodically.
+ *
+ * Cancelling a timer costs O(1), whatever the number of pending
+ * timers.
+ *
+ * @author Rubens Gomes
+ */
+public final class TimerHandle
+{
+
+    /**
+     * Cancels the timer.  A one-shot timer that has not expired yet
+     * will not; a periodic timer will not fire again.  A task that has
+     * already been handed to the pool is not affected.
+     *
+     * @return true if the timer was cancelled by this call, false if
+     * it had already expired or been cancelled.
+     */
+    public boolean cancel()
+    {
+
+        if( ! s_state_updater.compareAndSet(this, PENDING, CANCELLED) )
+        {
+            return false;
+        }
+
+        v_wheel.cancelled(this);
+        return true;
+    }
+
+    /**
+     * @return true if the timer has been cancelled.
+     */
+    public boolean isCancelled()
+    {
+        return v_state == CANCELLED;
+    }
+
+    /**
+     * @return true if the timer will not fire again: a one-shot timer
+     * that has expired, or a cancelled timer.
+     */
+    public boolean isDone()
+    {
+        return v_state != PENDING;
+    }
+
+    /**
+     * @return true if the timer fires periodically.
+     */
+    public boolean isPeriodic()
+    {
+        return v_period_ticks > 0L;
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Instantiates a new timer handle.
+     *
+     * @param wheel the wheel the timer is scheduled on.
+     * @param action what to run, on the wheel thread, when the timer
+     * expires.
+     * @param deadline_tick the tick the timer expires at.
+     * @param period_ticks the period of a periodic timer, in ticks,
+     * or zero for a one-shot timer.
+     */
+    TimerHandle(final TimingWheel wheel, final Runnable action,
+                final long deadline_tick, final long period_ticks)
+    {
+        v_wheel = wheel;
+        v_action = action;
+        v_deadline_tick = deadline_tick;
+        v_period_ticks = period_ticks;
+        v_state = PENDING;
+    }
+
+    /**
+     * Marks a one-shot timer as expired.
+     *
+     * @return false if the timer was cancelled first.
+     */
+    boolean expire()
+    {
+        return s_state_updater.compareAndSet(this, PENDING, EXPIRED);
+    }
+
+    static final int PENDING = 0;
+    static final int CANCELLED = 1;
+    static final int EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<TimerHandle>
+        s_state_updater = AtomicIntegerFieldUpdater.newUpdater(
+                TimerHandle.class, "v_state");
+
+    final TimingWheel v_wheel;
+    final Runnable v_action;
+    final long v_period_ticks;
+
+    /** The tick the timer expires at; owned by the wheel thread. */
+    long v_deadline_tick;
+
+    /** The links of the wheel bucket list; owned by the wheel thread. */
+    TimingWheel.Bucket v_bucket;
+    TimerHandle v_prev;
+    TimerHandle v_next;
+
+    volatile int v_state;
+}
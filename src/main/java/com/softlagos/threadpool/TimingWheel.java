@@ -0,0 +1,451 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TimingWheel.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A hierarchical timing wheel, driven by a single thread, that runs
+ * the action of each timer when it expires.
+ *
+ * Time is counted in ticks.  The wheel has LEVELS levels of SLOTS
+ * buckets each: a bucket of the first level holds the timers that
+ * expire at one tick, a bucket of the second level those that expire
+ * within SLOTS ticks, and so on.  When the current tick enters the
+ * range of a higher level bucket, its timers cascade down to the
+ * lower levels.  Each timer is cascaded at most once per level, so
+ * scheduling, cancelling and expiring a timer all cost O(1),
+ * whatever the number of pending timers.
+ *
+ * The buckets are only touched by the wheel thread.  Other threads
+ * hand new and cancelled timers over through lock-free queues, which
+ * the wheel thread drains at every tick.  The wheel thread parks
+ * until the next tick, or indefinitely while there is no timer.
+ *
+ * Timer actions run on the wheel thread, so they must be short: the
+ * ThreadPool timer actions only push a task.
+ *
+ * @author Rubens Gomes
+ */
+final class TimingWheel implements Runnable
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(TimingWheel.class);
+
+    /**
+     * Instantiates a new timing wheel.
+     *
+     * @param tick_nanos the duration of a tick, in nanoseconds.
+     */
+    TimingWheel(final long tick_nanos)
+    {
+
+        if( tick_nanos <= 0L )
+        {
+            throw new IllegalArgumentException(
+                    "tick duration must be positive.");
+        }
+
+        v_tick_nanos = tick_nanos;
+        v_start_nanos = System.nanoTime();
+        v_buckets = new Bucket[LEVELS][SLOTS];
+
+        for(int level = 0; level < LEVELS; level++)
+        {
+            for(int slot = 0; slot < SLOTS; slot++)
+            {
+                v_buckets[level][slot] = new Bucket();
+            }
+        }
+
+        v_new_timers = new ConcurrentLinkedQueue<TimerHandle>();
+        v_cancelled_timers = new ConcurrentLinkedQueue<TimerHandle>();
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed.");
+        }
+
+    }
+
+    /**
+     * Schedules a timer.  May be called from any thread.
+     *
+     * @param action what to run, on the wheel thread, when the timer
+     * expires.
+     * @param delay_nanos the delay before the timer first expires.
+     * @param period_nanos the period of a periodic timer, or zero for
+     * a one-shot timer.
+     * @return the handle of the timer.
+     */
+    TimerHandle schedule(final Runnable action, final long delay_nanos,
+                         final long period_nanos)
+    {
+        // rounded up, so that a timer never expires early.
+        long deadline_tick = (System.nanoTime() - v_start_nanos +
+                Math.max(0L, delay_nanos) + v_tick_nanos - 1) / v_tick_nanos;
+        long period_ticks = period_nanos > 0L ?
+                Math.max(1L, period_nanos / v_tick_nanos) : 0L;
+
+        TimerHandle timer = new TimerHandle(this, action,
+                deadline_tick, period_ticks);
+
+        v_new_timers.offer(timer);
+
+        // the timer is queued before the parked flag is read, and
+        // the wheel thread sets the flag before it drains the queue,
+        // so one of the two always sees the other.
+        if( v_is_parked )
+        {
+            LockSupport.unpark(v_thread);
+        }
+
+        return timer;
+    }
+
+    /**
+     * Called when a timer is cancelled, so that the wheel thread
+     * removes it from its bucket.
+     *
+     * @param timer the cancelled timer.
+     */
+    void cancelled(final TimerHandle timer)
+    {
+        v_cancelled_timers.offer(timer);
+    }
+
+    /**
+     * @param thread the thread that runs this wheel; must be set
+     * before the thread is started.
+     */
+    void setThread(final Thread thread)
+    {
+        v_thread = thread;
+    }
+
+    /**
+     * Stops the wheel thread; the pending timers never expire.
+     */
+    void stop()
+    {
+        v_thread.interrupt();
+    }
+
+    /**
+     * @return the number of timers in the wheel buckets.
+     */
+    int getPendingCount()
+    {
+        return v_nr_pending;
+    }
+
+    /**
+     * The wheel thread loop: runs until interrupted.
+     */
+    @Override
+    public void run()
+    {
+        while( ! Thread.currentThread().isInterrupted() )
+        {
+            long now_tick = (System.nanoTime() - v_start_nanos) / v_tick_nanos;
+
+            if( v_nr_pending == 0 && v_tick < now_tick )
+            {
+                // nothing to expire in between: skip the idle ticks.
+                v_tick = now_tick;
+            }
+
+            drainCancelled();
+            drainNew();
+
+            while( v_tick <= now_tick )
+            {
+                advance();
+            }
+
+            v_is_parked = true;
+
+            if( v_new_timers.isEmpty() )
+            {
+                if( v_nr_pending == 0 )
+                {
+                    LockSupport.park(this);
+                }
+                else
+                {
+                    long next_tick_nanos = v_start_nanos +
+                            v_tick * v_tick_nanos - System.nanoTime();
+                    LockSupport.parkNanos(this, next_tick_nanos);
+                }
+            }
+
+            v_is_parked = false;
+        }
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("interrupted: timing wheel stopped.");
+        }
+    }
+
+    // ------ >>> Package <<< ------
+
+    /** A doubly linked list of timers. */
+    static final class Bucket
+    {
+        private TimerHandle v_head;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The number of bits of a slot index. */
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 5;
+
+    /** The farthest tick, from the current one, the levels can hold. */
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    /**
+     * Processes the current tick: cascades the higher level buckets
+     * whose range starts at this tick, then expires the timers of
+     * the first level bucket.
+     */
+    private void advance()
+    {
+        int slot = (int) (v_tick & SLOT_MASK);
+
+        for(int level = 1; level < LEVELS && ((v_tick >>>
+                (SLOT_BITS * (level - 1))) & SLOT_MASK) == 0; level++)
+        {
+            cascade(level,
+                    (int) ((v_tick >>> (SLOT_BITS * level)) & SLOT_MASK));
+        }
+
+        Bucket bucket = v_buckets[0][slot];
+        TimerHandle timer = bucket.v_head;
+        bucket.v_head = null;
+        v_tick++;
+
+        while( timer != null )
+        {
+            TimerHandle next = timer.v_next;
+            timer.v_prev = null;
+            timer.v_next = null;
+            timer.v_bucket = null;
+            v_nr_pending--;
+            expire(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Moves the timers of a higher level bucket down to the buckets
+     * that now cover their deadline.
+     */
+    private void cascade(final int level, final int slot)
+    {
+        Bucket bucket = v_buckets[level][slot];
+        TimerHandle timer = bucket.v_head;
+        bucket.v_head = null;
+
+        while( timer != null )
+        {
+            TimerHandle next = timer.v_next;
+            timer.v_prev = null;
+            timer.v_next = null;
+            timer.v_bucket = null;
+            v_nr_pending--;
+            add(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Runs the action of an expired timer, and schedules the next
+     * expiry of a periodic one.
+     */
+    private void expire(final TimerHandle timer)
+    {
+
+        if( timer.v_period_ticks == 0L && ! timer.expire() )
+        {
+            // cancelled after it was linked.
+            return;
+        }
+
+        if( timer.v_state == TimerHandle.CANCELLED )
+        {
+            return;
+        }
+
+        try
+        {
+            timer.v_action.run();
+        }
+        catch(RuntimeException ex)
+        {
+
+            if(logger.isErrorEnabled())
+            {
+                logger.error("timer action failed: " + ex.getMessage(), ex);
+            }
+
+        }
+
+        if( timer.v_period_ticks > 0L &&
+            timer.v_state == TimerHandle.PENDING )
+        {
+            // a fixed rate: the next deadline does not drift with
+            // the time the action took.
+            timer.v_deadline_tick += timer.v_period_ticks;
+            add(timer);
+        }
+    }
+
+    /**
+     * Links a timer into the bucket that covers its deadline.
+     */
+    private void add(final TimerHandle timer)
+    {
+        long deadline = timer.v_deadline_tick;
+        long delta = deadline - v_tick;
+        Bucket bucket;
+
+        if( delta < SLOTS )
+        {
+            // overdue timers expire at the current tick.
+            long tick = delta < 0L ? v_tick : deadline;
+            bucket = v_buckets[0][(int) (tick & SLOT_MASK)];
+        }
+        else
+        {
+
+            if( delta > MAX_DELTA )
+            {
+                // parked in the farthest bucket, and cascaded down
+                // again once the wheel gets there.
+                deadline = v_tick + MAX_DELTA;
+                delta = MAX_DELTA;
+            }
+
+            int level = 1;
+
+            while( delta >= (1L << (SLOT_BITS * (level + 1))) )
+            {
+                level++;
+            }
+
+            bucket = v_buckets[level]
+                [(int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK)];
+        }
+
+        timer.v_bucket = bucket;
+        timer.v_prev = null;
+        timer.v_next = bucket.v_head;
+
+        if( bucket.v_head != null )
+        {
+            bucket.v_head.v_prev = timer;
+        }
+
+        bucket.v_head = timer;
+        v_nr_pending++;
+    }
+
+    /**
+     * Unlinks a timer from its bucket.
+     */
+    private void remove(final TimerHandle timer)
+    {
+        Bucket bucket = timer.v_bucket;
+
+        if( bucket == null )
+        {
+            // not linked yet, or already expired.
+            return;
+        }
+
+        if( timer.v_prev != null )
+        {
+            timer.v_prev.v_next = timer.v_next;
+        }
+        else
+        {
+            bucket.v_head = timer.v_next;
+        }
+
+        if( timer.v_next != null )
+        {
+            timer.v_next.v_prev = timer.v_prev;
+        }
+
+        timer.v_bucket = null;
+        timer.v_prev = null;
+        timer.v_next = null;
+        v_nr_pending--;
+    }
+
+    /**
+     * Links the timers scheduled since the last tick.
+     */
+    private void drainNew()
+    {
+        TimerHandle timer;
+
+        while( (timer = v_new_timers.poll()) != null )
+        {
+            if( timer.v_state == TimerHandle.PENDING )
+            {
+                add(timer);
+            }
+        }
+    }
+
+    /**
+     * Unlinks the timers cancelled since the last tick.
+     */
+    private void drainCancelled()
+    {
+        TimerHandle timer;
+
+        while( (timer = v_cancelled_timers.poll()) != null )
+        {
+            remove(timer);
+        }
+    }
+
+    private final long v_tick_nanos;
+    private final long v_start_nanos;
+
+    /** The timer buckets, by level and slot; owned by the wheel thread. */
+    private final Bucket[][] v_buckets;
+
+    /** The timers scheduled, but not linked into a bucket yet. */
+    private final Queue<TimerHandle> v_new_timers;
+
+    /** The timers cancelled, but not unlinked from their bucket yet. */
+    private final Queue<TimerHandle> v_cancelled_timers;
+
+    /** The next tick to be processed; owned by the wheel thread. */
+    private long v_tick;
+
+    /** The number of timers in the buckets; written by the wheel thread. */
+    private volatile int v_nr_pending;
+
+    private volatile boolean v_is_parked;
+    private Thread v_thread;
+}
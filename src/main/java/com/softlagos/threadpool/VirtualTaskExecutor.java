@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: VirtualTaskExecutor.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs each task on its own, new, virtual thread.  This is how a
+ * ThreadPool in virtual thread mode runs its tasks, instead of
+ * queuing them for a fixed number of TaskThreads.
+ *
+ * Tasks that block on I/O park their virtual thread, not a platform
+ * thread, so a very large number of them may be in flight at once.
+ * An optional semaphore caps the number of tasks running at the same
+ * time; tasks over the cap wait, parked, for a permit.
+ *
+ * Once shutdown, the executor starts no more virtual threads, and
+ * calls back the pool when the last one has finished.
+ *
+ * @author Rubens Gomes
+ */
+final class VirtualTaskExecutor
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(VirtualTaskExecutor.class);
+
+    /**
+     * Instantiates a new virtual task executor.
+     *
+     * @param name_prefix the prefix of the virtual thread names.
+     * @param max_concurrency the maximum number of tasks running at
+     * the same time, or zero for no limit.
+     * @param metrics where the tasks run are recorded.
+     * @throws UnsupportedOperationException if the running JVM does
+     * not support virtual threads.
+     */
+    VirtualTaskExecutor(final String name_prefix, final int max_concurrency,
+                        final RunMetrics metrics)
+    {
+
+        if( max_concurrency < 0 )
+        {
+            throw new IllegalArgumentException(
+                    "max concurrency cannot be negative.");
+        }
+
+        v_factory = VirtualThreads.newFactory(name_prefix);
+        v_permits = max_concurrency > 0 ?
+                new Semaphore(max_concurrency) : null;
+        v_threads = ConcurrentHashMap.newKeySet();
+        v_metrics = metrics;
+
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("constructed.");
+        }
+
+    }
+
+    /**
+     * Starts a new virtual thread to run the given task.
+     *
+     * @param task the task to be run.
+     * @throws RuntimeException if the executor has been shutdown.
+     */
+    void execute(final Task task)
+    {
+        Thread thread = v_factory.newThread(() -> runTask(task));
+
+        // the thread is registered before the shutdown flag is read,
+        // and the flag is set before the threads are counted, so one
+        // of the two always sees the other.
+        v_threads.add(thread);
+
+        if( v_on_terminated != null )
+        {
+            v_threads.remove(thread);
+            throw new RuntimeException("ThreadPool has been shutdown.");
+        }
+
+        thread.start();
+    }
+
+    /**
+     * Starts no more virtual threads, and calls the given callback
+     * once the running ones have finished.
+     *
+     * @param on_terminated called once, on the last virtual thread to
+     * finish, or right away if there is none.
+     */
+    void shutdown(final Runnable on_terminated)
+    {
+        v_on_terminated = on_terminated;
+        terminateIfIdle();
+    }
+
+    /**
+     * Interrupts all the virtual threads that are still running, or
+     * waiting to run, a task.
+     */
+    void interruptAll()
+    {
+        for(Thread thread : v_threads)
+        {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * @return the number of virtual threads still running, or
+     * waiting to run, a task.
+     */
+    int getLiveCount()
+    {
+        return v_threads.size();
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * The body of each virtual thread.
+     */
+    private void runTask(final Task task)
+    {
+        try
+        {
+
+            if( v_permits != null )
+            {
+                v_permits.acquire();
+            }
+
+            try
+            {
+                TaskRunner.run(task, v_metrics);
+            }
+            finally
+            {
+                if( v_permits != null )
+                {
+                    v_permits.release();
+                }
+            }
+        }
+        catch(InterruptedException ex)
+        {
+
+            if(logger.isInfoEnabled())
+            {
+                logger.info("interrupted waiting to run: " + ex.getMessage());
+            }
+
+            task.fail(ex);
+            task.notifyListeners(Task.Status.INTERRUPTED, ex.getMessage());
+        }
+        finally
+        {
+            v_threads.remove(Thread.currentThread());
+            terminateIfIdle();
+        }
+    }
+
+    /**
+     * Calls the termination callback, once, if the executor has been
+     * shutdown and no virtual thread is left.
+     */
+    private void terminateIfIdle()
+    {
+        Runnable on_terminated = v_on_terminated;
+
+        if( on_terminated != null && v_threads.isEmpty() &&
+            ! v_is_terminated.getAndSet(true) )
+        {
+            on_terminated.run();
+        }
+    }
+
+    private final ThreadFactory v_factory;
+
+    /** Where the tasks run are recorded. */
+    private final RunMetrics v_metrics;
+
+    /** The concurrency limit, or null if there is none. */
+    private final Semaphore v_permits;
+
+    /** The virtual threads started and not yet finished. */
+    private final Set<Thread> v_threads;
+
+    private final AtomicBoolean v_is_terminated = new AtomicBoolean();
+
+    /** Null until shutdown; then called once the threads are done. */
+    private volatile Runnable v_on_terminated;
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: VirtualThreads.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Creates virtual threads when the running JVM supports them.
+ *
+ * Virtual threads are looked up by reflection (Thread.ofVirtual(),
+ * Java 21 and later) so that this library still builds and runs on
+ * older JVMs, where only the platform thread modes are available.
+ *
+ * @author Rubens Gomes
+ */
+final class VirtualThreads
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(VirtualThreads.class);
+
+    /**
+     * @return true if the running JVM supports virtual threads.
+     */
+    static boolean isSupported()
+    {
+        return Holder.s_of_virtual != null;
+    }
+
+    /**
+     * Creates a factory of virtual threads.
+     *
+     * @param name_prefix the prefix of the thread names, which are
+     * followed by a sequence number.
+     * @return the virtual thread factory.
+     * @throws UnsupportedOperationException if the running JVM does
+     * not support virtual threads.
+     */
+    static ThreadFactory newFactory(final String name_prefix)
+    {
+
+        if( ! isSupported() )
+        {
+            throw new UnsupportedOperationException(
+                    "virtual threads require Java 21 or later.");
+        }
+
+        try
+        {
+            Object builder = Holder.s_of_virtual.invoke(null);
+            builder = Holder.s_name.invoke(builder, name_prefix, 0L);
+            return (ThreadFactory) Holder.s_factory.invoke(builder);
+        }
+        catch(ReflectiveOperationException ex)
+        {
+            throw new UnsupportedOperationException(
+                    "cannot create virtual threads: " + ex.getMessage(), ex);
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** Looks the virtual thread builder methods up on first use. */
+    private static final class Holder
+    {
+        private static final Method s_of_virtual;
+        private static final Method s_name;
+        private static final Method s_factory;
+
+        static
+        {
+            Method of_virtual = null;
+            Method name = null;
+            Method factory = null;
+
+            try
+            {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                of_virtual = Thread.class.getMethod("ofVirtual");
+                name = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+
+                // fails on JVMs where virtual threads are a preview
+                // feature that has not been enabled.
+                of_virtual.invoke(null);
+            }
+            catch(ReflectiveOperationException | LinkageError ex)
+            {
+
+                if(logger.isInfoEnabled())
+                {
+                    logger.info("virtual threads not supported: " + ex);
+                }
+
+                of_virtual = null;
+            }
+
+            s_of_virtual = of_virtual;
+            s_name = name;
+            s_factory = factory;
+        }
+    }
+
+    private VirtualThreads()
+    {
+    }
+}
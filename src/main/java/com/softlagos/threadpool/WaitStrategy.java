@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: WaitStrategy.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.threadpool;
+
+/**
+ * What an idle TaskThread does, when it finds no task anywhere,
+ * before it blocks on the TaskQueue.
+ *
+ * A blocked TaskThread has to be woken up by the producer of its
+ * next task, which costs the producer a signal and the TaskThread
+ * a few microseconds to be scheduled again.  A TaskThread that
+ * keeps polling for a while instead picks up a task pushed in the
+ * meantime right away, and the producer skips the signal, at the
+ * cost of the CPU time it spins for.  It spins for up to the
+ * THREADPOOL_SPIN_TIME, and then blocks as usual.
+ *
+ * @author Rubens Gomes
+ */
+public enum WaitStrategy
+{
+    /** Blocks on the queue right away. */
+    BLOCKING,
+
+    /**
+     * Polls in a tight loop, hinting the processor that it is
+     * spinning; the lowest latency, but it keeps a core busy.
+     */
+    BUSY_SPIN,
+
+    /**
+     * Polls in a tight loop for a short while, and then yields the
+     * processor between polls.
+     */
+    SPIN_YIELD,
+
+    /**
+     * Polls in a tight loop for a short while, and then parks for
+     * a growing time, up to 100 microseconds, between polls.
+     */
+    SPIN_PARK,
+
+    /**
+     * Like SPIN_YIELD, but a TaskThread only spins while the time it
+     * has recently waited for its tasks is, on average, below the
+     * THREADPOOL_SPIN_TIME; it blocks right away when its tasks come
+     * further apart, and spinning would only waste CPU time.
+     */
+    ADAPTIVE;
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: OnDemandTaskThreadTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.OnDemandTaskThread;
+import com.softlagos.threadpool.ResultTask;
+import com.softlagos.threadpool.TaskHandle;
+
+/**
+ * Test cases for the tasks launched on cached on-demand threads.
+ *
+ * @author Rubens Gomes
+ */
+public final class OnDemandTaskThreadTest
+{
+
+    /**
+     * Test that a cached thread is reused once it has run its task,
+     * and that a new one is used while it is busy.
+     */
+    @Test
+    public final void testLaunchReusesThread() throws Exception
+    {
+        Thread first = OnDemandTaskThread.launch(new CurrentThreadTask())
+            .get(5, TimeUnit.SECONDS);
+
+        // let the thread park.
+        Thread.sleep(50);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        TaskHandle<Thread> busy = OnDemandTaskThread.launch(
+                new ResultTask<Thread>()
+        {
+            @Override
+            protected Thread compute() throws InterruptedException
+            {
+                gate.await();
+                return Thread.currentThread();
+            }
+        });
+
+        Thread other = OnDemandTaskThread.launch(new CurrentThreadTask())
+            .get(5, TimeUnit.SECONDS);
+
+        gate.countDown();
+
+        assertSame(first, busy.get(5, TimeUnit.SECONDS));
+        assertNotSame(first, other);
+        assertTrue(first.isDaemon());
+    }
+
+    /**
+     * Test that a launched task may be cancelled, and that its
+     * thread is then reused without the interrupt.
+     */
+    @Test
+    public final void testLaunchCancel() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        TaskHandle<Thread> blocked = OnDemandTaskThread.launch(
+                new ResultTask<Thread>()
+        {
+            @Override
+            protected Thread compute() throws InterruptedException
+            {
+                started.countDown();
+                new CountDownLatch(1).await();
+                return Thread.currentThread();
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(blocked.cancel());
+
+        // let the thread park.
+        Thread.sleep(50);
+
+        TaskHandle<Boolean> next = OnDemandTaskThread.launch(
+                new ResultTask<Boolean>()
+        {
+            @Override
+            protected Boolean compute()
+            {
+                return Thread.currentThread().isInterrupted();
+            }
+        });
+
+        assertSame(Boolean.FALSE, next.get(5, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    /** Returns the thread it runs on. */
+    private static final class CurrentThreadTask extends ResultTask<Thread>
+    {
+        @Override
+        protected Thread compute()
+        {
+            return Thread.currentThread();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: PriorityTaskQueueTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.OverflowPolicy;
+import com.softlagos.threadpool.Priority;
+import com.softlagos.threadpool.PriorityTaskQueue;
+import com.softlagos.threadpool.PushResult;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.TaskRejectedException;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for the priority lanes of the PriorityTaskQueue.
+ *
+ * @author Rubens Gomes
+ */
+public final class PriorityTaskQueueTest
+{
+
+    /**
+     * Test that a high priority task runs ahead of a low priority
+     * backlog.
+     */
+    @Test
+    public final void testPriorityOrder() throws Exception
+    {
+        List<String> order = new CopyOnWriteArrayList<String>();
+        CountDownLatch gate = new CountDownLatch(1);
+        ThreadPool pool = newPool(60000);
+
+        try
+        {
+            pool.pushTask(new GateTask(gate));
+
+            for(int i = 0; i < 100; i++)
+            {
+                pool.pushTask(new NamedTask("low", order), Priority.LOW);
+            }
+
+            pool.pushTask(new NamedTask("normal", order));
+            pool.pushTask(new NamedTask("high", order), Priority.HIGH);
+
+            gate.countDown();
+            waitFor(order, 102);
+
+            assertEquals("high", order.get(0));
+            assertEquals("normal", order.get(1));
+            assertEquals("low", order.get(2));
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that a low priority task that waited for longer than the
+     * aging time runs ahead of a high priority task.
+     */
+    @Test
+    public final void testAging() throws Exception
+    {
+        List<String> order = new CopyOnWriteArrayList<String>();
+        CountDownLatch gate = new CountDownLatch(1);
+        ThreadPool pool = newPool(50);
+
+        try
+        {
+            pool.pushTask(new GateTask(gate));
+            pool.pushTask(new NamedTask("low", order), Priority.LOW);
+
+            Thread.sleep(100);
+
+            pool.pushTask(new NamedTask("high", order), Priority.HIGH);
+
+            gate.countDown();
+            waitFor(order, 2);
+
+            assertEquals("low", order.get(0));
+            assertEquals("high", order.get(1));
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that a full queue discards the oldest of its lowest
+     * priority tasks, rather than its highest priority one.
+     */
+    @Test
+    public final void testDiscardOldest() throws Exception
+    {
+        List<String> order = new CopyOnWriteArrayList<String>();
+        CountDownLatch gate = new CountDownLatch(1);
+        PriorityTaskQueue queue = new PriorityTaskQueue(2, 60000);
+        ThreadPool pool = new ThreadPool.Builder("DiscardPool")
+            .threads(1)
+            .queue(queue)
+            .overflowPolicy(OverflowPolicy.DISCARD_OLDEST)
+            .build();
+
+        try
+        {
+            pool.pushTask(new GateTask(gate));
+
+            // wait for the task thread to take the gate task.
+            while( queue.size() > 0 )
+            {
+                Thread.sleep(1);
+            }
+
+            TaskHandle<?> high = pool.pushTask(
+                    new NamedTask("high", order), Priority.HIGH);
+            TaskHandle<?> low = pool.pushTask(
+                    new NamedTask("low", order), Priority.LOW);
+            TaskHandle<?> normal = pool.pushTask(
+                    new NamedTask("normal", order));
+
+            assertEquals(PushResult.QUEUED_DISCARDING_OLDEST,
+                         normal.getPushResult());
+            assertTrue(low.isFailed());
+            assertTrue(low.getException() instanceof TaskRejectedException);
+
+            gate.countDown();
+            waitFor(order, 2);
+
+            assertEquals("high", order.get(0));
+            assertEquals("normal", order.get(1));
+            assertFalse(high.isFailed());
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+    }
+
+    // ------ Private ------
+
+    private static ThreadPool newPool(final int aging_time)
+    {
+        return new ThreadPool.Builder("PriorityPool")
+            .threads(1)
+            .queue(new PriorityTaskQueue(0, aging_time))
+            .build();
+    }
+
+    private static void waitFor(final List<String> order, final int size)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while( order.size() < size && System.nanoTime() < deadline )
+        {
+            Thread.sleep(10);
+        }
+
+        assertTrue(order.size() >= size);
+    }
+
+    /** Records its name when it runs. */
+    private static final class NamedTask extends Task
+    {
+        NamedTask(final String name, final List<String> order)
+        {
+            v_name = name;
+            v_order = order;
+        }
+
+        @Override
+        public void run()
+        {
+            v_order.add(v_name);
+        }
+
+        private final String v_name;
+        private final List<String> v_order;
+    }
+
+    /** Blocks its thread until the gate is opened. */
+    private static final class GateTask extends Task
+    {
+        GateTask(final CountDownLatch gate)
+        {
+            v_gate = gate;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                v_gate.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private final CountDownLatch v_gate;
+    }
+}
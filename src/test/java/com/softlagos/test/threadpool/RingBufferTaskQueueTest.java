@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: RingBufferTaskQueueTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.RingBufferTaskQueue;
+import com.softlagos.threadpool.Task;
+
+/**
+ * Test cases for the lock-free RingBufferTaskQueue.
+ *
+ * @author Rubens Gomes
+ */
+public final class RingBufferTaskQueueTest
+{
+
+    /**
+     * Test that the capacity is rounded up to a power of two, and
+     * that a full queue refuses tasks.
+     */
+    @Test
+    public final void testCapacity()
+    {
+        RingBufferTaskQueue queue = new RingBufferTaskQueue(5);
+
+        assertEquals(8, queue.getCapacity());
+        assertEquals(0, queue.size());
+
+        for(int i = 0; i < 8; i++)
+        {
+            assertTrue(queue.offer(new SimpleTask()));
+        }
+
+        assertFalse(queue.offer(new SimpleTask()));
+        assertEquals(8, queue.size());
+
+        assertTrue(queue.poll() != null);
+        assertTrue(queue.offer(new SimpleTask()));
+
+        for(int capacity : new int[] { 1, (1 << 30) + 1 })
+        {
+            try
+            {
+                new RingBufferTaskQueue(capacity);
+                fail("accepted a capacity of " + capacity + ".");
+            }
+            catch(IllegalArgumentException ex)
+            {
+                // expected.
+            }
+        }
+    }
+
+    /**
+     * Test that the tasks keep their FIFO order over many laps of
+     * the ring.
+     */
+    @Test
+    public final void testWraparound()
+    {
+        RingBufferTaskQueue queue = new RingBufferTaskQueue(4);
+        List<Task> tasks = new ArrayList<Task>();
+
+        for(int lap = 0; lap < 1000; lap++)
+        {
+            tasks.clear();
+
+            // three at a time, so that the ring is never aligned.
+            for(int i = 0; i < 3; i++)
+            {
+                Task task = new SimpleTask();
+                tasks.add(task);
+                assertTrue(queue.offer(task));
+            }
+
+            for(Task task : tasks)
+            {
+                assertSame(task, queue.poll());
+            }
+
+            assertNull(queue.poll());
+        }
+
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * Test that a batch is added as far as there is room, and
+     * drained in FIFO order, across the end of the ring.
+     */
+    @Test
+    public final void testOfferAllDrainTo()
+    {
+        RingBufferTaskQueue queue = new RingBufferTaskQueue(8);
+
+        // move the ring positions past the middle.
+        for(int i = 0; i < 5; i++)
+        {
+            queue.offer(new SimpleTask());
+            queue.poll();
+        }
+
+        List<Task> tasks = new ArrayList<Task>();
+
+        for(int i = 0; i < 10; i++)
+        {
+            tasks.add(new SimpleTask());
+        }
+
+        assertEquals(8, queue.offerAll(tasks));
+        assertEquals(0, queue.offerAll(tasks));
+        assertEquals(8, queue.size());
+
+        List<Task> drained = new ArrayList<Task>();
+
+        assertEquals(5, queue.drainTo(drained, 5));
+        assertEquals(3, queue.drainTo(drained, 100));
+        assertEquals(0, queue.drainTo(drained, 100));
+        assertEquals(tasks.subList(0, 8), drained);
+        assertNull(queue.poll());
+
+        try
+        {
+            List<Task> with_null = new ArrayList<Task>();
+            with_null.add(null);
+            queue.offerAll(with_null);
+            fail("accepted a null task.");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected.
+        }
+    }
+
+    /**
+     * Test that with several producers and consumers, every task is
+     * taken exactly once, by consumers that block while the queue is
+     * empty.
+     */
+    @Test
+    public final void testConcurrent() throws InterruptedException
+    {
+        final RingBufferTaskQueue queue = new RingBufferTaskQueue(64);
+        final IndexTask[] tasks = new IndexTask[NR_PRODUCERS * NR_TASKS];
+        final AtomicIntegerArray taken = new AtomicIntegerArray(tasks.length);
+
+        for(int i = 0; i < tasks.length; i++)
+        {
+            tasks[i] = new IndexTask(i);
+        }
+
+        List<Thread> producers = new ArrayList<Thread>();
+        List<Thread> consumers = new ArrayList<Thread>();
+
+        for(int p = 0; p < NR_PRODUCERS; p++)
+        {
+            final int first = p * NR_TASKS;
+
+            producers.add(new Thread(() -> {
+
+                for(int i = first; i < first + NR_TASKS; i++)
+                {
+                    queue.push(tasks[i]);
+                }
+
+            }));
+        }
+
+        for(int c = 0; c < NR_CONSUMERS; c++)
+        {
+            consumers.add(new Thread(() -> {
+
+                try
+                {
+                    while( true )
+                    {
+                        Task task = queue.pop();
+
+                        if( task instanceof IndexTask )
+                        {
+                            taken.incrementAndGet(((IndexTask) task).v_index);
+                        }
+                        else if( task != null )
+                        {
+                            // told to stop, once all tasks are queued.
+                            return;
+                        }
+                    }
+                }
+                catch(InterruptedException ex)
+                {
+                    return;
+                }
+
+            }));
+        }
+
+        for(Thread thread : producers)
+        {
+            thread.start();
+        }
+
+        for(Thread thread : consumers)
+        {
+            thread.start();
+        }
+
+        for(Thread thread : producers)
+        {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+
+        // one stop task for each consumer, which takes only one.
+        for(int c = 0; c < NR_CONSUMERS; c++)
+        {
+            queue.push(new SimpleTask());
+        }
+
+        for(Thread thread : consumers)
+        {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+
+        for(int i = 0; i < tasks.length; i++)
+        {
+            assertEquals(1, taken.get(i));
+        }
+
+        assertEquals(0, queue.size());
+    }
+
+    // ------ Private ------
+
+    private static final int NR_PRODUCERS = 4;
+    private static final int NR_CONSUMERS = 4;
+    private static final int NR_TASKS = 20000;
+
+    /** A task that only knows its index. */
+    private static final class IndexTask extends Task
+    {
+        IndexTask(final int index)
+        {
+            v_index = index;
+        }
+
+        @Override
+        public void run()
+        {
+        }
+
+        private final int v_index;
+    }
+}
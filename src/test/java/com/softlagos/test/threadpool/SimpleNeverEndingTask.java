@@ -85,17 +85,5 @@ public class SimpleNeverEndingTask extends Task
 
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
-     */
-    @Override
-    public void finalize()
-    {
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("GC collected.");
-        }
-    }
-
     // ------ Private ------
 }
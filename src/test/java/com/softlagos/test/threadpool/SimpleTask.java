@@ -50,17 +50,5 @@ public class SimpleTask extends Task
 
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
-     */
-    @Override
-    public void finalize()
-    {
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("GC collected.");
-        }
-    }
-
     // ------ Private ------
 }
@@ -79,16 +79,4 @@ public class SimpleTaskListener extends TaskListener
         }
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#finalize()
-     */
-    @Override
-    public void finalize()
-    {
-        if(logger.isTraceEnabled())
-        {
-            logger.trace("GC collected.");
-        }
-    }
-
 }
@@ -0,0 +1,395 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskGraphTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.OverflowPolicy;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskGraph;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for task graphs.
+ *
+ * @author Rubens Gomes
+ */
+public final class TaskGraphTest
+{
+
+    /**
+     * Test that every task of a large random graph runs once, and
+     * only after all its dependencies have completed.
+     */
+    @Test
+    public final void testDependencies()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("GraphPool")
+            .threads(4)
+            .build();
+
+        Random random = new Random(42);
+        AtomicIntegerArray done = new AtomicIntegerArray(NR_NODES);
+        AtomicInteger nr_errors = new AtomicInteger();
+        TaskGraph graph = new TaskGraph();
+        List<TaskGraph.Node> nodes = new ArrayList<TaskGraph.Node>();
+
+        for(int i = 0; i < NR_NODES; i++)
+        {
+            int nr_dependencies = i == 0 ? 0 : random.nextInt(4);
+            int[] dependencies = new int[nr_dependencies];
+            TaskGraph.Node[] dependency_nodes =
+                new TaskGraph.Node[nr_dependencies];
+
+            for(int j = 0; j < nr_dependencies; j++)
+            {
+                dependencies[j] = random.nextInt(i);
+                dependency_nodes[j] = nodes.get(dependencies[j]);
+            }
+
+            nodes.add(graph.add(new CheckTask(i, dependencies, done,
+                                              nr_errors),
+                                dependency_nodes));
+        }
+
+        assertEquals(NR_NODES, graph.size());
+
+        TaskHandle<Void> handle = pool.pushGraph(graph);
+        handle.get(10, TimeUnit.SECONDS);
+
+        for(int i = 0; i < NR_NODES; i++)
+        {
+            assertEquals(1, done.get(i));
+            assertTrue(nodes.get(i).getHandle().isDone());
+            assertFalse(nodes.get(i).getHandle().isFailed());
+        }
+
+        assertEquals(0, nr_errors.get());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that the nodes downstream of a failed task are skipped,
+     * and their listeners notified, while the other ones still run.
+     */
+    @Test
+    public final void testFailure()
+        throws InterruptedException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("FailedGraphPool")
+            .threads(2)
+            .build();
+
+        AtomicIntegerArray done = new AtomicIntegerArray(5);
+        AtomicInteger nr_errors = new AtomicInteger();
+        InterruptedListener listener = new InterruptedListener();
+        IllegalStateException failure = new IllegalStateException("failed.");
+
+        TaskGraph graph = new TaskGraph();
+        TaskGraph.Node failing = graph.add(new Task()
+        {
+            @Override
+            public void run()
+            {
+                throw failure;
+            }
+        });
+
+        Task skipped_task = new CheckTask(0, new int[0], done, nr_errors);
+        skipped_task.addListener(listener);
+
+        TaskGraph.Node skipped = graph.add(skipped_task, failing);
+        TaskGraph.Node independent = graph.add(
+                new CheckTask(1, new int[0], done, nr_errors));
+        TaskGraph.Node after = graph.add(
+                new CheckTask(2, new int[] { 1 }, done, nr_errors),
+                independent);
+        TaskGraph.Node joined = graph.add(
+                new CheckTask(3, new int[] { 0, 2 }, done, nr_errors),
+                skipped, after);
+
+        try
+        {
+            pool.pushGraph(graph).get(5, TimeUnit.SECONDS);
+            fail("the graph did not fail.");
+        }
+        catch(ExecutionException ex)
+        {
+            assertSame(failure, ex.getCause());
+        }
+
+        assertSame(failure, failing.getHandle().getException());
+        assertTrue(skipped.getHandle().isCancelled());
+        assertSame(failure, skipped.getHandle().getException().getCause());
+        assertTrue(joined.getHandle().isCancelled());
+        assertFalse(after.getHandle().isFailed());
+
+        assertEquals(0, done.get(0));
+        assertEquals(1, done.get(1));
+        assertEquals(1, done.get(2));
+        assertEquals(0, done.get(3));
+        assertEquals(1, listener.v_nr_interrupted.get());
+        assertEquals(0, nr_errors.get());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a failure at the head of a long chain skips the
+     * whole chain.
+     */
+    @Test
+    public final void testLongChain()
+        throws InterruptedException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("ChainPool")
+            .threads(1)
+            .build();
+
+        TaskGraph graph = new TaskGraph();
+        TaskGraph.Node node = graph.add(new Task()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException("failed.");
+            }
+        });
+
+        AtomicIntegerArray done = new AtomicIntegerArray(NR_NODES);
+        AtomicInteger nr_errors = new AtomicInteger();
+
+        for(int i = 0; i < NR_NODES; i++)
+        {
+            node = graph.add(new CheckTask(i, new int[0], done, nr_errors),
+                             node);
+        }
+
+        TaskHandle<Void> handle = pool.pushGraph(graph);
+
+        try
+        {
+            handle.get(5, TimeUnit.SECONDS);
+            fail("the graph did not fail.");
+        }
+        catch(ExecutionException ex)
+        {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+
+        assertTrue(node.getHandle().isCancelled());
+        assertEquals(0, done.get(NR_NODES - 1));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a long chain whose tasks complete as they are pushed,
+     * run on the caller as the queue is full, is pushed without
+     * overflowing the stack.
+     */
+    @Test
+    public final void testCallerRunsChain()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("CallerRunsGraphPool")
+            .threads(1)
+            .queueCapacity(1)
+            .overflowPolicy(OverflowPolicy.CALLER_RUNS)
+            .build();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+
+        pool.pushTask(new Task()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+
+                try
+                {
+                    gate.await();
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pool.pushTask(new SimpleTask());
+
+        AtomicIntegerArray done = new AtomicIntegerArray(NR_CHAINED);
+        AtomicInteger nr_errors = new AtomicInteger();
+        TaskGraph graph = new TaskGraph();
+        TaskGraph.Node node = null;
+
+        for(int i = 0; i < NR_CHAINED; i++)
+        {
+            int[] dependencies = i == 0 ? new int[0] : new int[] { i - 1 };
+            Task task = new CheckTask(i, dependencies, done, nr_errors);
+            node = i == 0 ? graph.add(task) : graph.add(task, node);
+        }
+
+        TaskHandle<Void> handle = pool.pushGraph(graph);
+        gate.countDown();
+        handle.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, done.get(NR_CHAINED - 1));
+        assertEquals(0, nr_errors.get());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that invalid graphs are rejected.
+     */
+    @Test
+    public final void testInvalid()
+        throws InterruptedException, ExecutionException
+    {
+        ThreadPool pool = new ThreadPool.Builder("InvalidGraphPool")
+            .threads(1)
+            .build();
+
+        TaskGraph graph = new TaskGraph();
+        TaskGraph other = new TaskGraph();
+        TaskGraph.Node other_node = other.add(new SimpleTask());
+
+        try
+        {
+            graph.add(new SimpleTask(), other_node);
+            fail("depended on a node of another graph.");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected.
+        }
+
+        graph.add(new SimpleTask());
+        pool.pushGraph(graph).get();
+
+        try
+        {
+            graph.add(new SimpleTask());
+            fail("added a node to a pushed graph.");
+        }
+        catch(RuntimeException ex)
+        {
+            // expected.
+        }
+
+        try
+        {
+            pool.pushGraph(graph);
+            fail("pushed a graph twice.");
+        }
+        catch(RuntimeException ex)
+        {
+            // expected.
+        }
+
+        // an empty graph completes right away.
+        assertTrue(pool.pushGraph(new TaskGraph()).isDone());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    private static final int NR_NODES = 5000;
+    private static final int NR_CHAINED = 20001;
+
+    /**
+     * Checks that its dependencies have run, and marks itself as
+     * done.
+     */
+    private static final class CheckTask extends Task
+    {
+        CheckTask(final int index, final int[] dependencies,
+                  final AtomicIntegerArray done,
+                  final AtomicInteger nr_errors)
+        {
+            v_index = index;
+            v_dependencies = dependencies;
+            v_done = done;
+            v_nr_errors = nr_errors;
+        }
+
+        @Override
+        public void run()
+        {
+            for(int dependency : v_dependencies)
+            {
+
+                if( v_done.get(dependency) != 1 )
+                {
+                    v_nr_errors.incrementAndGet();
+                }
+            }
+
+            v_done.incrementAndGet(v_index);
+        }
+
+        private final int v_index;
+        private final int[] v_dependencies;
+        private final AtomicIntegerArray v_done;
+        private final AtomicInteger v_nr_errors;
+    }
+
+    /** Counts the tasks interrupted. */
+    private static final class InterruptedListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+            v_nr_interrupted.incrementAndGet();
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+
+        final AtomicInteger v_nr_interrupted = new AtomicInteger();
+    }
+}
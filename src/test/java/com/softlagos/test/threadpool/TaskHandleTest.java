@@ -0,0 +1,409 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskHandleTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.softlagos.threadpool.PushResult;
+import com.softlagos.threadpool.ResultTask;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for the task completion handles.
+ *
+ * @author Rubens Gomes
+ */
+public final class TaskHandleTest
+{
+
+    @BeforeClass
+    public static void setUp()
+    {
+        s_pool = new ThreadPool.Builder("HandlePool")
+            .threads(2)
+            .build();
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        s_pool.shutdown();
+    }
+
+    /**
+     * Test that the handle carries the task result.
+     */
+    @Test
+    public final void testResult() throws Exception
+    {
+        TaskHandle<Integer> handle = s_pool.pushTask(new SquareTask(7));
+
+        assertEquals(PushResult.QUEUED, handle.getPushResult());
+        assertEquals(Integer.valueOf(49), handle.get(5, TimeUnit.SECONDS));
+        assertTrue(handle.isDone());
+        assertNull(handle.getException());
+    }
+
+    /**
+     * Test that the handle carries the original, checked, exception.
+     */
+    @Test
+    public final void testFailure() throws Exception
+    {
+        final IOException io_ex = new IOException("no disk");
+        TaskHandle<String> handle = s_pool.pushTask(new ResultTask<String>()
+        {
+            @Override
+            protected String compute() throws IOException
+            {
+                throw io_ex;
+            }
+        });
+
+        try
+        {
+            handle.get(5, TimeUnit.SECONDS);
+            fail("expected an ExecutionException.");
+        }
+        catch(ExecutionException ex)
+        {
+            assertSame(io_ex, ex.getCause());
+        }
+
+        assertTrue(handle.isFailed());
+    }
+
+    /**
+     * Test that a task that throws an Error fails its handle and
+     * notifies its listeners, and that its task thread is replaced:
+     * the next task runs, and the pool still terminates.
+     */
+    @Test
+    public final void testError() throws Exception
+    {
+        ThreadPool pool = new ThreadPool.Builder("ErrorPool")
+            .threads(1)
+            .build();
+
+        final AssertionError error = new AssertionError("broken");
+        StatusListener listener = new StatusListener();
+        ResultTask<String> task = new ResultTask<String>()
+        {
+            @Override
+            protected String compute()
+            {
+                throw error;
+            }
+        };
+
+        task.addListener(listener);
+        TaskHandle<String> handle = pool.pushTask(task);
+
+        try
+        {
+            handle.get(5, TimeUnit.SECONDS);
+            fail("expected an ExecutionException.");
+        }
+        catch(ExecutionException ex)
+        {
+            assertSame(error, ex.getCause());
+        }
+
+        assertEquals("failed", listener.await());
+
+        TaskHandle<String> next = pool.pushTask(new ResultTask<String>()
+        {
+            @Override
+            protected String compute()
+            {
+                return "next";
+            }
+        });
+
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test callbacks, and composition of handles.
+     */
+    @Test
+    public final void testComposition() throws Exception
+    {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicReference<Integer> seen = new AtomicReference<Integer>();
+
+        TaskHandle<Integer> slow = s_pool.pushTask(new ResultTask<Integer>()
+        {
+            @Override
+            protected Integer compute() throws InterruptedException
+            {
+                gate.await();
+                return 3;
+            }
+        });
+
+        TaskHandle<Integer> doubled = slow.thenApply(value -> value * 2);
+        doubled.whenComplete((value, ex) -> seen.set(value));
+
+        TaskHandle<Void> all = TaskHandle.allOf(
+                s_pool.pushTask(new SquareTask(2)), doubled);
+
+        try
+        {
+            all.get(100, TimeUnit.MILLISECONDS);
+            fail("expected a TimeoutException.");
+        }
+        catch(TimeoutException ex)
+        {
+            assertTrue( ! doubled.isDone() );
+        }
+
+        gate.countDown();
+
+        all.get(5, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(6), doubled.get());
+        assertEquals(Integer.valueOf(6), seen.get());
+    }
+
+    /**
+     * Test that cancelling a running task interrupts it, and tells
+     * its listeners.
+     */
+    @Test
+    public final void testCancel() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        StatusListener listener = new StatusListener();
+
+        ResultTask<Integer> blocker = new ResultTask<Integer>()
+        {
+            @Override
+            protected Integer compute() throws InterruptedException
+            {
+                started.countDown();
+                new CountDownLatch(1).await();
+                return 0;
+            }
+        };
+        blocker.addListener(listener);
+
+        TaskHandle<Integer> handle = s_pool.pushTask(blocker);
+        assertTrue( started.await(5, TimeUnit.SECONDS) );
+        assertTrue( handle.cancel() );
+        assertFalse( handle.cancel() );
+
+        try
+        {
+            handle.get(5, TimeUnit.SECONDS);
+            fail("expected a CancellationException.");
+        }
+        catch(CancellationException ex)
+        {
+            assertTrue( handle.isCancelled() );
+        }
+
+        assertEquals("interrupted", listener.await());
+    }
+
+    /**
+     * Test that a task times out while running, and while queued,
+     * and that the worker it ran on is not left interrupted.
+     */
+    @Test
+    public final void testTimeout() throws Exception
+    {
+        ThreadPool pool = new ThreadPool.Builder("TimeoutPool")
+            .threads(1)
+            .build();
+
+        try
+        {
+            StatusListener listener = new StatusListener();
+            ResultTask<Integer> blocker = new ResultTask<Integer>()
+            {
+                @Override
+                protected Integer compute() throws InterruptedException
+                {
+                    new CountDownLatch(1).await();
+                    return 0;
+                }
+            };
+            blocker.setTimeout(100, TimeUnit.MILLISECONDS);
+            blocker.addListener(listener);
+
+            final AtomicBoolean has_run = new AtomicBoolean();
+            ResultTask<Integer> queued = new ResultTask<Integer>()
+            {
+                @Override
+                protected Integer compute()
+                {
+                    has_run.set(true);
+                    return 0;
+                }
+            };
+            queued.setTimeout(50, TimeUnit.MILLISECONDS);
+
+            TaskHandle<Integer> running_handle = pool.pushTask(blocker);
+            TaskHandle<Integer> queued_handle = pool.pushTask(queued);
+
+            try
+            {
+                running_handle.get(5, TimeUnit.SECONDS);
+                fail("expected an ExecutionException.");
+            }
+            catch(ExecutionException ex)
+            {
+                assertTrue( ex.getCause() instanceof TimeoutException );
+            }
+
+            assertEquals("timed out", listener.await());
+            assertTrue( queued_handle.isTimedOut() );
+
+            TaskHandle<Boolean> next = pool.pushTask(new ResultTask<Boolean>()
+            {
+                @Override
+                protected Boolean compute()
+                {
+                    return Thread.currentThread().isInterrupted();
+                }
+            });
+
+            assertEquals(Boolean.FALSE, next.get(5, TimeUnit.SECONDS));
+            assertFalse( has_run.get() );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that a task pushed again while it runs completes the
+     * handle of each push with the result of that run.
+     */
+    @Test
+    public final void testPushAgain() throws Exception
+    {
+        final AtomicInteger nr_runs = new AtomicInteger();
+        final AtomicReference<TaskHandle<Integer>> again =
+                new AtomicReference<TaskHandle<Integer>>();
+
+        ResultTask<Integer> task = new ResultTask<Integer>()
+        {
+            @Override
+            protected Integer compute()
+            {
+                int nr_run = nr_runs.incrementAndGet();
+
+                if( nr_run == 1 )
+                {
+                    again.set(s_pool.pushTask(this));
+                }
+
+                return nr_run;
+            }
+        };
+
+        TaskHandle<Integer> first = s_pool.pushTask(task);
+
+        assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2),
+                     again.get().get(5, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    /** Records the first status a task listener is told about. */
+    private static final class StatusListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            record("done");
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+            record("interrupted");
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+            record("failed");
+        }
+
+        @Override
+        public void notifyTaskTimedOut(final String msg)
+        {
+            record("timed out");
+        }
+
+        String await() throws InterruptedException
+        {
+            assertTrue( v_notified.await(5, TimeUnit.SECONDS) );
+            return v_status.get();
+        }
+
+        private void record(final String status)
+        {
+            v_status.compareAndSet(null, status);
+            v_notified.countDown();
+        }
+
+        private final AtomicReference<String> v_status =
+                new AtomicReference<String>();
+        private final CountDownLatch v_notified = new CountDownLatch(1);
+    }
+
+
+    /** Computes the square of a number. */
+    private static final class SquareTask extends ResultTask<Integer>
+    {
+        SquareTask(final int value)
+        {
+            v_value = value;
+        }
+
+        @Override
+        protected Integer compute()
+        {
+            return v_value * v_value;
+        }
+
+        private final int v_value;
+    }
+
+    private static ThreadPool s_pool;
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TaskListenerRegistryTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskListener;
+
+/**
+ * Test cases for the registry of the listeners of a task.
+ *
+ * @author Rubens Gomes
+ */
+public final class TaskListenerRegistryTest
+{
+
+    /**
+     * Test that listeners added and removed by several threads at
+     * once are neither lost nor duplicated, while the task notifies
+     * its listeners from another thread.
+     */
+    @Test
+    public final void testConcurrentAddRemove() throws InterruptedException
+    {
+        final Task task = new SimpleTask();
+        final CountingListener[][] listeners =
+            new CountingListener[NR_THREADS][NR_LISTENERS];
+
+        for(int t = 0; t < NR_THREADS; t++)
+        {
+            for(int i = 0; i < NR_LISTENERS; i++)
+            {
+                listeners[t][i] = new CountingListener();
+            }
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean is_running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for(int t = 0; t < NR_THREADS; t++)
+        {
+            final CountingListener[] own = listeners[t];
+
+            threads.add(new Thread(() -> {
+
+                try
+                {
+                    start.await();
+                }
+                catch(InterruptedException ex)
+                {
+                    return;
+                }
+
+                for(CountingListener listener : own)
+                {
+                    task.addListener(listener);
+                }
+
+                // the odd ones are removed again.
+                for(int i = 1; i < own.length; i += 2)
+                {
+                    task.removeListener(own[i]);
+                }
+
+            }));
+        }
+
+        // notifies all along: it must never fail.
+        Thread notifier = new Thread(() -> {
+
+            while( is_running.get() )
+            {
+                task.notifyListeners(Task.Status.INTERRUPTED, "racing");
+            }
+
+        });
+
+        for(Thread thread : threads)
+        {
+            thread.start();
+        }
+
+        notifier.start();
+        start.countDown();
+
+        for(Thread thread : threads)
+        {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+
+        is_running.set(false);
+        notifier.join(10000);
+        assertFalse(notifier.isAlive());
+
+        task.notifyListeners(Task.Status.DONE, "done");
+
+        for(int t = 0; t < NR_THREADS; t++)
+        {
+            for(int i = 0; i < NR_LISTENERS; i++)
+            {
+                assertEquals(i % 2 == 0 ? 1 : 0,
+                             listeners[t][i].v_nr_done.get());
+            }
+        }
+    }
+
+    /**
+     * Test that a listener may add and remove listeners while being
+     * called back: the current notification goes to the listeners
+     * registered when it started.
+     */
+    @Test
+    public final void testChangeDuringNotify()
+    {
+        final Task task = new SimpleTask();
+        final CountingListener added = new CountingListener();
+        final CountingListener removed = new CountingListener();
+
+        CountingListener changing = new CountingListener()
+        {
+            @Override
+            public void notifyTaskDone(final String msg)
+            {
+                super.notifyTaskDone(msg);
+                task.addListener(added);
+                task.removeListener(removed);
+                task.removeListener(this);
+            }
+        };
+
+        task.addListener(changing);
+        task.addListener(removed);
+
+        task.notifyListeners(Task.Status.DONE, "first");
+
+        assertEquals(0, added.v_nr_done.get());
+        assertEquals(1, removed.v_nr_done.get());
+
+        task.notifyListeners(Task.Status.DONE, "second");
+
+        assertEquals(1, added.v_nr_done.get());
+        assertEquals(1, removed.v_nr_done.get());
+        assertEquals(1, changing.v_nr_done.get());
+    }
+
+    /**
+     * Test the registry with no, one and two listeners, and the
+     * removal of listeners that are not registered.
+     */
+    @Test
+    public final void testFewListeners()
+    {
+        Task task = new SimpleTask();
+        CountingListener first = new CountingListener();
+        CountingListener second = new CountingListener();
+
+        task.removeListener(first);
+        task.notifyListeners(Task.Status.DONE, "none");
+
+        task.addListener(first);
+        task.removeListener(second);
+        task.notifyListeners(Task.Status.DONE, "one");
+        assertEquals(1, first.v_nr_done.get());
+
+        task.addListener(second);
+        task.notifyListeners(Task.Status.DONE, "two");
+        assertEquals(2, first.v_nr_done.get());
+        assertEquals(1, second.v_nr_done.get());
+
+        task.removeListener(first);
+        task.notifyListeners(Task.Status.DONE, "second only");
+        assertEquals(2, first.v_nr_done.get());
+        assertEquals(2, second.v_nr_done.get());
+
+        task.removeListener(second);
+        task.notifyListeners(Task.Status.DONE, "none again");
+        assertEquals(2, second.v_nr_done.get());
+
+        try
+        {
+            task.addListener(null);
+            fail("added a null listener.");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected.
+        }
+    }
+
+    // ------ Private ------
+
+    private static final int NR_THREADS = 8;
+    private static final int NR_LISTENERS = 200;
+
+    /** Counts the times it is told its task is done. */
+    private static class CountingListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            v_nr_done.incrementAndGet();
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+
+        final AtomicInteger v_nr_done = new AtomicInteger();
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolAffinityTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskThreadStats;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for the pinning of task threads to CPUs.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolAffinityTest
+{
+
+    /**
+     * Test that a task thread is pinned to the CPU it is given, on
+     * platforms that allow it, that it runs its tasks either way, and
+     * that where it runs is reported.
+     */
+    @Test
+    public final void testPinned() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("PinnedPool")
+            .threads(1)
+            .cpuAffinity("0")
+            .build();
+
+        CountDownLatch latch = new CountDownLatch(10);
+
+        for(int i = 0; i < 10; i++)
+        {
+            pool.pushTask(new CountDownTask(latch));
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("0", pool.getCpuAffinity());
+        assertEquals("0", pool.getMetrics().getCpuAffinity());
+
+        TaskThreadStats[] stats = pool.getMetrics().getTaskThreadStats();
+        assertEquals(1, stats.length);
+
+        // empty where the task thread could not be pinned.
+        String cpu_affinity = stats[0].getCpuAffinity();
+        assertTrue(cpu_affinity, cpu_affinity.isEmpty() ||
+                   cpu_affinity.equals("0"));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that the task threads of a pool without a CPU affinity
+     * are not pinned.
+     */
+    @Test
+    public final void testNotPinned() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("UnpinnedPool")
+            .threads(1)
+            .build();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        pool.pushTask(new CountDownTask(latch));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("", pool.getCpuAffinity());
+        assertEquals("", pool.getMetrics().getTaskThreadStats()[0]
+                     .getCpuAffinity());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that CPU lists are parsed, and invalid ones rejected.
+     */
+    @Test
+    public final void testCpuList() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("CpuListPool")
+            .threads(1)
+            .cpuAffinity(" 4-6, 0,5 ")
+            .build();
+
+        assertEquals("0,4,5,6", pool.getCpuAffinity());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        for(String cpu_list : new String[] { "a", "3-1", "-1", "1,,2" })
+        {
+            try
+            {
+                new ThreadPool.Builder("InvalidPool")
+                    .cpuAffinity(cpu_list)
+                    .build();
+                fail("accepted cpu list: " + cpu_list);
+            }
+            catch(IllegalArgumentException ex)
+            {
+                // expected.
+            }
+        }
+    }
+
+    // ------ Private ------
+
+    /** Counts a latch down. */
+    private static final class CountDownTask extends Task
+    {
+        CountDownTask(final CountDownLatch latch)
+        {
+            v_latch = latch;
+        }
+
+        @Override
+        public void run()
+        {
+            v_latch.countDown();
+        }
+
+        private final CountDownLatch v_latch;
+    }
+}
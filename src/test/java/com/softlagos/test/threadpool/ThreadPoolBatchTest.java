@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolBatchTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.BlockingTaskQueue;
+import com.softlagos.threadpool.OverflowPolicy;
+import com.softlagos.threadpool.PushResult;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskRejectedException;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for pushing batches of tasks.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolBatchTest
+{
+
+    /**
+     * Test that every task of a batch runs once, on task threads
+     * that take their tasks from the queue in batches.
+     */
+    @Test
+    public final void testPushTasks()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("BatchPool")
+            .threads(4)
+            .batchSize(16)
+            .build();
+
+        AtomicIntegerArray nr_runs = new AtomicIntegerArray(NR_TASKS);
+        List<Task> tasks = new ArrayList<Task>();
+
+        for(int i = 0; i < NR_TASKS; i++)
+        {
+            tasks.add(new CountTask(nr_runs, i));
+        }
+
+        assertEquals(PushResult.QUEUED, pool.pushTasks(tasks));
+
+        for(Task task : tasks)
+        {
+            task.getHandle().get(5, TimeUnit.SECONDS);
+            assertEquals(PushResult.QUEUED, task.getHandle().getPushResult());
+        }
+
+        for(int i = 0; i < NR_TASKS; i++)
+        {
+            assertEquals(1, nr_runs.get(i));
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a batch pushed from a task thread, to its local
+     * deque, runs in full.
+     */
+    @Test
+    public final void testPushTasksFromTask()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("LocalBatchPool")
+            .threads(2)
+            .build();
+
+        AtomicIntegerArray nr_runs = new AtomicIntegerArray(NR_TASKS);
+        List<Task> tasks = new ArrayList<Task>();
+
+        for(int i = 0; i < NR_TASKS; i++)
+        {
+            tasks.add(new CountTask(nr_runs, i));
+        }
+
+        pool.pushTask(new Task()
+        {
+            @Override
+            public void run()
+            {
+                pool.pushTasks(tasks);
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        for(Task task : tasks)
+        {
+            task.getHandle().get(5, TimeUnit.SECONDS);
+        }
+
+        for(int i = 0; i < NR_TASKS; i++)
+        {
+            assertEquals(1, nr_runs.get(i));
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a batch is added to a bounded queue as far as there
+     * is room, and drained in FIFO order.
+     */
+    @Test
+    public final void testOfferAllDrainTo()
+    {
+        BlockingTaskQueue queue = new BlockingTaskQueue(4);
+        List<Task> tasks = new ArrayList<Task>();
+
+        for(int i = 0; i < 6; i++)
+        {
+            tasks.add(new SimpleTask());
+        }
+
+        assertEquals(4, queue.offerAll(tasks));
+        assertEquals(0, queue.offerAll(tasks));
+        assertEquals(4, queue.size());
+
+        List<Task> drained = new ArrayList<Task>();
+
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals(1, queue.drainTo(drained, 3));
+        assertEquals(0, queue.drainTo(drained, 3));
+        assertEquals(tasks.subList(0, 4), drained);
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * Test that when a task of a batch is rejected, the tasks after
+     * it fail as well, with the same exception, and are not timed
+     * out later on.
+     */
+    @Test
+    public final void testRejectedBatch() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("RejectedBatchPool")
+            .threads(1)
+            .queueCapacity(2)
+            .overflowPolicy(OverflowPolicy.REJECT)
+            .build();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+
+        try
+        {
+            pool.pushTask(new GateTask(started, gate));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            List<Task> tasks = new ArrayList<Task>();
+
+            for(int i = 0; i < 4; i++)
+            {
+                Task task = new SimpleTask();
+                task.setTimeout(50, TimeUnit.MILLISECONDS);
+                tasks.add(task);
+            }
+
+            TaskRejectedException rejected = null;
+
+            try
+            {
+                pool.pushTasks(tasks);
+                fail("expected a TaskRejectedException.");
+            }
+            catch(TaskRejectedException ex)
+            {
+                rejected = ex;
+            }
+
+            assertFalse(tasks.get(0).getHandle().isFailed());
+            assertFalse(tasks.get(1).getHandle().isFailed());
+
+            Thread.sleep(100);
+
+            for(Task task : tasks.subList(2, 4))
+            {
+                assertTrue(task.getHandle().isFailed());
+                assertFalse(task.getHandle().isTimedOut());
+                assertSame(rejected, task.getHandle().getException());
+            }
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    private static final int NR_TASKS = 1000;
+
+    /** Counts its runs. */
+    private static final class CountTask extends Task
+    {
+        CountTask(final AtomicIntegerArray nr_runs, final int index)
+        {
+            v_nr_runs = nr_runs;
+            v_index = index;
+        }
+
+        @Override
+        public void run()
+        {
+            v_nr_runs.incrementAndGet(v_index);
+        }
+
+        private final AtomicIntegerArray v_nr_runs;
+        private final int v_index;
+    }
+
+    /** Blocks its thread until the gate is opened. */
+    private static final class GateTask extends Task
+    {
+        GateTask(final CountDownLatch started, final CountDownLatch gate)
+        {
+            v_started = started;
+            v_gate = gate;
+        }
+
+        @Override
+        public void run()
+        {
+            v_started.countDown();
+
+            try
+            {
+                v_gate.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private final CountDownLatch v_started;
+        private final CountDownLatch v_gate;
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolBuilderTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import com.softlagos.threadpool.OverflowPolicy;
+import com.softlagos.threadpool.PushResult;
+import com.softlagos.threadpool.ResizeListener;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for independently configured thread pools.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolBuilderTest
+{
+
+    private static final Logger logger =
+            LogManager.getLogger(ThreadPoolBuilderTest.class);
+
+    /**
+     * Test that each pool runs its tasks on its own named threads.
+     */
+    @Test
+    public final void testNamedPools() throws InterruptedException
+    {
+        ThreadPool pool_a = new ThreadPool.Builder("PoolA")
+            .threads(2)
+            .build();
+        ThreadPool pool_b = new ThreadPool.Builder("PoolB")
+            .threads(1)
+            .build();
+
+        try
+        {
+            assertEquals("PoolA", pool_a.getName());
+            assertEquals(2, pool_a.getTotalThreads());
+            assertNotSame(pool_a.getQueue(), pool_b.getQueue());
+
+            ThreadNameTask task_a = new ThreadNameTask();
+            ThreadNameTask task_b = new ThreadNameTask();
+
+            pool_a.pushTask(task_a);
+            pool_b.pushTask(task_b);
+
+            assertTrue(task_a.await());
+            assertTrue(task_b.await());
+
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("ran on: " + task_a.v_thread_name +
+                             " and " + task_b.v_thread_name);
+            }
+
+            assertTrue(task_a.v_thread_name.startsWith("PoolA-TaskThread-"));
+            assertTrue(task_b.v_thread_name.startsWith("PoolB-TaskThread-"));
+        }
+        finally
+        {
+            pool_a.shutdown();
+            pool_b.shutdown();
+        }
+    }
+
+    /**
+     * Test that a saturated pool does not hold up another pool.
+     */
+    @Test
+    public final void testBulkhead() throws InterruptedException
+    {
+        ThreadPool slow_pool = new ThreadPool.Builder("SlowPool")
+            .threads(1)
+            .queueCapacity(1)
+            .overflowPolicy(OverflowPolicy.CALLER_RUNS)
+            .build();
+        ThreadPool fast_pool = new ThreadPool.Builder("FastPool")
+            .threads(1)
+            .build();
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        try
+        {
+            // the first task holds the only thread, and the second
+            // one fills the queue.
+            GateTask running_task = new GateTask(gate);
+            slow_pool.pushTask(running_task);
+            assertTrue(running_task.awaitStarted());
+            slow_pool.pushTask(new GateTask(gate));
+
+            ThreadNameTask task = new ThreadNameTask();
+            assertEquals(PushResult.QUEUED,
+                         fast_pool.pushTask(task).getPushResult());
+            assertTrue(task.await());
+        }
+        finally
+        {
+            gate.countDown();
+            slow_pool.shutdown();
+            fast_pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that an elastic pool grows under load, and shrinks back
+     * to its core threads once idle.
+     */
+    @Test
+    public final void testElasticPool() throws InterruptedException
+    {
+        CountingResizeListener listener = new CountingResizeListener(2);
+        ThreadPool pool = new ThreadPool.Builder("ElasticPool")
+            .threads(1)
+            .maxThreads(3)
+            .growQueueDepth(1)
+            .growWaitTime(0)
+            .keepAliveTime(200)
+            .resizeListener(listener)
+            .build();
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        try
+        {
+            assertEquals(1, pool.getCoreThreads());
+            assertEquals(3, pool.getMaxThreads());
+
+            for(int i = 0; i < 6; i++)
+            {
+                pool.pushTask(new GateTask(gate));
+            }
+
+            assertTrue(listener.v_added.await(5, TimeUnit.SECONDS));
+            assertEquals(3, pool.getTotalThreads());
+
+            gate.countDown();
+
+            assertTrue(listener.v_retired.await(5, TimeUnit.SECONDS));
+            assertEquals(1, pool.getTotalThreads());
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that a slow listener does not hold up the task threads of
+     * a pool with listener dispatcher threads.
+     */
+    @Test
+    public final void testAsyncListeners() throws Exception
+    {
+        ThreadPool pool = new ThreadPool.Builder("AsyncPool")
+            .threads(1)
+            .listenerDispatchers(1)
+            .build();
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        GateListener listener = new GateListener(gate, 2);
+
+        try
+        {
+            ThreadNameTask task_a = new ThreadNameTask();
+            ThreadNameTask task_b = new ThreadNameTask();
+            task_a.addListener(listener);
+            task_b.addListener(listener);
+
+            // the listener blocks on the first call back, yet both
+            // tasks run.
+            pool.pushTask(task_a).get(5, TimeUnit.SECONDS);
+            pool.pushTask(task_b).get(5, TimeUnit.SECONDS);
+
+            gate.countDown();
+
+            assertTrue(listener.v_done.await(5, TimeUnit.SECONDS));
+            assertEquals("AsyncPool-Dispatcher-0", listener.v_thread_name);
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+    }
+
+    // ------ Private ------
+
+    /** Blocks its call backs until the gate is opened. */
+    private static final class GateListener extends TaskListener
+    {
+        GateListener(final CountDownLatch gate, final int count)
+        {
+            v_gate = gate;
+            v_done = new CountDownLatch(count);
+        }
+
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            try
+            {
+                v_gate.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            v_thread_name = Thread.currentThread().getName();
+            v_done.countDown();
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+
+        private final CountDownLatch v_gate;
+        private final CountDownLatch v_done;
+        private volatile String v_thread_name;
+    }
+
+    /** Counts down as task threads are added and retired. */
+    private static final class CountingResizeListener
+        extends ResizeListener
+    {
+        CountingResizeListener(final int count)
+        {
+            v_added = new CountDownLatch(count);
+            v_retired = new CountDownLatch(count);
+        }
+
+        @Override
+        public void notifyThreadAdded(final String pool_name,
+                                      final int nr_threads,
+                                      final String reason)
+        {
+            if(logger.isTraceEnabled())
+            {
+                logger.trace(pool_name + " grew to [" + nr_threads +
+                             "]: " + reason);
+            }
+
+            v_added.countDown();
+        }
+
+        @Override
+        public void notifyThreadRetired(final String pool_name,
+                                        final int nr_threads,
+                                        final String reason)
+        {
+            if(logger.isTraceEnabled())
+            {
+                logger.trace(pool_name + " shrank to [" + nr_threads +
+                             "]: " + reason);
+            }
+
+            v_retired.countDown();
+        }
+
+        private final CountDownLatch v_added;
+        private final CountDownLatch v_retired;
+    }
+
+    /** Records the name of the thread it runs on. */
+    private static final class ThreadNameTask extends Task
+    {
+        @Override
+        public void run()
+        {
+            v_thread_name = Thread.currentThread().getName();
+            v_done.countDown();
+        }
+
+        boolean await() throws InterruptedException
+        {
+            return v_done.await(5, TimeUnit.SECONDS);
+        }
+
+        private final CountDownLatch v_done = new CountDownLatch(1);
+        private volatile String v_thread_name;
+    }
+
+    /** Blocks its thread until the gate is opened. */
+    private static final class GateTask extends Task
+    {
+        GateTask(final CountDownLatch gate)
+        {
+            v_gate = gate;
+        }
+
+        @Override
+        public void run()
+        {
+            v_started.countDown();
+
+            try
+            {
+                v_gate.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean awaitStarted() throws InterruptedException
+        {
+            return v_started.await(5, TimeUnit.SECONDS);
+        }
+
+        private final CountDownLatch v_gate;
+        private final CountDownLatch v_started = new CountDownLatch(1);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolEventsTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for the flight recorder events of the task life cycle.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolEventsTest
+{
+
+    /**
+     * Test that pushing, taking, running a task and notifying its
+     * listeners each commit an event naming the task class, with a
+     * stack trace only when the recording asks for one.
+     */
+    @Test
+    public final void testLifeCycleEvents() throws Exception
+    {
+        ThreadPool pool = new ThreadPool.Builder("RecordedPool")
+            .threads(1)
+            .build();
+
+        Path file = Files.createTempFile("threadpool", ".jfr");
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+
+        try
+        {
+            Recording recording = new Recording();
+            recording.enable(PREFIX + "TaskPushed").withoutStackTrace();
+            recording.enable(PREFIX + "TaskTaken");
+            recording.enable(PREFIX + "TaskRun").withStackTrace();
+            recording.enable(PREFIX + "TaskNotified");
+            recording.start();
+
+            Task task = new RecordedTask();
+            task.addListener(new RecordedListener());
+            pool.pushTask(task).get(5, TimeUnit.SECONDS);
+
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+            recording.stop();
+            recording.dump(file);
+            recording.close();
+
+            events.addAll(RecordingFile.readAllEvents(file));
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+
+        RecordedEvent pushed = find(events, "TaskPushed");
+        assertEquals("RecordedPool", pushed.getString("pool"));
+        assertEquals("QUEUED", pushed.getString("pushResult"));
+        assertFalse(pushed.getBoolean("local"));
+        assertNull(pushed.getStackTrace());
+
+        RecordedEvent taken = find(events, "TaskTaken");
+        assertEquals("queue", taken.getString("source"));
+        assertTrue(taken.getLong("queueWait") >= 0L);
+
+        RecordedEvent run = find(events, "TaskRun");
+        assertFalse(run.getBoolean("failed"));
+        assertNotNull(run.getStackTrace());
+
+        RecordedEvent notified = find(events, "TaskNotified");
+        assertEquals("DONE", notified.getString("status"));
+        assertEquals(RecordedListener.class.getName(),
+                     notified.getString("listeners"));
+    }
+
+    // ------ Private ------
+
+    private static final String PREFIX = "com.softlagos.threadpool.";
+
+    /** An empty task. */
+    private static final class RecordedTask extends Task
+    {
+        @Override
+        public void run()
+        {
+        }
+    }
+
+    /** A listener that ignores the call backs. */
+    private static final class RecordedListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+    }
+
+    /**
+     * @return the only event of the given type for a RecordedTask.
+     */
+    private static RecordedEvent find(final List<RecordedEvent> events,
+                                      final String type)
+    {
+        RecordedEvent found = null;
+
+        for(RecordedEvent event : events)
+        {
+            RecordedClass task_class = event.getClass("taskClass");
+
+            if( event.getEventType().getName().equals(PREFIX + type) &&
+                task_class != null &&
+                task_class.getName().equals(RecordedTask.class.getName()) )
+            {
+                assertNull("more than one " + type + " event.", found);
+                found = event;
+            }
+        }
+
+        assertNotNull("no " + type + " event.", found);
+        return found;
+    }
+}
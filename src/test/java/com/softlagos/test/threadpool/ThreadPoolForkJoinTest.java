@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolForkJoinTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.ResultTask;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for forking and joining subtasks.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolForkJoinTest
+{
+
+    /**
+     * Test that a divide and conquer sum is computed, on pools of one
+     * and of four task threads: a joining task thread runs the
+     * subtasks itself, so even a single one does not deadlock.
+     */
+    @Test
+    public final void testSum()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        long[] values = new long[NR_VALUES];
+        long expected = 0L;
+
+        for(int i = 0; i < NR_VALUES; i++)
+        {
+            values[i] = i;
+            expected += i;
+        }
+
+        for(int nr_threads : new int[] { 1, 4 })
+        {
+            ThreadPool pool = new ThreadPool.Builder("ForkJoinPool")
+                .threads(nr_threads)
+                .build();
+
+            TaskHandle<Long> handle =
+                pool.pushTask(new SumTask(values, 0, NR_VALUES));
+
+            assertEquals(Long.valueOf(expected),
+                         handle.get(10, TimeUnit.SECONDS));
+
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Test that plain tasks may be forked, and joined, from a task.
+     */
+    @Test
+    public final void testPlainTasks()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("PlainForkJoinPool")
+            .threads(1)
+            .build();
+
+        AtomicInteger nr_run = new AtomicInteger();
+        AtomicInteger nr_joined = new AtomicInteger();
+
+        TaskHandle<?> handle = pool.pushTask(new Task()
+        {
+            @Override
+            public void run()
+            {
+                Task[] subtasks = new Task[10];
+
+                for(int i = 0; i < subtasks.length; i++)
+                {
+                    subtasks[i] = new CountTask(nr_run);
+                    subtasks[i].fork();
+                }
+
+                try
+                {
+                    for(Task subtask : subtasks)
+                    {
+                        subtask.join();
+                        nr_joined.incrementAndGet();
+                    }
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        handle.get(5, TimeUnit.SECONDS);
+        assertEquals(10, nr_run.get());
+        assertEquals(10, nr_joined.get());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that the exception of a failed subtask is thrown by its
+     * join, and fails the task that joined it.
+     */
+    @Test
+    public final void testFailure()
+        throws InterruptedException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("FailedForkJoinPool")
+            .threads(2)
+            .build();
+
+        IllegalStateException failure = new IllegalStateException("failed.");
+
+        TaskHandle<Integer> handle = pool.pushTask(new ResultTask<Integer>()
+        {
+            @Override
+            protected Integer compute() throws Exception
+            {
+                return new ResultTask<Integer>()
+                {
+                    @Override
+                    protected Integer compute()
+                    {
+                        throw failure;
+                    }
+                }.fork().join();
+            }
+        });
+
+        try
+        {
+            handle.get(5, TimeUnit.SECONDS);
+            fail("the task did not fail.");
+        }
+        catch(ExecutionException ex)
+        {
+            assertSame(failure, ex.getCause());
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a task may not be forked outside a pool.
+     */
+    @Test
+    public final void testForkOutsidePool()
+    {
+        try
+        {
+            new CountTask(new AtomicInteger()).fork();
+            fail("forked a task outside a pool.");
+        }
+        catch(RuntimeException ex)
+        {
+            // expected.
+        }
+    }
+
+    // ------ Private ------
+
+    private static final int NR_VALUES = 1000000;
+    private static final int THRESHOLD = 1000;
+
+    /** Sums a range of values, splitting it in two while large. */
+    private static final class SumTask extends ResultTask<Long>
+    {
+        SumTask(final long[] values, final int from, final int to)
+        {
+            v_values = values;
+            v_from = from;
+            v_to = to;
+        }
+
+        @Override
+        protected Long compute() throws InterruptedException
+        {
+
+            if( v_to - v_from <= THRESHOLD )
+            {
+                long sum = 0L;
+
+                for(int i = v_from; i < v_to; i++)
+                {
+                    sum += v_values[i];
+                }
+
+                return sum;
+            }
+
+            int middle = (v_from + v_to) >>> 1;
+            TaskHandle<Long> left =
+                new SumTask(v_values, v_from, middle).fork();
+            long right = new SumTask(v_values, middle, v_to).compute();
+
+            return left.join() + right;
+        }
+
+        private final long[] v_values;
+        private final int v_from;
+        private final int v_to;
+    }
+
+    /** Counts its runs. */
+    private static final class CountTask extends Task
+    {
+        CountTask(final AtomicInteger nr_run)
+        {
+            v_nr_run = nr_run;
+        }
+
+        @Override
+        public void run()
+        {
+            v_nr_run.incrementAndGet();
+        }
+
+        private final AtomicInteger v_nr_run;
+    }
+}
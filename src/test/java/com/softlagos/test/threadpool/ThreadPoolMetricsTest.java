@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolMetricsTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskThreadStats;
+import com.softlagos.threadpool.ThreadPool;
+import com.softlagos.threadpool.ThreadPoolMXBean;
+
+/**
+ * Test cases for the metrics of thread pools.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolMetricsTest
+{
+
+    /**
+     * Test that the tasks are counted by outcome, and timed, and
+     * that the counts of the stopped task threads are kept.
+     */
+    @Test
+    public final void testCounts() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("CountedPool")
+            .threads(2)
+            .build();
+
+        for(int i = 0; i < 10; i++)
+        {
+            pool.pushTask(new SleepTask(1, false));
+        }
+
+        pool.pushTask(new SleepTask(0, true));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        ThreadPoolMXBean metrics = pool.getMetrics();
+
+        assertEquals(11, metrics.getSubmittedTaskCount());
+        assertEquals(10, metrics.getCompletedTaskCount());
+        assertEquals(1, metrics.getFailedTaskCount());
+        assertEquals(0, metrics.getRejectedTaskCount());
+        assertEquals(11, count(metrics.getQueueWaitHistogram()));
+        assertEquals(11, count(metrics.getRunTimeHistogram()));
+        assertTrue(metrics.getRunTimeMaxNanos() >=
+                   TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(metrics.getRunTimeP99Nanos() >=
+                   metrics.getRunTimeP50Nanos());
+        assertEquals(0, metrics.getTaskThreadStats().length);
+    }
+
+    /**
+     * Test that the metrics are registered as an MXBean while the
+     * pool runs, and unregistered once it has terminated.
+     */
+    @Test
+    public final void testMXBean() throws Exception
+    {
+        ThreadPool pool = new ThreadPool.Builder("JmxPool")
+            .threads(2)
+            .build();
+
+        for(int i = 0; i < 20; i++)
+        {
+            pool.pushTask(new SleepTask(0, false));
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(
+                "com.softlagos.threadpool:type=ThreadPool,name=\"JmxPool\"");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while( (Long) server.getAttribute(name, "CompletedTaskCount") < 20 &&
+               System.nanoTime() < deadline )
+        {
+            Thread.sleep(1);
+        }
+
+        assertEquals(20L, server.getAttribute(name, "CompletedTaskCount"));
+        assertEquals(2, ((CompositeData[])
+                server.getAttribute(name, "TaskThreadStats")).length);
+
+        ThreadPoolMXBean proxy = JMX.newMXBeanProxy(server, name,
+                ThreadPoolMXBean.class);
+        long completed = 0L;
+
+        for(TaskThreadStats stats : proxy.getTaskThreadStats())
+        {
+            assertTrue(stats.getThreadName().startsWith("JmxPool-"));
+            completed += stats.getCompletedTaskCount();
+        }
+
+        assertEquals(20L, completed);
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(server.isRegistered(name));
+    }
+
+    // ------ Private ------
+
+    /** Sleeps for a while, and then returns or throws. */
+    private static final class SleepTask extends Task
+    {
+        SleepTask(final long msecs, final boolean is_failing)
+        {
+            v_msecs = msecs;
+            v_is_failing = is_failing;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Thread.sleep(v_msecs);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if( v_is_failing )
+            {
+                throw new IllegalStateException("failing on purpose.");
+            }
+        }
+
+        private final long v_msecs;
+        private final boolean v_is_failing;
+    }
+
+    private static long count(final long[] counts)
+    {
+        long count = 0L;
+
+        for(long bucket_count : counts)
+        {
+            count += bucket_count;
+        }
+
+        return count;
+    }
+}
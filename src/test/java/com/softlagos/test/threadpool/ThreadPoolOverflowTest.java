@@ -0,0 +1,412 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolOverflowTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.BlockingTaskQueue;
+import com.softlagos.threadpool.OverflowPolicy;
+import com.softlagos.threadpool.PushResult;
+import com.softlagos.threadpool.RingBufferTaskQueue;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.TaskQueue;
+import com.softlagos.threadpool.TaskRejectedException;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for bounded task queues, and the overflow policies of
+ * pools with a bounded queue.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolOverflowTest
+{
+
+    /**
+     * Test that a full queue refuses a task right away, or once the
+     * offer time has elapsed, and takes it as soon as a consumer
+     * makes room.
+     */
+    @Test
+    public final void testBoundedQueues() throws InterruptedException
+    {
+        for(TaskQueue queue : new TaskQueue[] {
+                new BlockingTaskQueue(2), new RingBufferTaskQueue(2) })
+        {
+            assertEquals(2, queue.getCapacity());
+            assertTrue(queue.offer(new SimpleTask()));
+            assertTrue(queue.offer(new SimpleTask()));
+            assertFalse(queue.offer(new SimpleTask()));
+
+            long start = System.nanoTime();
+
+            assertFalse(queue.offer(new SimpleTask(), 50,
+                                    TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start >=
+                       TimeUnit.MILLISECONDS.toNanos(50));
+
+            // a consumer makes room while the offer waits.
+            Thread consumer = new Thread(() -> {
+
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch(InterruptedException ex)
+                {
+                    // makes room right away.
+                }
+
+                queue.poll();
+
+            });
+            consumer.start();
+
+            assertTrue(queue.offer(new SimpleTask(), 5, TimeUnit.SECONDS));
+            consumer.join();
+            assertEquals(2, queue.size());
+        }
+    }
+
+    /**
+     * Test that a task pushed to a full queue is rejected, and its
+     * handle failed, under the REJECT policy.
+     */
+    @Test
+    public final void testReject() throws InterruptedException
+    {
+        CountDownLatch gate = new CountDownLatch(1);
+        ThreadPool pool = newFullPool("RejectPool", OverflowPolicy.REJECT,
+                                      gate);
+
+        try
+        {
+            Task task = new SimpleTask();
+
+            try
+            {
+                pool.pushTask(task);
+                fail("expected a TaskRejectedException.");
+            }
+            catch(TaskRejectedException ex)
+            {
+                assertEquals(OverflowPolicy.REJECT, ex.getPolicy());
+                assertSame(ex, task.getHandle().getException());
+            }
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a push to a full queue blocks until there is room
+     * under the BLOCK policy, and is rejected once the block time
+     * has elapsed.
+     */
+    @Test
+    public final void testBlock()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        CountDownLatch gate = new CountDownLatch(1);
+        ThreadPool pool = newFullPool("BlockPool", OverflowPolicy.BLOCK,
+                                      gate, 100);
+
+        try
+        {
+            try
+            {
+                pool.pushTask(new SimpleTask());
+                fail("expected a TaskRejectedException.");
+            }
+            catch(TaskRejectedException ex)
+            {
+                assertEquals(OverflowPolicy.BLOCK, ex.getPolicy());
+            }
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        CountDownLatch slow_gate = new CountDownLatch(1);
+        ThreadPool slow_pool = newFullPool("SlowBlockPool",
+                                           OverflowPolicy.BLOCK,
+                                           slow_gate, 5000);
+
+        try
+        {
+            // the running task completes, and makes room, while the
+            // push is blocked.
+            Thread opener = new Thread(() -> {
+
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch(InterruptedException ex)
+                {
+                    // opens the gate right away.
+                }
+
+                slow_gate.countDown();
+
+            });
+            opener.start();
+
+            TaskHandle<?> handle = slow_pool.pushTask(new SimpleTask());
+
+            assertEquals(PushResult.QUEUED_AFTER_BLOCKING,
+                         handle.getPushResult());
+            handle.get(5, TimeUnit.SECONDS);
+            opener.join();
+        }
+        finally
+        {
+            slow_gate.countDown();
+            slow_pool.shutdown();
+        }
+
+        assertTrue(slow_pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a push to a full queue discards the oldest queued
+     * task under the DISCARD_OLDEST policy, and fails it.
+     */
+    @Test
+    public final void testDiscardOldest() throws InterruptedException
+    {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<String>();
+        ThreadPool pool = newGatedPool("DiscardOldestPool",
+                                       OverflowPolicy.DISCARD_OLDEST,
+                                       gate, 0);
+
+        try
+        {
+            FailedListener listener = new FailedListener();
+            Task oldest = new NamedTask("oldest", order);
+            oldest.addListener(listener);
+
+            TaskHandle<?> oldest_handle = pool.pushTask(oldest);
+            pool.pushTask(new NamedTask("second", order));
+            TaskHandle<?> handle = pool.pushTask(new NamedTask("new", order));
+
+            assertEquals(PushResult.QUEUED, oldest_handle.getPushResult());
+            assertEquals(PushResult.QUEUED_DISCARDING_OLDEST,
+                         handle.getPushResult());
+            assertTrue(oldest_handle.isFailed());
+
+            Throwable ex = oldest_handle.getException();
+            assertTrue(ex instanceof TaskRejectedException);
+            assertEquals(OverflowPolicy.DISCARD_OLDEST,
+                         ((TaskRejectedException) ex).getPolicy());
+            assertTrue(listener.v_failed.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, order.size());
+        assertEquals("second", order.get(0));
+        assertEquals("new", order.get(1));
+    }
+
+    /**
+     * Test that a task pushed to a full queue runs on the pushing
+     * thread under the CALLER_RUNS policy.
+     */
+    @Test
+    public final void testCallerRuns() throws InterruptedException
+    {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<String>();
+        ThreadPool pool = newFullPool("CallerRunsPool",
+                                      OverflowPolicy.CALLER_RUNS, gate);
+
+        try
+        {
+            TaskHandle<?> handle = pool.pushTask(new Task()
+            {
+                @Override
+                public void run()
+                {
+                    order.add(Thread.currentThread().getName());
+                }
+            });
+
+            assertEquals(PushResult.RAN_ON_CALLER, handle.getPushResult());
+            assertTrue(handle.isDone());
+            assertFalse(handle.isFailed());
+            assertEquals(1, order.size());
+            assertEquals(Thread.currentThread().getName(), order.get(0));
+        }
+        finally
+        {
+            gate.countDown();
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    /**
+     * @return a pool with a single task thread, held by a task until
+     * the gate is opened, and a queue of two tasks that is empty.
+     */
+    private static ThreadPool newGatedPool(final String name,
+                                           final OverflowPolicy policy,
+                                           final CountDownLatch gate,
+                                           final int block_time)
+        throws InterruptedException
+    {
+        ThreadPool.Builder builder = new ThreadPool.Builder(name)
+            .threads(1)
+            .queueCapacity(2)
+            .overflowPolicy(policy);
+
+        if( block_time > 0 )
+        {
+            builder.overflowBlockTime(block_time);
+        }
+
+        ThreadPool pool = builder.build();
+        CountDownLatch started = new CountDownLatch(1);
+
+        pool.pushTask(new GateTask(started, gate));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return pool;
+    }
+
+    /**
+     * @return a gated pool whose queue is full.
+     */
+    private static ThreadPool newFullPool(final String name,
+                                          final OverflowPolicy policy,
+                                          final CountDownLatch gate,
+                                          final int block_time)
+        throws InterruptedException
+    {
+        ThreadPool pool = newGatedPool(name, policy, gate, block_time);
+
+        for(int i = 0; i < 2; i++)
+        {
+            assertEquals(PushResult.QUEUED,
+                         pool.pushTask(new SimpleTask()).getPushResult());
+        }
+
+        return pool;
+    }
+
+    private static ThreadPool newFullPool(final String name,
+                                          final OverflowPolicy policy,
+                                          final CountDownLatch gate)
+        throws InterruptedException
+    {
+        return newFullPool(name, policy, gate, 0);
+    }
+
+    /** Blocks its thread until the gate is opened. */
+    private static final class GateTask extends Task
+    {
+        GateTask(final CountDownLatch started, final CountDownLatch gate)
+        {
+            v_started = started;
+            v_gate = gate;
+        }
+
+        @Override
+        public void run()
+        {
+            v_started.countDown();
+
+            try
+            {
+                v_gate.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private final CountDownLatch v_started;
+        private final CountDownLatch v_gate;
+    }
+
+    /** Records its name when it runs. */
+    private static final class NamedTask extends Task
+    {
+        NamedTask(final String name, final List<String> order)
+        {
+            v_name = name;
+            v_order = order;
+        }
+
+        @Override
+        public void run()
+        {
+            v_order.add(v_name);
+        }
+
+        private final String v_name;
+        private final List<String> v_order;
+    }
+
+    /** Counts down once told its task failed. */
+    private static final class FailedListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+            v_failed.countDown();
+        }
+
+        final CountDownLatch v_failed = new CountDownLatch(1);
+    }
+}
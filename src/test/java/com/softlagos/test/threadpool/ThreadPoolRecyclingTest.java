@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolRecyclingTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.PushResult;
+import com.softlagos.threadpool.RecyclableTask;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.TaskRecycler;
+import com.softlagos.threadpool.ThreadPool;
+import com.softlagos.threadpool.ThreadPoolConstants;
+
+/**
+ * Test cases for recyclable tasks.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolRecyclingTest
+{
+
+    /**
+     * Test that a task is reset, its listeners removed, and reused
+     * once it has run and its listeners have been notified.
+     */
+    @Test
+    public final void testRecycled() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("RecyclingPool")
+            .threads(1)
+            .build();
+
+        AtomicLong nr_runs = new AtomicLong();
+        TaskRecycler<CountingTask> recycler = new TaskRecycler<CountingTask>(
+                () -> new CountingTask(nr_runs), 1);
+        CountingListener listener = new CountingListener();
+
+        CountingTask task = recycler.obtain();
+        task.v_value = 42;
+        task.addListener(listener);
+
+        assertEquals(PushResult.QUEUED, pool.pushTask(task));
+        assertTrue(task.getHandle() == null);
+        awaitRuns(nr_runs, 1);
+
+        // the thread that ran the task has it in its free list.
+        pool.pushTask(new Obtain(recycler, nr_runs));
+        awaitRuns(nr_runs, 2);
+
+        assertEquals(1, listener.v_nr_done.get());
+        assertSame(task, Obtain.s_obtained);
+        assertEquals(0L, task.v_value);
+
+        pool.pushTask(task);
+        awaitRuns(nr_runs, 3);
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        // its listener has been removed.
+        assertEquals(1, listener.v_nr_done.get());
+    }
+
+    /**
+     * Test that pushing a recyclable task, running it and notifying
+     * its listener allocates nothing, on the pushing thread and on the
+     * task thread, once the recycler holds enough tasks.  Nothing is
+     * left for escape analysis to remove, so it holds with the JIT
+     * compiler off too; but not while a flight recording runs, whose
+     * events are allocated.
+     */
+    @Test
+    public final void testAllocationFree() throws InterruptedException
+    {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+
+        if( ! threads.isThreadAllocatedMemorySupported() || isRecording() )
+        {
+            return;
+        }
+
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for(String queue_type : new String[] {
+                ThreadPoolConstants.QUEUE_TYPE_BLOCKING,
+                ThreadPoolConstants.QUEUE_TYPE_RING_BUFFER })
+        {
+            ThreadPool pool = new ThreadPool.Builder("Alloc-" + queue_type)
+                .threads(1)
+                .queueType(queue_type)
+                .build();
+
+            AtomicLong nr_runs = new AtomicLong();
+            TaskRecycler<CountingTask> recycler =
+                new TaskRecycler<CountingTask>(() -> new CountingTask(nr_runs));
+            CountingListener listener = new CountingListener();
+
+            long pusher_id = Thread.currentThread().getId();
+            long least_pusher = Long.MAX_VALUE;
+            long least_worker = Long.MAX_VALUE;
+
+            // the first rounds fill the recycler, and the lazily
+            // created structures of the pool; the best of the later
+            // rounds keeps a garbage collection, or a compilation,
+            // from failing the test.
+            for(int round = 0; round < NR_ROUNDS; round++)
+            {
+                long pusher_bytes = threads.getThreadAllocatedBytes(pusher_id);
+                long worker_bytes = CountingTask.s_thread_id == 0L ? 0L :
+                    threads.getThreadAllocatedBytes(CountingTask.s_thread_id);
+
+                pushTasks(pool, recycler, listener, nr_runs);
+
+                if( round >= NR_WARMUP_ROUNDS )
+                {
+                    least_pusher = Math.min(least_pusher,
+                            threads.getThreadAllocatedBytes(pusher_id) -
+                            pusher_bytes);
+                    least_worker = Math.min(least_worker,
+                            threads.getThreadAllocatedBytes(
+                                    CountingTask.s_thread_id) - worker_bytes);
+                }
+            }
+
+            assertTrue(queue_type + " pusher allocated [" + least_pusher +
+                       "] bytes.", least_pusher < NR_TASKS);
+            assertTrue(queue_type + " worker allocated [" + least_worker +
+                       "] bytes.", least_worker < NR_TASKS);
+            assertEquals((long) NR_ROUNDS * NR_TASKS,
+                         listener.v_nr_done.get());
+
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Test that a recyclable task cannot be scheduled at a fixed
+     * rate, since it would be reused after its first run.
+     */
+    @Test
+    public final void testFixedRateRejected() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("FixedRatePool")
+            .threads(1)
+            .build();
+
+        try
+        {
+            pool.scheduleAtFixedRate(new CountingTask(new AtomicLong()),
+                                     1, 1, TimeUnit.MILLISECONDS);
+            fail("scheduled a recyclable task at a fixed rate.");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected.
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    private static final int NR_ROUNDS = 10;
+    private static final int NR_WARMUP_ROUNDS = 5;
+    private static final int NR_TASKS = 20000;
+
+    /**
+     * @return true if a flight recording is running in this JVM.
+     */
+    private static boolean isRecording()
+    {
+
+        if( ! FlightRecorder.isInitialized() )
+        {
+            return false;
+        }
+
+        for(Recording recording :
+                FlightRecorder.getFlightRecorder().getRecordings())
+        {
+            if( recording.getState() == RecordingState.RUNNING )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Pushes tasks, obtained from the recycler, in batches, waiting
+     * for each batch to have run so that the recycler does not run
+     * out of tasks.
+     */
+    private static void pushTasks(final ThreadPool pool,
+                                  final TaskRecycler<CountingTask> recycler,
+                                  final TaskListener listener,
+                                  final AtomicLong nr_runs)
+    {
+        long start = nr_runs.get();
+
+        for(int i = 1; i <= NR_TASKS; i++)
+        {
+            CountingTask task = recycler.obtain();
+            task.v_value = i;
+            task.addListener(listener);
+            pool.pushTask(task);
+
+            if( i % 64 == 0 || i == NR_TASKS )
+            {
+
+                while( nr_runs.get() != start + i )
+                {
+                    Thread.onSpinWait();
+                }
+
+            }
+        }
+    }
+
+    private static void awaitRuns(final AtomicLong nr_runs, final long count)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while( nr_runs.get() < count && System.nanoTime() < deadline )
+        {
+            Thread.sleep(1);
+        }
+
+        assertEquals(count, nr_runs.get());
+    }
+
+    /** Counts its runs, and remembers the thread that ran it. */
+    private static class CountingTask extends RecyclableTask
+    {
+        CountingTask(final AtomicLong nr_runs)
+        {
+            v_nr_runs = nr_runs;
+        }
+
+        @Override
+        public void run()
+        {
+            s_thread_id = Thread.currentThread().getId();
+            v_nr_runs.incrementAndGet();
+        }
+
+        @Override
+        protected void reset()
+        {
+            v_value = 0L;
+        }
+
+        static volatile long s_thread_id;
+        private final AtomicLong v_nr_runs;
+        long v_value;
+    }
+
+    /** Obtains a task from a recycler on a task thread. */
+    private static final class Obtain extends CountingTask
+    {
+        Obtain(final TaskRecycler<CountingTask> recycler,
+               final AtomicLong nr_runs)
+        {
+            super(nr_runs);
+            v_recycler = recycler;
+        }
+
+        @Override
+        public void run()
+        {
+            s_obtained = v_recycler.obtain();
+            super.run();
+        }
+
+        static volatile CountingTask s_obtained;
+        private final TaskRecycler<CountingTask> v_recycler;
+    }
+
+    /** Counts the tasks done. */
+    private static final class CountingListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            v_nr_done.incrementAndGet();
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+
+        final AtomicLong v_nr_done = new AtomicLong();
+    }
+}
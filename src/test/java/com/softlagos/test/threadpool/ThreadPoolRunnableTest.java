@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolRunnableTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.Priority;
+import com.softlagos.threadpool.PushResult;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.ThreadPool;
+import com.softlagos.threadpool.ThreadPoolConstants;
+
+/**
+ * Test cases for pushing plain Runnables.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolRunnableTest
+{
+
+    /**
+     * Test that lambdas are run, including ones that fail, which
+     * leave the task thread running.
+     */
+    @Test
+    public final void testLambdas() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("RunnablePool")
+            .threads(2)
+            .build();
+
+        CountDownLatch latch = new CountDownLatch(NR_RUNNABLES);
+
+        for(int i = 0; i < NR_RUNNABLES; i++)
+        {
+
+            if( i % 100 == 0 )
+            {
+                pool.pushTask(() -> {
+                    latch.countDown();
+                    throw new IllegalStateException("failed.");
+                });
+            }
+            else
+            {
+                assertEquals(PushResult.QUEUED,
+                             pool.pushTask(latch::countDown));
+            }
+
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that Runnables and tasks with listeners share the queue,
+     * and that the listeners of the tasks are still notified.
+     */
+    @Test
+    public final void testMixed() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("MixedPool")
+            .threads(1)
+            .build();
+
+        AtomicInteger nr_runnables = new AtomicInteger();
+        CountingListener listener = new CountingListener();
+
+        for(int i = 0; i < NR_RUNNABLES; i++)
+        {
+            pool.pushTask(nr_runnables::incrementAndGet);
+
+            Task task = new EmptyTask();
+            task.addListener(listener);
+            pool.pushTask(task);
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(NR_RUNNABLES, nr_runnables.get());
+        assertEquals(NR_RUNNABLES, listener.v_nr_done.get());
+    }
+
+    /**
+     * Test that a Runnable pushed with a higher priority is run
+     * before the ones already queued.
+     */
+    @Test
+    public final void testPriority() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("PriorityPool")
+            .threads(1)
+            .queueType(ThreadPoolConstants.QUEUE_TYPE_PRIORITY)
+            .build();
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StringBuffer order = new StringBuffer();
+
+        pool.pushTask(() -> {
+            blocked.countDown();
+
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        pool.pushTask(() -> order.append("low "), Priority.LOW);
+        pool.pushTask(() -> order.append("normal "));
+        pool.pushTask(() -> order.append("high "), Priority.HIGH);
+        release.countDown();
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("high normal low ", order.toString());
+    }
+
+    /**
+     * Test that a null Runnable is rejected.
+     */
+    @Test
+    public final void testNull() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("NullPool")
+            .threads(1)
+            .build();
+
+        try
+        {
+            pool.pushTask((Runnable) null);
+            fail("pushed a null runnable.");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected.
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    private static final int NR_RUNNABLES = 1000;
+
+    /** Does nothing. */
+    private static final class EmptyTask extends Task
+    {
+        @Override
+        public void run()
+        {
+        }
+    }
+
+    /** Counts the tasks done. */
+    private static final class CountingListener extends TaskListener
+    {
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            v_nr_done.incrementAndGet();
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+
+        final AtomicInteger v_nr_done = new AtomicInteger();
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolScheduleTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.ThreadPool;
+import com.softlagos.threadpool.TimerHandle;
+
+/**
+ * Test cases for the delayed and periodic scheduling of tasks.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolScheduleTest
+{
+
+    @BeforeClass
+    public static void setUp()
+    {
+        s_pool = new ThreadPool.Builder("TimerPool")
+            .threads(2)
+            .build();
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        s_pool.shutdown();
+    }
+
+    /**
+     * Test that a scheduled task does not run before its delay.
+     */
+    @Test
+    public final void testSchedule() throws InterruptedException
+    {
+        CountingTask task = new CountingTask(1);
+        long start = System.nanoTime();
+
+        TimerHandle timer = s_pool.schedule(task, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(task.v_latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >=
+                   TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(timer.isDone());
+        assertFalse(timer.cancel());
+    }
+
+    /**
+     * Test that a cancelled task does not run.
+     */
+    @Test
+    public final void testCancel() throws InterruptedException
+    {
+        CountingTask task = new CountingTask(1);
+
+        TimerHandle timer = s_pool.schedule(task, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(timer.cancel());
+        assertTrue(timer.isCancelled());
+        assertFalse(task.v_latch.await(300, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test that a periodic task runs until it is cancelled.
+     */
+    @Test
+    public final void testFixedRate() throws InterruptedException
+    {
+        CountingTask task = new CountingTask(3);
+
+        TimerHandle timer = s_pool.scheduleAtFixedRate(task, 0, 20,
+                                                       TimeUnit.MILLISECONDS);
+
+        assertTrue(timer.isPeriodic());
+        assertTrue(task.v_latch.await(5, TimeUnit.SECONDS));
+        assertTrue(timer.cancel());
+
+        // let a push made before the cancel run.
+        Thread.sleep(100);
+        int count = task.v_count.get();
+        Thread.sleep(200);
+        assertEquals(count, task.v_count.get());
+    }
+
+    // ------ Private ------
+
+    /** Counts its runs. */
+    private static final class CountingTask extends Task
+    {
+        CountingTask(final int count)
+        {
+            v_latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void run()
+        {
+            v_count.incrementAndGet();
+            v_latch.countDown();
+        }
+
+        private final CountDownLatch v_latch;
+        private final AtomicInteger v_count = new AtomicInteger();
+    }
+
+    private static ThreadPool s_pool;
+}
@@ -0,0 +1,474 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolShutdownTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.BlockingTaskQueue;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.TaskQueue;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for the shutdown of thread pools.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolShutdownTest
+{
+
+    /**
+     * Test that an idle pool terminates as soon as it is shutdown.
+     */
+    @Test
+    public final void testIdleShutdown() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("IdlePool")
+            .threads(4)
+            .build();
+
+        long start = System.nanoTime();
+        pool.shutdown();
+
+        assertTrue(pool.isShutdown());
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(pool.isTerminated());
+        assertTrue(System.nanoTime() - start <
+                   TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Test that the tasks queued before a shutdown still run, and
+     * that no task is accepted after it.
+     */
+    @Test
+    public final void testDrain() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("DrainPool")
+            .threads(2)
+            .build();
+
+        AtomicInteger nr_run = new AtomicInteger();
+
+        for(int i = 0; i < 100; i++)
+        {
+            pool.pushTask(new SleepTask(nr_run, 1));
+        }
+
+        pool.shutdown();
+
+        try
+        {
+            pool.pushTask(new SleepTask(nr_run, 0));
+            fail("expected a RuntimeException.");
+        }
+        catch(RuntimeException ex)
+        {
+            assertTrue(pool.isShutdown());
+        }
+
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(100, nr_run.get());
+    }
+
+    /**
+     * Test that shutdownNow interrupts the running tasks, and returns
+     * the queued ones without running them.
+     */
+    @Test
+    public final void testShutdownNow() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("StopPool")
+            .threads(1)
+            .listenerDispatchers(1)
+            .build();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        pool.pushTask(new Task()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+
+                try
+                {
+                    new CountDownLatch(1).await();
+                }
+                catch(InterruptedException ex)
+                {
+                    interrupted.countDown();
+                }
+            }
+        });
+
+        AtomicInteger nr_run = new AtomicInteger();
+        TaskHandle<?> queued = pool.pushTask(new SleepTask(nr_run, 0));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Task> tasks = pool.shutdownNow();
+
+        assertEquals(1, tasks.size());
+        assertTrue(queued.isCancelled());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, nr_run.get());
+        assertFalse(pool.getTotalThreads() > 0);
+    }
+
+    /**
+     * Test that closing a pool drains it, waits for it to terminate,
+     * and may be done more than once, even after a shutdown.
+     */
+    @Test
+    public final void testClose()
+    {
+        AtomicInteger nr_run = new AtomicInteger();
+        ThreadPool closed;
+
+        try(ThreadPool pool = new ThreadPool.Builder("ClosePool")
+                .threads(2)
+                .build())
+        {
+
+            for(int i = 0; i < 100; i++)
+            {
+                pool.pushTask(new SleepTask(nr_run, 1));
+            }
+
+            closed = pool;
+        }
+
+        assertTrue(closed.isTerminated());
+        assertEquals(100, nr_run.get());
+
+        closed.close();
+
+        ThreadPool pool = new ThreadPool.Builder("ShutdownClosePool")
+            .threads(1)
+            .build();
+
+        pool.shutdown();
+        pool.close();
+        assertTrue(pool.isTerminated());
+    }
+
+    /**
+     * Test that a close interrupted while waiting stops the pool
+     * right away, and restores the interrupt status.
+     */
+    @Test
+    public final void testCloseInterrupted() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("InterruptedClosePool")
+            .threads(1)
+            .build();
+
+        AtomicInteger nr_run = new AtomicInteger();
+        pool.pushTask(new SleepTask(nr_run, 60000));
+
+        Thread.currentThread().interrupt();
+        long start = System.nanoTime();
+        pool.close();
+
+        assertTrue(Thread.interrupted());
+        assertTrue(pool.isTerminated());
+        assertEquals(0, nr_run.get());
+        assertTrue(System.nanoTime() - start <
+                   TimeUnit.SECONDS.toNanos(5));
+    }
+
+    /**
+     * Test that the listener dispatcher threads stop once the pool
+     * has terminated, even if a listener they were calling back
+     * swallowed an interrupt.
+     */
+    @Test
+    public final void testDispatcherShutdown() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("DispatcherStopPool")
+            .threads(1)
+            .listenerDispatchers(1)
+            .build();
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        Task task = new SleepTask(new AtomicInteger(), 0);
+        task.addListener(new StubbornListener(entered, gate));
+
+        pool.pushTask(task);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+
+        // the listener is still being called back when the task
+        // threads have all stopped.
+        while( ! pool.isTerminated() )
+        {
+            Thread.sleep(1);
+        }
+
+        gate.countDown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a task queued by a producer that checked for the
+     * shutdown just before it, and was preempted until the pool had
+     * terminated, is failed rather than stranded in the queue.
+     */
+    @Test
+    public final void testPushRacingTermination()
+        throws InterruptedException
+    {
+        CountDownLatch offering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DelayedQueue queue = new DelayedQueue(offering, release);
+
+        ThreadPool pool = new ThreadPool.Builder("RacingPool")
+            .threads(1)
+            .queue(queue)
+            .build();
+
+        AtomicInteger nr_run = new AtomicInteger();
+        Task task = new SleepTask(nr_run, 0);
+        AtomicReference<TaskHandle<?>> handle =
+            new AtomicReference<TaskHandle<?>>();
+        AtomicReference<RuntimeException> failure =
+            new AtomicReference<RuntimeException>();
+
+        Thread producer = new Thread(() -> {
+
+            try
+            {
+                handle.set(pool.pushTask(task));
+            }
+            catch(RuntimeException ex)
+            {
+                failure.set(ex);
+            }
+
+        });
+
+        producer.start();
+        assertTrue(offering.await(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        producer.join(5000);
+
+        assertFalse(producer.isAlive());
+        assertTrue(failure.get() != null ||
+                   handle.get().isFailed());
+        assertEquals(0, queue.size());
+        assertEquals(0, nr_run.get());
+    }
+
+    // ------ Private ------
+
+    /**
+     * Blocks its call back until the gate is opened, swallowing any
+     * interrupt meanwhile.
+     */
+    private static final class StubbornListener extends TaskListener
+    {
+        StubbornListener(final CountDownLatch entered,
+                         final CountDownLatch gate)
+        {
+            v_entered = entered;
+            v_gate = gate;
+        }
+
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            v_entered.countDown();
+
+            while( true )
+            {
+                try
+                {
+                    v_gate.await();
+                    return;
+                }
+                catch(InterruptedException ex)
+                {
+                    // swallowed.
+                }
+            }
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+
+        private final CountDownLatch v_entered;
+        private final CountDownLatch v_gate;
+    }
+
+    /**
+     * A queue that holds its first offer back until released, as a
+     * preempted producer would be.
+     */
+    private static final class DelayedQueue implements TaskQueue
+    {
+        DelayedQueue(final CountDownLatch offering,
+                     final CountDownLatch release)
+        {
+            v_offering = offering;
+            v_release = release;
+        }
+
+        @Override
+        public void push(final Task task)
+        {
+            v_queue.push(task);
+        }
+
+        @Override
+        public boolean offer(final Task task)
+        {
+            v_offering.countDown();
+
+            try
+            {
+                v_release.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            return v_queue.offer(task);
+        }
+
+        @Override
+        public boolean offer(final Task task, final long timeout,
+                             final TimeUnit unit)
+            throws InterruptedException
+        {
+            return v_queue.offer(task, timeout, unit);
+        }
+
+        @Override
+        public int offerAll(final Collection<? extends Task> tasks)
+        {
+            return v_queue.offerAll(tasks);
+        }
+
+        @Override
+        public Task pop() throws InterruptedException
+        {
+            return v_queue.pop();
+        }
+
+        @Override
+        public Task pop(final long timeout, final TimeUnit unit)
+            throws InterruptedException
+        {
+            return v_queue.pop(timeout, unit);
+        }
+
+        @Override
+        public Task poll()
+        {
+            return v_queue.poll();
+        }
+
+        @Override
+        public Task pollOldest()
+        {
+            return v_queue.pollOldest();
+        }
+
+        @Override
+        public int drainTo(final Collection<? super Task> tasks,
+                           final int max_tasks)
+        {
+            return v_queue.drainTo(tasks, max_tasks);
+        }
+
+        @Override
+        public void wakeUp()
+        {
+            v_queue.wakeUp();
+        }
+
+        @Override
+        public int size()
+        {
+            return v_queue.size();
+        }
+
+        @Override
+        public int getCapacity()
+        {
+            return v_queue.getCapacity();
+        }
+
+        private final TaskQueue v_queue = new BlockingTaskQueue();
+        private final CountDownLatch v_offering;
+        private final CountDownLatch v_release;
+    }
+
+
+    /** Sleeps for a while, and counts its runs. */
+    private static final class SleepTask extends Task
+    {
+        SleepTask(final AtomicInteger nr_run, final long msecs)
+        {
+            v_nr_run = nr_run;
+            v_msecs = msecs;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Thread.sleep(v_msecs);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            v_nr_run.incrementAndGet();
+        }
+
+        private final AtomicInteger v_nr_run;
+        private final long v_msecs;
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolStealingTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.ResultTask;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.ThreadPool;
+import com.softlagos.threadpool.WaitStrategy;
+
+/**
+ * Test cases for the local deques of the task threads, and the
+ * stealing of tasks from them.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolStealingTest
+{
+
+    /**
+     * Test that the tasks pushed by a task, to the local deque of its
+     * thread, are stolen and run by the other threads while that
+     * thread stays busy.
+     */
+    @Test
+    public final void testStealFromBusyThread()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("StealingPool")
+            .threads(3)
+            .build();
+
+        CountDownLatch done = new CountDownLatch(NR_SUBTASKS);
+        Set<String> thread_names = ConcurrentHashMap.newKeySet();
+
+        TaskHandle<String> handle = pool.pushTask(new ResultTask<String>()
+        {
+            @Override
+            protected String compute() throws InterruptedException
+            {
+                for(int i = 0; i < NR_SUBTASKS; i++)
+                {
+                    pool.pushTask(new NameTask(thread_names, done));
+                }
+
+                // stays busy until the subtasks have all run
+                // elsewhere.
+                assertTrue(done.await(5, TimeUnit.SECONDS));
+                return Thread.currentThread().getName();
+            }
+        });
+
+        String busy_name = handle.get(10, TimeUnit.SECONDS);
+
+        assertFalse(thread_names.isEmpty());
+        assertFalse(thread_names.contains(busy_name));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a task pushed to a local deque, by a task that then
+     * blocks until it has run, always wakes up the other thread,
+     * which finishes a task of its own and goes idle meanwhile.
+     */
+    @Test
+    public final void testWakeUpIdleThief()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ThreadPool pool = new ThreadPool.Builder("WakeUpPool")
+            .threads(2)
+            .waitStrategy(WaitStrategy.BLOCKING)
+            .build();
+
+        for(int i = 0; i < NR_ROUNDS; i++)
+        {
+            // both threads are busy for a while, the second one a
+            // little longer or shorter each round.
+            long busy_nanos = (i % 64) * 250L;
+            CountDownLatch done = new CountDownLatch(1);
+
+            TaskHandle<Boolean> handle = pool.pushTask(
+                    new ResultTask<Boolean>()
+            {
+                @Override
+                protected Boolean compute() throws InterruptedException
+                {
+                    busy(8000L);
+                    pool.pushTask(new NameTask(
+                            ConcurrentHashMap.newKeySet(), done));
+
+                    // only the other thread can run it.
+                    return done.await(5, TimeUnit.SECONDS);
+                }
+            });
+
+            pool.pushTask(new Task()
+            {
+                @Override
+                public void run()
+                {
+                    busy(busy_nanos + 4000L);
+                }
+            });
+
+            assertTrue("round " + i + " hung.",
+                       handle.get(10, TimeUnit.SECONDS));
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that every task of a tree of tasks, each pushing its
+     * children from a task thread, runs exactly once.
+     */
+    @Test
+    public final void testTaskTree() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("TreePool")
+            .threads(4)
+            .build();
+
+        AtomicInteger nr_run = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(NR_TREE_TASKS);
+
+        pool.pushTask(new TreeTask(pool, TREE_DEPTH, nr_run, done));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(NR_TREE_TASKS, nr_run.get());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(NR_TREE_TASKS, nr_run.get());
+    }
+
+    // ------ Private ------
+
+    private static final int NR_SUBTASKS = 100;
+    private static final int NR_ROUNDS = 20000;
+    private static final int TREE_DEPTH = 12;
+    private static final int NR_TREE_TASKS = (1 << (TREE_DEPTH + 1)) - 1;
+
+    /** Spins for the given time. */
+    private static void busy(final long nanos)
+    {
+        long deadline = System.nanoTime() + nanos;
+
+        while( System.nanoTime() - deadline < 0L )
+        {
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Records the name of the thread it runs on. */
+    private static final class NameTask extends Task
+    {
+        NameTask(final Set<String> thread_names, final CountDownLatch done)
+        {
+            v_thread_names = thread_names;
+            v_done = done;
+        }
+
+        @Override
+        public void run()
+        {
+            v_thread_names.add(Thread.currentThread().getName());
+            v_done.countDown();
+        }
+
+        private final Set<String> v_thread_names;
+        private final CountDownLatch v_done;
+    }
+
+    /** Pushes two children, down to a depth. */
+    private static final class TreeTask extends Task
+    {
+        TreeTask(final ThreadPool pool, final int depth,
+                 final AtomicInteger nr_run, final CountDownLatch done)
+        {
+            v_pool = pool;
+            v_depth = depth;
+            v_nr_run = nr_run;
+            v_done = done;
+        }
+
+        @Override
+        public void run()
+        {
+            if( v_depth > 0 )
+            {
+                v_pool.pushTask(
+                        new TreeTask(v_pool, v_depth - 1, v_nr_run, v_done));
+                v_pool.pushTask(
+                        new TreeTask(v_pool, v_depth - 1, v_nr_run, v_done));
+            }
+
+            v_nr_run.incrementAndGet();
+            v_done.countDown();
+        }
+
+        private final ThreadPool v_pool;
+        private final int v_depth;
+        private final AtomicInteger v_nr_run;
+        private final CountDownLatch v_done;
+    }
+}
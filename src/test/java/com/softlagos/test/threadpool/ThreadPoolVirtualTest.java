@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolVirtualTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.OnDemandTaskThread;
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.TaskHandle;
+import com.softlagos.threadpool.TaskListener;
+import com.softlagos.threadpool.ThreadPool;
+
+/**
+ * Test cases for the virtual thread mode.  On a JVM without virtual
+ * threads (Java 17), they test that the mode is refused instead.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolVirtualTest
+{
+
+    /**
+     * Test that many blocking tasks run at the same time, each on
+     * its own virtual thread, and that their listeners are notified.
+     */
+    @Test
+    public final void testBlockingTasks() throws InterruptedException
+    {
+
+        if( ! isVirtualSupported() )
+        {
+            assertUnsupported();
+            return;
+        }
+
+        ThreadPool pool = new ThreadPool.Builder("VirtualPool")
+            .virtual(true)
+            .build();
+
+        assertTrue(pool.isVirtual());
+        assertEquals(0, pool.getTotalThreads());
+
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(NR_TASKS);
+        CountDownLatch notified = new CountDownLatch(NR_TASKS);
+        DoneListener listener = new DoneListener(notified);
+
+        for(int i = 0; i < NR_TASKS; i++)
+        {
+            Task task = new GateTask(started, gate, new AtomicInteger(),
+                                     new AtomicInteger());
+            task.addListener(listener);
+            pool.pushTask(task);
+        }
+
+        // all of them block at the same time.
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        gate.countDown();
+        assertTrue(notified.await(10, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that no more tasks than the maximum concurrency run at
+     * the same time.
+     */
+    @Test
+    public final void testMaxConcurrency()
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+
+        if( ! isVirtualSupported() )
+        {
+            assertUnsupported();
+            return;
+        }
+
+        ThreadPool pool = new ThreadPool.Builder("CappedVirtualPool")
+            .virtual(true)
+            .maxConcurrency(4)
+            .build();
+
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(4);
+        AtomicInteger nr_running = new AtomicInteger();
+        AtomicInteger max_running = new AtomicInteger();
+        TaskHandle<?>[] handles = new TaskHandle<?>[40];
+
+        for(int i = 0; i < handles.length; i++)
+        {
+            handles[i] = pool.pushTask(
+                    new GateTask(started, gate, nr_running, max_running));
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(4, nr_running.get());
+
+        gate.countDown();
+
+        for(TaskHandle<?> handle : handles)
+        {
+            handle.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(4, max_running.get());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that shutdownNow interrupts the tasks running on virtual
+     * threads, and that the pool then terminates.
+     */
+    @Test
+    public final void testShutdownNow() throws InterruptedException
+    {
+
+        if( ! isVirtualSupported() )
+        {
+            assertUnsupported();
+            return;
+        }
+
+        ThreadPool pool = new ThreadPool.Builder("StoppedVirtualPool")
+            .virtual(true)
+            .build();
+
+        CountDownLatch started = new CountDownLatch(10);
+        AtomicInteger nr_running = new AtomicInteger();
+
+        for(int i = 0; i < 10; i++)
+        {
+            pool.pushTask(new GateTask(started, new CountDownLatch(1),
+                                       nr_running, new AtomicInteger()));
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        pool.shutdownNow();
+
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, nr_running.get());
+    }
+
+    /**
+     * Test that a task may be started on its own virtual thread,
+     * outside of any pool.
+     */
+    @Test
+    public final void testStartVirtual() throws InterruptedException
+    {
+
+        if( ! isVirtualSupported() )
+        {
+            assertUnsupported();
+            return;
+        }
+
+        CountDownLatch started = new CountDownLatch(1);
+        Thread thread = OnDemandTaskThread.startVirtual(
+                new GateTask(started, new CountDownLatch(0),
+                             new AtomicInteger(), new AtomicInteger()));
+
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(0, started.getCount());
+    }
+
+    // ------ Private ------
+
+    private static final int NR_TASKS = 10000;
+
+    /**
+     * @return true if the running JVM has virtual threads, looked up
+     * as the pools do.
+     */
+    private static boolean isVirtualSupported()
+    {
+        try
+        {
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        }
+        catch(ReflectiveOperationException | LinkageError ex)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Asserts that the virtual thread mode is refused, and that a
+     * pool of platform threads still works.
+     */
+    private static void assertUnsupported() throws InterruptedException
+    {
+        try
+        {
+            new ThreadPool.Builder("UnsupportedVirtualPool")
+                .virtual(true)
+                .build();
+            fail("built a virtual pool without virtual threads.");
+        }
+        catch(UnsupportedOperationException ex)
+        {
+            // expected.
+        }
+
+        try
+        {
+            OnDemandTaskThread.startVirtual(new SimpleTask());
+            fail("started a virtual thread without virtual threads.");
+        }
+        catch(UnsupportedOperationException ex)
+        {
+            // expected.
+        }
+
+        ThreadPool pool = new ThreadPool.Builder("PlatformPool")
+            .threads(1)
+            .build();
+
+        assertFalse(pool.isVirtual());
+
+        CountDownLatch started = new CountDownLatch(1);
+        pool.pushTask(new GateTask(started, new CountDownLatch(0),
+                                   new AtomicInteger(), new AtomicInteger()));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Blocks until the gate is opened, counting the tasks running
+     * meanwhile.
+     */
+    private static final class GateTask extends Task
+    {
+        GateTask(final CountDownLatch started, final CountDownLatch gate,
+                 final AtomicInteger nr_running,
+                 final AtomicInteger max_running)
+        {
+            v_started = started;
+            v_gate = gate;
+            v_nr_running = nr_running;
+            v_max_running = max_running;
+        }
+
+        @Override
+        public void run()
+        {
+            int nr_running = v_nr_running.incrementAndGet();
+            v_max_running.accumulateAndGet(nr_running, Math::max);
+            v_started.countDown();
+
+            try
+            {
+                v_gate.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                v_nr_running.decrementAndGet();
+            }
+        }
+
+        private final CountDownLatch v_started;
+        private final CountDownLatch v_gate;
+        private final AtomicInteger v_nr_running;
+        private final AtomicInteger v_max_running;
+    }
+
+    /** Counts down once told its task is done. */
+    private static final class DoneListener extends TaskListener
+    {
+        DoneListener(final CountDownLatch notified)
+        {
+            v_notified = notified;
+        }
+
+        @Override
+        public void notifyTaskDone(final String msg)
+        {
+            v_notified.countDown();
+        }
+
+        @Override
+        public void notifyTaskInterrupted(final String msg)
+        {
+        }
+
+        @Override
+        public void notifyTaskFailed(final String msg)
+        {
+        }
+
+        private final CountDownLatch v_notified;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: ThreadPoolWaitStrategyTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.test.threadpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.softlagos.threadpool.Task;
+import com.softlagos.threadpool.ThreadPool;
+import com.softlagos.threadpool.ThreadPoolConstants;
+import com.softlagos.threadpool.WaitStrategy;
+
+/**
+ * Test cases for the wait strategies of idle task threads.
+ *
+ * @author Rubens Gomes
+ */
+public final class ThreadPoolWaitStrategyTest
+{
+
+    /**
+     * Test that every task is run, under every wait strategy and
+     * queue type, whether it is pushed to spinning task threads or to
+     * task threads that have given up spinning and blocked.
+     */
+    @Test
+    public final void testTasksRun() throws InterruptedException
+    {
+        String[] queue_types = { ThreadPoolConstants.QUEUE_TYPE_BLOCKING,
+                                 ThreadPoolConstants.QUEUE_TYPE_RING_BUFFER,
+                                 ThreadPoolConstants.QUEUE_TYPE_PRIORITY };
+
+        for(WaitStrategy strategy : WaitStrategy.values())
+        {
+
+            for(String queue_type : queue_types)
+            {
+                runTasks(strategy, queue_type);
+            }
+
+        }
+    }
+
+    /**
+     * Test that task threads spinning for a long time still see the
+     * pool shutdown, and stop promptly.
+     */
+    @Test
+    public final void testShutdownWhileSpinning() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder("SpinningPool")
+            .threads(2)
+            .waitStrategy(WaitStrategy.BUSY_SPIN)
+            .spinTime(10000000)
+            .build();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        pool.pushTask(new CountDownTask(latch));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    // ------ Private ------
+
+    private static void runTasks(final WaitStrategy strategy,
+                                 final String queue_type)
+        throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool.Builder(strategy + "-" + queue_type)
+            .threads(3)
+            .queueType(queue_type)
+            .waitStrategy(strategy)
+            .spinTime(200)
+            .build();
+
+        CountDownLatch latch = new CountDownLatch(300);
+
+        for(int i = 0; i < 100; i++)
+        {
+            pool.pushTask(new CountDownTask(latch));
+
+            if( i % 10 == 0 )
+            {
+                // long enough for the task threads to stop spinning.
+                Thread.sleep(1);
+            }
+        }
+
+        List<Task> tasks = new ArrayList<Task>();
+
+        for(int i = 0; i < 200; i++)
+        {
+            tasks.add(new CountDownTask(latch));
+        }
+
+        pool.pushTasks(tasks);
+
+        assertTrue(strategy + " " + queue_type,
+                   latch.await(10, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(300, pool.getMetrics().getCompletedTaskCount());
+    }
+
+    /** Counts a latch down. */
+    private static final class CountDownTask extends Task
+    {
+        CountDownTask(final CountDownLatch latch)
+        {
+            v_latch = latch;
+        }
+
+        @Override
+        public void run()
+        {
+            v_latch.countDown();
+        }
+
+        private final CountDownLatch v_latch;
+    }
+}